@@ -0,0 +1,248 @@
+package bench;
+
+import sim.AssemblyException;
+import sim.Assembler;
+import sim.Executable;
+import sim.Machine;
+import sim.SimulationException;
+import sim.Statistics;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Guards the quality of the generated code. Every program under tests/ and
+ * every one of SyntheticPrograms is compiled in each code generation mode of
+ * the compiler, and run in the simulator on a fixed input; its output must
+ * be the expected one, and the instructions it executes, its cycles, loads
+ * and stores are compared with a baseline.
+ *
+ * The files live in benchmarks/perf: name.in is the input of the program
+ * called name (empty if there is none), name.expected its output, and
+ * baseline.properties holds for every program and mode the exit code of the
+ * compiler and the counts of the run, as in
+ *
+ *   tictactoe.colour.instructions=4530
+ *
+ * A program the compiler rejects, like mytest4, only has its exit code. The
+ * benchmark fails if an output is wrong, an exit code changes or a count
+ * grows by more than the threshold (1% unless given); with -update it
+ * instead writes the counts of the run as the new baseline, provided every
+ * output is right.
+ *
+ * The compiler runs in a process of its own, as the Compiler driver is not
+ * in a package this one can import.
+ *
+ * Usage: java bench.GeneratedCodeBenchmark [-update] [-threshold percent]
+ */
+public class GeneratedCodeBenchmark {
+
+    private static final File TESTS = new File("tests");
+    private static final File DATA = new File("benchmarks/perf");
+    private static final File BASELINE = new File(DATA, "baseline.properties");
+
+    // the modes by name, and the options of the compiler for each
+    private static final String[][] MODES = {
+        {"default"},
+        {"colour", "-colour"},
+        {"fold", "-fold"},
+        {"ir", "-ir"},
+        {"O", "-O"},
+        {"O-colour", "-O", "-colour"},
+    };
+
+    private static final String[] COUNTS = {"instructions", "cycles", "loads", "stores"};
+
+    // a runaway program stops here rather than hanging the benchmark
+    private static final long LIMIT = 100000000L;
+
+    public static void main(String[] args) throws Exception {
+        boolean update = false;
+        double threshold = 1.0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-update")) {
+                update = true;
+            } else if (args[i].equals("-threshold") && i + 1 < args.length) {
+                threshold = Double.parseDouble(args[++i]);
+            } else {
+                System.err.println("Usage: java bench.GeneratedCodeBenchmark [-update] [-threshold percent]");
+                System.exit(2);
+            }
+        }
+
+        File work = Files.createTempDirectory("minic-perf").toFile();
+        Map<String, File> programs = new LinkedHashMap<String, File>();
+        File[] tests = TESTS.listFiles();
+        Arrays.sort(tests);
+        for (File f : tests) {
+            if (f.getName().endsWith(".c")) {
+                programs.put(f.getName().substring(0, f.getName().length() - 2), f);
+            }
+        }
+        for (Map.Entry<String, String> e : SyntheticPrograms.all().entrySet()) {
+            File f = new File(work, e.getKey() + ".c");
+            try (FileWriter w = new FileWriter(f)) {
+                w.write(e.getValue());
+            }
+            programs.put(e.getKey(), f);
+        }
+
+        Properties baseline = new Properties();
+        if (BASELINE.exists()) {
+            try (InputStream in = new FileInputStream(BASELINE)) {
+                baseline.load(in);
+            }
+        }
+
+        Map<String, String> results = new TreeMap<String, String>();
+        int failures = 0;
+        System.out.printf("%-20s %-9s %12s %12s %10s %10s%n",
+                          "program", "mode", "instructions", "cycles", "loads", "stores");
+        for (Map.Entry<String, File> e : programs.entrySet()) {
+            String name = e.getKey();
+            File[] assembly = new File[MODES.length];
+            Process[] compilers = new Process[MODES.length];
+            for (int m = 0; m < MODES.length; m++) {
+                assembly[m] = new File(work, name + "." + MODES[m][0] + ".s");
+                compilers[m] = compile(Arrays.copyOfRange(MODES[m], 1, MODES[m].length), e.getValue(),
+                                       assembly[m], new File(work, name + "." + MODES[m][0] + ".log"));
+            }
+            for (int m = 0; m < MODES.length; m++) {
+                String key = name + "." + MODES[m][0];
+                int exit = compilers[m].waitFor();
+                results.put(key + ".exit", String.valueOf(exit));
+                List<String> problems = new ArrayList<String>();
+                String expectedExit = baseline.getProperty(key + ".exit");
+                if (expectedExit != null && !expectedExit.equals(String.valueOf(exit))) {
+                    problems.add("compiler exited with " + exit + ", not " + expectedExit);
+                }
+
+                if (exit != 0) {
+                    System.out.printf("%-20s %-9s %12s%n", name, MODES[m][0], "exit " + exit);
+                } else {
+                    Statistics stats;
+                    try {
+                        stats = run(name, assembly[m], problems);
+                    } catch (AssemblyException | SimulationException ex) {
+                        problems.add(ex.getMessage());
+                        stats = null;
+                    }
+                    if (stats != null) {
+                        long[] counts = {stats.instructions, stats.cycles, stats.loads, stats.stores};
+                        System.out.printf("%-20s %-9s %12d %12d %10d %10d%n",
+                                          name, MODES[m][0], counts[0], counts[1], counts[2], counts[3]);
+                        for (int c = 0; c < COUNTS.length; c++) {
+                            results.put(key + "." + COUNTS[c], String.valueOf(counts[c]));
+                            compare(baseline, key + "." + COUNTS[c], counts[c], threshold, update, problems);
+                        }
+                    }
+                }
+                if (expectedExit == null && !update) {
+                    problems.add("not in the baseline, run with -update");
+                }
+                for (String problem : problems) {
+                    System.out.println("    " + problem);
+                }
+                failures += problems.size();
+            }
+        }
+
+        for (File f : work.listFiles()) {
+            f.delete();
+        }
+        work.delete();
+
+        if (failures != 0) {
+            System.out.println(failures + " failures");
+            System.exit(1);
+        }
+        if (update) {
+            try (PrintWriter w = new PrintWriter(new FileWriter(BASELINE))) {
+                w.println("# the generated code of every program and mode, written by bench.GeneratedCodeBenchmark -update");
+                for (Map.Entry<String, String> r : results.entrySet()) {
+                    w.println(r.getKey() + "=" + r.getValue());
+                }
+            }
+            System.out.println("baseline written to " + BASELINE);
+        }
+    }
+
+    private static Process compile(String[] options, File source, File assembly, File log) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("Compiler");
+        command.addAll(Arrays.asList(options));
+        command.add("-gen");
+        command.add(source.getPath());
+        command.add(assembly.getPath());
+        return new ProcessBuilder(command).redirectErrorStream(true)
+                                          .redirectOutput(log)
+                                          .start();
+    }
+
+    /**
+     * Runs the assembly of the program, adding to problems if its output is
+     * not the expected one.
+     */
+    private static Statistics run(String name, File assembly, List<String> problems)
+            throws IOException, AssemblyException {
+        Executable program;
+        try (Reader r = new FileReader(assembly)) {
+            program = Assembler.assemble(r);
+        }
+        File input = new File(DATA, name + ".in");
+        Reader in = input.exists() ? new FileReader(input) : new StringReader("");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, false, "ISO-8859-1");
+        Statistics stats;
+        try {
+            stats = new Machine(program, new BufferedReader(in), out).run(LIMIT);
+        } finally {
+            in.close();
+        }
+
+        File expected = new File(DATA, name + ".expected");
+        if (!expected.exists()) {
+            problems.add("no expected output in " + expected);
+        } else if (!new String(Files.readAllBytes(expected.toPath()), "ISO-8859-1")
+                        .equals(bytes.toString("ISO-8859-1"))) {
+            problems.add("wrong output");
+        }
+        return stats;
+    }
+
+    private static void compare(Properties baseline, String key, long count, double threshold,
+                                boolean update, List<String> problems) {
+        String value = baseline.getProperty(key);
+        if (value == null || update) {
+            return;
+        }
+        long before = Long.parseLong(value);
+        double change = before == 0 ? (count == 0 ? 0 : 100) : (count - before) * 100.0 / before;
+        if (change > threshold) {
+            problems.add(String.format("%s went from %d to %d (%+.2f%%)", key, before, count, change));
+        } else if (change < -threshold) {
+            System.out.printf("    %s went from %d to %d (%+.2f%%), run with -update%n", key, before, count, change);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package bench;
+
+import util.PhaseProfile;
+
+import java.io.IOException;
+
+/**
+ * What the benchmarks have in common: running the measured work a few times
+ * to warm up the JIT, timing the given number of rounds, keeping the best
+ * one, and counting the bytes allocated on the way through a
+ * util.PhaseProfile, as the compiler does with -profile. The results are
+ * formatted the same way in every benchmark.
+ */
+final class Harness {
+
+    /**
+     * The work measured in one round.
+     */
+    abstract static class Task {
+        abstract void run() throws IOException;
+    }
+
+    /**
+     * What measuring a task found: the time of the fastest round, and the
+     * mean number of bytes a round allocated (-1 if the JVM does not count
+     * them).
+     */
+    static final class Result {
+        final long best;
+        final long allocated;
+
+        private Result(long best, long allocated) {
+            this.best = best;
+            this.allocated = allocated;
+        }
+
+        /**
+         * @return the best time, as "x ms"
+         */
+        String time() {
+            return String.format("%8.1f ms", best / 1e6);
+        }
+
+        /**
+         * @return the best time and the number of units handled per second
+         *         at that pace, as "x ms  y unit/s"
+         */
+        String throughput(long units, String unit) {
+            return String.format("%8.1f ms  %12.0f %s/s", best / 1e6, units / (best / 1e9), unit);
+        }
+
+        /**
+         * @return the allocation per round and per second, as "x MB/run  y MB/s"
+         */
+        String allocation() {
+            if (allocated < 0) {
+                return "(allocation not counted by this JVM)";
+            }
+            return String.format("%8.1f MB/run  %8.1f MB/s", allocated / 1e6, allocated / 1e6 / (best / 1e9));
+        }
+    }
+
+    private Harness() {
+    }
+
+    /**
+     * Runs the tasks one after the other, the given number of times.
+     */
+    static void warmUp(int times, Task... tasks) throws IOException {
+        for (int i = 0; i < times; i++) {
+            for (Task task : tasks) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Runs the task for the given number of rounds.
+     */
+    static Result measure(Task task, int rounds) throws IOException {
+        PhaseProfile profile = new PhaseProfile(true);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < rounds; i++) {
+            profile.begin("round");
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                best = Math.min(best, System.nanoTime() - start);
+                profile.end();
+            }
+        }
+        long allocated = profile.getAllocatedBytes("round");
+        return new Result(best, allocated < 0 ? -1 : allocated / rounds);
+    }
+}
@@ -0,0 +1,72 @@
+package bench;
+
+import lexer.CharArrayScanner;
+import lexer.Scanner;
+import lexer.Token;
+import lexer.Tokeniser;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Measures Tokeniser throughput (tokens per second) on a large program of
+ * ProgramGenerator: through the BufferedReader based Scanner, through the
+ * CharArrayScanner, and through the CharArrayScanner into a TokenTape.
+ *
+ * Usage: java bench.LexerBenchmark [functions] [rounds]
+ */
+public class LexerBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : 3500;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        final File source = File.createTempFile("lexbench", ".c");
+        source.deleteOnExit();
+        Writer writer = new FileWriter(source);
+        ProgramGenerator generator = new ProgramGenerator(1);
+        generator.functions = functions;
+        generator.generate(writer);
+        writer.close();
+
+        System.out.println("input: " + functions + " functions, " + source.length() + " bytes");
+
+        // the tape includes the final EOF token
+        int tokens = new Tokeniser(new CharArrayScanner(source)).tokenise().size() - 1;
+        Harness.Task scanner = new Harness.Task() {
+            void run() throws IOException {
+                lex(new Scanner(source));
+            }
+        };
+        Harness.Task charArray = new Harness.Task() {
+            void run() throws IOException {
+                lex(new CharArrayScanner(source));
+            }
+        };
+        Harness.Task tape = new Harness.Task() {
+            void run() throws IOException {
+                new Tokeniser(new CharArrayScanner(source)).tokenise();
+            }
+        };
+
+        // warm up all paths before measuring
+        Harness.warmUp(2, scanner, charArray, tape);
+
+        report("Scanner", tokens, Harness.measure(scanner, rounds));
+        report("CharArrayScanner", tokens, Harness.measure(charArray, rounds));
+        report("TokenTape", tokens, Harness.measure(tape, rounds));
+    }
+
+    private static void report(String name, int tokens, Harness.Result result) {
+        System.out.printf("%-18s %10d tokens  %s%n", name, tokens, result.throughput(tokens, "tokens"));
+    }
+
+    private static void lex(Scanner scanner) throws IOException {
+        Tokeniser tokeniser = new Tokeniser(scanner);
+        while (tokeniser.nextToken().tokenClass != Token.TokenClass.EOF) {
+        }
+        scanner.close();
+    }
+}
@@ -0,0 +1,137 @@
+package bench;
+
+import ast.Program;
+import lexer.CharArrayScanner;
+import lexer.Token;
+import lexer.TokenTape;
+import lexer.Tokeniser;
+import parser.Parser;
+import util.InternTable;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures Parser throughput, in lines per second, on a program of
+ * ProgramGenerator with the given number of functions. The input is kept in
+ * memory so that the numbers are not dominated by I/O. The Tokeniser and
+ * TokenTape rows include lexing. The Replay row parses tokens lexed
+ * beforehand through nextToken and the lookahead ring of the parser, as
+ * the Tokeniser row does, so it isolates the cost of that path. The Serial
+ * and Parallel rows parse an already lexed tape, the latter with the
+ * function bodies parsed concurrently.
+ *
+ * Usage: java bench.ParserBenchmark [functions] [rounds]
+ */
+public class ParserBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : 1700;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        ProgramGenerator generator = new ProgramGenerator(1);
+        generator.functions = functions;
+        final char[] source = generator.generate().toCharArray();
+        int lineCount = 0;
+        for (char c : source) {
+            if (c == '\n') {
+                lineCount++;
+            }
+        }
+        System.out.println("input: " + lineCount + " lines, " + source.length + " chars");
+
+        final ForkJoinPool pool = new ForkJoinPool();
+        final TokenTape tape = new Tokeniser(new CharArrayScanner(source)).tokenise();
+        Harness.Task tokeniser = new Harness.Task() {
+            void run() {
+                parse(source, false);
+            }
+        };
+        Harness.Task tokenTape = new Harness.Task() {
+            void run() {
+                parse(source, true);
+            }
+        };
+        final Token[] tokens = new Token[tape.size()];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = tape.token(i);
+        }
+        Harness.Task replay = new Harness.Task() {
+            void run() {
+                Parser parser = new Parser(new ReplayTokeniser(tokens, tape.getNames()));
+                check(parser, parser.parse());
+            }
+        };
+        Harness.Task serial = new Harness.Task() {
+            void run() {
+                parse(tape, null);
+            }
+        };
+        Harness.Task parallel = new Harness.Task() {
+            void run() {
+                parse(tape, pool);
+            }
+        };
+
+        Harness.warmUp(3, tokeniser, tokenTape, replay, serial, parallel);
+
+        report("Tokeniser", "lex+parse", lineCount, Harness.measure(tokeniser, rounds));
+        report("TokenTape", "lex+parse", lineCount, Harness.measure(tokenTape, rounds));
+        report("Replay", "parse", lineCount, Harness.measure(replay, rounds));
+        report("Serial", "parse", lineCount, Harness.measure(serial, rounds));
+        report("Parallel", "parse", lineCount, Harness.measure(parallel, rounds));
+        System.out.println("(" + pool.getParallelism() + " threads)");
+        pool.shutdown();
+    }
+
+    private static void report(String name, String phase, int lines, Harness.Result result) {
+        System.out.printf("%-10s %-9s %s%n", name, phase, result.throughput(lines, "lines"));
+    }
+
+    /*
+     * A Tokeniser handing out tokens lexed beforehand, the last one (EOF)
+     * over and over, like a Tokeniser at the end of its input.
+     */
+    private static final class ReplayTokeniser extends Tokeniser {
+        private final Token[] tokens;
+        private int next = 0;
+
+        ReplayTokeniser(Token[] tokens, InternTable names) {
+            super(new CharArrayScanner(""), names);
+            this.tokens = tokens;
+        }
+
+        @Override
+        public Token nextToken() {
+            Token t = tokens[next];
+            if (next < tokens.length - 1) {
+                next++;
+            }
+            return t;
+        }
+    }
+
+    private static Program parse(TokenTape tape, ForkJoinPool pool) {
+        Parser parser = new Parser(tape);
+        return check(parser, pool == null ? parser.parse() : parser.parseParallel(pool));
+    }
+
+    private static Program check(Parser parser, Program program) {
+        if (parser.getErrorCount() != 0) {
+            throw new IllegalStateException("synthetic input does not parse");
+        }
+        return program;
+    }
+
+    private static Program parse(char[] source, boolean tape) {
+        Tokeniser tokeniser = new Tokeniser(new CharArrayScanner(source));
+        Parser parser;
+        if (tape) {
+            TokenTape tokens = tokeniser.tokenise();
+            parser = new Parser(tokens);
+        } else {
+            parser = new Parser(tokeniser);
+        }
+        return check(parser, parser.parse());
+    }
+}
@@ -0,0 +1,171 @@
+package bench;
+
+import ast.ASTNode;
+import ast.Program;
+import gen.CodeGenerator;
+import lexer.CharArrayScanner;
+import lexer.Token;
+import lexer.TokenTape;
+import lexer.Tokeniser;
+import parser.Parser;
+import sem.SemanticAnalyzer;
+import util.InternTable;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Measures every phase of the compiler on the same program held in memory,
+ * each in the unit it works in: the Tokeniser in tokens, Parser.parse (from
+ * an already lexed tape) and SemanticAnalyzer.analyze in AST nodes, and
+ * CodeGenerator.emitProgram in instructions emitted, per second. Along with
+ * the time, the bytes each phase allocates are counted by util.PhaseProfile,
+ * as with the -profile option of the compiler, and reported per run and per
+ * second, to follow the allocation rate of the phases across releases.
+ *
+ * The input is a program of ProgramGenerator with the given number of
+ * functions. Every phase is warmed up and then run the given number of
+ * rounds, reporting the best time and the mean allocation.
+ *
+ * Usage: java bench.PhaseBenchmark [functions] [rounds]
+ */
+public class PhaseBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : 850;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        ProgramGenerator generator = new ProgramGenerator(1);
+        generator.functions = functions;
+        final char[] source = generator.generate().toCharArray();
+        final TokenTape tape = new Tokeniser(new CharArrayScanner(source)).tokenise();
+        final Program program = parse(tape);
+        if (analyse(program, tape.getNames()) != 0) {
+            throw new IllegalStateException("synthetic input has semantic errors");
+        }
+        StringWriter assembly = new StringWriter();
+        new CodeGenerator().emitProgram(program, new PrintWriter(assembly));
+
+        long tokens = tape.size() - 1;
+        long nodes = countNodes(program);
+        long instructions = countInstructions(assembly.toString());
+        System.out.println("input: " + functions + " functions, " + tokens + " tokens, " + nodes + " AST nodes, "
+                           + instructions + " instructions");
+
+        final PrintWriter discard = new PrintWriter(new Writer() {
+            public void write(char[] buffer, int offset, int length) {
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        });
+
+        measure("lex", tokens, "tokens", new Harness.Task() {
+            void run() {
+                Tokeniser tokeniser = new Tokeniser(new CharArrayScanner(source));
+                while (tokeniser.nextToken().tokenClass != Token.TokenClass.EOF) {
+                }
+            }
+        }, rounds);
+        measure("parse", nodes, "nodes", new Harness.Task() {
+            void run() {
+                parse(tape);
+            }
+        }, rounds);
+        measure("semantic", nodes, "nodes", new Harness.Task() {
+            void run() {
+                analyse(program, tape.getNames());
+            }
+        }, rounds);
+        measure("codegen", instructions, "instructions", new Harness.Task() {
+            void run() {
+                new CodeGenerator().emitProgram(program, discard);
+            }
+        }, rounds);
+    }
+
+    private static void measure(String name, long units, String unit, Harness.Task phase, int rounds)
+            throws IOException {
+        Harness.warmUp(5, phase);
+        Harness.Result result = Harness.measure(phase, rounds);
+        System.out.printf("%-9s %s  %s%n", name, result.throughput(units, unit), result.allocation());
+    }
+
+    private static Program parse(TokenTape tape) {
+        Parser parser = new Parser(tape);
+        Program program = parser.parse();
+        if (parser.getErrorCount() != 0) {
+            throw new IllegalStateException("synthetic input does not parse");
+        }
+        return program;
+    }
+
+    private static int analyse(Program program, InternTable names) {
+        SemanticAnalyzer sem = new SemanticAnalyzer();
+        sem.setNames(names);
+        return sem.analyze(program);
+    }
+
+    // the lines of the assembly that are instructions, not labels or directives
+    private static long countInstructions(String assembly) {
+        long count = 0;
+        for (String line : assembly.split("\n")) {
+            String s = line.trim();
+            if (!s.isEmpty() && !s.startsWith("#") && !s.startsWith(".") && !s.endsWith(":")
+                    && line.startsWith(" ")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Counts the nodes reachable from the program through the public fields
+     * of the nodes, and the lists in them, each node once.
+     */
+    static long countNodes(Program program) {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        Deque<Object> work = new ArrayDeque<Object>();
+        work.push(program);
+        while (!work.isEmpty()) {
+            Object node = work.pop();
+            if (!seen.add(node)) {
+                continue;
+            }
+            for (Field f : node.getClass().getFields()) {
+                if (Modifier.isStatic(f.getModifiers())) {
+                    continue;
+                }
+                Object value;
+                try {
+                    value = f.get(node);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+                if (value instanceof ASTNode) {
+                    work.push(value);
+                } else if (value instanceof List) {
+                    for (Object element : (List<?>) value) {
+                        if (element instanceof ASTNode) {
+                            work.push(element);
+                        }
+                    }
+                }
+            }
+        }
+        return seen.size();
+    }
+}
@@ -0,0 +1,552 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates random Mini-C programs of any size for scaling tests, the same
+ * program for the same seed and sizes. The programs follow grammar/ebnf.txt
+ * and pass semantic analysis, and both code generators handle them: no
+ * pointer is indexed and no struct is assigned whole. They can also be run,
+ * with the same output as a C compiler gives: every loop counts up to a
+ * small bound, a function only calls those before it, arrays are indexed by
+ * literals or loop counters within their bounds, division is by non-zero
+ * literals, the only pointers are those main allocates, and no local is
+ * read before it is written.
+ *
+ * The sizes are the public fields:
+ *
+ *   functions       the number of functions besides main
+ *   structs         struct declarations, each with fields of the basic
+ *                   types, an int array, a pointer to its own type and,
+ *                   for all but the first, an earlier struct
+ *   depth           how deeply ifs, whiles and blocks nest; every
+ *                   function reaches it through a chain of ifs and
+ *                   blocks, off which statements nest at most 3 levels
+ *                   deeper, and every nested block declares an int of
+ *                   its own, read and written by the blocks inside it
+ *   expressionSize  the number of operators in an expression
+ *   arrays          global arrays of ints and chars
+ *
+ * A function takes about 60 lines at the default sizes, so 100000
+ * functions make a program of millions of lines. As the program is written as it is
+ * generated, its size is not bounded by memory.
+ *
+ * So that the running time stays small, every fourth function is a leaf
+ * that calls nothing but the library, and the others only call leaves.
+ * Calls are statements, alone or as the right-hand side of an assignment,
+ * so that the order C leaves unspecified in an expression does not matter.
+ *
+ * Usage: java bench.ProgramGenerator [-seed n] [-functions n] [-structs n]
+ *            [-depth n] [-expr n] [-arrays n] [output.c]
+ */
+public class ProgramGenerator {
+
+    public int functions = 100;
+    public int structs = 4;
+    public int depth = 3;
+    public int expressionSize = 6;
+    public int arrays = 4;
+
+    private static final int LOCAL_INTS = 4;
+    private static final int LOCAL_ARRAY = 8;
+    private static final int FIELD_ARRAY = 4;
+    private static final int MAX_BOUND = 4;
+    private static final int BRANCH_DEPTH = 3;
+
+    private final Random random;
+
+    private Writer out;
+    private int indent;
+    // how many levels the statement being written is off the spine
+    private int branch;
+
+    // the fields of every struct, in order
+    private final List<List<Field>> structFields = new ArrayList<List<Field>>();
+    // the size of every global array, ints first
+    private final List<Integer> arraySizes = new ArrayList<Integer>();
+    private int intArrays;
+
+    // the function being written, and the loop counters and block locals in scope
+    private int function;
+    private final List<String> counters = new ArrayList<String>();
+    private final List<String> blockLocals = new ArrayList<String>();
+    private final List<Boolean> returnsInt = new ArrayList<Boolean>();
+
+    private static final int INT = 0;
+    private static final int CHAR = 1;
+    private static final int INT_ARRAY = 2;
+    private static final int POINTER = 3;
+    private static final int STRUCT = 4;
+
+    private static class Field {
+        final String name;
+        final int kind;
+        // the struct of a STRUCT or POINTER field
+        final int struct;
+
+        Field(String name, int kind, int struct) {
+            this.name = name;
+            this.kind = kind;
+            this.struct = struct;
+        }
+    }
+
+    public ProgramGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        long seed = 0;
+        ProgramGenerator defaults = new ProgramGenerator(0);
+        int[] sizes = {defaults.functions, defaults.structs, defaults.depth, defaults.expressionSize, defaults.arrays};
+        String output = null;
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (!option.startsWith("-") && i == args.length - 1) {
+                output = option;
+                continue;
+            }
+            if (i + 1 == args.length) {
+                usage();
+            }
+            long value = 0;
+            try {
+                value = Long.parseLong(args[++i]);
+            } catch (NumberFormatException e) {
+                usage();
+            }
+            switch (option) {
+                case "-seed": seed = value; break;
+                case "-functions": sizes[0] = (int) value; break;
+                case "-structs": sizes[1] = (int) value; break;
+                case "-depth": sizes[2] = (int) value; break;
+                case "-expr": sizes[3] = (int) value; break;
+                case "-arrays": sizes[4] = (int) value; break;
+                default: usage(); break;
+            }
+        }
+
+        ProgramGenerator generator = new ProgramGenerator(seed);
+        generator.functions = sizes[0];
+        generator.structs = sizes[1];
+        generator.depth = sizes[2];
+        generator.expressionSize = sizes[3];
+        generator.arrays = sizes[4];
+        Writer writer = output == null
+            ? new BufferedWriter(new OutputStreamWriter(System.out))
+            : new BufferedWriter(new FileWriter(output));
+        generator.generate(writer);
+        writer.close();
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java bench.ProgramGenerator [-seed n] [-functions n] [-structs n]"
+                           + " [-depth n] [-expr n] [-arrays n] [output.c]");
+        System.exit(2);
+    }
+
+    public String generate() {
+        StringWriter writer = new StringWriter();
+        try {
+            generate(writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    public void generate(Writer writer) throws IOException {
+        out = writer;
+        line("#include \"minic-stdlib.h\"");
+        for (int s = 0; s < structs; s++) {
+            structDecl(s);
+        }
+        for (int a = 0; a < arrays; a++) {
+            arraySizes.add(8 << random.nextInt(4));
+        }
+        intArrays = (arrays + 1) / 2;
+        for (int a = 0; a < arrays; a++) {
+            line((a < intArrays ? "int" : "char") + " g" + a + "[" + arraySizes.get(a) + "];");
+        }
+        line("int gi;");
+        line("char gc;");
+        for (int s = 0; s < structs; s++) {
+            line("struct s" + s + " * gp" + s + ";");
+        }
+        for (function = 0; function < functions; function++) {
+            funDecl();
+        }
+        mainDecl();
+        out.flush();
+    }
+
+    private void structDecl(int s) throws IOException {
+        List<Field> fields = new ArrayList<Field>();
+        fields.add(new Field("f0", INT, s));
+        fields.add(new Field("f1", CHAR, s));
+        int extra = random.nextInt(4);
+        for (int f = 2; f < 2 + extra; f++) {
+            int kind = random.nextInt(s > 0 ? 5 : 4);
+            fields.add(new Field("f" + f, kind, kind == STRUCT ? random.nextInt(s) : s));
+        }
+        structFields.add(fields);
+
+        line("struct s" + s + " {");
+        indent++;
+        for (Field f : fields) {
+            switch (f.kind) {
+                case INT: line("int " + f.name + ";"); break;
+                case CHAR: line("char " + f.name + ";"); break;
+                case INT_ARRAY: line("int " + f.name + "[" + FIELD_ARRAY + "];"); break;
+                case POINTER: line("struct s" + s + " * " + f.name + ";"); break;
+                default: line("struct s" + f.struct + " " + f.name + ";"); break;
+            }
+        }
+        indent--;
+        line("};");
+    }
+
+    private void funDecl() throws IOException {
+        boolean isInt = random.nextInt(4) != 0;
+        returnsInt.add(isInt);
+        line(function % 4 == 0 ? "/* a leaf: calls nothing but the library */" : "// calls leaves only");
+        line((isInt ? "int" : "void") + " fn" + function + "(int a, char b) {");
+        indent++;
+        for (int i = 0; i < LOCAL_INTS; i++) {
+            line("int x" + i + ";");
+        }
+        line("char c;");
+        for (int d = 0; d < depth; d++) {
+            line("int i" + d + ";");
+        }
+        line("int v[" + LOCAL_ARRAY + "];");
+        int localStruct = structs > 0 ? random.nextInt(structs) : -1;
+        if (localStruct >= 0) {
+            line("struct s" + localStruct + " t;");
+        }
+        line("x0 = 0;");
+        line("while (x0 < " + LOCAL_ARRAY + ") {");
+        indent++;
+        line("v[x0] = x0 * " + random.nextInt(10) + " + a;");
+        line("x0 = x0 + 1;");
+        indent--;
+        line("}");
+        line("c = b;");
+        if (localStruct >= 0) {
+            line("t.f0 = a;");
+            line("t.f1 = b;");
+        }
+        for (int i = 0; i < LOCAL_INTS; i++) {
+            line("x" + i + " = a * " + random.nextInt(10) + " + " + random.nextInt(100) + ";");
+        }
+        block(0, true);
+        if (isInt) {
+            line("return " + intExpr(expressionSize) + ";");
+        }
+        indent--;
+        line("}");
+    }
+
+    private void mainDecl() throws IOException {
+        line("void main() {");
+        indent++;
+        for (int s = 0; s < structs; s++) {
+            line("gp" + s + " = (struct s" + s + " *) mcmalloc(sizeof(struct s" + s + "));");
+        }
+        line("gi = 1;");
+        line("gc = 'm';");
+        for (int f = Math.max(0, functions - 4); f < functions; f++) {
+            String call = "fn" + f + "(" + (f + 1) + ", 'a')";
+            line(returnsInt.get(f) ? "print_i(" + call + ");" : call + ";");
+            line("print_c(' ');");
+        }
+        indent--;
+        line("}");
+    }
+
+    /*
+     * The statements of a block at the given depth of nesting. On the spine,
+     * one of them nests further until the depth is reached.
+     */
+    private void block(int level, boolean spine) throws IOException {
+        int count = 1 + random.nextInt(3);
+        int spineAt = spine && level < depth ? random.nextInt(count) : -1;
+        for (int s = 0; s < count; s++) {
+            if (s == spineAt) {
+                spine(level);
+            } else {
+                statement(level);
+            }
+        }
+    }
+
+    // an if or a block on the spine, which no loop encloses
+    private void spine(int level) throws IOException {
+        line(random.nextBoolean() ? "if (" + intExpr(expressionSize) + ") {" : "{");
+        nested(level, true);
+        line("}");
+    }
+
+    private void statement(int level) throws IOException {
+        int choice = random.nextInt(level < depth && branch < BRANCH_DEPTH ? 7 : 4);
+        switch (choice) {
+            case 0: case 1:
+                line(intLvalue() + " = " + intExpr(expressionSize) + ";");
+                break;
+            case 2:
+                line(charLvalue() + " = " + charExpr() + ";");
+                break;
+            case 3:
+                call();
+                break;
+            case 4: {
+                line("if (" + intExpr(expressionSize) + ") {");
+                nested(level, false);
+                if (random.nextBoolean()) {
+                    line("} else {");
+                    nested(level, false);
+                }
+                line("}");
+                break;
+            }
+            case 5: {
+                String i = "i" + level;
+                int bound = 1 + random.nextInt(MAX_BOUND);
+                line(i + " = 0;");
+                String cond = i + " < " + bound;
+                if (random.nextBoolean()) {
+                    cond += " && " + intExpr(expressionSize / 2);
+                }
+                line("while (" + cond + ") {");
+                counters.add(i);
+                nested(level, false);
+                counters.remove(counters.size() - 1);
+                indent++;
+                line(i + " = " + i + " + 1;");
+                indent--;
+                line("}");
+                break;
+            }
+            default:
+                line("{");
+                nested(level, false);
+                line("}");
+                break;
+        }
+    }
+
+    private void nested(int level, boolean spine) throws IOException {
+        indent++;
+        String local = "y" + (level + 1);
+        line("int " + local + ";");
+        line(local + " = " + intExpr(expressionSize) + ";");
+        blockLocals.add(local);
+        if (!spine) {
+            branch++;
+        }
+        block(level + 1, spine);
+        if (!spine) {
+            branch--;
+        }
+        blockLocals.remove(blockLocals.size() - 1);
+        indent--;
+    }
+
+    // a function that may be called from the current one, -1 if none
+    private int callee() {
+        if (function % 4 == 0) {
+            return -1;
+        }
+        return 4 * random.nextInt((function + 3) / 4);
+    }
+
+    private void call() throws IOException {
+        int callee = callee();
+        int kind = random.nextInt(callee >= 0 ? 4 : 3);
+        if (kind == 0) {
+            line("print_i(" + intExpr(expressionSize) + ");");
+        } else if (kind == 1) {
+            line("print_c(" + charExpr() + ");");
+        } else if (kind == 2) {
+            line("print_s((char*)\"s" + function + "\");");
+        } else if (!returnsInt.get(callee)) {
+            line(funCall(callee) + ";");
+        } else if (random.nextBoolean()) {
+            line("print_i(" + funCall(callee) + ");");
+        } else {
+            line(intLvalue() + " = " + funCall(callee) + ";");
+        }
+    }
+
+    private String funCall(int f) {
+        return "fn" + f + "(" + intExpr(expressionSize / 2) + ", " + charExpr() + ")";
+    }
+
+    private String intExpr(int size) {
+        if (size <= 0) {
+            return intLeaf();
+        }
+        int left = random.nextInt(size);
+        int right = size - 1 - left;
+        switch (random.nextInt(12)) {
+            case 0: return intExpr(left) + " + " + intExpr(right);
+            case 1: return intExpr(left) + " - " + intExpr(right);
+            case 2: return "(" + intExpr(left) + ") * " + intLeaf();
+            case 3: return "(" + intExpr(size - 1) + ") / " + (1 + random.nextInt(9));
+            case 4: return "(" + intExpr(size - 1) + ") % " + (1 + random.nextInt(9));
+            case 5: {
+                String[] ops = {" < ", " > ", " <= ", " >= ", " == ", " != "};
+                return "(" + intExpr(left) + ops[random.nextInt(ops.length)] + intExpr(right) + ")";
+            }
+            case 6:
+                return "(" + intExpr(left) + (random.nextBoolean() ? " && " : " || ") + intExpr(right) + ")";
+            case 7:
+                return "-(" + intExpr(size - 1) + ")";
+            case 8:
+                return "(" + charExpr() + " == " + charExpr() + ")";
+            case 9:
+                return "(int) " + charExpr();
+            default:
+                return "(" + intExpr(left) + " + " + intExpr(right) + ")";
+        }
+    }
+
+    private String intLeaf() {
+        switch (random.nextInt(9)) {
+            case 0: return String.valueOf(random.nextInt(100));
+            case 1: return "a";
+            case 2: return "gi";
+            case 3: return "v[" + index(LOCAL_ARRAY) + "]";
+            case 4:
+                if (intArrays > 0) {
+                    int g = random.nextInt(intArrays);
+                    return "g" + g + "[" + index(arraySizes.get(g)) + "]";
+                }
+                return "x0";
+            case 5:
+                if (structs > 0) {
+                    return random.nextBoolean() ? "t.f0" : pointerField(INT);
+                }
+                return "x1";
+            case 6:
+                return "(int) c";
+            case 7:
+                if (!blockLocals.isEmpty()) {
+                    return blockLocals.get(random.nextInt(blockLocals.size()));
+                }
+                return "x2";
+            default:
+                return "x" + random.nextInt(LOCAL_INTS);
+        }
+    }
+
+    private String intLvalue() {
+        switch (random.nextInt(6)) {
+            case 0: return "gi";
+            case 1: return "v[" + index(LOCAL_ARRAY) + "]";
+            case 2:
+                if (intArrays > 0) {
+                    int g = random.nextInt(intArrays);
+                    return "g" + g + "[" + index(arraySizes.get(g)) + "]";
+                }
+                return "x0";
+            case 3:
+                if (structs > 0) {
+                    return random.nextBoolean() ? "t.f0" : pointerField(INT);
+                }
+                return "x1";
+            case 4:
+                if (!blockLocals.isEmpty()) {
+                    return blockLocals.get(random.nextInt(blockLocals.size()));
+                }
+                return "x2";
+            default:
+                return "x" + random.nextInt(LOCAL_INTS);
+        }
+    }
+
+    private String charExpr() {
+        switch (random.nextInt(6)) {
+            case 0: return "'" + (char) ('a' + random.nextInt(26)) + "'";
+            case 1: return "b";
+            case 2: return "gc";
+            case 3:
+                if (arrays > intArrays) {
+                    int g = intArrays + random.nextInt(arrays - intArrays);
+                    return "g" + g + "[" + index(arraySizes.get(g)) + "]";
+                }
+                return "c";
+            case 4:
+                if (structs > 0) {
+                    return random.nextBoolean() ? "t.f1" : pointerField(CHAR);
+                }
+                return "c";
+            default:
+                return "c";
+        }
+    }
+
+    private String charLvalue() {
+        switch (random.nextInt(4)) {
+            case 0: return "gc";
+            case 1:
+                if (arrays > intArrays) {
+                    int g = intArrays + random.nextInt(arrays - intArrays);
+                    return "g" + g + "[" + index(arraySizes.get(g)) + "]";
+                }
+                return "c";
+            case 2:
+                if (structs > 0) {
+                    return pointerField(CHAR);
+                }
+                return "c";
+            default:
+                return "c";
+        }
+    }
+
+    /*
+     * An int or char field of the struct a global pointer points to, reached
+     * through embedded structs and int arrays.
+     */
+    private String pointerField(int kind) {
+        int struct = random.nextInt(structs);
+        StringBuilder sb = new StringBuilder("(*gp").append(struct).append(')');
+        while (true) {
+            List<Field> fields = structFields.get(struct);
+            Field f = fields.get(random.nextInt(fields.size()));
+            if (f.kind == STRUCT) {
+                sb.append('.').append(f.name);
+                struct = f.struct;
+            } else if (kind == INT && f.kind == INT_ARRAY) {
+                return sb.append('.').append(f.name).append('[').append(index(FIELD_ARRAY)).append(']').toString();
+            } else {
+                return sb.append('.').append(kind == INT ? "f0" : "f1").toString();
+            }
+        }
+    }
+
+    // an index into an array of the given size: a literal, or a loop counter
+    private String index(int size) {
+        if (!counters.isEmpty() && random.nextBoolean()) {
+            return counters.get(random.nextInt(counters.size()));
+        }
+        return String.valueOf(random.nextInt(size));
+    }
+
+    private void line(String s) throws IOException {
+        for (int i = 0; i < indent; i++) {
+            out.write("    ");
+        }
+        out.write(s);
+        out.write('\n');
+    }
+}
@@ -0,0 +1,66 @@
+package bench;
+
+import ast.Program;
+import lexer.CharArrayScanner;
+import lexer.Tokeniser;
+import parser.Parser;
+import sem.SemanticAnalyzer;
+import util.InternTable;
+
+import java.io.IOException;
+
+/**
+ * Measures name analysis on programs of ProgramGenerator made of deeply
+ * nested blocks: every function nests ifs and blocks to the given depth,
+ * each declaring a variable and using variables from its own and outer
+ * blocks, as well as locals of the function and globals.
+ *
+ * Usage: java bench.ScopeBenchmark [functions] [depth] [rounds]
+ */
+public class ScopeBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        ProgramGenerator generator = new ProgramGenerator(1);
+        generator.functions = functions;
+        generator.depth = depth;
+        Parser parser = new Parser(new Tokeniser(new CharArrayScanner(generator.generate())));
+        Program program = parser.parse();
+        if (parser.getErrorCount() != 0) {
+            throw new IllegalStateException("synthetic input does not parse");
+        }
+        System.out.println("input: " + functions + " functions, " + depth + " nested blocks deep");
+
+        NameAnalysis analysis = new NameAnalysis(program, parser.getNames());
+        Harness.warmUp(5, analysis);
+        analysis.best = Long.MAX_VALUE;
+        Harness.measure(analysis, rounds);
+        System.out.printf("name analysis %8.1f ms%n", analysis.best / 1e6);
+    }
+
+    /*
+     * Analyses the program, keeping the best time of its name analysis pass.
+     */
+    private static final class NameAnalysis extends Harness.Task {
+        private final Program program;
+        private final InternTable names;
+        long best = Long.MAX_VALUE;
+
+        NameAnalysis(Program program, InternTable names) {
+            this.program = program;
+            this.names = names;
+        }
+
+        void run() {
+            SemanticAnalyzer sem = new SemanticAnalyzer();
+            sem.setNames(names);
+            if (sem.analyze(program) != 0) {
+                throw new IllegalStateException("synthetic input has semantic errors");
+            }
+            best = Math.min(best, sem.getPassTimes().get("NameAnalysisVisitor"));
+        }
+    }
+}
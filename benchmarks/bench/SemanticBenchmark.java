@@ -0,0 +1,107 @@
+package bench;
+
+import ast.Program;
+import lexer.CharArrayScanner;
+import lexer.Tokeniser;
+import parser.Parser;
+import sem.SemanticAnalyzer;
+import util.InternTable;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures semantic analysis on a large program of ProgramGenerator, with
+ * structs, arrays, pointers, calls and nested control flow: the three
+ * separate passes, with the time of each, against the fused single pass and
+ * against the passes with the type checking done in parallel.
+ * The program is parsed once and analysed repeatedly; the time of every
+ * pass is the best it took over the rounds.
+ *
+ * Usage: java bench.SemanticBenchmark [functions] [rounds]
+ */
+public class SemanticBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : 1700;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        ProgramGenerator generator = new ProgramGenerator(1);
+        generator.functions = functions;
+        Parser parser = new Parser(new Tokeniser(new CharArrayScanner(generator.generate())));
+        Program program = parser.parse();
+        if (parser.getErrorCount() != 0) {
+            throw new IllegalStateException("synthetic input does not parse");
+        }
+        System.out.println("input: " + program.funDecls.size() + " functions");
+
+        ForkJoinPool pool = new ForkJoinPool();
+        InternTable names = parser.getNames();
+        Analysis sequential = new Analysis(program, names, SEQUENTIAL, pool);
+        Analysis fused = new Analysis(program, names, FUSED, pool);
+        Analysis parallel = new Analysis(program, names, PARALLEL, pool);
+
+        Harness.warmUp(5, sequential, fused, parallel);
+
+        report("three passes", sequential, rounds);
+        report("fused", fused, rounds);
+        report("parallel", parallel, rounds);
+        System.out.println("(" + pool.getParallelism() + " threads)");
+        pool.shutdown();
+    }
+
+    private static final int SEQUENTIAL = 0;
+    private static final int FUSED = 1;
+    private static final int PARALLEL = 2;
+
+    /*
+     * One way of analysing the program, which keeps the best time of each of
+     * its passes.
+     */
+    private static final class Analysis extends Harness.Task {
+        private final Program program;
+        private final InternTable names;
+        private final int kind;
+        private final ForkJoinPool pool;
+        final Map<String, Long> bestPasses = new LinkedHashMap<String, Long>();
+
+        Analysis(Program program, InternTable names, int kind, ForkJoinPool pool) {
+            this.program = program;
+            this.names = names;
+            this.kind = kind;
+            this.pool = pool;
+        }
+
+        void run() {
+            SemanticAnalyzer sem = new SemanticAnalyzer();
+            sem.setNames(names);
+            int errors;
+            if (kind == FUSED) {
+                errors = sem.analyzeFused(program);
+            } else if (kind == PARALLEL) {
+                errors = sem.analyzeParallel(program, pool);
+            } else {
+                errors = sem.analyze(program);
+            }
+            if (errors != 0) {
+                throw new IllegalStateException("synthetic input has semantic errors");
+            }
+            for (Map.Entry<String, Long> pass : sem.getPassTimes().entrySet()) {
+                Long best = bestPasses.get(pass.getKey());
+                if (best == null || pass.getValue() < best) {
+                    bestPasses.put(pass.getKey(), pass.getValue());
+                }
+            }
+        }
+    }
+
+    private static void report(String name, Analysis analysis, int rounds) throws IOException {
+        analysis.bestPasses.clear();
+        System.out.printf("%-14s %s%n", name, Harness.measure(analysis, rounds).time());
+        for (Map.Entry<String, Long> pass : analysis.bestPasses.entrySet()) {
+            System.out.printf("  %-26s %8.1f ms%n", pass.getKey(), pass.getValue() / 1e6);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package bench;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Scaled-up Mini-C programs for measuring the code the compiler generates,
+ * each exercising something the programs under tests/ do little of: array
+ * loops, nested loops over a matrix, heap allocated structs reached through
+ * pointers, char arrays, and deep recursion, and programs of
+ * ProgramGenerator, which mix all of these at random. They read no input;
+ * the first ones print a checksum of what they computed.
+ */
+public class SyntheticPrograms {
+
+    /**
+     * @return the programs by name, at a size where each runs a few million
+     *         instructions
+     */
+    public static Map<String, String> all() {
+        Map<String, String> programs = new LinkedHashMap<String, String>();
+        programs.put("synthetic-sort", sort(400));
+        programs.put("synthetic-matrix", matrix(24));
+        programs.put("synthetic-list", list(3000));
+        programs.put("synthetic-sieve", sieve(20000));
+        programs.put("synthetic-recursion", recursion(20));
+        programs.put("generated-1", generated(1, 40));
+        programs.put("generated-2", generated(2, 40));
+        return programs;
+    }
+
+    // a program of ProgramGenerator with the given number of functions
+    static String generated(long seed, int functions) {
+        ProgramGenerator generator = new ProgramGenerator(seed);
+        generator.functions = functions;
+        return generator.generate();
+    }
+
+    // insertion sort of pseudo random numbers
+    static String sort(int n) {
+        return "int a[" + n + "];\n"
+             + "int seed;\n"
+             + "int next() {\n"
+             + "  seed = (seed * 1103 + 12345) % 65536;\n"
+             + "  return seed;\n"
+             + "}\n"
+             + "void main() {\n"
+             + "  int i; int j; int x; int sum;\n"
+             + "  seed = 42;\n"
+             + "  i = 0;\n"
+             + "  while (i < " + n + ") { a[i] = next(); i = i + 1; }\n"
+             + "  i = 1;\n"
+             + "  while (i < " + n + ") {\n"
+             + "    x = a[i];\n"
+             + "    j = i - 1;\n"
+             + "    while (j >= 0 && a[j] > x) { a[j + 1] = a[j]; j = j - 1; }\n"
+             + "    a[j + 1] = x;\n"
+             + "    i = i + 1;\n"
+             + "  }\n"
+             + "  sum = 0; i = 0;\n"
+             + "  while (i < " + n + ") { sum = (sum * 31 + a[i]) % 1000003; i = i + 1; }\n"
+             + "  print_i(a[0]); print_c(' '); print_i(a[" + (n - 1) + "]); print_c(' '); print_i(sum);\n"
+             + "  print_s((char*)\"\\n\");\n"
+             + "}\n";
+    }
+
+    // the product of two n by n matrices stored by rows
+    static String matrix(int n) {
+        int cells = n * n;
+        return "int a[" + cells + "];\n"
+             + "int b[" + cells + "];\n"
+             + "int c[" + cells + "];\n"
+             + "void main() {\n"
+             + "  int i; int j; int k; int s; int trace;\n"
+             + "  i = 0;\n"
+             + "  while (i < " + cells + ") { a[i] = i % 7 - 3; b[i] = (i * 5) % 11; i = i + 1; }\n"
+             + "  i = 0;\n"
+             + "  while (i < " + n + ") {\n"
+             + "    j = 0;\n"
+             + "    while (j < " + n + ") {\n"
+             + "      s = 0; k = 0;\n"
+             + "      while (k < " + n + ") { s = s + a[i * " + n + " + k] * b[k * " + n + " + j]; k = k + 1; }\n"
+             + "      c[i * " + n + " + j] = s;\n"
+             + "      j = j + 1;\n"
+             + "    }\n"
+             + "    i = i + 1;\n"
+             + "  }\n"
+             + "  trace = 0; s = 0; i = 0;\n"
+             + "  while (i < " + n + ") { trace = trace + c[i * " + (n + 1) + "]; i = i + 1; }\n"
+             + "  i = 0;\n"
+             + "  while (i < " + cells + ") { s = (s * 7 + c[i]) % 1000003; i = i + 1; }\n"
+             + "  print_i(trace); print_c(' '); print_i(s);\n"
+             + "  print_s((char*)\"\\n\");\n"
+             + "}\n";
+    }
+
+    // a linked list of structs on the heap, built, reversed and walked
+    static String list(int n) {
+        return "struct node { int value; struct node * next; };\n"
+             + "struct node * push(struct node * head, int value) {\n"
+             + "  struct node * n;\n"
+             + "  n = (struct node *) mcmalloc(sizeof(struct node));\n"
+             + "  (*n).value = value;\n"
+             + "  (*n).next = head;\n"
+             + "  return n;\n"
+             + "}\n"
+             + "void main() {\n"
+             + "  struct node * head; struct node * rev; struct node * next; struct node * p;\n"
+             + "  int i; int sum; int max;\n"
+             + "  head = (struct node *) mcmalloc(sizeof(struct node));\n"
+             + "  (*head).value = 0;\n"
+             + "  i = 1;\n"
+             + "  while (i < " + n + ") { head = push(head, (i * 37) % 101); i = i + 1; }\n"
+             + "  rev = head; head = (*head).next; i = 1;\n"
+             + "  while (i < " + n + ") {\n"
+             + "    next = (*head).next; (*head).next = rev; rev = head; head = next; i = i + 1;\n"
+             + "  }\n"
+             + "  sum = 0; max = 0; i = 0; p = rev;\n"
+             + "  while (i < " + n + ") {\n"
+             + "    if ((*p).value > max) { max = (*p).value; }\n"
+             + "    sum = (sum * 3 + (*p).value) % 1000003; p = (*p).next; i = i + 1;\n"
+             + "  }\n"
+             + "  print_i(max); print_c(' '); print_i(sum);\n"
+             + "  print_s((char*)\"\\n\");\n"
+             + "}\n";
+    }
+
+    // the primes below n, marked in a char array
+    static String sieve(int n) {
+        return "char composite[" + n + "];\n"
+             + "void main() {\n"
+             + "  int i; int j; int count; int last;\n"
+             + "  i = 2;\n"
+             + "  while (i < " + n + ") { composite[i] = 'n'; i = i + 1; }\n"
+             + "  i = 2; count = 0; last = 0;\n"
+             + "  while (i < " + n + ") {\n"
+             + "    if (composite[i] == 'n') {\n"
+             + "      count = count + 1; last = i;\n"
+             + "      j = i + i;\n"
+             + "      while (j < " + n + ") { composite[j] = 'y'; j = j + i; }\n"
+             + "    }\n"
+             + "    i = i + 1;\n"
+             + "  }\n"
+             + "  print_i(count); print_c(' '); print_i(last);\n"
+             + "  print_s((char*)\"\\n\");\n"
+             + "}\n";
+    }
+
+    // naive recursive Fibonacci numbers and a recursive sum of digits
+    static String recursion(int n) {
+        return "int fib(int n) {\n"
+             + "  if (n < 2) { return n; }\n"
+             + "  return fib(n - 1) + fib(n - 2);\n"
+             + "}\n"
+             + "int digits(int n) {\n"
+             + "  if (n == 0) { return 0; }\n"
+             + "  return n % 10 + digits(n / 10);\n"
+             + "}\n"
+             + "void main() {\n"
+             + "  int i; int sum;\n"
+             + "  i = 0; sum = 0;\n"
+             + "  while (i <= " + n + ") { sum = sum + digits(fib(i)); i = i + 1; }\n"
+             + "  print_i(fib(" + n + ")); print_c(' '); print_i(sum);\n"
+             + "  print_s((char*)\"\\n\");\n"
+             + "}\n";
+    }
+}
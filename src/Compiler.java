@@ -0,0 +1,496 @@
+import ast.ASTPrinter;
+import ast.ConstantFolder;
+import ast.FunDecl;
+import ast.Program;
+import gen.CodeGenerator;
+import gen.GraphColouringAllocator;
+import gen.LinearScanAllocator;
+import gen.RegisterAllocator;
+import ir.Function;
+import ir.Lowering;
+import ir.Module;
+import ir.MipsEmitter;
+import ir.PassManager;
+import lexer.CharArrayScanner;
+import lexer.Token;
+import lexer.TokenTape;
+import lexer.Tokeniser;
+import parser.Parser;
+import sem.SemanticAnalyzer;
+import util.PhaseProfile;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Alternative compiler driver exposing the optional compilation modes.
+ * Main is kept as the reference entry point; this driver accepts the same
+ * passes and returns the same exit codes, preceded by any of the options:
+ *
+ *   -tape   lex the whole input into a TokenTape first and parse from it
+ *   -stream for -parser, -sem and -gen, handle the global declarations first
+ *           and then parse, analyse and emit one function at a time, so that
+ *           only one function body is held in memory. Semantic errors are
+ *           then reported function by function rather than pass by pass.
+ *   -parallel parse and type check the function bodies concurrently,
+ *           implies -tape
+ *   -fused  run name analysis, struct and type checking as a single pass;
+ *           the error messages then come out in source order
+ *   -colour allocate registers by graph colouring rather than linear scan:
+ *           slower to compile, with fewer moves and, weighted by loop
+ *           depth, cheaper spill code
+ *   -regstats print the number of virtual registers spilled, of the spill
+ *           loads and stores inserted and of the moves eliminated by the
+ *           register allocator for every function
+ *   -ir     generate code through the three-address IR (see the ir
+ *           package) rather than straight from the AST. Unoptimised, the
+ *           IR recomputes the address of an array element in every block
+ *           that uses it, so its loops run slower than those of the default
+ *           back end; it is meant as the input of -O
+ *   -O      optimise the IR in SSA form with constant propagation, strength
+ *           reduction, value numbering and dead code elimination, implies -ir
+ *   -fold   fold the constant expressions of the AST before generating code
+ *   -foldstats print the number of AST nodes folded, implies -fold
+ *   -profile file  write to file, as JSON, the wall time, CPU time, bytes
+ *           allocated and sum of the heap pool peaks of every phase (see
+ *           PhaseProfile): lexing, parsing, each semantic visitor, constant
+ *           folding, and code generation or lowering, optimisation and
+ *           emission. The other options are profiled as they are: without
+ *           -tape the tokens are lexed as the parser asks for them, so
+ *           lexing is counted in parsing. CPU time and allocation only count
+ *           the thread running the compiler, so with -parallel the parsing
+ *           and type checking done by the pool are left out; these phases
+ *           are marked callingThreadOnly.
+ */
+public class Compiler {
+    private static final int FILE_NOT_FOUND = 2;
+    private static final int MODE_FAIL      = 254;
+    private static final int LEXER_FAIL     = 250;
+    private static final int PARSER_FAIL    = 245;
+    private static final int SEM_FAIL       = 240;
+    private static final int PASS           = 0;
+
+    private enum Mode {
+        LEXER, PARSER, AST, SEMANTICANALYSIS, GEN
+    }
+
+    private static void usage() {
+        System.out.println("Usage: java "+Compiler.class.getSimpleName()+" [options] pass inputfile outputfile");
+        System.out.println("where pass is either: -lexer, -parser, -ast, -sem or -gen");
+        System.out.println("and options are any of:");
+        System.out.println("  -tape    lex the whole input into a token tape before parsing");
+        System.out.println("  -stream  parse, analyse and emit one function at a time");
+        System.out.println("  -parallel parse and type check function bodies in parallel (implies -tape)");
+        System.out.println("  -fused   run the semantic analysis as a single pass");
+        System.out.println("  -colour  allocate registers by graph colouring");
+        System.out.println("  -regstats print register allocation statistics for every function");
+        System.out.println("  -ir      generate code through the three-address intermediate representation,");
+        System.out.println("           slower than the default back end unless optimised with -O");
+        System.out.println("  -O       optimise the intermediate representation (implies -ir)");
+        System.out.println("  -fold    fold constant expressions before generating code");
+        System.out.println("  -foldstats print the number of nodes folded (implies -fold)");
+        System.out.println("  -profile file  write the time and memory of every phase to file as JSON");
+        System.exit(-1);
+    }
+
+    private static PhaseProfile profile = new PhaseProfile(false);
+    private static File profileFile;
+
+    // writes the profile, if one is asked for
+    private static void writeProfile() {
+        if (profileFile == null)
+            return;
+        try {
+            PrintWriter writer = new PrintWriter(profileFile);
+            writer.print(profile.toJson());
+            writer.close();
+        } catch (FileNotFoundException e) {
+            System.out.println("File "+profileFile.toString()+" cannot be written.");
+        }
+    }
+
+    private static void exit(int status) {
+        writeProfile();
+        System.exit(status);
+    }
+
+    public static void main(String[] args) {
+
+        boolean tape = false;
+        boolean stream = false;
+        boolean parallel = false;
+        boolean fused = false;
+        boolean colour = false;
+        boolean regstats = false;
+        boolean ir = false;
+        boolean optimise = false;
+        boolean fold = false;
+        boolean foldstats = false;
+
+        int arg = 0;
+        while (arg < args.length - 3) {
+            switch (args[arg]) {
+                case "-tape": tape = true; break;
+                case "-stream": stream = true; break;
+                case "-parallel": parallel = true; tape = true; break;
+                case "-fused": fused = true; break;
+                case "-colour": colour = true; break;
+                case "-regstats": regstats = true; break;
+                case "-ir": ir = true; break;
+                case "-O": optimise = true; ir = true; break;
+                case "-fold": fold = true; break;
+                case "-foldstats": foldstats = true; fold = true; break;
+                case "-profile":
+                    if (++arg >= args.length - 3)
+                        usage();
+                    profileFile = new File(args[arg]);
+                    break;
+                default:
+                    usage();
+                    break;
+            }
+            arg++;
+        }
+
+        if (args.length - arg != 3)
+            usage();
+        if (profileFile != null)
+            profile = new PhaseProfile(true);
+
+        Mode mode = null;
+        switch (args[arg]) {
+            case "-lexer": mode = Mode.LEXER; break;   case "-parser": mode = Mode.PARSER; break;
+            case "-ast":   mode = Mode.AST; break;     case "-sem":    mode = Mode.SEMANTICANALYSIS; break;
+            case "-gen":   mode = Mode.GEN; break;
+            default:
+                usage();
+                break;
+        }
+
+        File inputFile = new File(args[arg + 1]);
+        File outputFile = new File(args[arg + 2]);
+
+        CharArrayScanner scanner;
+        try {
+            scanner = new CharArrayScanner(inputFile);
+        } catch (FileNotFoundException e) {
+            System.out.println("File "+inputFile.toString()+" does not exist.");
+            exit(FILE_NOT_FOUND);
+            return;
+        } catch (IOException e) {
+            e.printStackTrace();
+            exit(FILE_NOT_FOUND);
+            return;
+        }
+
+        Tokeniser tokeniser = new Tokeniser(scanner);
+        TokenTape tokens = null;
+        if (tape) {
+            profile.begin("lex");
+            try {
+                tokens = tokeniser.tokenise();
+            } finally {
+                profile.end();
+            }
+        }
+
+        if (mode == Mode.LEXER) {
+            if (tokens != null) {
+                for (int i = 0; tokens.tokenClass(i) != Token.TokenClass.EOF; i++)
+                    System.out.println(tokens.token(i));
+            } else {
+                for (Token t = tokeniser.nextToken(); t.tokenClass != Token.TokenClass.EOF; t = tokeniser.nextToken())
+                    System.out.println(t);
+            }
+            if (tokeniser.getErrorCount() == 0)
+                System.out.println("Lexing: pass");
+            else
+                System.out.println("Lexing: failed ("+tokeniser.getErrorCount()+" errors)");
+            exit(tokeniser.getErrorCount() == 0 ? PASS : LEXER_FAIL);
+        }
+
+        Parser parser = tokens != null ? new Parser(tokens) : new Parser(tokeniser);
+
+        RegisterAllocator allocator = colour ? new GraphColouringAllocator() : new LinearScanAllocator();
+        if (regstats)
+            allocator.setStatistics(System.out);
+
+        if (stream && mode != Mode.AST) {
+            ConstantFolder folder = fold ? new ConstantFolder() : null;
+            stream(mode, parser, outputFile, allocator, folder, ir, optimise ? PassManager.standard() : null);
+            if (foldstats)
+                System.out.println("Constant folding: " + folder.getFoldedCount() + " nodes folded");
+            writeProfile();
+            return;
+        }
+
+        ForkJoinPool pool = parallel ? new ForkJoinPool() : null;
+        Program programAst;
+        profile.begin("parse", parallel);
+        try {
+            programAst = parallel ? parser.parseParallel(pool) : parser.parse();
+        } finally {
+            profile.end();
+        }
+
+        if (mode == Mode.PARSER) {
+            if (parser.getErrorCount() == 0)
+                System.out.println("Parsing: pass");
+            else
+                System.out.println("Parsing: failed ("+parser.getErrorCount()+" errors)");
+            exit(parser.getErrorCount() == 0 ? PASS : PARSER_FAIL);
+        } else if (mode == Mode.AST) {
+            if (parser.getErrorCount() == 0) {
+                System.out.println("Parsing: pass");
+                System.out.println("Printing out AST:");
+                StringWriter sw = new StringWriter();
+                PrintWriter writer = new PrintWriter(sw);
+                programAst.accept(new ASTPrinter(writer));
+                writer.flush();
+                System.out.print(sw.toString());
+                writer.close();
+            } else
+                System.out.println("Parsing: failed ("+parser.getErrorCount()+" errors)");
+            exit(parser.getErrorCount() == 0 ? PASS : PARSER_FAIL);
+        } else if (mode == Mode.SEMANTICANALYSIS) {
+            if (parser.getErrorCount() == 0) {
+                SemanticAnalyzer sem = new SemanticAnalyzer();
+                sem.setNames(parser.getNames());
+                int errors = analyze(sem, programAst, fused, pool);
+                if (errors == 0)
+                    System.out.println("Semantic analysis: Pass");
+                else
+                    System.out.println("Semantic analysis: Failed (" + errors + ")");
+                exit(errors == 0 ? PASS : SEM_FAIL);
+            } else
+                exit(PARSER_FAIL);
+        } else if (mode == Mode.GEN) {
+            if (parser.getErrorCount() > 0)
+                exit(PARSER_FAIL);
+            SemanticAnalyzer sem = new SemanticAnalyzer();
+            sem.setNames(parser.getNames());
+            int errors = analyze(sem, programAst, fused, pool);
+            if (errors > 0)
+                exit(SEM_FAIL);
+            if (fold) {
+                ConstantFolder folder = new ConstantFolder();
+                profile.begin("fold");
+                try {
+                    folder.fold(programAst);
+                } finally {
+                    profile.end();
+                }
+                if (foldstats)
+                    System.out.println("Constant folding: " + folder.getFoldedCount() + " nodes folded");
+            }
+            try {
+                if (ir) {
+                    Module module;
+                    profile.begin("lower");
+                    try {
+                        module = new Lowering().lower(programAst);
+                    } finally {
+                        profile.end();
+                    }
+                    if (optimise) {
+                        profile.begin("optimise");
+                        try {
+                            PassManager.standard().run(module);
+                        } finally {
+                            profile.end();
+                        }
+                    }
+                    profile.begin("emit");
+                    try {
+                        new MipsEmitter(allocator).emitProgram(module, outputFile);
+                    } finally {
+                        profile.end();
+                    }
+                } else {
+                    profile.begin("codegen");
+                    try {
+                        new CodeGenerator(allocator).emitProgram(programAst, outputFile);
+                    } finally {
+                        profile.end();
+                    }
+                }
+            } catch (FileNotFoundException e) {
+                System.out.println("File "+outputFile.toString()+" does not exist.");
+                exit(FILE_NOT_FOUND);
+            }
+            writeProfile();
+        } else {
+            exit(MODE_FAIL);
+        }
+    }
+
+    private static int analyze(SemanticAnalyzer sem, Program programAst, boolean fused, ForkJoinPool pool) {
+        sem.setProfile(profile);
+        if (fused)
+            return sem.analyzeFused(programAst);
+        else if (pool != null)
+            return sem.analyzeParallel(programAst, pool);
+        else
+            return sem.analyze(programAst);
+    }
+
+    /*
+     * Streaming compilation. After the first parse or semantic error nothing
+     * more is emitted, but parsing goes on to report every parse error, and
+     * analysis goes on until the first parse error, so that the outcome is
+     * the same as in the whole-program mode.
+     */
+    private static void stream(Mode mode, Parser parser, File outputFile, RegisterAllocator allocator,
+                               ConstantFolder folder, boolean ir, PassManager passes) {
+        Program declarations;
+        profile.begin("parse");
+        try {
+            declarations = parser.parseDeclarations();
+        } finally {
+            profile.end();
+        }
+
+        SemanticAnalyzer sem = null;
+        int errors = 0;
+        if (mode != Mode.PARSER && parser.getErrorCount() == 0) {
+            sem = new SemanticAnalyzer();
+            sem.setNames(parser.getNames());
+            sem.setProfile(profile);
+            errors += sem.analyzeDeclarations(declarations);
+        }
+        CodeGenerator codegen = null;
+        Lowering lowering = null;
+        MipsEmitter emitter = null;
+        if (mode == Mode.GEN && parser.getErrorCount() == 0 && errors == 0) {
+            try {
+                if (ir) {
+                    lowering = new Lowering();
+                    emitter = new MipsEmitter(allocator);
+                    Module module;
+                    profile.begin("lower");
+                    try {
+                        module = lowering.lowerDeclarations(declarations);
+                    } finally {
+                        profile.end();
+                    }
+                    profile.begin("emit");
+                    try {
+                        emitter.beginProgram(module, outputFile);
+                    } finally {
+                        profile.end();
+                    }
+                } else {
+                    codegen = new CodeGenerator(allocator);
+                    profile.begin("codegen");
+                    try {
+                        codegen.beginProgram(declarations, outputFile);
+                    } finally {
+                        profile.end();
+                    }
+                }
+            } catch (FileNotFoundException e) {
+                System.out.println("File "+outputFile.toString()+" does not exist.");
+                exit(FILE_NOT_FOUND);
+            }
+        }
+
+        while (parser.hasFunDecl()) {
+            FunDecl fd;
+            profile.begin("parse");
+            try {
+                fd = parser.parseFunDecl();
+            } finally {
+                profile.end();
+            }
+            if (parser.getErrorCount() > 0) {
+                sem = null;
+            }
+            if (sem != null && fd != null) {
+                errors += sem.analyzeFunDecl(fd);
+                if (folder != null && errors == 0) {
+                    profile.begin("fold");
+                    try {
+                        folder.fold(fd);
+                    } finally {
+                        profile.end();
+                    }
+                }
+                if (codegen != null && errors == 0) {
+                    profile.begin("codegen");
+                    try {
+                        codegen.emitFunDecl(fd);
+                    } finally {
+                        profile.end();
+                    }
+                } else if (emitter != null && errors == 0) {
+                    Function f;
+                    profile.begin("lower");
+                    try {
+                        f = lowering.lower(fd);
+                    } finally {
+                        profile.end();
+                    }
+                    if (passes != null) {
+                        profile.begin("optimise");
+                        try {
+                            passes.run(f);
+                        } finally {
+                            profile.end();
+                        }
+                    }
+                    profile.begin("emit");
+                    try {
+                        emitter.emitFunction(f);
+                    } finally {
+                        profile.end();
+                    }
+                }
+            }
+        }
+        profile.begin("parse");
+        try {
+            parser.parseEnd();
+        } finally {
+            profile.end();
+        }
+
+        if (codegen != null || emitter != null) {
+            profile.begin(codegen != null ? "codegen" : "emit");
+            try {
+                if (codegen != null)
+                    codegen.endProgram();
+                else
+                    emitter.endProgram();
+            } finally {
+                profile.end();
+            }
+            if (parser.getErrorCount() > 0 || errors > 0) {
+                // do not leave a partial program behind
+                outputFile.delete();
+            }
+        }
+
+        if (mode == Mode.PARSER) {
+            if (parser.getErrorCount() == 0)
+                System.out.println("Parsing: pass");
+            else
+                System.out.println("Parsing: failed ("+parser.getErrorCount()+" errors)");
+            exit(parser.getErrorCount() == 0 ? PASS : PARSER_FAIL);
+        } else if (parser.getErrorCount() > 0) {
+            exit(PARSER_FAIL);
+        } else if (mode == Mode.SEMANTICANALYSIS) {
+            if (errors == 0)
+                System.out.println("Semantic analysis: Pass");
+            else
+                System.out.println("Semantic analysis: Failed (" + errors + ")");
+            exit(errors == 0 ? PASS : SEM_FAIL);
+        } else if (errors > 0) {
+            exit(SEM_FAIL);
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package ast;
+
+import java.util.List;
+
+/**
+ * Constant folding and algebraic simplification of a type checked program.
+ *
+ * Arithmetic and comparisons between literals, sizeof and the casts of
+ * character literals to int are replaced by their value, and the identities
+ * x + 0, x - 0, x * 1, x / 1 and x * 0 are applied, as is && or || with a
+ * literal first operand that decides the result. Nothing that calls a
+ * function is dropped unless it would not be evaluated, nor is a division by
+ * zero folded.
+ *
+ * The AST is rewritten in place: the expressions changed are rebuilt, with
+ * their types, and put back in the blocks and argument lists holding them,
+ * so that declarations keep their identity. Every node replaced by a
+ * simpler one counts as folded.
+ */
+public class ConstantFolder implements ASTVisitor<ASTNode> {
+
+    private int folded;
+
+    /**
+     * Folds the functions of a program.
+     */
+    public void fold(Program p) {
+        visitProgram(p);
+    }
+
+    public void fold(FunDecl fd) {
+        visitFunDecl(fd);
+    }
+
+    /**
+     * @return the number of nodes folded so far
+     */
+    public int getFoldedCount() {
+        return folded;
+    }
+
+    private Expr fold(Expr e) {
+        return (Expr) e.accept(this);
+    }
+
+    private Stmt fold(Stmt s) {
+        return (Stmt) s.accept(this);
+    }
+
+    private static IntLiteral literal(int value) {
+        IntLiteral il = new IntLiteral(value);
+        il.type = BaseType.INT;
+        return il;
+    }
+
+    private static boolean isLiteral(Expr e, int value) {
+        return e instanceof IntLiteral && ((IntLiteral) e).number == value;
+    }
+
+    // whether evaluating e does nothing but compute its value
+    private static boolean isPure(Expr e) {
+        if (e instanceof FunCallExpr) {
+            return false;
+        } else if (e instanceof BinOp) {
+            return isPure(((BinOp) e).operandOne) && isPure(((BinOp) e).operandTwo);
+        } else if (e instanceof ArrayAccessExpr) {
+            return isPure(((ArrayAccessExpr) e).base) && isPure(((ArrayAccessExpr) e).index);
+        } else if (e instanceof FieldAccessExpr) {
+            return isPure(((FieldAccessExpr) e).base);
+        } else if (e instanceof ValueAtExpr) {
+            return isPure(((ValueAtExpr) e).exp);
+        } else if (e instanceof TypecastExpr) {
+            return isPure(((TypecastExpr) e).exp);
+        }
+        return true;
+    }
+
+    // the value of a literal int or char, null for other expressions
+    private static Integer valueOf(Expr e) {
+        if (e instanceof IntLiteral) {
+            return ((IntLiteral) e).number;
+        } else if (e instanceof ChrLiteral) {
+            return (int) ((ChrLiteral) e).character;
+        }
+        return null;
+    }
+
+    @Override
+    public ASTNode visitProgram(Program p) {
+        for (FunDecl fd : p.funDecls) {
+            fd.accept(this);
+        }
+        return p;
+    }
+
+    @Override
+    public ASTNode visitFunDecl(FunDecl p) {
+        p.block.accept(this);
+        return p;
+    }
+
+    @Override
+    public ASTNode visitBlock(Block b) {
+        List<Stmt> stmts = b.stmts;
+        for (int i = 0; i < stmts.size(); i++) {
+            stmts.set(i, fold(stmts.get(i)));
+        }
+        return b;
+    }
+
+    @Override
+    public ASTNode visitExprStmt(ExprStmt es) {
+        Expr exp = fold(es.exp);
+        return exp == es.exp ? es : new ExprStmt(exp);
+    }
+
+    @Override
+    public ASTNode visitAssign(Assign a) {
+        Expr assignee = fold(a.assignee);
+        Expr assigner = fold(a.assigner);
+        return assignee == a.assignee && assigner == a.assigner ? a : new Assign(assignee, assigner);
+    }
+
+    @Override
+    public ASTNode visitIf(If i) {
+        Expr cond = fold(i.cond);
+        Stmt ifStmt = fold(i.ifStmt);
+        Stmt elseStmt = i.elseStmt == null ? null : fold(i.elseStmt);
+        if (cond == i.cond && ifStmt == i.ifStmt && elseStmt == i.elseStmt) {
+            return i;
+        }
+        return new If(cond, ifStmt, elseStmt);
+    }
+
+    @Override
+    public ASTNode visitWhile(While w) {
+        Expr cond = fold(w.cond);
+        Stmt stmt = fold(w.stmt);
+        return cond == w.cond && stmt == w.stmt ? w : new While(cond, stmt);
+    }
+
+    @Override
+    public ASTNode visitReturn(Return r) {
+        if (r.exp == null) {
+            return r;
+        }
+        Expr exp = fold(r.exp);
+        return exp == r.exp ? r : new Return(exp);
+    }
+
+    @Override
+    public ASTNode visitBinOp(BinOp bo) {
+        Expr one = fold(bo.operandOne);
+        Expr two = fold(bo.operandTwo);
+        Integer a = valueOf(one);
+        Integer b = valueOf(two);
+
+        Expr result = null;
+        if (a != null && b != null) {
+            result = foldLiterals(bo.operator, a, b);
+        } else if (a != null && (bo.operator == Op.AND || bo.operator == Op.OR)) {
+            // 0 && x is 0 and 1 || x is 1, x not being evaluated
+            if ((bo.operator == Op.AND) == (a == 0)) {
+                result = literal(bo.operator == Op.AND ? 0 : 1);
+            }
+        } else {
+            result = simplify(bo.operator, one, two);
+        }
+        if (result != null) {
+            folded++;
+            return result;
+        }
+
+        if (one == bo.operandOne && two == bo.operandTwo) {
+            return bo;
+        }
+        BinOp copy = new BinOp(one, bo.operator, two);
+        copy.type = bo.type;
+        return copy;
+    }
+
+    // a op b for literals a and b, null for a division by zero
+    private static IntLiteral foldLiterals(Op op, int a, int b) {
+        switch (op) {
+            case ADD: return literal(a + b);
+            case SUB: return literal(a - b);
+            case MUL: return literal(a * b);
+            case DIV: return b == 0 ? null : literal(a / b);
+            case MOD: return b == 0 ? null : literal(a % b);
+            case GT:  return literal(a > b ? 1 : 0);
+            case LT:  return literal(a < b ? 1 : 0);
+            case GE:  return literal(a >= b ? 1 : 0);
+            case LE:  return literal(a <= b ? 1 : 0);
+            case NE:  return literal(a != b ? 1 : 0);
+            case EQ:  return literal(a == b ? 1 : 0);
+            case AND: return literal(a != 0 && b != 0 ? 1 : 0);
+            default:  return literal(a != 0 || b != 0 ? 1 : 0);
+        }
+    }
+
+    // the algebraic identities, null if none applies
+    private static Expr simplify(Op op, Expr one, Expr two) {
+        switch (op) {
+            case ADD:
+                if (isLiteral(one, 0)) {
+                    return two;
+                }
+                return isLiteral(two, 0) ? one : null;
+            case SUB:
+                return isLiteral(two, 0) ? one : null;
+            case MUL:
+                if (isLiteral(one, 1)) {
+                    return two;
+                } else if (isLiteral(two, 1)) {
+                    return one;
+                } else if ((isLiteral(one, 0) && isPure(two)) || (isLiteral(two, 0) && isPure(one))) {
+                    return literal(0);
+                }
+                return null;
+            case DIV:
+                return isLiteral(two, 1) ? one : null;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public ASTNode visitSizeOfExpr(SizeOfExpr soe) {
+        folded++;
+        return literal(soe.target.size());
+    }
+
+    @Override
+    public ASTNode visitTypecastExpr(TypecastExpr tce) {
+        Expr exp = fold(tce.exp);
+        if (exp instanceof ChrLiteral && tce.targetType == BaseType.INT) {
+            folded++;
+            return literal(((ChrLiteral) exp).character);
+        }
+        if (exp == tce.exp) {
+            return tce;
+        }
+        TypecastExpr copy = new TypecastExpr(tce.targetType, exp);
+        copy.type = tce.type;
+        return copy;
+    }
+
+    @Override
+    public ASTNode visitArrayAccessExpr(ArrayAccessExpr aae) {
+        Expr base = fold(aae.base);
+        Expr index = fold(aae.index);
+        if (base == aae.base && index == aae.index) {
+            return aae;
+        }
+        ArrayAccessExpr copy = new ArrayAccessExpr(base, index);
+        copy.type = aae.type;
+        return copy;
+    }
+
+    @Override
+    public ASTNode visitFieldAccessExpr(FieldAccessExpr faexp) {
+        Expr base = fold(faexp.base);
+        if (base == faexp.base) {
+            return faexp;
+        }
+        FieldAccessExpr copy = new FieldAccessExpr(base, faexp.field);
+        copy.index = faexp.index;
+        copy.type = faexp.type;
+        return copy;
+    }
+
+    @Override
+    public ASTNode visitValueAtExpr(ValueAtExpr vae) {
+        Expr exp = fold(vae.exp);
+        if (exp == vae.exp) {
+            return vae;
+        }
+        ValueAtExpr copy = new ValueAtExpr(exp);
+        copy.type = vae.type;
+        return copy;
+    }
+
+    @Override
+    public ASTNode visitFunCallExpr(FunCallExpr fce) {
+        for (int i = 0; i < fce.params.size(); i++) {
+            fce.params.set(i, fold(fce.params.get(i)));
+        }
+        return fce;
+    }
+
+    @Override
+    public ASTNode visitVarExpr(VarExpr v) {
+        return v;
+    }
+
+    @Override
+    public ASTNode visitIntLiteral(IntLiteral il) {
+        return il;
+    }
+
+    @Override
+    public ASTNode visitChrLiteral(ChrLiteral cl) {
+        return cl;
+    }
+
+    @Override
+    public ASTNode visitStrLiteral(StrLiteral sl) {
+        return sl;
+    }
+
+    @Override
+    public ASTNode visitBaseType(BaseType bt) {
+        return bt;
+    }
+
+    @Override
+    public ASTNode visitStructTypeDecl(StructTypeDecl st) {
+        return st;
+    }
+
+    @Override
+    public ASTNode visitVarDecl(VarDecl vd) {
+        return vd;
+    }
+
+    @Override
+    public ASTNode visitArrayType(ArrayType at) {
+        return at;
+    }
+
+    @Override
+    public ASTNode visitOp(Op o) {
+        return o;
+    }
+
+    @Override
+    public ASTNode visitPointerType(PointerType pt) {
+        return pt;
+    }
+
+    @Override
+    public ASTNode visitStructType(StructType st) {
+        return st;
+    }
+}
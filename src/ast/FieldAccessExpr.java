@@ -3,6 +3,7 @@ package ast;
 public class FieldAccessExpr extends Expr {
     public final Expr base;
     public final String field;
+    public int index; // of the field in its struct, to be filled in by the type analyser
 
     public FieldAccessExpr(Expr base, String field) {
         this.field = field;
@@ -0,0 +1,53 @@
+package ast;
+
+/**
+ * The memory layout of a struct: its size, its alignment and the offset of
+ * every field, computed once per StructTypeDecl (see StructTypeDecl.layout()).
+ *
+ * Fields are laid out in declaration order, each in a whole number of words
+ * (at least one), so every field starts on a word boundary and the struct is
+ * word aligned. The code generator addresses a struct by its first word and the fields go
+ * downward from there: field i is at address - offsetOf(i), where i is the
+ * index the type checker leaves in FieldAccessExpr.index.
+ */
+public class StructLayout {
+
+    public static final int WORD = 4;
+
+    // the layout given to a struct while it is being laid out, so that a
+    // struct containing itself by value does not recurse forever
+    static final StructLayout EMPTY = new StructLayout(new int[0], 0);
+
+    public final int size;
+    public final int alignment;
+
+    private final int[] offsets;
+
+    private StructLayout(int[] offsets, int size) {
+        this.offsets = offsets;
+        this.size = size;
+        this.alignment = WORD;
+    }
+
+    static StructLayout of(StructTypeDecl sd) {
+        int[] offsets = new int[sd.varDecls.size()];
+        int size = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = size;
+            size += roundUp(sd.varDecls.get(i).type.size());
+        }
+        return new StructLayout(offsets, size);
+    }
+
+    /**
+     * @return the offset of the field of the given index, 0 if there is none,
+     * as in a struct laid out while it contains itself
+     */
+    public int offsetOf(int index) {
+        return index < offsets.length ? offsets[index] : 0;
+    }
+
+    public static int roundUp(int size) {
+        return ((size - 1) / WORD + 1) * WORD;
+    }
+}
@@ -18,15 +18,8 @@ public class StructType implements Type {
     }
 
     public int size() {
-        int result = 0;
         if (sd == null)
             return 0;
-        for (VarDecl vd : sd.varDecls) {
-            int s = vd.type.size() - 1;
-            s = s / 4 + 1;
-            s = s * 4;
-            result += s;
-        }
-        return result;
+        return sd.layout().size;
     }
 }
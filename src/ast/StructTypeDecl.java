@@ -10,6 +10,9 @@ public class StructTypeDecl implements ASTNode {
     public StructType name;
     public List<VarDecl> varDecls;
 
+    private StructLayout layout;
+    private boolean layingOut = false;
+
     public StructTypeDecl (StructType name, List<VarDecl> varDecls) {
         this.name = name;
         this.varDecls = varDecls;
@@ -19,4 +22,22 @@ public class StructTypeDecl implements ASTNode {
         return v.visitStructTypeDecl(this);
     }
 
+    /**
+     * The layout of the struct, computed on first use and then kept. The
+     * struct types of the fields must have been resolved by then, which
+     * StructTypeCheckVisitor does.
+     */
+    public StructLayout layout() {
+        if (layout == null) {
+            if (layingOut) {
+                // the struct contains itself
+                return StructLayout.EMPTY;
+            }
+            layingOut = true;
+            layout = StructLayout.of(this);
+            layingOut = false;
+        }
+        return layout;
+    }
+
 }
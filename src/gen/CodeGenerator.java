@@ -8,14 +8,18 @@ import java.io.PrintWriter;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.EmptyStackException;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Stack;
+import java.util.Map;
 
 public class CodeGenerator implements ASTVisitor<Register> {
 
     /*
-     * Simple register allocator.
+     * Register allocation: the code of a function is generated as a list of
+     * Instructions, with a fresh virtual register for every value, and with
+     * its int, char and pointer locals and parameters each in a virtual
+     * register of their own, which the register allocator (linear scan unless
+     * another one is given) then maps to real registers as it prints them.
      */
 
     private int strNum;    // string literal index number
@@ -23,45 +27,126 @@ public class CodeGenerator implements ASTVisitor<Register> {
     private int stmtNum;   // if-else and while statement index number
     private int offset;    // variable stack offset
 
-    // contains all the free temporary registers
-    private Stack<Register> freeRegs = new Stack<Register>();
+    private int virtualCount;  // virtual registers used in the current function
+    private final Map<VarDecl, Register> locals = new IdentityHashMap<VarDecl, Register>();
+    private final RegisterAllocator allocator;
+
+    /*
+     * Array accesses: the address of a[i] is that of a plus i times the step,
+     * the size of an element, negated for the arrays on the stack as they grow
+     * downwards. getArrayAccessAddress leaves the constant part of the address
+     * in displacement, for the load or store to add, as getFieldAddress does
+     * with the offset of a field, and in a while loop the address of a[i] for
+     * an induction variable i (see InductionVariables) is kept in a pointer of
+     * its own, stepped along with i.
+     */
+    private int displacement;
+    private final List<InductionPointer> inductionPointers = new ArrayList<InductionPointer>();
+    private final Map<Assign, Integer> inductionSteps = new IdentityHashMap<Assign, Integer>();
+
+    private static class InductionPointer {
+        final InductionVariables.Walk walk;
+        final int step;
+        final Register pointer;
+
+        InductionPointer(InductionVariables.Walk walk, int step, Register pointer) {
+            this.walk = walk;
+            this.step = step;
+            this.pointer = pointer;
+        }
+    }
 
     public CodeGenerator() {
-        freeRegs.addAll(Register.tmpRegs);
+        this(new LinearScanAllocator());
+    }
+
+    public CodeGenerator(RegisterAllocator allocator) {
+        this.allocator = allocator;
         strNum = 0;
         boNum = 0;
         stmtNum = 0;
         offset = 0;
     }
 
-    private class RegisterAllocationError extends Error {}
-
     private Register getRegister() {
-        try {
-            return freeRegs.pop();
-        } catch (EmptyStackException ese) {
-            throw new RegisterAllocationError(); // no more free registers, bad luck!
-        }
+        return Register.virtual(virtualCount++);
     }
 
-    private void freeRegister(Register reg) {
-        freeRegs.push(reg);
+    // int, char and pointer variables of a function live in registers
+    private Register newLocal(VarDecl vd) {
+        if (vd.type instanceof PointerType || vd.type == BaseType.INT || vd.type == BaseType.CHAR) {
+            Register r = getRegister();
+            locals.put(vd, r);
+            return r;
+        }
+        return null;
     }
 
+    private PrintWriter writer; // use this writer to output the assembly instructions
 
+    // the code of the function being generated, allocated once it is complete
+    private List<Instruction> code;
 
+    private Instruction emit(Opcode opcode, Object... operands) {
+        Instruction ins = Instruction.of(opcode, operands);
+        code.add(ins);
+        return ins;
+    }
 
+    private void label(String label) {
+        code.add(Instruction.label(label));
+    }
 
-    private PrintWriter writer; // use this writer to output the assembly instructions
+    private static Instruction.Address at(int offset, Register base) {
+        return new Instruction.Address(offset, base);
+    }
 
 
     public void emitProgram(Program program, File outputFile) throws FileNotFoundException {
-        writer = new PrintWriter(outputFile);
+        PrintWriter out = new PrintWriter(outputFile);
+        emitProgram(program, out);
+        out.close();
+    }
+
+    /**
+     * Emits the program to out, which is flushed but left open.
+     */
+    public void emitProgram(Program program, PrintWriter out) {
+        writer = out;
 
         visitProgram(program);
+        writer.flush();
+    }
+
+    /*
+     * Streaming emission, producing the same output as emitProgram: first
+     * beginProgram with the global declarations, then emitFunDecl for every
+     * function in source order, and finally endProgram.
+     */
+
+    public void beginProgram(Program declarations, File outputFile) throws FileNotFoundException {
+        writer = new PrintWriter(outputFile);
+        emitGlobals(declarations);
+    }
+
+    public void emitFunDecl(FunDecl fd) {
+        fd.accept(this);
+    }
+
+    public void endProgram() {
+        emitLibrary();
         writer.close();
     }
 
+    /**
+     * Emits the library functions (print_i, read_c, mcmalloc...) alone, for
+     * the other back ends to share them.
+     */
+    public void emitLibrary(PrintWriter out) {
+        writer = out;
+        emitLibrary();
+    }
+
     @Override
     public Register visitBaseType(BaseType bt) {
         return null;
@@ -78,11 +163,14 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
         int totalParamSize = 0;
         for (VarDecl vd : b.varDecls) {
+            if (newLocal(vd) != null) {
+                continue;
+            }
             int size = vd.type.size();
             totalParamSize += size;
             if (size == 1) {
                 // char or char* or void*
-                writer.println("    addi " + Register.sp.toString() + ", " + Register.sp.toString() + ", -1");
+                emit(Opcode.ADDI, Register.sp, Register.sp, -1);
                 offset = offset + 1;
                 vd.offset = offset;
             } else if (size != 0) { // size >= 4 and size % 4 == 0
@@ -92,12 +180,12 @@ public class CodeGenerator implements ASTVisitor<Register> {
                     totalParamSize ++;
                 }
                 if (size == 4) {
-                    writer.println("    addi " + Register.sp.toString() + ", " + Register.sp.toString() + ", -" + size);
+                    emit(Opcode.ADDI, Register.sp, Register.sp, -size);
                     offset = offset + size;
                     vd.offset = offset;
                 } else if (vd.type instanceof StructType) {
                     vd.offset = offset + Math.min(4, size);
-                    writer.println("    addi " + Register.sp.toString() + ", " + Register.sp.toString() + ", -" + size);
+                    emit(Opcode.ADDI, Register.sp, Register.sp, -size);
                     offset = offset + size;
                 } else if (vd.type instanceof ArrayType) {
                     if (((ArrayType) vd.type).type == BaseType.CHAR) {
@@ -105,7 +193,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
                     } else {
                         vd.offset = offset + 4;
                     }
-                    writer.println("    addi " + Register.sp.toString() + ", " + Register.sp.toString() + ", -" + size);
+                    emit(Opcode.ADDI, Register.sp, Register.sp, -size);
                     offset = offset + size;
                 }
             }
@@ -119,7 +207,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
         offset = oldOffset;
 
-        writer.println("    addi " + Register.sp.toString() + ", " + Register.sp.toString() + ", " + totalParamSize);
+        emit(Opcode.ADDI, Register.sp, Register.sp, totalParamSize);
 
         return null;
     }
@@ -129,12 +217,18 @@ public class CodeGenerator implements ASTVisitor<Register> {
         int oldOffset = offset;
         offset = 0;
 
+        // the function is generated with virtual registers, then allocated
+        code = new ArrayList<Instruction>();
+        virtualCount = 0;
+        locals.clear();
+        inductionSteps.clear();
+
         // label the function with its name
-        writer.println("    .text");
-        writer.println(p.name + ":");
+        code.add(Instruction.directive("    .text"));
+        label(p.name);
 
         // change $fp to $sp
-        writer.println("    add  " + Register.fp.toString()+ ", " + Register.sp.toString() +", $zero");
+        emit(Opcode.ADD, Register.fp, Register.sp, Register.zero);
 
         // save all parameters on stack
         int stackedParamSize = totalStackedParamSize(p.params);
@@ -147,9 +241,9 @@ public class CodeGenerator implements ASTVisitor<Register> {
                 vd.offset = offset + 4;
                 while (structSize > 0) {
                     stackedParamSize = stackedParamSize - 4;
-                    writer.println("    addi " + Register.sp.toString() + ", " + Register.sp.toString() + ", -4");
-                    writer.println("    lw   $a0, " + stackedParamSize + "(" + Register.fp.toString() + ")");
-                    writer.println("    sw   $a0, 0(" + Register.sp.toString() + ")    #" + vd.varName);
+                    emit(Opcode.ADDI, Register.sp, Register.sp, -4);
+                    emit(Opcode.LW, Register.paramRegs[0], at(stackedParamSize, Register.fp));
+                    emit(Opcode.SW, Register.paramRegs[0], at(0, Register.sp)).comment(vd.varName);
                     offset = offset + 4;
                     structSize = structSize - 4;
                 }
@@ -157,43 +251,55 @@ public class CodeGenerator implements ASTVisitor<Register> {
                 // less than 4 variables
                 // normal variable type, not struct type
                 int size = vd.type.size();
-                if (size == 1) {
+                Register local = newLocal(vd);
+                if (local != null) {
+                    emit(Opcode.ADD, local, Register.zero, Register.paramRegs[paramIndex]).comment(vd.varName);
+                } else if (size == 1) {
                     // char or char* or void*
-                    writer.println("    addi " + Register.sp.toString() + ", " + Register.sp.toString() + ", -1");
-                    writer.println("    sb   $a" + paramIndex + ", 0(" + Register.sp.toString() + ")    #" + vd.varName);
+                    emit(Opcode.ADDI, Register.sp, Register.sp, -1);
+                    emit(Opcode.SB, Register.paramRegs[paramIndex], at(0, Register.sp)).comment(vd.varName);
                     offset = offset + 1;
                     vd.offset = offset;
                 } else { // size == 4
                     // int or int*
                     rectifyStackPointer();
-                    writer.println("    addi " + Register.sp.toString() + ", " + Register.sp.toString() + ", -4");
-                    writer.println("    sw   $a" + paramIndex + ", 0(" + Register.sp.toString() + ")    #" + vd.varName);
+                    emit(Opcode.ADDI, Register.sp, Register.sp, -4);
+                    emit(Opcode.SW, Register.paramRegs[paramIndex], at(0, Register.sp)).comment(vd.varName);
                     offset = offset + 4;
                     vd.offset = offset;
                 }
             } else {
                 // retreive more variables from the stack
                 int size = vd.type.size();
+                Register local = newLocal(vd);
                 if (size >= 4) {
-                    rectifyStackPointer();
                     while (stackedParamSize % 4 != 0) {
                         stackedParamSize --;
                     }
                     // int locator = (stackedParamSize + offset); -> related to $sp
                     stackedParamSize -= 4;
-                    writer.println("    addi " + Register.sp.toString() + ", " + Register.sp.toString() + ", -4");
-                    writer.println("    lw   $a0, " + stackedParamSize + "(" + Register.fp.toString() + ")");
-                    writer.println("    sw   $a0, 0(" + Register.sp.toString() + ")    #" + vd.varName);
-                    offset = offset + 4;
-                    vd.offset = offset;
+                    if (local != null) {
+                        emit(Opcode.LW, local, at(stackedParamSize, Register.fp)).comment(vd.varName);
+                    } else {
+                        rectifyStackPointer();
+                        emit(Opcode.ADDI, Register.sp, Register.sp, -4);
+                        emit(Opcode.LW, Register.paramRegs[0], at(stackedParamSize, Register.fp));
+                        emit(Opcode.SW, Register.paramRegs[0], at(0, Register.sp)).comment(vd.varName);
+                        offset = offset + 4;
+                        vd.offset = offset;
+                    }
                 } else {
                     // int locator = (stackedParamSize + offset);
                     stackedParamSize -= 1;
-                    writer.println("    addi " + Register.sp.toString() + ", " + Register.sp.toString() + ", -1");
-                    writer.println("    lb   $a0, " + stackedParamSize + "(" + Register.fp.toString() + ")");
-                    writer.println("    sb   $a0, 0(" + Register.sp.toString() + ")    #" + vd.varName);
-                    offset = offset + 1;
-                    vd.offset = offset;
+                    if (local != null) {
+                        emit(Opcode.LB, local, at(stackedParamSize, Register.fp)).comment(vd.varName);
+                    } else {
+                        emit(Opcode.ADDI, Register.sp, Register.sp, -1);
+                        emit(Opcode.LB, Register.paramRegs[0], at(stackedParamSize, Register.fp));
+                        emit(Opcode.SB, Register.paramRegs[0], at(0, Register.sp)).comment(vd.varName);
+                        offset = offset + 1;
+                        vd.offset = offset;
+                    }
                 }
             }
             paramIndex ++;
@@ -205,10 +311,13 @@ public class CodeGenerator implements ASTVisitor<Register> {
         p.block.accept(this);
 
         // restore stack pointer
-        writer.println("    add  " + Register.sp.toString() + ", " + Register.fp.toString() + ", $zero");
+        emit(Opcode.ADD, Register.sp, Register.fp, Register.zero);
 
         // return to the caller function
-        writer.println("    jr   " + Register.ra.toString() + "");
+        emit(Opcode.JR, Register.ra);
+
+        allocator.allocate(code, virtualCount, writer);
+        code = null;
         writer.println();
 
         return null;
@@ -216,6 +325,17 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
     @Override
     public Register visitProgram(Program p) {
+        emitGlobals(p);
+
+        for (FunDecl fd : p.funDecls) {
+            fd.accept(this);
+        }
+
+        emitLibrary();
+        return null;
+    }
+
+    private void emitGlobals(Program p) {
         writer.println(".data");
         for (VarDecl vd : p.varDecls) {
             // save variable name
@@ -250,11 +370,9 @@ public class CodeGenerator implements ASTVisitor<Register> {
         writer.println("    li   $v0, 10");
         writer.println("    syscall");
         writer.println();
+    }
 
-        for (FunDecl fd : p.funDecls) {
-            fd.accept(this);
-        }
-
+    private void emitLibrary() {
         generatePrintI();
         generatePrintC();
         generatePrintS();
@@ -262,9 +380,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
         generateReadC();
         generateMcmalloc();
 
-
         writer.flush();
-        return null;
     }
 
     @Override
@@ -274,35 +390,39 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
     @Override
     public Register visitVarExpr(VarExpr v) {
-        int size = v.decl.type.size();
-        Register result = getRegister();
+        Register local = locals.get(v.decl);
+        if (local != null) {
+            return local;
+        }
 
-        if (v.decl.type.size() == 0) {
-            freeRegister(result);
+        int size = v.decl.type.size();
+        if (size == 0) {
             return null;
         }
 
+        Register result = getRegister();
+
         if (v.decl.offset == -1) {
             if (v.decl.type instanceof StructType) {
                 StructType st  = ((StructType) v.decl.type);
                 int address = st.size() - 4;
                 // varName_structName
-                writer.println("    la   " + result.toString() + ", " + v.name + "_" + st.name);
-                writer.println("    addi " + result.toString() + ", " + result.toString() + ", " + address);
+                emit(Opcode.LA, result, v.name + "_" + st.name);
+                emit(Opcode.ADDI, result, result, address);
             } else {
-                writer.println("    la   " + result.toString() + ", " + v.name);
+                emit(Opcode.LA, result, v.name);
             }
         } else {
             int thisOffset = offset - v.decl.offset;
-            writer.println("    addi " + result.toString() + ", " + Register.sp.toString() + ", " + thisOffset);
+            emit(Opcode.ADDI, result, Register.sp, thisOffset);
         }
 
         if (size == 1) {
-            writer.println("    lb   " + result.toString() + ", (" + result.toString() + ")");
+            emit(Opcode.LB, result, at(0, result));
         } else if (v.decl.type instanceof ArrayType || v.decl.type instanceof StructType) {
             return result;
         } else {
-            writer.println("    lw   " + result.toString() + ", (" + result.toString() + ")");
+            emit(Opcode.LW, result, at(0, result));
         }
         return result;
     }
@@ -315,46 +435,36 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
     @Override
     public Register visitArrayAccessExpr(ArrayAccessExpr aae) {
-        Expr vd = aae.base;
-        ArrayType at = (ArrayType) vd.type;
+        ArrayType at = (ArrayType) aae.base.type;
         int elemSize = at.type.size();
 
-        Register base = vd.accept(this);
-        if (base == null) {
-            return null;
-        }
-        Register index = aae.index.accept(this);
-        if (index == null) {
-            freeRegister(base);
+        Register address = getArrayAccessAddress(aae);
+        if (address == null) {
             return null;
         }
 
-        Register result = getRegister();
-
-        int storageDirection = -1 * elemSize;
-        if (vd instanceof VarExpr) {
-             storageDirection = (((VarExpr) vd).decl.offset == -1) ? (elemSize) : (-1 * elemSize);
-        }
-        writer.println("    li   " + result.toString() + ", " + storageDirection);
-        writer.println("    mult " + result.toString() + ", " + index.toString());
-        writer.println("    mflo " + result.toString());
-        writer.println("    add  " + result.toString() + ", " + base.toString() + ", " + result.toString());
-        // now result stores the address of the target element
-
         if (at.type instanceof StructType) {
             // return the starting address of struct
-            if (storageDirection < 0) {
-                storageDirection = -storageDirection - 4;
-                writer.println("    addi " + result.toString() + ", " + result.toString() + ", " + storageDirection);
+            int start = displacement;
+            if (step(aae) < 0) {
+                start = start + elemSize - 4;
             }
-        } else if (elemSize == 1) {
-            writer.println("    lb   " + result.toString() + ", (" + result.toString() + ")");
-        } else if (elemSize == 4) {
-            writer.println("    lw   " + result.toString() + ", (" + result.toString() + ")");
+            if (start == 0) {
+                return address;
+            }
+            Register result = getRegister();
+            emit(Opcode.ADDI, result, address, start);
+            return result;
         }
 
-        freeRegister(base);
-        freeRegister(index);
+        Register result = getRegister();
+        if (elemSize == 1) {
+            emit(Opcode.LB, result, at(displacement, address));
+        } else if (elemSize == 4) {
+            emit(Opcode.LW, result, at(displacement, address));
+        } else {
+            emit(Opcode.ADDI, result, address, displacement);
+        }
         return result;
     }
 
@@ -374,12 +484,10 @@ public class CodeGenerator implements ASTVisitor<Register> {
         }
 
         if (assignee.type.size() == 0) {
-            freeRegister(result);
             return null;
         } else if (assignee.type instanceof StructType) {
             Register target = assignee.accept(this);
             if (target == null) {
-                freeRegister(result);
                 return null;
             }
             // copy struct content
@@ -387,61 +495,64 @@ public class CodeGenerator implements ASTVisitor<Register> {
             int size = assignee.type.size();
             for (int i = 0; i < size; i = i + 4) {
                 int add = -i;
-                writer.println("    lw   " + helper.toString() + ", " + add + "(" + result.toString() + ")");
-                writer.println("    sw   " + helper.toString() + ", " + add + "(" + target.toString() + ")");
+                emit(Opcode.LW, helper, at(add, result));
+                emit(Opcode.SW, helper, at(add, target));
             }
-            freeRegister(helper);
-            freeRegister(target);
             return null;
         } else if (assignee instanceof VarExpr) {
             VarExpr v = (VarExpr) assignee;
             if (v.decl.type.size() == 0) {
-                freeRegister(result);
+                return null;
+            }
+
+            Register local = locals.get(v.decl);
+            if (local != null) {
+                emit(Opcode.ADD, local, Register.zero, result);
+                Integer c = inductionSteps.get(a);
+                if (c != null) {
+                    for (InductionPointer ip : inductionPointers) {
+                        if (ip.walk.index == v.decl) {
+                            emit(Opcode.ADDI, ip.pointer, ip.pointer, c * ip.step);
+                        }
+                    }
+                }
                 return null;
             }
 
             Register address;
             if (v.decl.offset == -1) {
                 address = getRegister();
-                writer.println("    la   " + address.toString() + ", " + v.name);
+                emit(Opcode.LA, address, v.name);
             } else {
                 address = getVarAddress(v);
-                if (address == null) {
-                    freeRegister(result);
-                    return null;
-                }
             }
 
             if (v.decl.type.size() == 1) {
-                writer.println("    sb   " + result.toString() + ", (" + address.toString() + ")");
+                emit(Opcode.SB, result, at(0, address));
             } else {
-                writer.println("    sw   " + result.toString() + ", (" + address.toString() + ")");
+                emit(Opcode.SW, result, at(0, address));
             }
 
-            freeRegister(address);
         } else if (assignee instanceof FieldAccessExpr) {
             FieldAccessExpr faexp = (FieldAccessExpr) assignee;
             Register address = getFieldAddress(faexp);
             if (address == null) {
-                freeRegister(result);
                 return null;
             }
 
-            writer.println("    sw   " + result.toString() + ", (" + address.toString() + ")");
-            freeRegister(address);
+            emit(Opcode.SW, result, at(displacement, address));
         } else if (assignee instanceof ArrayAccessExpr) {
             ArrayAccessExpr aae = (ArrayAccessExpr) assignee;
             Register address = getArrayAccessAddress(aae);
             if (address == null) {
-                freeRegister(result);
                 return null;
             }
 
             int elemSize = assignee.type.size();
             if (elemSize == 1) {
-                writer.println("    sb   " + result.toString() + ", (" + address.toString() + ")");
+                emit(Opcode.SB, result, at(displacement, address));
             } else {
-                writer.println("    sw   " + result.toString() + ", (" + address.toString() + ")");
+                emit(Opcode.SW, result, at(displacement, address));
             }
         } else if (assignee instanceof ValueAtExpr) {
             ValueAtExpr vae = (ValueAtExpr) assignee;
@@ -452,20 +563,43 @@ public class CodeGenerator implements ASTVisitor<Register> {
                 PointerType t = (PointerType) vae.exp.type;
                 int size = t.type.size();
                 if (size == 1) {
-                    writer.println("    sb   " + result.toString() + ", (" + address.toString() + ")");
+                    emit(Opcode.SB, result, at(0, address));
                 } else {
-                    writer.println("    sw   " + result.toString() + ", (" + address.toString() + ")");
+                    emit(Opcode.SW, result, at(0, address));
                 }
-                freeRegister(address);
             }
         }
 
-        freeRegister(result);
         return null;
     }
 
     @Override
     public Register visitBinOp(BinOp bo) {
+        if (bo.operator == Op.AND || bo.operator == Op.OR) {
+            // 0 unless the condition holds, evaluating the second operand only if needed
+            Register result = getRegister();
+            String end = "BINOPJUMP" + boNum;
+            boNum ++;
+            emit(Opcode.LI, result, 0);
+            if (branch(bo, false, end)) {
+                emit(Opcode.LI, result, 1);
+            }
+            label(end);
+            return result;
+        }
+
+        if (bo.operator == Op.MUL && (shift(bo.operandOne) >= 0 || shift(bo.operandTwo) >= 0)) {
+            // multiplying by a power of two is shifting left
+            Expr operand = shift(bo.operandTwo) >= 0 ? bo.operandOne : bo.operandTwo;
+            int shift = shift(bo.operandTwo) >= 0 ? shift(bo.operandTwo) : shift(bo.operandOne);
+            Register r = operand.accept(this);
+            Register result = getRegister();
+            if (r != null) {
+                emit(Opcode.SLL, result, r, shift);
+            }
+            return result;
+        }
+
         Register operandOne = bo.operandOne.accept(this);
         Register operandTwo = bo.operandTwo.accept(this);
         Register result = getRegister();
@@ -473,114 +607,63 @@ public class CodeGenerator implements ASTVisitor<Register> {
         if (operandOne != null && operandTwo != null) {
             switch(bo.operator) {
                 case ADD:
-                    writer.println("    add  " + result.toString() + ", " + operandOne.toString() + ", " + operandTwo.toString());
+                    emit(Opcode.ADD, result, operandOne, operandTwo);
                     break;
                 case SUB:
-                    writer.println("    sub  " + result.toString() + ", " + operandOne.toString() + ", " + operandTwo.toString());
+                    emit(Opcode.SUB, result, operandOne, operandTwo);
                     break;
                 case MUL:
-                    writer.println("    mult " + operandOne.toString() + ", " + operandTwo.toString());
-                    writer.println("    mflo " + result.toString());
+                    emit(Opcode.MULT, operandOne, operandTwo);
+                    emit(Opcode.MFLO, result);
                     break;
                 case DIV:
-                    writer.println("    div  " + operandOne.toString() + ", " + operandTwo.toString());
-                    writer.println("    mflo " + result.toString());
+                    emit(Opcode.DIV, operandOne, operandTwo);
+                    emit(Opcode.MFLO, result);
                     break;
                 case MOD:
-                    writer.println("    div  " + operandOne.toString() + ", " + operandTwo.toString());
-                    writer.println("    mfhi " + result.toString());
-                    break;
-                case GT:
-                    writer.println("    bgt  " + operandOne.toString() + ", " + operandTwo.toString() + ", BINOP" + boNum);
-                    writer.println("    li   " + result.toString() + ", 0");
-                    writer.println("    j    " + "BINOPJUMP" + boNum);
-                    writer.println("BINOP" + boNum + ":  li   " + result.toString() + ", 1");
-                    writer.println("BINOPJUMP" + boNum + ":");
-                    boNum ++;
+                    emit(Opcode.DIV, operandOne, operandTwo);
+                    emit(Opcode.MFHI, result);
                     break;
                 case LT:
-                    writer.println("    blt  " + operandOne.toString() + ", " + operandTwo.toString() + ", BINOP" + boNum);
-                    writer.println("    li   " + result.toString() + ", 0");
-                    writer.println("    j    " + "BINOPJUMP" + boNum);
-                    writer.println("BINOP" + boNum + ":  li   " + result.toString() + ", 1");
-                    writer.println("BINOPJUMP" + boNum + ":");
-                    boNum ++;
+                    emit(Opcode.SLT, result, operandOne, operandTwo);
                     break;
-                case GE:
-                    writer.println("    bge  " + operandOne.toString() + ", " + operandTwo.toString() + ", BINOP" + boNum);
-                    writer.println("    li   " + result.toString() + ", 0");
-                    writer.println("    j    " + "BINOPJUMP" + boNum);
-                    writer.println("BINOP" + boNum + ":  li   " + result.toString() + ", 1");
-                    writer.println("BINOPJUMP" + boNum + ":");
-                    boNum ++;
+                case GT:
+                    emit(Opcode.SLT, result, operandTwo, operandOne);
                     break;
                 case LE:
-                    writer.println("    ble  " + operandOne.toString() + ", " + operandTwo.toString() + ", BINOP" + boNum);
-                    writer.println("    li   " + result.toString() + ", 0");
-                    writer.println("    j    " + "BINOPJUMP" + boNum);
-                    writer.println("BINOP" + boNum + ":  li   " + result.toString() + ", 1");
-                    writer.println("BINOPJUMP" + boNum + ":");
-                    boNum ++;
+                    emit(Opcode.SLT, result, operandTwo, operandOne);
+                    emit(Opcode.XORI, result, result, 1);
                     break;
-                case NE:
-                    writer.println("    bne  " + operandOne.toString() + ", " + operandTwo.toString() + ", BINOP" + boNum);
-                    writer.println("    li   " + result.toString() + ", 0");
-                    writer.println("    j    " + "BINOPJUMP" + boNum);
-                    writer.println("BINOP" + boNum + ":  li   " + result.toString() + ", 1");
-                    writer.println("BINOPJUMP" + boNum + ":");
-                    boNum ++;
+                case GE:
+                    emit(Opcode.SLT, result, operandOne, operandTwo);
+                    emit(Opcode.XORI, result, result, 1);
                     break;
                 case EQ:
-                    writer.println("    beq  " + operandOne.toString() + ", " + operandTwo.toString() + ", BINOP" + boNum);
-                    writer.println("    li   " + result.toString() + ", 0");
-                    writer.println("    j    " + "BINOPJUMP" + boNum);
-                    writer.println("BINOP" + boNum + ":  li   " + result.toString() + ", 1");
-                    writer.println("BINOPJUMP" + boNum + ":");
-                    boNum ++;
+                    emit(Opcode.XOR, result, operandOne, operandTwo);
+                    emit(Opcode.SLTIU, result, result, 1);
                     break;
-                case OR:
-                    writer.println("    bne  " + operandOne.toString() + ", $zero, BINOP" + boNum);
-                    writer.println("    bne  " + operandTwo.toString() + ", $zero, BINOP" + boNum);
-                    writer.println("    li   " + result.toString() + ", 0");
-                    writer.println("    j    " + "BINOPJUMP" + boNum);
-                    writer.println("BINOP" + boNum + ":  li   " + result.toString() + ", 1");
-                    writer.println("BINOPJUMP" + boNum + ":");
-                    boNum ++;
+                case NE:
+                    emit(Opcode.XOR, result, operandOne, operandTwo);
+                    emit(Opcode.SLTU, result, Register.zero, result);
                     break;
-                case AND:
-                    writer.println("    beq  " + operandOne.toString() + ", $zero, BINOP" + boNum);
-                    writer.println("    beq  " + operandTwo.toString() + ", $zero, BINOP" + boNum);
-                    writer.println("    li   " + result.toString() + ", 1");
-                    writer.println("    j    " + "BINOPJUMP" + boNum);
-                    writer.println("BINOP" + boNum + ":  li   " + result.toString() + ", 0");
-                    writer.println("BINOPJUMP" + boNum + ":");
-                    boNum ++;
+                default:
                     break;
             }
         }
 
-        if (operandOne != null) {
-            freeRegister(operandOne);
-        }
-        if (operandTwo != null) {
-            freeRegister(operandTwo);
-        }
         return result;
     }
 
     @Override
     public Register visitChrLiteral(ChrLiteral cl) {
         Register result = getRegister();
-        writer.println("    addi " + result.toString() + ", $zero, " + ((int) cl.character));
+        emit(Opcode.ADDI, result, Register.zero, (int) cl.character);
         return result;
     }
 
     @Override
     public Register visitExprStmt(ExprStmt es) {
-        Register result = es.exp.accept(this);
-        if (result != null) {
-            freeRegister(result);
-        }
+        es.exp.accept(this);
         return null;
     }
 
@@ -588,89 +671,54 @@ public class CodeGenerator implements ASTVisitor<Register> {
     public Register visitFieldAccessExpr(FieldAccessExpr faexp) {
         Expr baseExp = faexp.base;
         StructType st = (StructType) baseExp.type;
-        String field = faexp.field;
-        Register result = null;
-
-        Type elemType = BaseType.VOID;
-        for (int i = 0; i < st.sd.varDecls.size(); i ++) {
-            VarDecl vd = st.sd.varDecls.get(i);
-            if (vd.varName.equals(field)) {
-                elemType = vd.type;
-                break;
-            }
-        }
+        Type elemType = faexp.type;
 
-        // int thisOffset = 0;
-        // if (baseExp instanceof VarExpr) {
-        //     thisOffset = ((VarExpr) baseExp).decl.offset;
-        // }
-        // if (thisOffset == -1) {
-        //     result = getRegister();
-        //     writer.println("    la   " + result.toString() + ", " + ((VarExpr) baseExp).name + "_" + st.name + "_" + field);
-
-        //     if (elemType instanceof ArrayType) {
-        //         int totalSize = elemType.size();
-        //         int targetAddress = totalSize - ((ArrayType) elemType).type.size();
-        //         writer.println("    addi  " + result.toString() + ", " + result.toString() + ", -" + targetAddress);
-        //     } else if (elemType instanceof StructType) {
-        //         int totalSize = elemType.size();
-        //         // Type firstType = ((StructType) elemType).sd.varDecls.get(0).type;
-        //         int targetAddress = totalSize - 4; //firstType.size();
-        //         writer.println("    addi  " + result.toString() + ", " + result.toString() + ", -" + targetAddress);
-        //     }
-        // } else {
-        // }
-
-        result = baseExp.accept(this);
-        if (result == null) {
+        Register base = baseExp.accept(this);
+        if (base == null) {
             return null;
         }
 
-        int targetAddress = 0;
-        for (int i = 0; i < st.sd.varDecls.size(); i ++) {
-            VarDecl vd = st.sd.varDecls.get(i);
-            if (vd.type.size() > 1) {
-                while(targetAddress % 4 != 0) {
-                    targetAddress ++;
-                }
-            }
-            if (vd.varName.equals(field)) {
-                break;
-            }
-            targetAddress += vd.type.size();
-        }
-
-        writer.println("    add  " + result.toString() + ", " + result.toString() + ", -" + targetAddress);
-
+        // the base may be a register of its own, such as an induction pointer
+        int offset = -st.sd.layout().offsetOf(faexp.index);
         if (elemType instanceof ArrayType || elemType instanceof StructType) {
+            if (offset == 0) {
+                return base;
+            }
+            Register result = getRegister();
+            emit(Opcode.ADDI, result, base, offset);
             return result;
         }
-        writer.println("    lw   " + result.toString() + ", (" + result.toString() + ")");
+        Register result = getRegister();
+        emit(Opcode.LW, result, at(offset, base));
         return result;
     }
 
     @Override
     public Register visitFunCallExpr(FunCallExpr fce) {
         // save $fp and $ra on the stack
-        writer.println("    addi " + Register.sp.toString() +", " + Register.sp.toString() +", -8");
-        writer.println("    sw   " + Register.fp.toString()+ ", 4(" + Register.sp.toString() +")");
-        writer.println("    sw   " + Register.ra.toString() + ", 0(" + Register.sp.toString() +")");
+        emit(Opcode.ADDI, Register.sp, Register.sp, -8);
+        emit(Opcode.SW, Register.fp, at(4, Register.sp));
+        emit(Opcode.SW, Register.ra, at(0, Register.sp));
         offset += 8;
 
         int stackedSize = 0;
         int numOfParam = 0;
-        // passing parameters
-        for (int i = 0; i < fce.params.size(); i ++) {
-        // for (Expr p : fce.params) {
-            Expr p = fce.params.get(i);
-            VarDecl v = fce.decl.params.get(i);
-            Type t = v.type;
-
+        // evaluate all the arguments before passing any of them, as evaluating
+        // one may call another function
+        List<Register> args = new ArrayList<Register>();
+        for (Expr p : fce.params) {
             Register r = p.accept(this);
-
             if (r == null) {
                 break;
             }
+            args.add(r);
+        }
+
+        // passing parameters
+        for (int i = 0; i < args.size(); i ++) {
+            VarDecl v = fce.decl.params.get(i);
+            Type t = v.type;
+            Register r = args.get(i);
 
             if (t instanceof StructType) {
                 // stacked struct parameters
@@ -682,9 +730,9 @@ public class CodeGenerator implements ASTVisitor<Register> {
                 int structSize = t.size();
                 int size = 0; // size has been stacked
                 while (structSize > 0) {
-                    writer.println("    addi " + Register.sp.toString() + ", " + Register.sp.toString() + ", -4");
-                    writer.println("    lw   $a0, " + size + "(" + r.toString() + ")");
-                    writer.println("    sw   $a0, 0(" + Register.sp.toString() + ")    #" + v.varName);
+                    emit(Opcode.ADDI, Register.sp, Register.sp, -4);
+                    emit(Opcode.LW, Register.paramRegs[0], at(size, r));
+                    emit(Opcode.SW, Register.paramRegs[0], at(0, Register.sp)).comment(v.varName);
                     offset = offset + 4;
                     structSize = structSize - 4;
                     size = size - 4;
@@ -692,7 +740,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
                 }
             } else if (numOfParam < 4) {
                 // store the first 4 in a0-3
-                writer.println("    add  $a" + numOfParam + ", $zero, " + r.toString() + "    #" + v.varName);
+                emit(Opcode.ADD, Register.paramRegs[numOfParam], Register.zero, r).comment(v.varName);
             } else {
                 // stacked more parameters (more than 4)
                 int size = t.size();
@@ -701,18 +749,17 @@ public class CodeGenerator implements ASTVisitor<Register> {
                     while (stackedSize %  4 != 0) {
                         stackedSize ++;
                     }
-                    writer.println("    addi " + Register.sp.toString() + ", " + Register.sp.toString() + ", -4");
-                    writer.println("    sw   " + r.toString() + ", 0(" + Register.sp.toString() + ")    #" + v.varName);
+                    emit(Opcode.ADDI, Register.sp, Register.sp, -4);
+                    emit(Opcode.SW, r, at(0, Register.sp)).comment(v.varName);
                     offset += 4;
                     stackedSize += 4;
                 } else {
-                    writer.println("    addi " + Register.sp.toString() + ", " + Register.sp.toString() + ", -1");
-                    writer.println("    sb   " + r.toString() + ", 0(" + Register.sp.toString() + ")    #" + v.varName);
+                    emit(Opcode.ADDI, Register.sp, Register.sp, -1);
+                    emit(Opcode.SB, r, at(0, Register.sp)).comment(v.varName);
                     offset += 1;
                     stackedSize += 1;
                 }
             }
-            freeRegister(r);
             numOfParam ++;
         }
 
@@ -723,20 +770,20 @@ public class CodeGenerator implements ASTVisitor<Register> {
         }
 
         // jump back to the caller function
-        writer.println("    jal  " + fce.name);
+        emit(Opcode.JAL, fce.name);
 
         // clear all stacked parameters
-        writer.println("    addi " + Register.sp.toString() +", " + Register.sp.toString() +", " + stackedSize);
+        emit(Opcode.ADDI, Register.sp, Register.sp, stackedSize);
         offset -= stackedSize;
 
         // restore $fp and $ra
-        writer.println("    addi " + Register.sp.toString() +", " + Register.sp.toString() +", 8");
-        writer.println("    lw   " + Register.fp.toString()+ ", -4(" + Register.sp.toString() +")");
-        writer.println("    lw   " + Register.ra.toString() + ", -8(" + Register.sp.toString() +")");
+        emit(Opcode.ADDI, Register.sp, Register.sp, 8);
+        emit(Opcode.LW, Register.fp, at(-4, Register.sp));
+        emit(Opcode.LW, Register.ra, at(-8, Register.sp));
         offset -= 8;
 
         Register result = getRegister();
-        writer.println("    add  " + result.toString() + ", $zero, $v0");
+        emit(Opcode.ADD, result, Register.zero, Register.v0);
 
         return result;
     }
@@ -749,29 +796,25 @@ public class CodeGenerator implements ASTVisitor<Register> {
         Stmt ifStmt = i.ifStmt;
         Stmt elseStmt = i.elseStmt;
 
-        Register condResult = cond.accept(this);
-        if (condResult == null) {
+        if (!branch(cond, false, "ELSESTATEMENT" + num)) {
             return null;
         }
-
-        writer.println("    bne  " + condResult.toString() + ", $zero, IFSTATEMENT" + num);
-        freeRegister(condResult);
-        writer.println("    j    ELSESTATEMENT" + num);
-        writer.println("IFSTATEMENT" + num + ": ");
         ifStmt.accept(this);
-        writer.println("    j    ENDIFELSE" + num);
-        writer.println("ELSESTATEMENT" + num + ": ");
         if (elseStmt != null) {
+            emit(Opcode.J, "ENDIFELSE" + num);
+            label("ELSESTATEMENT" + num);
             elseStmt.accept(this);
+            label("ENDIFELSE" + num);
+        } else {
+            label("ELSESTATEMENT" + num);
         }
-        writer.println("ENDIFELSE" + num + ": ");
         return null;
     }
 
     @Override
     public Register visitIntLiteral(IntLiteral il) {
         Register result = getRegister();
-        writer.println("    addi " + result.toString() + ", $zero, " + il.number);
+        emit(Opcode.ADDI, result, Register.zero, il.number);
         return result;
     }
 
@@ -803,40 +846,30 @@ public class CodeGenerator implements ASTVisitor<Register> {
                     int size = e.type.size();
                     for (int stacked = size; stacked > 0; stacked = stacked - 4) {
                         int stackIndex = size - stacked + 4;
-                        writer.println("    lw   " + result.toString() + ", (" + address.toString() + ")");
-                        writer.println("    sw   " + result.toString() + ", -" + stackIndex + "(" + Register.sp.toString() + ")");
-                        writer.println("    addi " + address.toString() + ", " + address.toString() + ", -4");
+                        emit(Opcode.LW, result, at(0, address));
+                        emit(Opcode.SW, result, at(-stackIndex, Register.sp));
+                        emit(Opcode.ADDI, address, address, -4);
                     }
-                    writer.println("    addi $v0, " + Register.sp.toString() + ", 4");
-                    freeRegister(result);
-                    freeRegister(address);
-
+                    emit(Opcode.ADDI, Register.v0, Register.sp, 4);
                 }
             } else {
                 Register reg = e.accept(this);
                 if (reg != null) {
-                    writer.println("    add  $v0, $zero, " + reg.toString());
-                    freeRegister(reg);
+                    emit(Opcode.ADD, Register.v0, Register.zero, reg);
                 }
             }
 
-            writer.println("    add  $sp, $fp, $zero");
-            writer.println("    jr   $ra");
-
+            emit(Opcode.ADD, Register.sp, Register.fp, Register.zero);
+            emit(Opcode.JR, Register.ra);
         }
         return null;
     }
 
     @Override
     public Register visitSizeOfExpr(SizeOfExpr soe) {
-        Type t = soe.type;
-        int size = 0;
-        while (t instanceof PointerType) {
-            t = ((PointerType) t).type;
-        }
-        size = t.size();
+        int size = soe.target.size();
         Register result = getRegister();
-        writer.println("    li   " + result.toString() + ", " + size);
+        emit(Opcode.LI, result, size);
         return result;
     }
 
@@ -845,12 +878,12 @@ public class CodeGenerator implements ASTVisitor<Register> {
         strNum ++;
         Register result = getRegister();
         // define String literal in data section
-        writer.println("    .data");
+        code.add(Instruction.directive("    .data"));
         String str = sl.str;
-        writer.println("STRING" + strNum + ":  .asciiz  \"" + str + "\"");
+        code.add(Instruction.directive("STRING" + strNum + ":  .asciiz  \"" + str + "\""));
         // back to text section and store the string in register
-        writer.println("    .text");
-        writer.println("    la " + result.toString() + ", STRING" + strNum);
+        code.add(Instruction.directive("    .text"));
+        emit(Opcode.LA, result, "STRING" + strNum);
         return result;
     }
 
@@ -876,16 +909,15 @@ public class CodeGenerator implements ASTVisitor<Register> {
             int size = t.type.size();
             if (vae.type instanceof StructType) {
                 size = size - 4;
-                writer.println("    addi " + result.toString() + ", " + r.toString() + ", " + size);
+                emit(Opcode.ADDI, result, r, size);
             } else if (size == 1) {
-                writer.println("    lb   " + result.toString() + ", (" + r.toString() + ")");
+                emit(Opcode.LB, result, at(0, r));
             } else if (size == 4) {
-                writer.println("    lw   " + result.toString() + ", (" + r.toString() + ")");
+                emit(Opcode.LW, result, at(0, r));
             } else {
                 // save the address
-                writer.println("    add  " + result.toString() + ", $zero, " + r.toString());
+                emit(Opcode.ADD, result, Register.zero, r);
             }
-            freeRegister(r);
             return result;
         }
     }
@@ -897,22 +929,87 @@ public class CodeGenerator implements ASTVisitor<Register> {
         Expr cond = w.cond;
         Stmt s = w.stmt;
 
-        writer.println("STARTWHILECOND" + num + ": ");
-        Register r = cond.accept(this);
-        if (r == null) {
-            return null;
-        }
-        writer.println("    bne  " + r.toString() + ", $zero, WHILESTATEMENT" + num);
-        writer.println("    j    ENDWHILE" + num);
-        writer.println("WHILESTATEMENT" + num + ": ");
+        List<InductionPointer> pointers = newInductionPointers(w);
+
+        // the condition is tested at the bottom, one branch per iteration
+        emit(Opcode.J, "STARTWHILECOND" + num);
+        label("WHILESTATEMENT" + num);
         s.accept(this);
-        writer.println("    j    STARTWHILECOND" + num);
-        writer.println("ENDWHILE" + num + ": ");
-        freeRegister(r);
+        label("STARTWHILECOND" + num);
+        branch(cond, true, "WHILESTATEMENT" + num);
+        endInductionPointers(pointers);
 
         return null;
     }
 
+    /**
+     * Jumps to target if cond is when, comparing the operands of a comparison
+     * directly rather than materialising its result, and evaluating the
+     * second operand of && and || only when the first does not decide.
+     *
+     * @return false if cond could not be evaluated
+     */
+    private boolean branch(Expr cond, boolean when, String target) {
+        Integer constant = cond instanceof IntLiteral ? Integer.valueOf(((IntLiteral) cond).number) : null;
+        if (constant != null) {
+            if ((constant != 0) == when) {
+                emit(Opcode.J, target);
+            }
+            return true;
+        }
+
+        if (cond instanceof BinOp && (((BinOp) cond).operator == Op.AND || ((BinOp) cond).operator == Op.OR)) {
+            // && jumps when both operands are true or when either is false, || the other way round
+            BinOp bo = (BinOp) cond;
+            if ((bo.operator == Op.AND) != when) {
+                return branch(bo.operandOne, when, target) && branch(bo.operandTwo, when, target);
+            }
+            String skip = "BINOPJUMP" + boNum;
+            boNum ++;
+            boolean done = branch(bo.operandOne, !when, skip) && branch(bo.operandTwo, when, target);
+            label(skip);
+            return done;
+        }
+
+        Opcode op = null;
+        if (cond instanceof BinOp) {
+            switch (((BinOp) cond).operator) {
+                case LT: op = when ? Opcode.BLT : Opcode.BGE; break;
+                case GT: op = when ? Opcode.BGT : Opcode.BLE; break;
+                case LE: op = when ? Opcode.BLE : Opcode.BGT; break;
+                case GE: op = when ? Opcode.BGE : Opcode.BLT; break;
+                case EQ: op = when ? Opcode.BEQ : Opcode.BNE; break;
+                case NE: op = when ? Opcode.BNE : Opcode.BEQ; break;
+                default: break;
+            }
+        }
+        if (op == null) {
+            Register r = cond.accept(this);
+            if (r == null) {
+                return false;
+            }
+            emit(when ? Opcode.BNE : Opcode.BEQ, r, Register.zero, target);
+            return true;
+        }
+
+        BinOp bo = (BinOp) cond;
+        Register one = operand(bo.operandOne);
+        Register two = operand(bo.operandTwo);
+        if (one == null || two == null) {
+            return false;
+        }
+        emit(op, one, two, target);
+        return true;
+    }
+
+    // the register holding the value of e, $zero for a literal 0, null if e has none
+    private Register operand(Expr e) {
+        if (e instanceof IntLiteral && ((IntLiteral) e).number == 0) {
+            return Register.zero;
+        }
+        return e.accept(this);
+    }
+
 
 
     /**
@@ -929,7 +1026,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
             offset ++;
         }
         if (rectifier != 0) {
-            writer.println("    addi " + Register.sp.toString() + ", " + Register.sp.toString() + ", -" + rectifier);
+            emit(Opcode.ADDI, Register.sp, Register.sp, -rectifier);
         }
     }
 
@@ -959,91 +1056,143 @@ public class CodeGenerator implements ASTVisitor<Register> {
         assignment functions
     */
 
+    // the address of a variable on the stack, globals are reached by their label
     private Register getVarAddress(VarExpr v) {
-        int size = v.decl.type.size();
         Register result = getRegister();
-        if (v.decl.offset == -1 && v.decl.type.size() != 0) {
-            if (v.decl.type instanceof StructType) {
-                StructType st  = ((StructType) v.decl.type);
-                String firstVarName = st.sd.varDecls.get(0).varName;
-                // varName_structName_fieldName
-                writer.println("    la   " + result.toString() + ", " + v.name + "_" + st.name + "_" + firstVarName);
-            } else {
-                writer.println("    la   " + result.toString() + ", " + v.name);
-            }
-        } else {
-            int thisOffset = offset - v.decl.offset;
-            writer.println("    addi " + result.toString() + ", " + Register.sp.toString() + ", " + thisOffset);
-        }
+        int thisOffset = offset - v.decl.offset;
+        emit(Opcode.ADDI, result, Register.sp, thisOffset);
         return result;
     }
 
     private Register getFieldAddress(FieldAccessExpr faexp) {
-
         Expr baseExp = faexp.base;
         StructType st = (StructType) baseExp.type;
-        String field = faexp.field;
-
-        // if (baseExp instanceof VarExpr) {
-        //     int thisOffset = ((VarExpr) baseExp).decl.offset;
-        //     if (thisOffset == -1) {
-        //         Register result = getRegister();
-        //         writer.println("    la   " + result.toString() + ", " + ((VarExpr) baseExp).name + "_" + st.name + "_" + field);
-        //         return result;
-        //     }
-        // }
 
-        Register result = baseExp.accept(this);
-        if (result == null) {
+        Register base = baseExp.accept(this);
+        if (base == null) {
             return null;
         }
 
-        int i = 0;
-        for (i = 0; i < st.sd.varDecls.size(); i ++) {
-            VarDecl vd = st.sd.varDecls.get(i);
-            if (vd.varName.equals(field)) {
-                break;
-            }
-        }
-        i = i * -4;
-
-        writer.println("    add  " + result.toString() + ", " + result.toString() + ", " + i);
-
-        return result;
+        // the offset of the field is left for the store to add
+        displacement = -st.sd.layout().offsetOf(faexp.index);
+        return base;
     }
 
     private Register getArrayAccessAddress(ArrayAccessExpr aae) {
         Expr vd = aae.base;
         ArrayType at = (ArrayType) vd.type;
         int elemSize = at.type.size();
+        int step = step(aae);
+
+        // a[i + c] is c elements away from the induction pointer of a[i]
+        if (vd instanceof VarExpr) {
+            VarDecl i = InductionVariables.indexVariable(aae.index);
+            for (int k = inductionPointers.size() - 1; k >= 0; k--) {
+                InductionPointer ip = inductionPointers.get(k);
+                if (ip.walk.index == i && ip.walk.array == ((VarExpr) vd).decl) {
+                    displacement = InductionVariables.offsetFrom(aae.index, i) * step;
+                    return ip.pointer;
+                }
+            }
+        }
 
         Register base = vd.accept(this);
         if (base == null) {
             return null;
         }
+
+        // a constant index is folded into the displacement
+        if (aae.index instanceof IntLiteral || aae.index instanceof ChrLiteral) {
+            int index = aae.index instanceof IntLiteral
+                    ? ((IntLiteral) aae.index).number : (int) ((ChrLiteral) aae.index).character;
+            long d = (long) index * step;
+            if (d >= -32768 && d <= 32767) {
+                displacement = (int) d;
+                return base;
+            }
+        }
+
         Register index = aae.index.accept(this);
         if (index == null) {
-            freeRegister(base);
             return null;
         }
 
         Register result = getRegister();
-
-        int storageDirection = -1 * elemSize;
-        if (vd instanceof VarExpr) {
-            storageDirection = (((VarExpr) vd).decl.offset == -1) ? (elemSize) : (-1 * elemSize);
-        }
-        writer.println("    li   " + result.toString() + ", " + storageDirection);
-        writer.println("    mult " + result.toString() + ", " + index.toString());
-        writer.println("    mflo " + result.toString());
-        writer.println("    add  " + result.toString() + ", " + base.toString() + ", " + result.toString());
+        emitElementAddress(result, base, index, elemSize, step);
         // now result stores the address of the target element
+        displacement = 0;
 
-        freeRegister(base);
-        freeRegister(index);
         return result;
     }
 
+    // the step from an element of the array of aae to the next one
+    private static int step(ArrayAccessExpr aae) {
+        int elemSize = ((ArrayType) aae.base.type).type.size();
+        if (aae.base instanceof VarExpr && ((VarExpr) aae.base).decl.offset == -1) {
+            return elemSize;
+        }
+        return -elemSize;
+    }
+
+    // result = base + index * step
+    private void emitElementAddress(Register result, Register base, Register index, int elemSize, int step) {
+        int shift = Integer.numberOfTrailingZeros(elemSize);
+        if (elemSize > 0 && elemSize == 1 << shift) {
+            Opcode op = step < 0 ? Opcode.SUB : Opcode.ADD;
+            if (shift == 0) {
+                emit(op, result, base, index);
+            } else {
+                emit(Opcode.SLL, result, index, shift);
+                emit(op, result, base, result);
+            }
+        } else {
+            emit(Opcode.LI, result, step);
+            emit(Opcode.MULT, result, index);
+            emit(Opcode.MFLO, result);
+            emit(Opcode.ADD, result, base, result);
+        }
+    }
+
+    // the shift multiplying by e, for a literal power of two, else -1
+    private static int shift(Expr e) {
+        if (e instanceof IntLiteral) {
+            int n = ((IntLiteral) e).number;
+            if (n > 0 && (n & (n - 1)) == 0) {
+                return Integer.numberOfTrailingZeros(n);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sets up the induction pointers of a while loop, before it starts.
+     */
+    private List<InductionPointer> newInductionPointers(While w) {
+        List<InductionPointer> pointers = new ArrayList<InductionPointer>();
+        InductionVariables iv = new InductionVariables(w, locals.keySet());
+        for (InductionVariables.Walk walk : iv.walks) {
+            VarExpr array = new VarExpr(walk.array.varName);
+            array.decl = walk.array;
+            array.type = walk.array.type;
+            Register base = array.accept(this);
+            if (base == null) {
+                continue;
+            }
+            int elemSize = ((ArrayType) walk.array.type).type.size();
+            int step = walk.array.offset == -1 ? elemSize : -elemSize;
+            Register pointer = getRegister();
+            emitElementAddress(pointer, base, locals.get(walk.index), elemSize, step);
+            pointers.add(new InductionPointer(walk, step, pointer));
+        }
+        inductionPointers.addAll(pointers);
+        inductionSteps.putAll(iv.steps);
+        return pointers;
+    }
+
+    private void endInductionPointers(List<InductionPointer> pointers) {
+        inductionPointers.removeAll(pointers);
+    }
+
     /**
         build-in functions
     */
@@ -0,0 +1,423 @@
+package gen;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Graph colouring register allocation (Chaitin, with the optimistic colouring
+ * of Briggs) of the code of one function, written with virtual registers.
+ * Slower than linear scan, it removes moves, and picks what to spill by the
+ * estimated cost of the spill code rather than by where live ranges end. It
+ * may spill more virtual registers than linear scan, cheaper ones.
+ *
+ * The interference graph has a node for every virtual register and one for
+ * each of $a0-$a3, which are precoloured: the moves the code generator emits
+ * to pass arguments (add $aN, $zero, rX) and to take parameters (add rX, $zero,
+ * $aN) can then be coalesced, rX being computed directly in $aN. Moves between
+ * virtual registers are coalesced too. Coalescing is conservative, so that it
+ * never makes the graph harder to colour: the Briggs test for two virtual
+ * registers, the George test for a virtual and a precoloured one.
+ *
+ * Nodes of degree lower than their number of colours are then removed from
+ * the graph one by one; when there is none, the one with the lowest spill
+ * cost (uses and definitions, ten times more in every loop around them) over
+ * degree is removed anyway, and only spilled if no colour is left for it
+ * when the nodes are put back. Cost over degree tends to spill many short
+ * values held across calls where a few long ones would do, so the graph is
+ * also coloured picking by cost over the square of the degree, and the
+ * colouring whose spilled nodes cost least is kept (Bernstein et al.).
+ *
+ * A value live across a jal can only be in $s0-$s7; others can also be in
+ * $t0-$t7 and $a0-$a3, which are preferred as they need not be saved.
+ */
+public class GraphColouringAllocator extends RegisterAllocator {
+
+    private static final List<Register> allColours = new ArrayList<Register>();
+    static {
+        allColours.addAll(Register.callerSavedRegs);
+        for (Register r : Register.paramRegs) {
+            allColours.add(r);
+        }
+        allColours.addAll(Register.savedRegs);
+    }
+
+    private int virtualCount;
+
+    // the arguments in $a0-$a3 every call reads: the ones set since the last call
+    private BitSet[] callArgs;
+
+    private BitSet[] adjacent;
+    private boolean[] acrossCall;
+    private double[] cost;
+    private boolean[] present;
+    private List<int[]> moves;
+    private int[] alias;
+    private Register[] colour;
+
+    @Override
+    protected void assign(int virtualCount) {
+        this.virtualCount = virtualCount;
+        findCallArgs();
+        liveness(virtualCount + Register.paramRegs.length);
+        build();
+        coalesce();
+        colour();
+    }
+
+    private int nodeOf(Register r) {
+        for (int k = 0; k < Register.paramRegs.length; k++) {
+            if (Register.paramRegs[k] == r) {
+                return virtualCount + k;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isPrecoloured(int node) {
+        return node >= virtualCount;
+    }
+
+    @Override
+    protected int[] defs(int i) {
+        Instruction ins = code.get(i);
+        List<Integer> defs = new ArrayList<Integer>();
+        if (ins.def >= 0) {
+            defs.add(ins.def);
+        }
+        if (ins.isCall()) {
+            for (Register r : Register.paramRegs) {
+                defs.add(nodeOf(r));
+            }
+        } else if (nodeOf(ins.physicalDef) >= 0) {
+            defs.add(nodeOf(ins.physicalDef));
+        }
+        return toArray(defs);
+    }
+
+    @Override
+    protected int[] uses(int i) {
+        Instruction ins = code.get(i);
+        List<Integer> uses = new ArrayList<Integer>();
+        for (int u : ins.uses) {
+            uses.add(u);
+        }
+        for (Register r : ins.physicalUses) {
+            if (nodeOf(r) >= 0) {
+                uses.add(nodeOf(r));
+            }
+        }
+        if (ins.isCall()) {
+            for (int k = callArgs[i].nextSetBit(0); k >= 0; k = callArgs[i].nextSetBit(k + 1)) {
+                uses.add(virtualCount + k);
+            }
+        }
+        return toArray(uses);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int k = 0; k < array.length; k++) {
+            array[k] = list.get(k);
+        }
+        return array;
+    }
+
+    private void findCallArgs() {
+        callArgs = new BitSet[code.size()];
+        BitSet set = new BitSet();
+        for (int i = 0; i < code.size(); i++) {
+            Instruction ins = code.get(i);
+            if (ins.label != null) {
+                set = new BitSet();
+            }
+            int node = nodeOf(ins.physicalDef);
+            if (node >= 0) {
+                set.set(node - virtualCount);
+            }
+            if (ins.isCall()) {
+                callArgs[i] = set;
+                set = new BitSet();
+            }
+        }
+    }
+
+    private void build() {
+        int nodes = virtualCount + Register.paramRegs.length;
+        adjacent = new BitSet[nodes];
+        for (int x = 0; x < nodes; x++) {
+            adjacent[x] = new BitSet(nodes);
+        }
+        acrossCall = new boolean[nodes];
+        cost = new double[nodes];
+        present = new boolean[virtualCount];
+        moves = new ArrayList<int[]>();
+
+        // loop nesting depth of every instruction, from the branches going back
+        int[] depth = new int[code.size()];
+        for (int j = 0; j < code.size(); j++) {
+            Instruction ins = code.get(j);
+            if (ins.isBranch() || ins.isJump()) {
+                for (int t = j; t >= 0; t--) {
+                    if (ins.target().equals(code.get(t).label)) {
+                        for (int i = t; i <= j; i++) {
+                            depth[i]++;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        for (int b = 0; b < first.length; b++) {
+            BitSet live = (BitSet) liveOut[b].clone();
+            for (int i = last[b]; i >= first[b]; i--) {
+                Instruction ins = code.get(i);
+                int[] defs = defs(i);
+                int[] uses = uses(i);
+
+                if (ins.isCall()) {
+                    for (int v = live.nextSetBit(0); v >= 0; v = live.nextSetBit(v + 1)) {
+                        acrossCall[v] = true;
+                    }
+                }
+                // the destination of a move does not interfere with its source
+                int source = -1;
+                if (ins.isMove() && defs.length == 1 && uses.length == 1) {
+                    source = uses[0];
+                    moves.add(new int[] {defs[0], source});
+                }
+                for (int d : defs) {
+                    for (int v = live.nextSetBit(0); v >= 0; v = live.nextSetBit(v + 1)) {
+                        if (v != d && v != source) {
+                            addEdge(d, v);
+                        }
+                    }
+                }
+                for (int d : defs) {
+                    live.clear(d);
+                }
+                for (int u : uses) {
+                    live.set(u);
+                }
+
+                double weight = Math.pow(10, Math.min(depth[i], 5));
+                for (int d : defs) {
+                    occurs(d, weight);
+                }
+                for (int u : uses) {
+                    occurs(u, weight);
+                }
+            }
+        }
+    }
+
+    private void addEdge(int x, int y) {
+        if (!isPrecoloured(x) || !isPrecoloured(y)) {
+            adjacent[x].set(y);
+            adjacent[y].set(x);
+        }
+    }
+
+    private void occurs(int node, double weight) {
+        if (!isPrecoloured(node)) {
+            present[node] = true;
+            cost[node] += weight;
+        }
+    }
+
+    private int colours(int node) {
+        return acrossCall[node] ? Register.savedRegs.size() : allColours.size();
+    }
+
+    private boolean significant(int node) {
+        return isPrecoloured(node) || adjacent[node].cardinality() >= colours(node);
+    }
+
+    private int find(int node) {
+        while (alias[node] != node) {
+            node = alias[node];
+        }
+        return node;
+    }
+
+    private void coalesce() {
+        alias = new int[adjacent.length];
+        for (int x = 0; x < alias.length; x++) {
+            alias[x] = x;
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int[] move : moves) {
+                int a = find(move[0]);
+                int b = find(move[1]);
+                if (isPrecoloured(b)) {
+                    int t = a;
+                    a = b;
+                    b = t;
+                }
+                if (a == b || isPrecoloured(b) || adjacent[a].get(b)) {
+                    continue;
+                }
+                if (isPrecoloured(a) ? george(a, b) : briggs(a, b)) {
+                    merge(a, b);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // every neighbour of b already interferes with the precoloured a, or is harmless
+    private boolean george(int a, int b) {
+        if (acrossCall[b]) {
+            return false;
+        }
+        BitSet neighbours = adjacent[b];
+        for (int t = neighbours.nextSetBit(0); t >= 0; t = neighbours.nextSetBit(t + 1)) {
+            if (!isPrecoloured(t) && !adjacent[t].get(a) && significant(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the merged node has fewer neighbours of significant degree than colours
+    private boolean briggs(int a, int b) {
+        int colours = acrossCall[a] || acrossCall[b] ? Register.savedRegs.size() : allColours.size();
+        BitSet neighbours = (BitSet) adjacent[a].clone();
+        neighbours.or(adjacent[b]);
+        int count = 0;
+        for (int t = neighbours.nextSetBit(0); t >= 0; t = neighbours.nextSetBit(t + 1)) {
+            if (significant(t)) {
+                count++;
+            }
+        }
+        return count < colours;
+    }
+
+    private void merge(int a, int b) {
+        alias[b] = a;
+        BitSet neighbours = adjacent[b];
+        for (int t = neighbours.nextSetBit(0); t >= 0; t = neighbours.nextSetBit(t + 1)) {
+            adjacent[t].clear(b);
+            addEdge(a, t);
+        }
+        adjacent[b] = new BitSet();
+        acrossCall[a] |= acrossCall[b];
+        cost[a] += cost[b];
+    }
+
+    private void colour() {
+        List<Integer> nodes = new ArrayList<Integer>();
+        for (int v = 0; v < virtualCount; v++) {
+            if (present[v] && find(v) == v) {
+                nodes.add(v);
+            }
+        }
+
+        // colour with both spill heuristics, keeping the colouring whose spills cost least
+        List<Integer> stack = null;
+        double spillCost = 0;
+        for (int power = 1; power <= 2; power++) {
+            List<Integer> order = simplify(nodes, power);
+            Register[] result = select(order);
+            double c = 0;
+            for (int v : nodes) {
+                if (result[v] == null) {
+                    c += cost[v];
+                }
+            }
+            if (stack == null || c < spillCost) {
+                stack = order;
+                spillCost = c;
+                colour = result;
+            }
+        }
+
+        int[] slot = new int[adjacent.length];
+        for (int k = stack.size() - 1; k >= 0; k--) {
+            int v = stack.get(k);
+            if (colour[v] == null) {
+                spill(v);
+                slot[v] = spills - 1;
+            }
+        }
+        for (int v = 0; v < virtualCount; v++) {
+            if (present[v]) {
+                int r = find(v);
+                assigned[v] = colour[r];
+                if (colour[r] == null) {
+                    spillSlot[v] = slot[r];
+                }
+            }
+        }
+    }
+
+    // removes the nodes one by one, those of low degree first, and when stuck the
+    // one of lowest cost over degree to the power given; returns them in order
+    private List<Integer> simplify(List<Integer> graph, int power) {
+        List<Integer> nodes = new ArrayList<Integer>(graph);
+        int[] degree = new int[adjacent.length];
+        for (int v : nodes) {
+            degree[v] = adjacent[v].cardinality();
+        }
+
+        List<Integer> stack = new ArrayList<Integer>();
+        while (!nodes.isEmpty()) {
+            int pick = -1;
+            for (int v : nodes) {
+                if (degree[v] < colours(v)) {
+                    pick = v;
+                    break;
+                }
+            }
+            if (pick < 0) {
+                for (int v : nodes) {
+                    if (pick < 0 || cost[v] / Math.pow(degree[v], power) < cost[pick] / Math.pow(degree[pick], power)) {
+                        pick = v;
+                    }
+                }
+            }
+            nodes.remove(Integer.valueOf(pick));
+            stack.add(pick);
+            BitSet neighbours = adjacent[pick];
+            for (int t = neighbours.nextSetBit(0); t >= 0; t = neighbours.nextSetBit(t + 1)) {
+                degree[t]--;
+            }
+        }
+        return stack;
+    }
+
+    // puts the nodes back in the reverse order, each taking a colour its neighbours do not have
+    private Register[] select(List<Integer> stack) {
+        colour = new Register[adjacent.length];
+        for (int k = 0; k < Register.paramRegs.length; k++) {
+            colour[virtualCount + k] = Register.paramRegs[k];
+        }
+        for (int k = stack.size() - 1; k >= 0; k--) {
+            int v = stack.get(k);
+            List<Register> free = new ArrayList<Register>(acrossCall[v] ? Register.savedRegs : allColours);
+            BitSet neighbours = adjacent[v];
+            for (int t = neighbours.nextSetBit(0); t >= 0; t = neighbours.nextSetBit(t + 1)) {
+                free.remove(colour[t]);
+            }
+            if (!free.isEmpty()) {
+                colour[v] = preferred(v, free);
+            }
+        }
+        return colour;
+    }
+
+    // a colour already given to a node v moves to or from, so the move goes, else the first free
+    private Register preferred(int v, List<Register> free) {
+        for (int[] move : moves) {
+            int other = find(move[0]) == v ? find(move[1]) : find(move[1]) == v ? find(move[0]) : -1;
+            if (other >= 0 && colour[other] != null && free.contains(colour[other])) {
+                return colour[other];
+            }
+        }
+        return free.get(0);
+    }
+}
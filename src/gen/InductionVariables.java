@@ -0,0 +1,194 @@
+package gen;
+
+import ast.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The arrays a while loop walks through: an induction variable is a local
+ * kept in a register that the body only changes by statements i = i + c (or
+ * i - c) of its own, not nested in any other, and an array it walks through
+ * is one declared outside the loop, of ints, chars or pointers, indexed by
+ * i, i + c or i - c somewhere in the loop.
+ */
+class InductionVariables {
+
+    // the largest step, for the step of an address to fit in an immediate
+    private static final int MAX_STEP = 4096;
+
+    /**
+     * An array a walked through by an induction variable i.
+     */
+    static class Walk {
+        final VarDecl index;
+        final VarDecl array;
+
+        Walk(VarDecl index, VarDecl array) {
+            this.index = index;
+            this.array = array;
+        }
+    }
+
+    // the walks, in the order of their first access
+    final List<Walk> walks = new ArrayList<Walk>();
+
+    // the statements stepping the induction variables walking arrays, with their steps
+    final Map<Assign, Integer> steps = new IdentityHashMap<Assign, Integer>();
+
+    private final List<Assign> assigns = new ArrayList<Assign>();
+    private final List<ArrayAccessExpr> accesses = new ArrayList<ArrayAccessExpr>();
+    private final Set<VarDecl> declared = Collections.newSetFromMap(new IdentityHashMap<VarDecl, Boolean>());
+
+    /**
+     * @param registers the locals of the function kept in registers
+     */
+    InductionVariables(While w, Set<VarDecl> registers) {
+        collect(w.cond);
+        collect(w.stmt);
+
+        List<Stmt> top = w.stmt instanceof Block ? ((Block) w.stmt).stmts : Collections.singletonList(w.stmt);
+        Map<VarDecl, Boolean> candidates = new IdentityHashMap<VarDecl, Boolean>();
+        Map<Assign, Integer> allSteps = new IdentityHashMap<Assign, Integer>();
+        for (Assign a : assigns) {
+            if (!(a.assignee instanceof VarExpr)) {
+                continue;
+            }
+            VarDecl i = ((VarExpr) a.assignee).decl;
+            Integer c = top.contains(a) ? offsetFrom(a.assigner, i) : null;
+            if (c == null || Math.abs(c) > MAX_STEP) {
+                candidates.put(i, false);
+            } else if (!candidates.containsKey(i)) {
+                candidates.put(i, true);
+                allSteps.put(a, c);
+            } else {
+                allSteps.put(a, c);
+            }
+        }
+
+        for (ArrayAccessExpr aae : accesses) {
+            if (!(aae.base instanceof VarExpr)) {
+                continue;
+            }
+            VarDecl array = ((VarExpr) aae.base).decl;
+            Type elem = ((ArrayType) array.type).type;
+            if (declared.contains(array) || elem instanceof StructType || (elem.size() != 1 && elem.size() != 4)) {
+                continue;
+            }
+            VarDecl i = indexVariable(aae.index);
+            if (i == null || !Boolean.TRUE.equals(candidates.get(i)) || !registers.contains(i)
+                    || declared.contains(i) || i.type != BaseType.INT) {
+                continue;
+            }
+            if (offsetFrom(aae.index, i) == null || Math.abs(offsetFrom(aae.index, i)) > MAX_STEP) {
+                continue;
+            }
+            if (find(i, array) == null) {
+                walks.add(new Walk(i, array));
+            }
+        }
+
+        for (Map.Entry<Assign, Integer> e : allSteps.entrySet()) {
+            VarDecl i = ((VarExpr) e.getKey().assignee).decl;
+            for (Walk walk : walks) {
+                if (walk.index == i) {
+                    steps.put(e.getKey(), e.getValue());
+                    break;
+                }
+            }
+        }
+    }
+
+    Walk find(VarDecl index, VarDecl array) {
+        for (Walk walk : walks) {
+            if (walk.index == index && walk.array == array) {
+                return walk;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the variable of an index i, i + c, c + i or i - c, else null
+     */
+    static VarDecl indexVariable(Expr e) {
+        if (e instanceof VarExpr) {
+            return ((VarExpr) e).decl;
+        } else if (e instanceof BinOp) {
+            BinOp bo = (BinOp) e;
+            if (bo.operandOne instanceof VarExpr && bo.operandTwo instanceof IntLiteral
+                    && (bo.operator == Op.ADD || bo.operator == Op.SUB)) {
+                return ((VarExpr) bo.operandOne).decl;
+            } else if (bo.operandTwo instanceof VarExpr && bo.operandOne instanceof IntLiteral && bo.operator == Op.ADD) {
+                return ((VarExpr) bo.operandTwo).decl;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return c for an expression i, i + c, c + i or i - c, else null
+     */
+    static Integer offsetFrom(Expr e, VarDecl i) {
+        if (indexVariable(e) != i) {
+            return null;
+        } else if (e instanceof VarExpr) {
+            return 0;
+        }
+        BinOp bo = (BinOp) e;
+        if (bo.operandOne instanceof IntLiteral) {
+            return ((IntLiteral) bo.operandOne).number;
+        }
+        int c = ((IntLiteral) bo.operandTwo).number;
+        return bo.operator == Op.SUB ? -c : c;
+    }
+
+    private void collect(ASTNode n) {
+        if (n instanceof Block) {
+            declared.addAll(((Block) n).varDecls);
+            for (Stmt s : ((Block) n).stmts) {
+                collect(s);
+            }
+        } else if (n instanceof While) {
+            collect(((While) n).cond);
+            collect(((While) n).stmt);
+        } else if (n instanceof If) {
+            collect(((If) n).cond);
+            collect(((If) n).ifStmt);
+            if (((If) n).elseStmt != null) {
+                collect(((If) n).elseStmt);
+            }
+        } else if (n instanceof Assign) {
+            assigns.add((Assign) n);
+            collect(((Assign) n).assignee);
+            collect(((Assign) n).assigner);
+        } else if (n instanceof ExprStmt) {
+            collect(((ExprStmt) n).exp);
+        } else if (n instanceof Return) {
+            if (((Return) n).exp != null) {
+                collect(((Return) n).exp);
+            }
+        } else if (n instanceof ArrayAccessExpr) {
+            accesses.add((ArrayAccessExpr) n);
+            collect(((ArrayAccessExpr) n).base);
+            collect(((ArrayAccessExpr) n).index);
+        } else if (n instanceof BinOp) {
+            collect(((BinOp) n).operandOne);
+            collect(((BinOp) n).operandTwo);
+        } else if (n instanceof FieldAccessExpr) {
+            collect(((FieldAccessExpr) n).base);
+        } else if (n instanceof ValueAtExpr) {
+            collect(((ValueAtExpr) n).exp);
+        } else if (n instanceof TypecastExpr) {
+            collect(((TypecastExpr) n).exp);
+        } else if (n instanceof FunCallExpr) {
+            for (Expr e : ((FunCallExpr) n).params) {
+                collect(e);
+            }
+        }
+    }
+}
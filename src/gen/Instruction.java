@@ -0,0 +1,218 @@
+package gen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One element of the code generated for a function, as the register
+ * allocator works on it: an instruction, a label, or a directive.
+ *
+ * The operands of an instruction are kept as they were emitted: registers
+ * (virtual or real), Integer immediates, String labels and Address memory
+ * operands. The virtual registers it writes and reads follow from its opcode
+ * and operands, and it is only printed once the allocator has replaced them
+ * with real ones.
+ */
+public class Instruction {
+
+    /**
+     * A memory operand, offset(base).
+     */
+    public static final class Address {
+        public final int offset;
+        public final Register base;
+
+        public Address(int offset, Register base) {
+            this.offset = offset;
+            this.base = base;
+        }
+    }
+
+    public final String label;      // the label, for a label alone
+    public final String directive;  // the line, for a directive
+    public final Opcode opcode;     // null for a label or a directive
+    private final Object[] operands;
+    private String comment;
+
+    // the virtual register written by the instruction (-1 if none), and the ones it reads
+    public final int def;
+    public final int[] uses;
+
+    // the same for the real registers named in the instruction
+    public final Register physicalDef;
+    public final List<Register> physicalUses;
+
+    private Instruction(String label, String directive, Opcode opcode, Object[] operands) {
+        this.label = label;
+        this.directive = directive;
+        this.opcode = opcode;
+        this.operands = operands;
+
+        int def = -1;
+        List<Integer> uses = new ArrayList<Integer>();
+        Register physicalDef = null;
+        List<Register> physicalUses = new ArrayList<Register>();
+        for (int i = 0; i < operands.length; i++) {
+            Register r;
+            if (operands[i] instanceof Register) {
+                r = (Register) operands[i];
+            } else if (operands[i] instanceof Address) {
+                r = ((Address) operands[i]).base;
+            } else {
+                continue;
+            }
+            boolean written = i == 0 && opcode.writesFirst() && operands[i] instanceof Register;
+            if (r.isVirtual()) {
+                if (written) {
+                    def = r.virtualNumber();
+                } else if (!uses.contains(r.virtualNumber())) {
+                    uses.add(r.virtualNumber());
+                }
+            } else if (written) {
+                physicalDef = r;
+            } else if (!physicalUses.contains(r)) {
+                physicalUses.add(r);
+            }
+        }
+        this.def = def;
+        this.uses = new int[uses.size()];
+        for (int i = 0; i < this.uses.length; i++) {
+            this.uses[i] = uses.get(i);
+        }
+        this.physicalDef = physicalDef;
+        this.physicalUses = physicalUses;
+    }
+
+    /**
+     * @return the instruction opcode operands, each a Register, an Integer,
+     *         a String label or an Address
+     */
+    public static Instruction of(Opcode opcode, Object... operands) {
+        for (Object operand : operands) {
+            if (!(operand instanceof Register || operand instanceof Integer || operand instanceof String
+                    || operand instanceof Address)) {
+                throw new IllegalArgumentException("not an operand: " + operand);
+            }
+        }
+        return new Instruction(null, null, opcode, operands);
+    }
+
+    public static Instruction label(String label) {
+        return new Instruction(label, null, null, new Object[0]);
+    }
+
+    /**
+     * @return the directive line, such as .data or a string literal, printed
+     *         as it is
+     */
+    public static Instruction directive(String line) {
+        return new Instruction(null, line, null, new Object[0]);
+    }
+
+    /**
+     * Sets the comment printed after the instruction.
+     *
+     * @return this instruction
+     */
+    public Instruction comment(String comment) {
+        this.comment = comment;
+        return this;
+    }
+
+    public boolean isBranch() {
+        return opcode != null && opcode.isBranch();
+    }
+
+    public boolean isJump() {
+        return opcode == Opcode.J;
+    }
+
+    public boolean isReturn() {
+        return opcode == Opcode.JR;
+    }
+
+    public boolean isCall() {
+        return opcode == Opcode.JAL;
+    }
+
+    /**
+     * @return whether the instruction copies a register to another one, as
+     *         the code generators do with add  rd, $zero, rs
+     */
+    public boolean isMove() {
+        if (opcode == Opcode.MOVE) {
+            return true;
+        }
+        return opcode == Opcode.ADD && operands[1] == Register.zero && operands[2] instanceof Register;
+    }
+
+    /**
+     * @return the register a move copies, with the virtual ones replaced
+     */
+    public Register moveSource(Register[] regs) {
+        return register((Register) operands[operands.length - 1], regs);
+    }
+
+    /**
+     * @return the register a move writes, with the virtual ones replaced
+     */
+    public Register moveDestination(Register[] regs) {
+        return register((Register) operands[0], regs);
+    }
+
+    /**
+     * @return whether the instruction sets $fp to $sp, as functions start
+     */
+    public boolean isFrameSetup() {
+        return opcode == Opcode.ADD && operands[0] == Register.fp && operands[1] == Register.sp
+                && operands[2] == Register.zero;
+    }
+
+    /**
+     * @return the label a branch or jump goes to
+     */
+    public String target() {
+        return (String) operands[operands.length - 1];
+    }
+
+    private static Register register(Register r, Register[] regs) {
+        return r.isVirtual() && regs != null ? regs[r.virtualNumber()] : r;
+    }
+
+    /**
+     * @return the line of assembly of the instruction, with the virtual
+     *         registers replaced (regs[n] for $xN)
+     */
+    public String toString(Register[] regs) {
+        if (label != null) {
+            return label + ":";
+        }
+        if (opcode == null) {
+            return directive;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Object operand : operands) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            if (operand instanceof Register) {
+                sb.append(register((Register) operand, regs));
+            } else if (operand instanceof Address) {
+                Address a = (Address) operand;
+                sb.append(a.offset).append('(').append(register(a.base, regs)).append(')');
+            } else {
+                sb.append(operand);
+            }
+        }
+        String line = String.format("    %-4s %s", opcode, sb);
+        return comment == null ? line : line + "    #" + comment;
+    }
+
+    /**
+     * @return the line of assembly of the instruction, with virtual
+     *         registers as $xN
+     */
+    public String toString() {
+        return toString(null);
+    }
+}
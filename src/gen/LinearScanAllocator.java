@@ -0,0 +1,150 @@
+package gen;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Linear scan register allocation (Poletto and Sarkar) of the code of one
+ * function, written with virtual registers.
+ *
+ * Liveness is solved over the basic blocks of the instruction list, and every
+ * virtual register gets a single live interval from its first to its last
+ * live point. Intervals are then visited by increasing start, keeping the
+ * active ones sorted by end: an interval takes a free register, or the one
+ * of the active interval ending last, which is spilled instead (unless it
+ * ends before the new one, in which case the new one is spilled).
+ *
+ * A value live across a jal goes to one of the callee-saved $s0-$s7; other
+ * values prefer the $t registers. A value copied from another one takes its
+ * register if that is free by then, which leaves the move out.
+ */
+public class LinearScanAllocator extends RegisterAllocator {
+
+    // the live interval of every virtual register, in positions: instruction i
+    // reads its operands at 2i and writes its result at 2i + 1
+    private int[] start;
+    private int[] end;
+    private boolean[] acrossCall;
+
+    // the virtual register each one is copied from, -1 if none
+    private int[] moveSource;
+
+    @Override
+    protected void assign(int virtualCount) {
+        intervals(virtualCount);
+        scan(virtualCount);
+    }
+
+    private void intervals(int virtualCount) {
+        liveness(virtualCount);
+
+        // intervals, walking every block backwards from its live-out set
+        start = new int[virtualCount];
+        end = new int[virtualCount];
+        acrossCall = new boolean[virtualCount];
+        moveSource = new int[virtualCount];
+        for (int v = 0; v < virtualCount; v++) {
+            start[v] = Integer.MAX_VALUE;
+            end[v] = -1;
+            moveSource[v] = -1;
+        }
+        for (Instruction ins : code) {
+            if (ins.isMove() && ins.def >= 0 && ins.uses.length == 1) {
+                moveSource[ins.def] = ins.uses[0];
+            }
+        }
+        for (int b = 0; b < first.length; b++) {
+            BitSet live = (BitSet) liveOut[b].clone();
+            for (int i = last[b]; i >= first[b]; i--) {
+                Instruction ins = code.get(i);
+                for (int v = live.nextSetBit(0); v >= 0; v = live.nextSetBit(v + 1)) {
+                    extend(v, 2 * i + 1);
+                    if (ins.isCall()) {
+                        acrossCall[v] = true;
+                    }
+                }
+                if (ins.def >= 0) {
+                    extend(ins.def, 2 * i + 1);
+                    live.clear(ins.def);
+                }
+                for (int u : ins.uses) {
+                    extend(u, 2 * i);
+                    live.set(u);
+                }
+                for (int v = live.nextSetBit(0); v >= 0; v = live.nextSetBit(v + 1)) {
+                    extend(v, 2 * i);
+                }
+            }
+        }
+    }
+
+    private void extend(int v, int position) {
+        start[v] = Math.min(start[v], position);
+        end[v] = Math.max(end[v], position);
+    }
+
+    private void scan(int virtualCount) {
+        List<Integer> intervals = new ArrayList<Integer>();
+        for (int v = 0; v < virtualCount; v++) {
+            if (end[v] >= 0) {
+                intervals.add(v);
+            }
+        }
+        Collections.sort(intervals, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return start[a] != start[b] ? start[a] - start[b] : a - b;
+            }
+        });
+
+        List<Register> freeTemps = new ArrayList<Register>(Register.callerSavedRegs);
+        List<Register> freeSaved = new ArrayList<Register>(Register.savedRegs);
+        List<Integer> active = new ArrayList<Integer>(); // sorted by end
+
+        for (int v : intervals) {
+            // expire the intervals ending before this one starts
+            while (!active.isEmpty() && end[active.get(0)] < start[v]) {
+                Register r = assigned[active.remove(0)];
+                (Register.savedRegs.contains(r) ? freeSaved : freeTemps).add(r);
+            }
+
+            Register source = moveSource[v] >= 0 ? assigned[moveSource[v]] : null;
+            if (source != null && !acrossCall[v] && freeTemps.remove(source)) {
+                assigned[v] = source;
+            } else if (source != null && freeSaved.remove(source)) {
+                assigned[v] = source;
+            } else if (!acrossCall[v] && !freeTemps.isEmpty()) {
+                assigned[v] = freeTemps.remove(0);
+            } else if (!freeSaved.isEmpty()) {
+                assigned[v] = freeSaved.remove(0);
+            } else {
+                // spill the active interval ending last whose register v can use, or v
+                int victim = -1;
+                for (int k = active.size() - 1; k >= 0; k--) {
+                    int a = active.get(k);
+                    if (!acrossCall[v] || Register.savedRegs.contains(assigned[a])) {
+                        victim = a;
+                        break;
+                    }
+                }
+                if (victim >= 0 && end[victim] > end[v]) {
+                    assigned[v] = assigned[victim];
+                    assigned[victim] = null;
+                    active.remove(Integer.valueOf(victim));
+                    spill(victim);
+                } else {
+                    spill(v);
+                    continue;
+                }
+            }
+
+            int k = 0;
+            while (k < active.size() && end[active.get(k)] <= end[v]) {
+                k++;
+            }
+            active.add(k, v);
+        }
+    }
+}
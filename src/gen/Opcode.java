@@ -0,0 +1,50 @@
+package gen;
+
+/**
+ * The instructions the code generators emit into the code of a function,
+ * including the MARS pseudo-instructions among them (li, la, move, blt...).
+ * The register allocator tells the registers an instruction writes from the
+ * ones it reads by its opcode, so an instruction can only be emitted if it
+ * is listed here.
+ */
+public enum Opcode {
+    ADD, ADDI, SUB, MUL, MULT, DIV, MFLO, MFHI,
+    XOR, XORI, SLL, SLT, SLTI, SLTU, SLTIU,
+    LI, LA, MOVE, LW, LB, SW, SB,
+    BEQ, BNE, BLT, BGT, BLE, BGE, BLTZ, BGTZ, BLEZ, BGEZ,
+    J, JAL, JR;
+
+    /**
+     * @return whether the first operand is the register the instruction
+     *         writes, rather than one it reads
+     */
+    public boolean writesFirst() {
+        switch (this) {
+            case MULT:
+            case DIV:
+            case SW:
+            case SB:
+                return false;
+            default:
+                return !isBranch() && !isJump();
+        }
+    }
+
+    /**
+     * @return whether the instruction is a conditional branch
+     */
+    public boolean isBranch() {
+        return ordinal() >= BEQ.ordinal() && ordinal() <= BGEZ.ordinal();
+    }
+
+    /**
+     * @return whether the instruction is a jump, a call or a return
+     */
+    public boolean isJump() {
+        return ordinal() >= J.ordinal();
+    }
+
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
@@ -1,7 +1,9 @@
 package gen;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author cdubach
@@ -9,10 +11,13 @@ import java.util.List;
 public class Register {
 
 
+    private static final Map<String, Register> byName = new HashMap<String, Register>();
+
     /*
      * definition of registers
      */
 
+    public static final Register zero = new Register(0,"zero");
     public static final Register v0 = new Register(2,"v0");
     public static final Register[] paramRegs = {
             new Register(4,"a0"),
@@ -30,6 +35,22 @@ public class Register {
             tmpRegs.add(new Register(i,"t"+(i-24+8)));
     }
 
+    // callee-saved ($s0-$s7) and caller-saved ($t0-$t7) registers the allocator hands out
+    public static final List<Register> savedRegs = new ArrayList<Register>();
+    public static final List<Register> callerSavedRegs = new ArrayList<Register>();
+    static {
+        for (Register r : tmpRegs) {
+            if (r.name.startsWith("s")) {
+                savedRegs.add(r);
+            } else if (r.num < 24) {
+                callerSavedRegs.add(r);
+            }
+        }
+    }
+
+    // never allocated: they hold spilled values while an instruction uses them
+    public static final Register[] scratchRegs = {get("t8"), get("t9")};
+
     public static final Register gp = new Register(28,"gp");
     public static final Register sp = new Register(29,"sp");
     public static final Register fp = new Register(30,"fp");
@@ -43,6 +64,35 @@ public class Register {
     private Register(int num, String name) {
         this.num = num;
         this.name = name;
+        if (num >= 0) {
+            byName.put(name, this);
+        }
+    }
+
+    /**
+     * Virtual registers stand for values in the code generated for a function
+     * until the register allocator maps them to real ones. They print as $xN.
+     */
+    public static Register virtual(int n) {
+        return new Register(-1 - n, "x" + n);
+    }
+
+    public boolean isVirtual() {
+        return num < 0;
+    }
+
+    /**
+     * @return N, for the virtual register $xN
+     */
+    public int virtualNumber() {
+        return -1 - num;
+    }
+
+    /**
+     * @return the register called name (without the $), or null
+     */
+    public static Register get(String name) {
+        return byName.get(name);
     }
 
     public String toString() {
@@ -0,0 +1,343 @@
+package gen;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the virtual registers in the code of one function to real registers,
+ * and prints the result. Subclasses decide where every virtual register goes
+ * (assigned, or a spill slot); the liveness analysis they work from and the
+ * rewriting of the code are shared.
+ *
+ * Calls clobber $t0-$t9 and $a0-$a3, so a value live across a jal must be in
+ * one of the callee-saved $s0-$s7. The $s registers a function uses are saved
+ * in its frame on entry and restored before every jr. Spilled values live in
+ * the frame too, at a fixed offset from $fp, and are loaded into a scratch
+ * register ($t8 or $t9) for every instruction using them. Moves whose source
+ * and destination end up in the same place are left out.
+ */
+public abstract class RegisterAllocator {
+
+    protected List<Instruction> code;
+
+    // basic blocks (from first[b] to last[b]), and the nodes live at their ends
+    protected int[] first;
+    protected int[] last;
+    protected BitSet[] liveOut;
+
+    protected Register[] assigned;
+    protected int[] spillSlot;
+    protected int spills;
+
+    private int spilled;
+    private int spillLoads;
+    private int spillStores;
+    private int moves;
+    private int movesEliminated;
+
+    private PrintStream statistics;
+
+    /**
+     * Allocates registers in the code of a function, given with its virtual
+     * registers numbered below virtualCount, and prints the result.
+     */
+    public void allocate(List<Instruction> function, int virtualCount, PrintWriter writer) {
+        code = function;
+        assigned = new Register[virtualCount];
+        spillSlot = new int[virtualCount];
+        for (int v = 0; v < virtualCount; v++) {
+            spillSlot[v] = -1;
+        }
+        spills = 0;
+
+        assign(virtualCount);
+        spilled = 0;
+        for (int v = 0; v < virtualCount; v++) {
+            if (spillSlot[v] >= 0) {
+                spilled++;
+            }
+        }
+        emit(writer);
+
+        if (statistics != null) {
+            statistics.println(functionName() + ": " + spilled + " spilled (" + spillLoads + " loads, "
+                    + spillStores + " stores), " + movesEliminated + " of " + moves + " moves eliminated");
+        }
+    }
+
+    /**
+     * Fills in assigned and spillSlot (through spill) for every virtual
+     * register of the code.
+     */
+    protected abstract void assign(int virtualCount);
+
+    /**
+     * Prints the spill and move statistics of every function allocated from
+     * now on to out, or nothing if out is null.
+     */
+    public void setStatistics(PrintStream out) {
+        statistics = out;
+    }
+
+    /**
+     * @return the number of virtual registers spilled in the last function
+     */
+    public int getSpillCount() {
+        return spilled;
+    }
+
+    /**
+     * @return the number of loads from spill slots in the last function
+     */
+    public int getSpillLoadCount() {
+        return spillLoads;
+    }
+
+    /**
+     * @return the number of stores to spill slots in the last function
+     */
+    public int getSpillStoreCount() {
+        return spillStores;
+    }
+
+    /**
+     * @return the number of moves involving a virtual register in the last function
+     */
+    public int getMoveCount() {
+        return moves;
+    }
+
+    /**
+     * @return the number of those moves left out of the last function
+     */
+    public int getEliminatedMoveCount() {
+        return movesEliminated;
+    }
+
+    protected void spill(int v) {
+        spillSlot[v] = spills++;
+    }
+
+    /*
+     * The nodes liveness is solved for are the virtual registers; subclasses
+     * tracking more (real registers) number them from virtualCount on.
+     */
+
+    protected int[] defs(int i) {
+        int def = code.get(i).def;
+        return def >= 0 ? new int[] {def} : new int[0];
+    }
+
+    protected int[] uses(int i) {
+        return code.get(i).uses;
+    }
+
+    /**
+     * Splits the code into basic blocks and solves liveness over them, for
+     * nodes numbered below nodeCount.
+     */
+    protected void liveness(int nodeCount) {
+        int n = code.size();
+
+        // basic blocks: a block starts at a label and after a branch, jump or return
+        Map<String, Integer> labels = new HashMap<String, Integer>();
+        List<Integer> leaders = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) {
+            Instruction ins = code.get(i);
+            if (ins.label != null) {
+                labels.put(ins.label, i);
+            }
+            if (i == 0 || ins.label != null || endsBlock(code.get(i - 1))) {
+                leaders.add(i);
+            }
+        }
+        int blocks = leaders.size();
+        first = new int[blocks];
+        last = new int[blocks];
+        int[] blockOf = new int[n];
+        for (int b = 0; b < blocks; b++) {
+            first[b] = leaders.get(b);
+            last[b] = b + 1 < blocks ? leaders.get(b + 1) - 1 : n - 1;
+            for (int i = first[b]; i <= last[b]; i++) {
+                blockOf[i] = b;
+            }
+        }
+
+        // successors, and the nodes each block reads before writing and writes
+        int[][] successors = new int[blocks][];
+        BitSet[] use = new BitSet[blocks];
+        BitSet[] def = new BitSet[blocks];
+        for (int b = 0; b < blocks; b++) {
+            Instruction tail = code.get(last[b]);
+            List<Integer> succ = new ArrayList<Integer>();
+            if (tail.isBranch() || tail.isJump()) {
+                Integer target = labels.get(tail.target());
+                if (target != null) {
+                    succ.add(blockOf[target]);
+                }
+            }
+            if (!tail.isJump() && !tail.isReturn() && b + 1 < blocks) {
+                succ.add(b + 1);
+            }
+            successors[b] = new int[succ.size()];
+            for (int k = 0; k < succ.size(); k++) {
+                successors[b][k] = succ.get(k);
+            }
+
+            use[b] = new BitSet(nodeCount);
+            def[b] = new BitSet(nodeCount);
+            for (int i = first[b]; i <= last[b]; i++) {
+                for (int u : uses(i)) {
+                    if (!def[b].get(u)) {
+                        use[b].set(u);
+                    }
+                }
+                for (int d : defs(i)) {
+                    def[b].set(d);
+                }
+            }
+        }
+
+        liveOut = new BitSet[blocks];
+        BitSet[] liveIn = new BitSet[blocks];
+        for (int b = 0; b < blocks; b++) {
+            liveOut[b] = new BitSet(nodeCount);
+            liveIn[b] = new BitSet(nodeCount);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = blocks - 1; b >= 0; b--) {
+                BitSet out = new BitSet(nodeCount);
+                for (int s : successors[b]) {
+                    out.or(liveIn[s]);
+                }
+                BitSet in = (BitSet) out.clone();
+                in.andNot(def[b]);
+                in.or(use[b]);
+                if (!in.equals(liveIn[b]) || !out.equals(liveOut[b])) {
+                    liveIn[b] = in;
+                    liveOut[b] = out;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private static boolean endsBlock(Instruction ins) {
+        return ins.isBranch() || ins.isJump() || ins.isReturn();
+    }
+
+    private String functionName() {
+        for (Instruction ins : code) {
+            if (ins.label != null) {
+                return ins.label;
+            }
+        }
+        return "?";
+    }
+
+    private void emit(PrintWriter writer) {
+        List<Register> saved = new ArrayList<Register>();
+        for (Register r : Register.savedRegs) {
+            for (Register a : assigned) {
+                if (a == r) {
+                    saved.add(r);
+                    break;
+                }
+            }
+        }
+        int frame = 4 * (saved.size() + spills);
+
+        spillLoads = 0;
+        spillStores = 0;
+        moves = 0;
+        movesEliminated = 0;
+        Register[] regs = assigned.clone();
+        boolean prologue = true;
+        for (Instruction ins : code) {
+            if (ins.opcode == null) {
+                writer.println(ins.toString());
+                continue;
+            }
+
+            if (ins.isMove() && (ins.def >= 0 || ins.uses.length > 0)) {
+                moves++;
+                if (sameLocation(ins)) {
+                    movesEliminated++;
+                    continue;
+                }
+            }
+
+            // spilled operands go through the scratch registers
+            List<Instruction> before = new ArrayList<Instruction>();
+            List<Instruction> after = new ArrayList<Instruction>();
+            int scratch = 0;
+            for (int u : ins.uses) {
+                if (spillSlot[u] >= 0) {
+                    regs[u] = Register.scratchRegs[scratch++];
+                    before.add(Instruction.of(Opcode.LW, regs[u], slotAddress(saved, spillSlot[u])));
+                    spillLoads++;
+                }
+            }
+            if (ins.def >= 0 && spillSlot[ins.def] >= 0) {
+                boolean alsoUsed = false;
+                for (int u : ins.uses) {
+                    alsoUsed |= u == ins.def;
+                }
+                if (!alsoUsed) {
+                    regs[ins.def] = Register.scratchRegs[0];
+                }
+                after.add(Instruction.of(Opcode.SW, regs[ins.def], slotAddress(saved, spillSlot[ins.def])));
+                spillStores++;
+            }
+            if (ins.isReturn()) {
+                for (int k = 0; k < saved.size(); k++) {
+                    before.add(Instruction.of(Opcode.LW, saved.get(k), new Instruction.Address(-4 * (k + 1), Register.fp)));
+                }
+            }
+
+            for (Instruction i : before) {
+                writer.println(i.toString());
+            }
+            writer.println(ins.toString(regs));
+            for (Instruction i : after) {
+                writer.println(i.toString());
+            }
+
+            // the frame of saved registers and spill slots is set up as soon as $fp is
+            if (prologue && ins.isFrameSetup()) {
+                prologue = false;
+                if (frame > 0) {
+                    writer.println(Instruction.of(Opcode.ADDI, Register.sp, Register.sp, -frame).toString());
+                }
+                for (int k = 0; k < saved.size(); k++) {
+                    writer.println(Instruction.of(Opcode.SW, saved.get(k),
+                                                  new Instruction.Address(-4 * (k + 1), Register.fp)).toString());
+                }
+            }
+        }
+    }
+
+    // whether a move copies a register or a spill slot to itself
+    private boolean sameLocation(Instruction move) {
+        if (move.def >= 0 && spillSlot[move.def] >= 0) {
+            return move.uses.length == 1 && spillSlot[move.def] == spillSlot[move.uses[0]];
+        }
+        for (int u : move.uses) {
+            if (spillSlot[u] >= 0) {
+                return false;
+            }
+        }
+        return move.moveSource(assigned) == move.moveDestination(assigned);
+    }
+
+    private static Instruction.Address slotAddress(List<Register> saved, int slot) {
+        return new Instruction.Address(-4 * (saved.size() + slot + 1), Register.fp);
+    }
+}
@@ -0,0 +1,51 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A straight line of quads ending with a JUMP, BRANCH or RETURN.
+ */
+public class BasicBlock {
+
+    public final String label;
+    public final List<Quad> quads = new ArrayList<Quad>();
+
+    public BasicBlock(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return the last quad if it ends the block, null while it is being built
+     */
+    public Quad terminator() {
+        if (quads.isEmpty()) {
+            return null;
+        }
+        Quad last = quads.get(quads.size() - 1);
+        return last.op.isTerminator() ? last : null;
+    }
+
+    public List<BasicBlock> successors() {
+        Quad t = terminator();
+        if (t == null || t.targets == null) {
+            return Collections.emptyList();
+        }
+        List<BasicBlock> result = new ArrayList<BasicBlock>();
+        for (BasicBlock b : t.targets) {
+            if (!result.contains(b)) {
+                result.add(b);
+            }
+        }
+        return result;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder(label).append(":\n");
+        for (Quad q : quads) {
+            sb.append("    ").append(q).append('\n');
+        }
+        return sb.toString();
+    }
+}
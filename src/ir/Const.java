@@ -0,0 +1,32 @@
+package ir;
+
+/**
+ * An integer constant operand.
+ */
+public class Const implements Value {
+
+    public static final Const ZERO = new Const(0);
+    public static final Const ONE = new Const(1);
+
+    public final int value;
+
+    public Const(int value) {
+        this.value = value;
+    }
+
+    public IrType type() {
+        return IrType.INT;
+    }
+
+    public boolean equals(Object o) {
+        return o instanceof Const && ((Const) o).value == value;
+    }
+
+    public int hashCode() {
+        return value;
+    }
+
+    public String toString() {
+        return Integer.toString(value);
+    }
+}
@@ -0,0 +1,216 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck): finds the
+ * temporaries that hold the same constant on every path that can be taken,
+ * taking a branch only once its condition may be true or false. Their uses
+ * are replaced by the constant, the branches on constants by jumps, and the
+ * blocks that cannot be reached are dropped.
+ */
+public class ConstantPropagation implements Pass {
+
+    // the lattice: not known yet, a constant, or not a constant
+    private static final int TOP = 0;
+    private static final int CONSTANT = 1;
+    private static final int BOTTOM = 2;
+
+    private int[] state;
+    private int[] constant;
+
+    private Map<Temp, List<Quad>> users;
+    private Map<Quad, BasicBlock> blockOf;
+    private Set<BasicBlock> executable;
+    private Map<BasicBlock, Set<BasicBlock>> executableEdges;
+
+    private List<BasicBlock[]> flowWork;
+    private List<Temp> ssaWork;
+
+    public boolean run(Function f) {
+        state = new int[f.getTempCount()];
+        constant = new int[f.getTempCount()];
+        users = new HashMap<Temp, List<Quad>>();
+        blockOf = new IdentityHashMap<Quad, BasicBlock>();
+        executable = new HashSet<BasicBlock>();
+        executableEdges = new HashMap<BasicBlock, Set<BasicBlock>>();
+        flowWork = new ArrayList<BasicBlock[]>();
+        ssaWork = new ArrayList<Temp>();
+
+        for (BasicBlock b : f.blocks) {
+            executableEdges.put(b, new HashSet<BasicBlock>());
+            for (Quad q : b.quads) {
+                blockOf.put(q, b);
+                for (Value v : q.args) {
+                    if (v instanceof Temp) {
+                        List<Quad> u = users.get(v);
+                        if (u == null) {
+                            u = new ArrayList<Quad>();
+                            users.put((Temp) v, u);
+                        }
+                        u.add(q);
+                    }
+                }
+            }
+        }
+
+        flowWork.add(new BasicBlock[] {null, f.entry()});
+        while (!flowWork.isEmpty() || !ssaWork.isEmpty()) {
+            if (!flowWork.isEmpty()) {
+                BasicBlock[] edge = flowWork.remove(flowWork.size() - 1);
+                if (edge[0] != null && !executableEdges.get(edge[0]).add(edge[1])) {
+                    continue;
+                }
+                boolean first = executable.add(edge[1]);
+                for (Quad q : edge[1].quads) {
+                    if (first || q.op == Opcode.PHI) {
+                        visit(q, edge[1]);
+                    }
+                }
+            } else {
+                Temp t = ssaWork.remove(ssaWork.size() - 1);
+                if (users.containsKey(t)) {
+                    for (Quad q : users.get(t)) {
+                        if (executable.contains(blockOf.get(q))) {
+                            visit(q, blockOf.get(q));
+                        }
+                    }
+                }
+            }
+        }
+
+        return rewrite(f);
+    }
+
+    private boolean rewrite(Function f) {
+        boolean changed = false;
+        for (BasicBlock b : f.blocks) {
+            if (!executable.contains(b)) {
+                continue;
+            }
+            for (int k = 0; k < b.quads.size(); k++) {
+                Quad q = b.quads.get(k);
+                for (int i = 0; i < q.args.length; i++) {
+                    if (q.args[i] instanceof Temp && state[((Temp) q.args[i]).id] == CONSTANT) {
+                        q.args[i] = new Const(constant[((Temp) q.args[i]).id]);
+                        changed = true;
+                    }
+                }
+                if (q.op == Opcode.BRANCH && q.args[0] instanceof Const && q.args[1] instanceof Const) {
+                    b.quads.set(k, Quad.jump(q.targets[taken(q)]));
+                    changed = true;
+                }
+            }
+        }
+        int blocks = f.blocks.size();
+        f.removeUnreachableBlocks();
+        return changed || f.blocks.size() != blocks;
+    }
+
+    private int stateOf(Value v) {
+        return v instanceof Const ? CONSTANT : state[((Temp) v).id];
+    }
+
+    private int valueOf(Value v) {
+        return v instanceof Const ? ((Const) v).value : constant[((Temp) v).id];
+    }
+
+    private void lower(Temp t, int newState, int value) {
+        if (newState > state[t.id]) {
+            state[t.id] = newState;
+            constant[t.id] = value;
+            ssaWork.add(t);
+        }
+    }
+
+    private void visit(Quad q, BasicBlock b) {
+        switch (q.op) {
+            case PHI: {
+                int s = TOP;
+                int value = 0;
+                for (int i = 0; i < q.args.length; i++) {
+                    if (!executableEdges.get(q.targets[i]).contains(b)) {
+                        continue;
+                    }
+                    int si = stateOf(q.args[i]);
+                    if (si == BOTTOM || (si == CONSTANT && s == CONSTANT && valueOf(q.args[i]) != value)) {
+                        s = BOTTOM;
+                        break;
+                    } else if (si == CONSTANT) {
+                        s = CONSTANT;
+                        value = valueOf(q.args[i]);
+                    }
+                }
+                lower(q.dest, s, value);
+                break;
+            }
+            case MOVE:
+                lower(q.dest, stateOf(q.args[0]), valueOf(q.args[0]));
+                break;
+            case JUMP:
+                flowWork.add(new BasicBlock[] {b, q.targets[0]});
+                break;
+            case BRANCH: {
+                int s = Math.max(stateOf(q.args[0]), stateOf(q.args[1]));
+                if (s == CONSTANT) {
+                    flowWork.add(new BasicBlock[] {b, q.targets[taken(q)]});
+                } else if (s == BOTTOM) {
+                    flowWork.add(new BasicBlock[] {b, q.targets[0]});
+                    flowWork.add(new BasicBlock[] {b, q.targets[1]});
+                }
+                break;
+            }
+            default:
+                if (q.dest == null) {
+                    break;
+                }
+                if (!q.op.isBinary()) {
+                    lower(q.dest, BOTTOM, 0);
+                    break;
+                }
+                int s = Math.max(stateOf(q.args[0]), stateOf(q.args[1]));
+                if (s == CONSTANT) {
+                    Integer value = fold(q.op, valueOf(q.args[0]), valueOf(q.args[1]));
+                    if (value == null) {
+                        lower(q.dest, BOTTOM, 0);
+                    } else {
+                        lower(q.dest, CONSTANT, value);
+                    }
+                } else {
+                    lower(q.dest, s, 0);
+                }
+                break;
+        }
+    }
+
+    // the target a branch on constants takes
+    private int taken(Quad q) {
+        return fold(q.comparison, valueOf(q.args[0]), valueOf(q.args[1])) != 0 ? 0 : 1;
+    }
+
+    /**
+     * @return the value of a op b as computed by MIPS, null for a division by zero
+     */
+    static Integer fold(Opcode op, int a, int b) {
+        switch (op) {
+            case ADD: return a + b;
+            case SUB: return a - b;
+            case MUL: return a * b;
+            case DIV: return b == 0 ? null : a / b;
+            case MOD: return b == 0 ? null : a % b;
+            case LT:  return a < b ? 1 : 0;
+            case GT:  return a > b ? 1 : 0;
+            case LE:  return a <= b ? 1 : 0;
+            case GE:  return a >= b ? 1 : 0;
+            case EQ:  return a == b ? 1 : 0;
+            case NE:  return a != b ? 1 : 0;
+            default:  return null;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes the quads whose result is never needed: starting from the stores,
+ * calls and terminators, marks the quads defining what the marked quads use,
+ * and drops the others.
+ */
+public class DeadCodeElimination implements Pass {
+
+    public boolean run(Function f) {
+        Map<Temp, Quad> definitions = new HashMap<Temp, Quad>();
+        Set<Quad> live = Collections.newSetFromMap(new IdentityHashMap<Quad, Boolean>());
+        List<Quad> work = new ArrayList<Quad>();
+        for (BasicBlock b : f.blocks) {
+            for (Quad q : b.quads) {
+                if (q.dest != null) {
+                    definitions.put(q.dest, q);
+                }
+                if (q.hasSideEffects()) {
+                    live.add(q);
+                    work.add(q);
+                }
+            }
+        }
+        while (!work.isEmpty()) {
+            Quad q = work.remove(work.size() - 1);
+            for (Value v : q.args) {
+                Quad d = definitions.get(v);
+                if (d != null && live.add(d)) {
+                    work.add(d);
+                }
+            }
+        }
+
+        boolean changed = false;
+        for (BasicBlock b : f.blocks) {
+            changed |= b.quads.retainAll(live);
+        }
+        return changed;
+    }
+}
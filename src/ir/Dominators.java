@@ -0,0 +1,175 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The dominator tree and dominance frontiers of a function, computed with the
+ * iterative algorithm of Cooper, Harvey and Kennedy over the blocks in
+ * reverse postorder. Only the blocks reachable from the entry are covered.
+ */
+public class Dominators {
+
+    private final List<BasicBlock> order;
+    private final Map<BasicBlock, Integer> index = new HashMap<BasicBlock, Integer>();
+    private final Map<BasicBlock, List<BasicBlock>> predecessors;
+    private final int[] idom;
+
+    private final Map<BasicBlock, List<BasicBlock>> children = new HashMap<BasicBlock, List<BasicBlock>>();
+    private final Map<BasicBlock, Set<BasicBlock>> frontier = new HashMap<BasicBlock, Set<BasicBlock>>();
+
+    public Dominators(Function f) {
+        predecessors = f.predecessors();
+        order = reversePostorder(f.entry());
+        for (int i = 0; i < order.size(); i++) {
+            index.put(order.get(i), i);
+        }
+
+        idom = new int[order.size()];
+        for (int i = 1; i < idom.length; i++) {
+            idom[i] = -1;
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < order.size(); i++) {
+                int d = -1;
+                for (BasicBlock p : predecessors.get(order.get(i))) {
+                    Integer j = index.get(p);
+                    if (j != null && idom[j] >= 0) {
+                        d = d < 0 ? j : intersect(d, j);
+                    }
+                }
+                if (idom[i] != d) {
+                    idom[i] = d;
+                    changed = true;
+                }
+            }
+        }
+
+        for (BasicBlock b : order) {
+            children.put(b, new ArrayList<BasicBlock>());
+            frontier.put(b, new LinkedHashSet<BasicBlock>());
+        }
+        for (int i = 1; i < order.size(); i++) {
+            children.get(order.get(idom[i])).add(order.get(i));
+        }
+        for (int i = 0; i < order.size(); i++) {
+            BasicBlock b = order.get(i);
+            if (predecessors.get(b).size() < 2) {
+                continue;
+            }
+            for (BasicBlock p : predecessors.get(b)) {
+                Integer runner = index.get(p);
+                while (runner != null && runner != idom[i]) {
+                    frontier.get(order.get(runner)).add(b);
+                    runner = runner == 0 ? null : idom[runner];
+                }
+            }
+        }
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (a > b) {
+                a = idom[a];
+            }
+            while (b > a) {
+                b = idom[b];
+            }
+        }
+        return a;
+    }
+
+    private static List<BasicBlock> reversePostorder(BasicBlock entry) {
+        List<BasicBlock> postorder = new ArrayList<BasicBlock>();
+        Set<BasicBlock> visited = new LinkedHashSet<BasicBlock>();
+        // the path from the entry, with the number of successors of each block already followed
+        List<BasicBlock> path = new ArrayList<BasicBlock>();
+        List<Integer> followed = new ArrayList<Integer>();
+        path.add(entry);
+        followed.add(0);
+        visited.add(entry);
+        while (!path.isEmpty()) {
+            int top = path.size() - 1;
+            List<BasicBlock> successors = path.get(top).successors();
+            int k = followed.get(top);
+            if (k < successors.size()) {
+                followed.set(top, k + 1);
+                BasicBlock s = successors.get(k);
+                if (visited.add(s)) {
+                    path.add(s);
+                    followed.add(0);
+                }
+            } else {
+                postorder.add(path.remove(top));
+                followed.remove(top);
+            }
+        }
+        Collections.reverse(postorder);
+        return postorder;
+    }
+
+    /**
+     * @return the reachable blocks in reverse postorder, the entry first
+     */
+    public List<BasicBlock> reversePostorder() {
+        return order;
+    }
+
+    /**
+     * @return the immediate dominator of b, null for the entry block
+     */
+    public BasicBlock idom(BasicBlock b) {
+        int i = index.get(b);
+        return i == 0 ? null : order.get(idom[i]);
+    }
+
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        int i = index.get(a);
+        int j = index.get(b);
+        while (j > i) {
+            j = idom[j];
+        }
+        return i == j;
+    }
+
+    /**
+     * @return the blocks immediately dominated by b
+     */
+    public List<BasicBlock> children(BasicBlock b) {
+        return children.get(b);
+    }
+
+    public Set<BasicBlock> frontier(BasicBlock b) {
+        return frontier.get(b);
+    }
+
+    public List<BasicBlock> predecessors(BasicBlock b) {
+        return predecessors.get(b);
+    }
+
+    /**
+     * @return the reachable blocks in a preorder of the dominator tree, so
+     * that every block comes after those dominating it
+     */
+    public List<BasicBlock> preorder() {
+        List<BasicBlock> result = new ArrayList<BasicBlock>();
+        List<BasicBlock> work = new ArrayList<BasicBlock>();
+        work.add(order.get(0));
+        while (!work.isEmpty()) {
+            BasicBlock b = work.remove(work.size() - 1);
+            result.add(b);
+            List<BasicBlock> c = children.get(b);
+            for (int i = c.size() - 1; i >= 0; i--) {
+                work.add(c.get(i));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,122 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The IR of a function: its basic blocks, the entry block first, the
+ * temporaries it uses, and its frame of memory slots (for arrays and
+ * structs) addressed by FRAME quads.
+ */
+public class Function {
+
+    public final String name;
+    public final List<BasicBlock> blocks = new ArrayList<BasicBlock>();
+
+    // the string literals of the function, by label
+    public final Map<String, String> strings = new LinkedHashMap<String, String>();
+
+    private int temps;
+    private int frameSize;
+
+    public Function(String name) {
+        this.name = name;
+    }
+
+    public Temp newTemp(IrType type) {
+        return new Temp(temps++, type);
+    }
+
+    /**
+     * @return the number of temporaries, all numbered below it
+     */
+    public int getTempCount() {
+        return temps;
+    }
+
+    /**
+     * Reserves a word aligned slot of size bytes in the frame.
+     *
+     * @return its offset
+     */
+    public int newSlot(int size) {
+        int offset = frameSize;
+        frameSize += (size + 3) / 4 * 4;
+        return offset;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public BasicBlock entry() {
+        return blocks.get(0);
+    }
+
+    /**
+     * @return the predecessors of every block, in the order of the blocks
+     */
+    public Map<BasicBlock, List<BasicBlock>> predecessors() {
+        Map<BasicBlock, List<BasicBlock>> result = new HashMap<BasicBlock, List<BasicBlock>>();
+        for (BasicBlock b : blocks) {
+            result.put(b, new ArrayList<BasicBlock>());
+        }
+        for (BasicBlock b : blocks) {
+            for (BasicBlock s : b.successors()) {
+                result.get(s).add(b);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops the blocks that cannot be reached from the entry block, and the
+     * phi arguments coming from blocks that no longer jump to theirs.
+     */
+    public void removeUnreachableBlocks() {
+        Set<BasicBlock> reached = new HashSet<BasicBlock>();
+        List<BasicBlock> work = new ArrayList<BasicBlock>();
+        work.add(entry());
+        reached.add(entry());
+        while (!work.isEmpty()) {
+            BasicBlock b = work.remove(work.size() - 1);
+            for (BasicBlock s : b.successors()) {
+                if (reached.add(s)) {
+                    work.add(s);
+                }
+            }
+        }
+        blocks.retainAll(reached);
+
+        Map<BasicBlock, List<BasicBlock>> predecessors = predecessors();
+        for (BasicBlock b : blocks) {
+            for (Quad q : b.quads) {
+                if (q.op == Opcode.PHI) {
+                    List<Value> args = new ArrayList<Value>();
+                    List<BasicBlock> from = new ArrayList<BasicBlock>();
+                    for (int i = 0; i < q.args.length; i++) {
+                        if (predecessors.get(b).contains(q.targets[i])) {
+                            args.add(q.args[i]);
+                            from.add(q.targets[i]);
+                        }
+                    }
+                    q.args = args.toArray(new Value[args.size()]);
+                    q.targets = from.toArray(new BasicBlock[from.size()]);
+                }
+            }
+        }
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("function ").append(name).append('\n');
+        for (BasicBlock b : blocks) {
+            sb.append(b);
+        }
+        return sb.toString();
+    }
+}
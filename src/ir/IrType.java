@@ -0,0 +1,18 @@
+package ir;
+
+/**
+ * The types of IR values: what a temporary holds, and how wide a memory
+ * access is. Chars are held sign-extended in registers and take a byte in
+ * memory; everything else takes a word.
+ */
+public enum IrType {
+    INT, CHAR, PTR;
+
+    public int size() {
+        return this == CHAR ? 1 : 4;
+    }
+
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
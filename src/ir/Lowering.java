@@ -0,0 +1,536 @@
+package ir;
+
+import ast.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lowers a type checked AST to the IR.
+ *
+ * Int, char and pointer variables of a function live in temporaries; its
+ * arrays and structs get a slot in the frame, whose offset is kept in
+ * VarDecl.offset, and globals are reached through their symbol. An
+ * expression of array or struct type stands for the address of the first
+ * byte of its storage, from which the elements and fields go up.
+ *
+ * Structs are passed and returned by address: the caller passes the address
+ * of a copy it makes in its own frame, and copies a returned struct into its
+ * frame straight after the call. && and || only evaluate their second
+ * operand when the first does not decide the result.
+ *
+ * The conditions of ifs and whiles become branches comparing operands, with
+ * && and || jumping straight to where their first operand decides, so that
+ * a condition is never turned into 0 or 1 first. Whiles are rotated, their
+ * condition tested once before the loop and then at the bottom of the body,
+ * for every iteration to take a single branch back.
+ */
+public class Lowering implements ASTVisitor<Value> {
+
+    private Module module;
+    private Function fn;
+    private BasicBlock current;
+
+    // the temporaries holding the variables (or the address of struct parameters)
+    private final Map<VarDecl, Temp> locals = new IdentityHashMap<VarDecl, Temp>();
+
+    // the element addresses computed in the current block, see elementAddress
+    private final List<ElementAddress> elementAddresses = new ArrayList<ElementAddress>();
+
+    private static class ElementAddress {
+        final VarDecl array;
+        final VarDecl index;
+        final Temp address;
+
+        ElementAddress(VarDecl array, VarDecl index, Temp address) {
+            this.array = array;
+            this.index = index;
+            this.address = address;
+        }
+    }
+
+    private int labels;
+    private int strings;
+
+    public Module lower(Program p) {
+        visitProgram(p);
+        return module;
+    }
+
+    /**
+     * Lowers the global declarations of a program only, for the functions to
+     * be lowered one by one with lower(FunDecl).
+     */
+    public Module lowerDeclarations(Program declarations) {
+        module = new Module();
+        for (VarDecl vd : declarations.varDecls) {
+            module.globals.put(vd.varName, vd.type.size());
+        }
+        return module;
+    }
+
+    public Function lower(FunDecl fd) {
+        visitFunDecl(fd);
+        return fn;
+    }
+
+    private static IrType irType(Type t) {
+        if (t == BaseType.CHAR) {
+            return IrType.CHAR;
+        } else if (t == BaseType.INT) {
+            return IrType.INT;
+        } else if (t == BaseType.VOID) {
+            return null;
+        }
+        return IrType.PTR;
+    }
+
+    private static StructLayout layout(Type t) {
+        return ((StructType) t).sd.layout();
+    }
+
+    // whether values of type t are held by address
+    private static boolean isAggregate(Type t) {
+        return t instanceof ArrayType || t instanceof StructType;
+    }
+
+    private BasicBlock newBlock() {
+        return new BasicBlock("BLOCK" + labels++);
+    }
+
+    private void start(BasicBlock b) {
+        fn.blocks.add(b);
+        current = b;
+        elementAddresses.clear();
+    }
+
+    private void emit(Quad q) {
+        if (current.terminator() != null) {
+            // code after a return or a jump, which cannot be reached
+            start(newBlock());
+        }
+        current.quads.add(q);
+    }
+
+    private Temp emit(Opcode op, IrType type, Value a, Value b) {
+        Temp t = fn.newTemp(type);
+        emit(new Quad(op, t, a, b));
+        return t;
+    }
+
+    private void jumpTo(BasicBlock b) {
+        if (current.terminator() == null) {
+            emit(Quad.jump(b));
+        }
+    }
+
+    private Temp frame(int offset) {
+        Temp t = fn.newTemp(IrType.PTR);
+        emit(Quad.frame(t, offset));
+        return t;
+    }
+
+    private void copy(Value to, Value from, int size) {
+        for (int k = 0; k < size; k += 4) {
+            Temp t = fn.newTemp(IrType.INT);
+            emit(Quad.load(t, from, k));
+            emit(Quad.store(IrType.INT, t, to, k));
+        }
+    }
+
+    @Override
+    public Value visitProgram(Program p) {
+        lowerDeclarations(p);
+        for (FunDecl fd : p.funDecls) {
+            module.functions.add(lower(fd));
+        }
+        return null;
+    }
+
+    @Override
+    public Value visitFunDecl(FunDecl p) {
+        fn = new Function(p.name);
+        locals.clear();
+        start(newBlock());
+
+        for (int i = 0; i < p.params.size(); i++) {
+            VarDecl vd = p.params.get(i);
+            Temp t = fn.newTemp(irType(vd.type));
+            emit(Quad.param(t, i));
+            locals.put(vd, t);
+        }
+
+        p.block.accept(this);
+        if (current.terminator() == null) {
+            emit(Quad.ret(null));
+        }
+        fn.removeUnreachableBlocks();
+        return null;
+    }
+
+    @Override
+    public Value visitBlock(Block b) {
+        for (VarDecl vd : b.varDecls) {
+            if (isAggregate(vd.type)) {
+                vd.offset = fn.newSlot(vd.type.size());
+            } else {
+                locals.put(vd, fn.newTemp(irType(vd.type)));
+            }
+        }
+        for (Stmt st : b.stmts) {
+            st.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Value visitVarExpr(VarExpr v) {
+        Temp local = locals.get(v.decl);
+        if (local != null) {
+            return local;
+        }
+        if (v.decl.offset >= 0) {
+            return frame(v.decl.offset);
+        }
+        Temp address = fn.newTemp(IrType.PTR);
+        emit(Quad.address(address, v.name));
+        if (isAggregate(v.decl.type)) {
+            return address;
+        }
+        Temp t = fn.newTemp(irType(v.decl.type));
+        emit(Quad.load(t, address, 0));
+        return t;
+    }
+
+    /**
+     * @return the address of an element, less its elementDisplacement. The
+     * address of a[j], for an array variable a and a local j, is computed
+     * once per block and reused until j is assigned, so that a[j] and
+     * a[j + 1] in a loop body cost a single multiplication and addition.
+     */
+    private Value elementAddress(ArrayAccessExpr aae) {
+        int elemSize = ((ArrayType) aae.base.type).type.size();
+        if (aae.index instanceof IntLiteral && elementDisplacement(aae) != 0) {
+            return aae.base.accept(this);
+        }
+        Expr variable = aae.index;
+        if (aae.index instanceof BinOp && elementDisplacement(aae) != 0) {
+            variable = ((BinOp) aae.index).operandOne;
+        }
+
+        VarDecl array = null;
+        VarDecl index = null;
+        if (aae.base instanceof VarExpr && variable instanceof VarExpr
+                && locals.containsKey(((VarExpr) variable).decl)) {
+            array = ((VarExpr) aae.base).decl;
+            index = ((VarExpr) variable).decl;
+            for (ElementAddress ea : elementAddresses) {
+                if (ea.array == array && ea.index == index) {
+                    return ea.address;
+                }
+            }
+        }
+
+        Value base = aae.base.accept(this);
+        Value scaled = emit(Opcode.MUL, IrType.INT, variable.accept(this), new Const(elemSize));
+        Temp address = emit(Opcode.ADD, IrType.PTR, base, scaled);
+        if (array != null) {
+            elementAddresses.add(new ElementAddress(array, index, address));
+        }
+        return address;
+    }
+
+    /**
+     * @return the displacement of an element from its elementAddress: the
+     * constant an index such as j + 1 adds, times the element size, so that
+     * a[j] and a[j + 1] share an address
+     */
+    private int elementDisplacement(ArrayAccessExpr aae) {
+        int elemSize = ((ArrayType) aae.base.type).type.size();
+        long k = 0;
+        if (aae.index instanceof IntLiteral) {
+            k = ((IntLiteral) aae.index).number;
+        } else if (aae.index instanceof BinOp && ((BinOp) aae.index).operandTwo instanceof IntLiteral) {
+            BinOp bo = (BinOp) aae.index;
+            if (bo.operator == Op.ADD) {
+                k = ((IntLiteral) bo.operandTwo).number;
+            } else if (bo.operator == Op.SUB) {
+                k = -(long) ((IntLiteral) bo.operandTwo).number;
+            }
+        }
+        long displacement = k * elemSize;
+        return displacement >= Short.MIN_VALUE && displacement <= Short.MAX_VALUE ? (int) displacement : 0;
+    }
+
+    @Override
+    public Value visitArrayAccessExpr(ArrayAccessExpr aae) {
+        Value address = elementAddress(aae);
+        int displacement = elementDisplacement(aae);
+        if (isAggregate(aae.type)) {
+            return displacement == 0 ? address : emit(Opcode.ADD, IrType.PTR, address, new Const(displacement));
+        }
+        Temp t = fn.newTemp(irType(aae.type));
+        emit(Quad.load(t, address, displacement));
+        return t;
+    }
+
+    @Override
+    public Value visitFieldAccessExpr(FieldAccessExpr faexp) {
+        Value base = faexp.base.accept(this);
+        int offset = layout(faexp.base.type).offsetOf(faexp.index);
+        if (isAggregate(faexp.type)) {
+            return emit(Opcode.ADD, IrType.PTR, base, new Const(offset));
+        }
+        Temp t = fn.newTemp(irType(faexp.type));
+        emit(Quad.load(t, base, offset));
+        return t;
+    }
+
+    @Override
+    public Value visitValueAtExpr(ValueAtExpr vae) {
+        Value pointer = vae.exp.accept(this);
+        if (isAggregate(vae.type)) {
+            return pointer;
+        }
+        Temp t = fn.newTemp(irType(vae.type));
+        emit(Quad.load(t, pointer, 0));
+        return t;
+    }
+
+    @Override
+    public Value visitAssign(Assign a) {
+        Expr assignee = a.assignee;
+        Value v = a.assigner.accept(this);
+        IrType type = irType(assignee.type);
+
+        if (assignee.type instanceof StructType) {
+            copy(assignee.accept(this), v, assignee.type.size());
+        } else if (assignee instanceof VarExpr && locals.containsKey(((VarExpr) assignee).decl)) {
+            VarDecl vd = ((VarExpr) assignee).decl;
+            emit(Quad.move(locals.get(vd), v));
+            for (int k = elementAddresses.size() - 1; k >= 0; k--) {
+                if (elementAddresses.get(k).index == vd || elementAddresses.get(k).array == vd) {
+                    elementAddresses.remove(k);
+                }
+            }
+        } else if (assignee instanceof VarExpr) {
+            Temp address = fn.newTemp(IrType.PTR);
+            emit(Quad.address(address, ((VarExpr) assignee).name));
+            emit(Quad.store(type, v, address, 0));
+        } else if (assignee instanceof FieldAccessExpr) {
+            FieldAccessExpr faexp = (FieldAccessExpr) assignee;
+            Value base = faexp.base.accept(this);
+            int offset = layout(faexp.base.type).offsetOf(faexp.index);
+            emit(Quad.store(type, v, base, offset));
+        } else if (assignee instanceof ArrayAccessExpr) {
+            ArrayAccessExpr aae = (ArrayAccessExpr) assignee;
+            emit(Quad.store(type, v, elementAddress(aae), elementDisplacement(aae)));
+        } else if (assignee instanceof ValueAtExpr) {
+            emit(Quad.store(type, v, ((ValueAtExpr) assignee).exp.accept(this), 0));
+        }
+        return null;
+    }
+
+    @Override
+    public Value visitBinOp(BinOp bo) {
+        if (bo.operator == Op.AND || bo.operator == Op.OR) {
+            Temp result = fn.newTemp(IrType.INT);
+            BasicBlock holds = newBlock();
+            BasicBlock end = newBlock();
+            emit(Quad.move(result, Const.ZERO));
+            condition(bo, holds, end);
+            start(holds);
+            emit(Quad.move(result, Const.ONE));
+            jumpTo(end);
+            start(end);
+            return result;
+        }
+
+        Value a = bo.operandOne.accept(this);
+        Value b = bo.operandTwo.accept(this);
+        switch (bo.operator) {
+            case ADD: return emit(Opcode.ADD, IrType.INT, a, b);
+            case SUB: return emit(Opcode.SUB, IrType.INT, a, b);
+            case MUL: return emit(Opcode.MUL, IrType.INT, a, b);
+            case DIV: return emit(Opcode.DIV, IrType.INT, a, b);
+            case MOD: return emit(Opcode.MOD, IrType.INT, a, b);
+            default:  return emit(comparison(bo.operator), IrType.INT, a, b);
+        }
+    }
+
+    private static Opcode comparison(Op op) {
+        switch (op) {
+            case GT: return Opcode.GT;
+            case LT: return Opcode.LT;
+            case GE: return Opcode.GE;
+            case LE: return Opcode.LE;
+            case NE: return Opcode.NE;
+            case EQ: return Opcode.EQ;
+            default: return null;
+        }
+    }
+
+    /**
+     * Lowers a condition to branches going to ifTrue when it holds and to
+     * ifFalse when it does not: a comparison is tested by the branch itself
+     * rather than turned into 0 or 1, and && and || go to the target their
+     * first operand decides without evaluating the second.
+     */
+    private void condition(Expr cond, BasicBlock ifTrue, BasicBlock ifFalse) {
+        if (cond instanceof BinOp) {
+            BinOp bo = (BinOp) cond;
+            if (bo.operator == Op.AND || bo.operator == Op.OR) {
+                BasicBlock second = newBlock();
+                if (bo.operator == Op.AND) {
+                    condition(bo.operandOne, second, ifFalse);
+                } else {
+                    condition(bo.operandOne, ifTrue, second);
+                }
+                start(second);
+                condition(bo.operandTwo, ifTrue, ifFalse);
+                return;
+            }
+            if (comparison(bo.operator) != null) {
+                Value a = bo.operandOne.accept(this);
+                Value b = bo.operandTwo.accept(this);
+                emit(Quad.branch(comparison(bo.operator), a, b, ifTrue, ifFalse));
+                return;
+            }
+        }
+        emit(Quad.branch(cond.accept(this), ifTrue, ifFalse));
+    }
+
+    @Override
+    public Value visitIntLiteral(IntLiteral il) {
+        return new Const(il.number);
+    }
+
+    @Override
+    public Value visitChrLiteral(ChrLiteral cl) {
+        return new Const(cl.character);
+    }
+
+    @Override
+    public Value visitStrLiteral(StrLiteral sl) {
+        String label = "STRING" + ++strings;
+        fn.strings.put(label, sl.str);
+        Temp t = fn.newTemp(IrType.PTR);
+        emit(Quad.address(t, label));
+        return t;
+    }
+
+    @Override
+    public Value visitSizeOfExpr(SizeOfExpr soe) {
+        return new Const(soe.target.size());
+    }
+
+    @Override
+    public Value visitTypecastExpr(TypecastExpr tce) {
+        return tce.exp.accept(this);
+    }
+
+    @Override
+    public Value visitFunCallExpr(FunCallExpr fce) {
+        List<Value> args = new ArrayList<Value>();
+        for (int i = 0; i < fce.params.size(); i++) {
+            Type t = fce.params.get(i).type;
+            Value v = fce.params.get(i).accept(this);
+            if (t instanceof StructType) {
+                Temp copy = frame(fn.newSlot(t.size()));
+                copy(copy, v, t.size());
+                v = copy;
+            }
+            args.add(v);
+        }
+
+        Type type = fce.type;
+        Temp result = type == BaseType.VOID ? null : fn.newTemp(irType(type));
+        emit(Quad.call(result, fce.name, args.toArray(new Value[args.size()])));
+        if (type instanceof StructType) {
+            Temp copy = frame(fn.newSlot(type.size()));
+            copy(copy, result, type.size());
+            return copy;
+        }
+        return result;
+    }
+
+    @Override
+    public Value visitExprStmt(ExprStmt es) {
+        es.exp.accept(this);
+        return null;
+    }
+
+    @Override
+    public Value visitIf(If i) {
+        BasicBlock then = newBlock();
+        BasicBlock end = newBlock();
+        BasicBlock otherwise = i.elseStmt != null ? newBlock() : end;
+        condition(i.cond, then, otherwise);
+        start(then);
+        i.ifStmt.accept(this);
+        jumpTo(end);
+        if (i.elseStmt != null) {
+            start(otherwise);
+            i.elseStmt.accept(this);
+            jumpTo(end);
+        }
+        start(end);
+        return null;
+    }
+
+    @Override
+    public Value visitWhile(While w) {
+        // rotated: the condition is tested before the loop and at the end of every iteration
+        BasicBlock body = newBlock();
+        BasicBlock end = newBlock();
+        condition(w.cond, body, end);
+        start(body);
+        w.stmt.accept(this);
+        condition(w.cond, body, end);
+        start(end);
+        return null;
+    }
+
+    @Override
+    public Value visitReturn(Return r) {
+        emit(Quad.ret(r.exp == null ? null : r.exp.accept(this)));
+        return null;
+    }
+
+    @Override
+    public Value visitBaseType(BaseType bt) {
+        return null;
+    }
+
+    @Override
+    public Value visitStructTypeDecl(StructTypeDecl st) {
+        return null;
+    }
+
+    @Override
+    public Value visitVarDecl(VarDecl vd) {
+        return null;
+    }
+
+    @Override
+    public Value visitArrayType(ArrayType at) {
+        return null;
+    }
+
+    @Override
+    public Value visitOp(Op o) {
+        return null;
+    }
+
+    @Override
+    public Value visitPointerType(PointerType pt) {
+        return null;
+    }
+
+    @Override
+    public Value visitStructType(StructType st) {
+        return null;
+    }
+}
@@ -0,0 +1,366 @@
+package ir;
+
+import gen.CodeGenerator;
+import gen.Instruction;
+import gen.Register;
+import gen.RegisterAllocator;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Emits MIPS assembly for the IR, with the calling convention of the
+ * CodeGenerator so that the library functions can be shared.
+ *
+ * Every temporary tN becomes the virtual register $xN, and the few extra
+ * values needed on the way (constants that do not fit in an instruction) get
+ * virtual registers numbered after the temporaries; the register allocator
+ * then maps them all to real registers. The frame slots of a function sit
+ * right above $sp, below the saved registers and spill slots of the
+ * allocator.
+ */
+public class MipsEmitter {
+
+    private final RegisterAllocator allocator;
+
+    private PrintWriter writer;
+
+    // the code of the function being emitted, and its next fresh virtual register
+    private List<Instruction> code;
+    private int virtuals;
+
+    public MipsEmitter(RegisterAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    public void emitProgram(Module module, File outputFile) throws FileNotFoundException {
+        beginProgram(module, outputFile);
+        for (Function f : module.functions) {
+            emitFunction(f);
+        }
+        endProgram();
+    }
+
+    /**
+     * Starts a program, emitting its globals, for its functions to be emitted
+     * one at a time with emitFunction and the program closed with endProgram.
+     */
+    public void beginProgram(Module declarations, File outputFile) throws FileNotFoundException {
+        writer = new PrintWriter(outputFile);
+        writer.println(".data");
+        for (Map.Entry<String, Integer> g : declarations.globals.entrySet()) {
+            writer.println("    .align 2");
+            writer.println(g.getKey() + ":  .space  " + g.getValue());
+        }
+        writer.println();
+
+        writer.println(".text");
+        writer.println("    jal  main");
+        writer.println("    li   $v0, 10");
+        writer.println("    syscall");
+        writer.println();
+    }
+
+    public void emitFunction(Function f) {
+        for (Map.Entry<String, String> s : f.strings.entrySet()) {
+            writer.println("    .data");
+            writer.println(s.getKey() + ":  .asciiz  \"" + s.getValue() + "\"");
+            writer.println("    .text");
+        }
+
+        code = new ArrayList<Instruction>();
+        virtuals = f.getTempCount();
+
+        code.add(Instruction.directive("    .text"));
+        code.add(Instruction.label(f.name));
+        emit(gen.Opcode.ADD, Register.fp, Register.sp, Register.zero);
+        if (f.getFrameSize() > 0) {
+            emit(gen.Opcode.ADDI, Register.sp, Register.sp, -f.getFrameSize());
+        }
+        List<BasicBlock> blocks = f.blocks;
+        for (int i = 0; i < blocks.size(); i++) {
+            BasicBlock next = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+            code.add(Instruction.label(blocks.get(i).label));
+            for (Quad q : blocks.get(i).quads) {
+                emit(q, next);
+            }
+        }
+        allocator.allocate(code, virtuals, writer);
+        code = null;
+        writer.println();
+    }
+
+    public void endProgram() {
+        new CodeGenerator().emitLibrary(writer);
+        writer.close();
+    }
+
+    private void emit(gen.Opcode opcode, Object... operands) {
+        code.add(Instruction.of(opcode, operands));
+    }
+
+    private Register fresh() {
+        return Register.virtual(virtuals++);
+    }
+
+    private static Register temp(Temp t) {
+        return Register.virtual(t.id);
+    }
+
+    private static Instruction.Address at(int offset, Register base) {
+        return new Instruction.Address(offset, base);
+    }
+
+    private static boolean isConst(Value v) {
+        return v instanceof Const;
+    }
+
+    private static int value(Value v) {
+        return ((Const) v).value;
+    }
+
+    // whether v is a constant that fits in the immediate of an instruction
+    private static boolean isImmediate(Value v) {
+        return isConst(v) && value(v) >= -32768 && value(v) <= 32767;
+    }
+
+    // the shift multiplying by v, for a constant power of two, else -1
+    private static int shift(Value v) {
+        if (isConst(v) && value(v) > 0 && (value(v) & (value(v) - 1)) == 0) {
+            return Integer.numberOfTrailingZeros(value(v));
+        }
+        return -1;
+    }
+
+    // the register holding v, loading a constant into a fresh one
+    private Register reg(Value v) {
+        if (isConst(v)) {
+            if (value(v) == 0) {
+                return Register.zero;
+            }
+            Register r = fresh();
+            emit(gen.Opcode.LI, r, value(v));
+            return r;
+        }
+        return temp((Temp) v);
+    }
+
+    private void emit(Quad q, BasicBlock next) {
+        Register d = q.dest == null ? null : temp(q.dest);
+        Value[] args = q.args;
+        switch (q.op) {
+            case PARAM:
+                if (q.offset < 4) {
+                    emit(gen.Opcode.ADD, d, Register.zero, Register.paramRegs[q.offset]);
+                } else {
+                    emit(gen.Opcode.LW, d, at(4 * (q.offset - 4), Register.fp));
+                }
+                break;
+            case MOVE:
+                if (isConst(args[0])) {
+                    emit(gen.Opcode.LI, d, value(args[0]));
+                } else {
+                    emit(gen.Opcode.ADD, d, Register.zero, reg(args[0]));
+                }
+                break;
+            case ADD:
+                if (isImmediate(args[1])) {
+                    emit(gen.Opcode.ADDI, d, reg(args[0]), value(args[1]));
+                } else if (isImmediate(args[0])) {
+                    emit(gen.Opcode.ADDI, d, reg(args[1]), value(args[0]));
+                } else {
+                    emit(gen.Opcode.ADD, d, reg(args[0]), reg(args[1]));
+                }
+                break;
+            case SUB:
+                if (isImmediate(args[1]) && value(args[1]) != -32768) {
+                    emit(gen.Opcode.ADDI, d, reg(args[0]), -value(args[1]));
+                } else {
+                    emit(gen.Opcode.SUB, d, reg(args[0]), reg(args[1]));
+                }
+                break;
+            case MUL:
+                if (shift(args[1]) >= 0) {
+                    emit(gen.Opcode.SLL, d, reg(args[0]), shift(args[1]));
+                } else if (shift(args[0]) >= 0) {
+                    emit(gen.Opcode.SLL, d, reg(args[1]), shift(args[0]));
+                } else {
+                    emit(gen.Opcode.MUL, d, reg(args[0]), reg(args[1]));
+                }
+                break;
+            case DIV:
+            case MOD:
+                emit(gen.Opcode.DIV, reg(args[0]), reg(args[1]));
+                emit(q.op == Opcode.DIV ? gen.Opcode.MFLO : gen.Opcode.MFHI, d);
+                break;
+            case LT:
+                if (isImmediate(args[1])) {
+                    emit(gen.Opcode.SLTI, d, reg(args[0]), value(args[1]));
+                } else {
+                    emit(gen.Opcode.SLT, d, reg(args[0]), reg(args[1]));
+                }
+                break;
+            case GT:
+                emit(gen.Opcode.SLT, d, reg(args[1]), reg(args[0]));
+                break;
+            case LE:
+                emit(gen.Opcode.SLT, d, reg(args[1]), reg(args[0]));
+                emit(gen.Opcode.XORI, d, d, 1);
+                break;
+            case GE:
+                if (isImmediate(args[1])) {
+                    emit(gen.Opcode.SLTI, d, reg(args[0]), value(args[1]));
+                } else {
+                    emit(gen.Opcode.SLT, d, reg(args[0]), reg(args[1]));
+                }
+                emit(gen.Opcode.XORI, d, d, 1);
+                break;
+            case EQ:
+            case NE:
+                emit(gen.Opcode.XOR, d, reg(args[0]), reg(args[1]));
+                if (q.op == Opcode.EQ) {
+                    emit(gen.Opcode.SLTIU, d, d, 1);
+                } else {
+                    emit(gen.Opcode.SLTU, d, Register.zero, d);
+                }
+                break;
+            case LOAD:
+                emit(q.type == IrType.CHAR ? gen.Opcode.LB : gen.Opcode.LW, d, at(q.offset, reg(args[0])));
+                break;
+            case STORE:
+                emit(q.type == IrType.CHAR ? gen.Opcode.SB : gen.Opcode.SW, reg(args[0]), at(q.offset, reg(args[1])));
+                break;
+            case FRAME:
+                emit(gen.Opcode.ADDI, d, Register.sp, q.offset);
+                break;
+            case ADDRESS:
+                emit(gen.Opcode.LA, d, q.symbol);
+                break;
+            case CALL:
+                emitCall(q);
+                break;
+            case JUMP:
+                if (q.targets[0] != next) {
+                    emit(gen.Opcode.J, q.targets[0].label);
+                }
+                break;
+            case BRANCH:
+                emitBranch(q, next);
+                break;
+            case RETURN:
+                if (args.length > 0) {
+                    if (isConst(args[0])) {
+                        emit(gen.Opcode.LI, Register.v0, value(args[0]));
+                    } else {
+                        emit(gen.Opcode.ADD, Register.v0, Register.zero, reg(args[0]));
+                    }
+                }
+                emit(gen.Opcode.ADD, Register.sp, Register.fp, Register.zero);
+                emit(gen.Opcode.JR, Register.ra);
+                break;
+        }
+    }
+
+    // compares the operands of the branch directly, falling through to next where it can
+    private void emitBranch(Quad q, BasicBlock next) {
+        BasicBlock ifTrue = q.targets[0];
+        BasicBlock ifFalse = q.targets[1];
+        Opcode comparison = q.comparison;
+        Value a = q.args[0];
+        Value b = q.args[1];
+        if (isConst(a) && isConst(b)) {
+            BasicBlock target = ConstantPropagation.fold(comparison, value(a), value(b)) != 0 ? ifTrue : ifFalse;
+            if (target != next) {
+                emit(gen.Opcode.J, target.label);
+            }
+            return;
+        }
+        if (isConst(a)) {
+            comparison = comparison.mirror();
+            a = q.args[1];
+            b = q.args[0];
+        }
+        if (ifTrue == next) {
+            emitBranch(comparison.negate(), a, b, ifFalse.label);
+        } else {
+            emitBranch(comparison, a, b, ifTrue.label);
+            if (ifFalse != next) {
+                emit(gen.Opcode.J, ifFalse.label);
+            }
+        }
+    }
+
+    // branches to label if a comparison b holds, a not being a constant
+    private void emitBranch(Opcode comparison, Value a, Value b, String label) {
+        if (isConst(b) && value(b) == 0) {
+            switch (comparison) {
+                case LT: emit(gen.Opcode.BLTZ, reg(a), label); return;
+                case GT: emit(gen.Opcode.BGTZ, reg(a), label); return;
+                case LE: emit(gen.Opcode.BLEZ, reg(a), label); return;
+                case GE: emit(gen.Opcode.BGEZ, reg(a), label); return;
+                default: break;
+            }
+        }
+
+        // a > k is a < k + 1 failing; slti and a test of its result beat blt with an immediate
+        boolean below = comparison == Opcode.LT || comparison == Opcode.GE;
+        boolean above = comparison == Opcode.GT || comparison == Opcode.LE;
+        if (isImmediate(b) && (below || above && value(b) < 32767)) {
+            Register r = fresh();
+            emit(gen.Opcode.SLTI, r, reg(a), below ? value(b) : value(b) + 1);
+            boolean whenSet = comparison == Opcode.LT || comparison == Opcode.LE;
+            emit(whenSet ? gen.Opcode.BNE : gen.Opcode.BEQ, r, Register.zero, label);
+            return;
+        }
+        emit(branch(comparison), reg(a), reg(b), label);
+    }
+
+    private static gen.Opcode branch(Opcode comparison) {
+        switch (comparison) {
+            case LT: return gen.Opcode.BLT;
+            case GT: return gen.Opcode.BGT;
+            case LE: return gen.Opcode.BLE;
+            case GE: return gen.Opcode.BGE;
+            case EQ: return gen.Opcode.BEQ;
+            default: return gen.Opcode.BNE;
+        }
+    }
+
+    private void emitCall(Quad q) {
+        // save $fp and $ra on the stack
+        emit(gen.Opcode.ADDI, Register.sp, Register.sp, -8);
+        emit(gen.Opcode.SW, Register.fp, at(4, Register.sp));
+        emit(gen.Opcode.SW, Register.ra, at(0, Register.sp));
+
+        // the arguments after the fourth are passed on the stack
+        int stacked = 4 * Math.max(0, q.args.length - 4);
+        if (stacked > 0) {
+            emit(gen.Opcode.ADDI, Register.sp, Register.sp, -stacked);
+            for (int i = 4; i < q.args.length; i++) {
+                emit(gen.Opcode.SW, reg(q.args[i]), at(4 * (i - 4), Register.sp));
+            }
+        }
+        for (int i = 0; i < q.args.length && i < 4; i++) {
+            if (isConst(q.args[i])) {
+                emit(gen.Opcode.LI, Register.paramRegs[i], value(q.args[i]));
+            } else {
+                emit(gen.Opcode.ADD, Register.paramRegs[i], Register.zero, reg(q.args[i]));
+            }
+        }
+
+        emit(gen.Opcode.JAL, q.symbol);
+        if (stacked > 0) {
+            emit(gen.Opcode.ADDI, Register.sp, Register.sp, stacked);
+        }
+        emit(gen.Opcode.ADDI, Register.sp, Register.sp, 8);
+        emit(gen.Opcode.LW, Register.fp, at(-4, Register.sp));
+        emit(gen.Opcode.LW, Register.ra, at(-8, Register.sp));
+        if (q.dest != null) {
+            emit(gen.Opcode.ADD, temp(q.dest), Register.zero, Register.v0);
+        }
+    }
+}
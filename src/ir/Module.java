@@ -0,0 +1,27 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The IR of a program: its global variables, with their sizes in bytes, and
+ * its functions.
+ */
+public class Module {
+
+    public final Map<String, Integer> globals = new LinkedHashMap<String, Integer>();
+    public final List<Function> functions = new ArrayList<Function>();
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> g : globals.entrySet()) {
+            sb.append("global ").append(g.getKey()).append(' ').append(g.getValue()).append('\n');
+        }
+        for (Function f : functions) {
+            sb.append(f);
+        }
+        return sb.toString();
+    }
+}
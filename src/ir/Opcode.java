@@ -0,0 +1,60 @@
+package ir;
+
+public enum Opcode {
+    PARAM,      // dest = parameter number offset of the function
+    MOVE,       // dest = args[0]
+    PHI,        // dest = args[i] when coming from the predecessor targets[i] (SSA form only)
+    ADD, SUB, MUL, DIV, MOD,
+    LT, GT, LE, GE, EQ, NE,     // dest = 1 if args[0] op args[1], else 0
+    LOAD,       // dest = memory[args[0] + offset]
+    STORE,      // memory[args[1] + offset] = args[0], of width type
+    FRAME,      // dest = address of the frame slot at offset
+    ADDRESS,    // dest = address of the global, string or function symbol
+    CALL,       // dest (if any) = symbol(args...)
+    JUMP,       // go to targets[0]
+    BRANCH,     // go to targets[0] if args[0] comparison args[1], else to targets[1]
+    RETURN;     // return args[0] (if any)
+
+    public boolean isBinary() {
+        return compareTo(ADD) >= 0 && compareTo(NE) <= 0;
+    }
+
+    public boolean isComparison() {
+        return compareTo(LT) >= 0 && compareTo(NE) <= 0;
+    }
+
+    /**
+     * @return the comparison holding exactly when this one does not
+     */
+    public Opcode negate() {
+        switch (this) {
+            case LT: return GE;
+            case GT: return LE;
+            case LE: return GT;
+            case GE: return LT;
+            case EQ: return NE;
+            default: return EQ;
+        }
+    }
+
+    /**
+     * @return the comparison holding for the operands the other way round
+     */
+    public Opcode mirror() {
+        switch (this) {
+            case LT: return GT;
+            case GT: return LT;
+            case LE: return GE;
+            case GE: return LE;
+            default: return this;
+        }
+    }
+
+    public boolean isTerminator() {
+        return this == JUMP || this == BRANCH || this == RETURN;
+    }
+
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
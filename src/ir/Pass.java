@@ -0,0 +1,12 @@
+package ir;
+
+/**
+ * An optimisation of a function in SSA form, run by the PassManager.
+ */
+public interface Pass {
+
+    /**
+     * @return whether the function was changed
+     */
+    boolean run(Function f);
+}
@@ -0,0 +1,46 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a sequence of passes over the functions of a module, converting every
+ * function to SSA form first and back out of it after the passes.
+ */
+public class PassManager {
+
+    private final List<Pass> passes = new ArrayList<Pass>();
+
+    /**
+     * @return a pass manager running constant propagation, strength
+     * reduction, value numbering and dead code elimination
+     */
+    public static PassManager standard() {
+        PassManager pm = new PassManager();
+        pm.add(new ConstantPropagation());
+        pm.add(new StrengthReduction());
+        pm.add(new ValueNumbering());
+        pm.add(new DeadCodeElimination());
+        return pm;
+    }
+
+    public PassManager add(Pass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    public void run(Module m) {
+        for (Function f : m.functions) {
+            run(f);
+        }
+    }
+
+    public Function run(Function f) {
+        Ssa.construct(f);
+        for (Pass pass : passes) {
+            pass.run(f);
+        }
+        Ssa.destruct(f);
+        return f;
+    }
+}
@@ -0,0 +1,138 @@
+package ir;
+
+import java.util.List;
+
+/**
+ * A three-address instruction: an opcode, the temporary it defines (if any)
+ * and its operands, plus what some opcodes need besides (see Opcode). The
+ * fields are left open so that optimisation passes can rewrite quads in place.
+ */
+public class Quad {
+
+    public final Opcode op;
+    public Temp dest;
+    public Value[] args;
+
+    public IrType type;           // width of a LOAD or STORE
+    public int offset;            // displacement, frame offset or parameter number
+    public String symbol;         // ADDRESS and CALL
+    public BasicBlock[] targets;  // JUMP and BRANCH, and the predecessors of a PHI
+    public Opcode comparison;     // the test of a BRANCH, LT to NE
+
+    public Quad(Opcode op, Temp dest, Value... args) {
+        this.op = op;
+        this.dest = dest;
+        this.args = args;
+    }
+
+    public static Quad param(Temp dest, int number) {
+        Quad q = new Quad(Opcode.PARAM, dest);
+        q.offset = number;
+        return q;
+    }
+
+    public static Quad move(Temp dest, Value v) {
+        return new Quad(Opcode.MOVE, dest, v);
+    }
+
+    public static Quad phi(Temp dest, List<BasicBlock> predecessors) {
+        Quad q = new Quad(Opcode.PHI, dest, new Value[predecessors.size()]);
+        q.targets = predecessors.toArray(new BasicBlock[predecessors.size()]);
+        return q;
+    }
+
+    public static Quad load(Temp dest, Value address, int offset) {
+        Quad q = new Quad(Opcode.LOAD, dest, address);
+        q.type = dest.type;
+        q.offset = offset;
+        return q;
+    }
+
+    public static Quad store(IrType type, Value v, Value address, int offset) {
+        Quad q = new Quad(Opcode.STORE, null, v, address);
+        q.type = type;
+        q.offset = offset;
+        return q;
+    }
+
+    public static Quad frame(Temp dest, int offset) {
+        Quad q = new Quad(Opcode.FRAME, dest);
+        q.offset = offset;
+        return q;
+    }
+
+    public static Quad address(Temp dest, String symbol) {
+        Quad q = new Quad(Opcode.ADDRESS, dest);
+        q.symbol = symbol;
+        return q;
+    }
+
+    public static Quad call(Temp dest, String function, Value... args) {
+        Quad q = new Quad(Opcode.CALL, dest, args);
+        q.symbol = function;
+        return q;
+    }
+
+    public static Quad jump(BasicBlock target) {
+        Quad q = new Quad(Opcode.JUMP, null);
+        q.targets = new BasicBlock[] {target};
+        return q;
+    }
+
+    public static Quad branch(Value cond, BasicBlock ifTrue, BasicBlock ifFalse) {
+        return branch(Opcode.NE, cond, Const.ZERO, ifTrue, ifFalse);
+    }
+
+    public static Quad branch(Opcode comparison, Value a, Value b, BasicBlock ifTrue, BasicBlock ifFalse) {
+        Quad q = new Quad(Opcode.BRANCH, null, a, b);
+        q.comparison = comparison;
+        q.targets = new BasicBlock[] {ifTrue, ifFalse};
+        return q;
+    }
+
+    public static Quad ret(Value v) {
+        return v == null ? new Quad(Opcode.RETURN, null) : new Quad(Opcode.RETURN, null, v);
+    }
+
+    /**
+     * @return whether the quad does anything besides defining dest
+     */
+    public boolean hasSideEffects() {
+        return op == Opcode.STORE || op == Opcode.CALL || op.isTerminator();
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (dest != null) {
+            sb.append(dest).append(" = ");
+        }
+        sb.append(op);
+        if (op == Opcode.LOAD || op == Opcode.STORE) {
+            sb.append('.').append(type);
+        } else if (op == Opcode.BRANCH) {
+            sb.append('.').append(comparison);
+        }
+        if (symbol != null) {
+            sb.append(' ').append(symbol);
+        }
+        String sep = " ";
+        for (int i = 0; i < args.length; i++) {
+            boolean memory = (op == Opcode.LOAD && i == 0) || (op == Opcode.STORE && i == 1);
+            sb.append(sep).append(memory ? "[" + args[i] + " + " + offset + "]" : args[i]);
+            if (op == Opcode.PHI) {
+                sb.append(" from ").append(targets[i].label);
+            }
+            sep = ", ";
+        }
+        if (op == Opcode.PARAM || op == Opcode.FRAME) {
+            sb.append(' ').append(offset);
+        }
+        if (targets != null && op != Opcode.PHI) {
+            for (BasicBlock b : targets) {
+                sb.append(sep).append(b.label);
+                sep = ", ";
+            }
+        }
+        return sb.toString();
+    }
+}
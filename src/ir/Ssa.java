@@ -0,0 +1,454 @@
+package ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Conversion of a function to and from static single assignment form.
+ *
+ * The temporaries holding local variables, that is those given by a MOVE or
+ * defined more than once, are renamed so that every temporary has a single
+ * definition dominating its uses, with PHI quads at the start of the blocks
+ * where several definitions meet (Cytron et al., placing them only for the
+ * variables live across blocks). A variable read before it is assigned is
+ * read as 0.
+ */
+public class Ssa {
+
+    private Ssa() {
+    }
+
+    public static void construct(Function f) {
+        Dominators dom = new Dominators(f);
+
+        // the variables to rename, the blocks defining each of them, and those used across blocks
+        Map<Temp, Integer> defCount = new HashMap<Temp, Integer>();
+        Set<Temp> variables = new HashSet<Temp>();
+        Map<Temp, Set<BasicBlock>> defBlocks = new HashMap<Temp, Set<BasicBlock>>();
+        Set<Temp> crossing = new HashSet<Temp>();
+        for (BasicBlock b : f.blocks) {
+            for (Quad q : b.quads) {
+                if (q.dest != null) {
+                    Integer n = defCount.get(q.dest);
+                    defCount.put(q.dest, n == null ? 1 : n + 1);
+                    if (q.op == Opcode.MOVE || n != null) {
+                        variables.add(q.dest);
+                    }
+                }
+            }
+        }
+        for (BasicBlock b : f.blocks) {
+            Set<Temp> defined = new HashSet<Temp>();
+            for (Quad q : b.quads) {
+                for (Value v : q.args) {
+                    if (variables.contains(v) && !defined.contains(v)) {
+                        crossing.add((Temp) v);
+                    }
+                }
+                if (variables.contains(q.dest)) {
+                    defined.add(q.dest);
+                    Set<BasicBlock> blocks = defBlocks.get(q.dest);
+                    if (blocks == null) {
+                        blocks = new HashSet<BasicBlock>();
+                        defBlocks.put(q.dest, blocks);
+                    }
+                    blocks.add(b);
+                }
+            }
+        }
+
+        // place the phis on the iterated dominance frontiers of the definitions
+        Map<Quad, Temp> phiVariable = new IdentityHashMap<Quad, Temp>();
+        for (Temp v : crossing) {
+            Set<BasicBlock> placed = new HashSet<BasicBlock>();
+            List<BasicBlock> work = new ArrayList<BasicBlock>(defBlocks.get(v));
+            Set<BasicBlock> queued = new HashSet<BasicBlock>(work);
+            while (!work.isEmpty()) {
+                BasicBlock b = work.remove(work.size() - 1);
+                for (BasicBlock d : dom.frontier(b)) {
+                    if (placed.add(d)) {
+                        Quad phi = Quad.phi(v, dom.predecessors(d));
+                        d.quads.add(0, phi);
+                        phiVariable.put(phi, v);
+                        if (queued.add(d)) {
+                            work.add(d);
+                        }
+                    }
+                }
+            }
+        }
+
+        rename(f, dom, variables, phiVariable);
+    }
+
+    private static void rename(Function f, Dominators dom, Set<Temp> variables, Map<Quad, Temp> phiVariable) {
+        Map<Temp, Deque<Value>> names = new HashMap<Temp, Deque<Value>>();
+        for (Temp v : variables) {
+            names.put(v, new ArrayDeque<Value>());
+        }
+
+        // a walk of the dominator tree, where null marks the end of the subtree of the block before it
+        List<BasicBlock> work = new ArrayList<BasicBlock>();
+        Deque<List<Temp>> pushed = new ArrayDeque<List<Temp>>();
+        work.add(f.entry());
+        while (!work.isEmpty()) {
+            BasicBlock b = work.remove(work.size() - 1);
+            if (b == null) {
+                for (Temp v : pushed.pop()) {
+                    names.get(v).pop();
+                }
+                continue;
+            }
+
+            List<Temp> defined = new ArrayList<Temp>();
+            for (Quad q : b.quads) {
+                if (q.op != Opcode.PHI) {
+                    for (int i = 0; i < q.args.length; i++) {
+                        if (variables.contains(q.args[i])) {
+                            q.args[i] = current(names, (Temp) q.args[i]);
+                        }
+                    }
+                }
+                if (variables.contains(q.dest)) {
+                    Temp v = q.dest;
+                    q.dest = f.newTemp(v.type);
+                    names.get(v).push(q.dest);
+                    defined.add(v);
+                }
+            }
+            for (BasicBlock s : b.successors()) {
+                for (Quad q : s.quads) {
+                    Temp v = phiVariable.get(q);
+                    if (v == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < q.targets.length; i++) {
+                        if (q.targets[i] == b) {
+                            q.args[i] = current(names, v);
+                        }
+                    }
+                }
+            }
+
+            pushed.push(defined);
+            work.add(null);
+            work.addAll(dom.children(b));
+        }
+    }
+
+    private static Value current(Map<Temp, Deque<Value>> names, Temp v) {
+        Value name = names.get(v).peek();
+        return name == null ? Const.ZERO : name;
+    }
+
+    /**
+     * Replaces the phis by moves at the end of the predecessors, run as one
+     * parallel copy per edge. A phi and its arguments share a temporary
+     * first wherever their live ranges do not overlap, which leaves their
+     * moves out. The moves of an edge from a block with other successors go
+     * on a block of their own, splitting the edge, unless what they
+     * overwrite is dead on the other successors.
+     */
+    public static void destruct(Function f) {
+        Map<BasicBlock, List<BasicBlock>> predecessors = f.predecessors();
+        coalesce(f, liveIn(f, predecessors));
+        Map<BasicBlock, Set<Temp>> liveIn = liveIn(f, predecessors);
+        for (BasicBlock b : new ArrayList<BasicBlock>(f.blocks)) {
+            int phis = 0;
+            while (phis < b.quads.size() && b.quads.get(phis).op == Opcode.PHI) {
+                phis++;
+            }
+            if (phis == 0) {
+                continue;
+            }
+
+            for (BasicBlock p : predecessors.get(b)) {
+                List<Temp> to = new ArrayList<Temp>();
+                List<Value> from = new ArrayList<Value>();
+                for (Quad q : b.quads.subList(0, phis)) {
+                    for (int i = 0; i < q.targets.length; i++) {
+                        if (q.targets[i] == p && q.args[i] != q.dest) {
+                            to.add(q.dest);
+                            from.add(q.args[i]);
+                        }
+                    }
+                }
+                if (to.isEmpty()) {
+                    continue;
+                }
+
+                BasicBlock at = p;
+                if (!overwritesOnlyDead(p, b, to, liveIn)) {
+                    at = new BasicBlock(b.label + "_" + p.label);
+                    at.quads.add(Quad.jump(b));
+                    BasicBlock[] targets = p.terminator().targets;
+                    for (int i = 0; i < targets.length; i++) {
+                        if (targets[i] == b) {
+                            targets[i] = at;
+                        }
+                    }
+                    f.blocks.add(f.blocks.indexOf(b), at);
+
+                    // what the moves read is live into the new block, for the other edges of p
+                    Set<Temp> live = new HashSet<Temp>(liveIn.get(b));
+                    for (Value v : from) {
+                        if (v instanceof Temp) {
+                            live.add((Temp) v);
+                        }
+                    }
+                    liveIn.put(at, live);
+                }
+                at.quads.addAll(at.quads.size() - 1, sequentialise(f, to, from));
+            }
+            b.quads.subList(0, phis).clear();
+        }
+    }
+
+    // gives the temporaries of a phi and of its arguments a single name wherever they do not interfere
+    private static void coalesce(Function f, Map<BasicBlock, Set<Temp>> liveIn) {
+        Set<Temp> related = new HashSet<Temp>();
+        for (BasicBlock b : f.blocks) {
+            for (Quad q : b.quads) {
+                if (q.op == Opcode.PHI) {
+                    related.add(q.dest);
+                    for (Value v : q.args) {
+                        if (v instanceof Temp) {
+                            related.add((Temp) v);
+                        }
+                    }
+                }
+            }
+        }
+        if (related.isEmpty()) {
+            return;
+        }
+
+        // interference among them: one is defined where the other is live
+        Map<Temp, Set<Temp>> interference = new HashMap<Temp, Set<Temp>>();
+        for (Temp t : related) {
+            interference.put(t, new HashSet<Temp>());
+        }
+        for (BasicBlock b : f.blocks) {
+            Set<Temp> live = liveOut(b, liveIn);
+            int k = b.quads.size() - 1;
+            for (; k >= 0 && b.quads.get(k).op != Opcode.PHI; k--) {
+                Quad q = b.quads.get(k);
+                if (q.dest != null) {
+                    live.remove(q.dest);
+                    interfere(interference, q.dest, live);
+                }
+                for (Value v : q.args) {
+                    if (v instanceof Temp) {
+                        live.add((Temp) v);
+                    }
+                }
+            }
+            for (; k >= 0; k--) {
+                live.add(b.quads.get(k).dest);
+            }
+            for (int i = 0; i < b.quads.size() && b.quads.get(i).op == Opcode.PHI; i++) {
+                Temp d = b.quads.get(i).dest;
+                live.remove(d);
+                interfere(interference, d, live);
+                live.add(d);
+            }
+        }
+
+        // classes of temporaries sharing a name, merged phi by phi
+        Map<Temp, Set<Temp>> classOf = new HashMap<Temp, Set<Temp>>();
+        for (Temp t : related) {
+            Set<Temp> c = new HashSet<Temp>();
+            c.add(t);
+            classOf.put(t, c);
+        }
+        for (BasicBlock b : f.blocks) {
+            for (Quad q : b.quads) {
+                if (q.op != Opcode.PHI) {
+                    break;
+                }
+                for (Value v : q.args) {
+                    Set<Temp> c = classOf.get(q.dest);
+                    Set<Temp> other = classOf.get(v);
+                    if (other == null || other == c || interfere(interference, c, other)) {
+                        continue;
+                    }
+                    c.addAll(other);
+                    for (Temp t : other) {
+                        classOf.put(t, c);
+                    }
+                }
+            }
+        }
+
+        Map<Set<Temp>, Temp> names = new IdentityHashMap<Set<Temp>, Temp>();
+        for (BasicBlock b : f.blocks) {
+            for (Quad q : b.quads) {
+                q.dest = name(q.dest, classOf, names);
+                for (int i = 0; i < q.args.length; i++) {
+                    if (q.args[i] instanceof Temp) {
+                        q.args[i] = name((Temp) q.args[i], classOf, names);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void interfere(Map<Temp, Set<Temp>> interference, Temp t, Set<Temp> live) {
+        Set<Temp> with = interference.get(t);
+        for (Temp u : live) {
+            Set<Temp> back = interference.get(u);
+            if (with != null && back != null) {
+                with.add(u);
+                back.add(t);
+            }
+        }
+    }
+
+    private static boolean interfere(Map<Temp, Set<Temp>> interference, Set<Temp> a, Set<Temp> b) {
+        for (Temp t : a.size() < b.size() ? a : b) {
+            for (Temp u : interference.get(t)) {
+                if ((a.size() < b.size() ? b : a).contains(u)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Temp name(Temp t, Map<Temp, Set<Temp>> classOf, Map<Set<Temp>, Temp> names) {
+        Set<Temp> c = t == null ? null : classOf.get(t);
+        if (c == null) {
+            return t;
+        }
+        if (!names.containsKey(c)) {
+            names.put(c, t);
+        }
+        return names.get(c);
+    }
+
+    // the temporaries live at the end of b, the arguments of the phis of its successors included
+    private static Set<Temp> liveOut(BasicBlock b, Map<BasicBlock, Set<Temp>> liveIn) {
+        Set<Temp> live = new HashSet<Temp>();
+        for (BasicBlock s : b.successors()) {
+            Set<Temp> in = new HashSet<Temp>(liveIn.get(s));
+            for (Quad q : s.quads) {
+                if (q.op != Opcode.PHI) {
+                    break;
+                }
+                in.remove(q.dest);
+            }
+            live.addAll(in);
+            for (Quad q : s.quads) {
+                if (q.op != Opcode.PHI) {
+                    break;
+                }
+                for (int i = 0; i < q.targets.length; i++) {
+                    if (q.targets[i] == b && q.args[i] instanceof Temp) {
+                        live.add((Temp) q.args[i]);
+                    }
+                }
+            }
+        }
+        return live;
+    }
+
+    // whether the moves to the temporaries to, at the end of p, leave p and its successors but b unaffected
+    private static boolean overwritesOnlyDead(BasicBlock p, BasicBlock b, List<Temp> to,
+                                              Map<BasicBlock, Set<Temp>> liveIn) {
+        for (Value v : p.terminator().args) {
+            if (to.contains(v)) {
+                return false;
+            }
+        }
+        for (BasicBlock s : p.successors()) {
+            if (s == b) {
+                continue;
+            }
+            for (Temp t : to) {
+                if (liveIn.get(s).contains(t)) {
+                    return false;
+                }
+            }
+            for (Quad q : s.quads) {
+                if (q.op != Opcode.PHI) {
+                    break;
+                }
+                for (int i = 0; i < q.targets.length; i++) {
+                    if (q.targets[i] == p && to.contains(q.args[i])) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the temporaries live at the start of every block, past its
+     * phis; the arguments of a phi are live at the end of its predecessor
+     */
+    private static Map<BasicBlock, Set<Temp>> liveIn(Function f, Map<BasicBlock, List<BasicBlock>> predecessors) {
+        Map<BasicBlock, Set<Temp>> liveIn = new HashMap<BasicBlock, Set<Temp>>();
+        for (BasicBlock b : f.blocks) {
+            liveIn.put(b, new HashSet<Temp>());
+        }
+        List<BasicBlock> work = new ArrayList<BasicBlock>(f.blocks);
+        Set<BasicBlock> queued = new HashSet<BasicBlock>(work);
+        while (!work.isEmpty()) {
+            BasicBlock b = work.remove(work.size() - 1);
+            queued.remove(b);
+            Set<Temp> live = liveOut(b, liveIn);
+            for (int k = b.quads.size() - 1; k >= 0 && b.quads.get(k).op != Opcode.PHI; k--) {
+                Quad q = b.quads.get(k);
+                live.remove(q.dest);
+                for (Value v : q.args) {
+                    if (v instanceof Temp) {
+                        live.add((Temp) v);
+                    }
+                }
+            }
+            if (!live.equals(liveIn.get(b))) {
+                liveIn.put(b, live);
+                for (BasicBlock p : predecessors.get(b)) {
+                    if (queued.add(p)) {
+                        work.add(p);
+                    }
+                }
+            }
+        }
+        return liveIn;
+    }
+
+    /**
+     * @return moves doing the copies to[i] = from[i] as if all at once
+     */
+    private static List<Quad> sequentialise(Function f, List<Temp> to, List<Value> from) {
+        List<Quad> moves = new ArrayList<Quad>();
+        while (!to.isEmpty()) {
+            int k = 0;
+            while (k < to.size() && from.contains(to.get(k))) {
+                k++;
+            }
+            if (k == to.size()) {
+                // every destination is still to be read: a cycle, broken by saving one of them
+                Temp saved = f.newTemp(to.get(0).type);
+                moves.add(Quad.move(saved, to.get(0)));
+                for (int i = 0; i < from.size(); i++) {
+                    if (from.get(i) == to.get(0)) {
+                        from.set(i, saved);
+                    }
+                }
+                k = 0;
+            }
+            moves.add(Quad.move(to.remove(k), from.remove(k)));
+        }
+        return moves;
+    }
+}
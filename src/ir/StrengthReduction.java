@@ -0,0 +1,247 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Strength reduction of the element addresses computed in loops: where a
+ * loop steps a variable i by a constant or by a value it does not change,
+ * the addresses base + i * size it computes from a base it does not change
+ * either become a pointer of their own, set up before the loop and stepped
+ * along with i. The multiplication and addition go, and i stays for what
+ * else reads it, such as the test of the loop.
+ *
+ * Loops are found from their back edges, to a header dominating the rest of
+ * the loop, and i is a phi of the header adding to itself around the loop.
+ * Only a loop entered from a single block is reduced: the pointer starts in
+ * that block, before the jump or branch ending it.
+ */
+public class StrengthReduction implements Pass {
+
+    private Function f;
+    private final Map<Temp, Quad> definitions = new HashMap<Temp, Quad>();
+    private final Map<Temp, BasicBlock> definedIn = new HashMap<Temp, BasicBlock>();
+
+    public boolean run(Function f) {
+        this.f = f;
+        definitions.clear();
+        definedIn.clear();
+        for (BasicBlock b : f.blocks) {
+            for (Quad q : b.quads) {
+                if (q.dest != null) {
+                    definitions.put(q.dest, q);
+                    definedIn.put(q.dest, b);
+                }
+            }
+        }
+
+        Dominators dom = new Dominators(f);
+        Map<BasicBlock, List<BasicBlock>> predecessors = f.predecessors();
+        Set<BasicBlock> reachable = new HashSet<BasicBlock>(dom.reversePostorder());
+        boolean changed = false;
+        for (BasicBlock h : dom.reversePostorder()) {
+            // the blocks reaching a back edge to h without going through h
+            Set<BasicBlock> loop = new LinkedHashSet<BasicBlock>();
+            List<BasicBlock> work = new ArrayList<BasicBlock>();
+            BasicBlock outside = null;
+            for (BasicBlock p : predecessors.get(h)) {
+                if (reachable.contains(p) && dom.dominates(h, p)) {
+                    work.add(p);
+                } else if (reachable.contains(p)) {
+                    outside = outside == null || outside == p ? p : h;
+                }
+            }
+            if (work.isEmpty() || outside == null || outside == h) {
+                continue;
+            }
+            loop.add(h);
+            while (!work.isEmpty()) {
+                BasicBlock b = work.remove(work.size() - 1);
+                if (loop.add(b)) {
+                    for (BasicBlock p : predecessors.get(b)) {
+                        if (reachable.contains(p)) {
+                            work.add(p);
+                        }
+                    }
+                }
+            }
+
+            for (Quad phi : new ArrayList<Quad>(h.quads)) {
+                if (phi.op == Opcode.PHI) {
+                    changed |= reduce(phi, h, loop, outside);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Reduces the addresses computed from the variable a phi of the loop
+     * header h defines, and from its value for the next iteration.
+     */
+    private boolean reduce(Quad phi, BasicBlock h, Set<BasicBlock> loop, BasicBlock outside) {
+        Value init = null;
+        Value next = null;
+        for (int k = 0; k < phi.args.length; k++) {
+            if (!loop.contains(phi.targets[k])) {
+                init = phi.args[k];
+            } else if (next == null || next.equals(phi.args[k])) {
+                next = phi.args[k];
+            } else {
+                return false;
+            }
+        }
+        next = original(next);
+        if (init == null || !(next instanceof Temp) || !loop.contains(definedIn.get(next))) {
+            return false;
+        }
+
+        // next = i + step, with the step constant or set before the loop
+        Quad update = definitions.get(next);
+        if (update.op != Opcode.ADD && update.op != Opcode.SUB) {
+            return false;
+        }
+        Value left = original(update.args[0]);
+        Value right = original(update.args[1]);
+        Value step;
+        if (update.op == Opcode.ADD && left == phi.dest && invariant(right, loop)) {
+            step = right;
+        } else if (update.op == Opcode.ADD && right == phi.dest && invariant(left, loop)) {
+            step = left;
+        } else if (update.op == Opcode.SUB && left == phi.dest && right instanceof Const) {
+            step = new Const(-((Const) right).value);
+        } else {
+            return false;
+        }
+
+        // the pointers to base + i * size and base + next * size, by base and size
+        Map<String, Temp[]> pointers = new HashMap<String, Temp[]>();
+        boolean changed = false;
+        for (BasicBlock b : loop) {
+            for (int n = 0; n < b.quads.size(); n++) {
+                Quad q = b.quads.get(n);
+                if (q.op != Opcode.ADD) {
+                    continue;
+                }
+                for (int side = 0; side < 2; side++) {
+                    Value index = original(q.args[side]);
+                    Quad scaled = index instanceof Temp ? definitions.get(index) : null;
+                    Value base = original(q.args[1 - side]);
+                    if (scaled == null || scaled.op != Opcode.MUL || !(scaled.args[1] instanceof Const)
+                            || (original(scaled.args[0]) != phi.dest && original(scaled.args[0]) != next)
+                            || !(base instanceof Temp) || !invariantBase((Temp) base, loop)) {
+                        continue;
+                    }
+                    int size = ((Const) scaled.args[1]).value;
+                    String key = baseKey((Temp) base) + " " + size;
+                    Temp[] pointer = pointers.get(key);
+                    if (pointer == null) {
+                        pointer = start(phi, h, loop, outside, update, init, step, (Temp) base, size);
+                        pointers.put(key, pointer);
+                        n = b.quads.indexOf(q);
+                    }
+                    b.quads.set(n, Quad.move(q.dest, pointer[original(scaled.args[0]) == phi.dest ? 0 : 1]));
+                    definitions.put(q.dest, b.quads.get(n));
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Sets up a pointer to base + i * size: its first value before the loop,
+     * a phi of the header, and its next value after the update of i.
+     *
+     * @return the phi and the next value
+     */
+    private Temp[] start(Quad phi, BasicBlock h, Set<BasicBlock> loop, BasicBlock outside,
+                         Quad update, Value init, Value step, Temp base, int size) {
+        List<Quad> before = new ArrayList<Quad>();
+        if (loop.contains(definedIn.get(base))) {
+            // a frame or global address, taken again before the loop
+            Quad address = definitions.get(base);
+            Temp t = f.newTemp(base.type);
+            before.add(address.op == Opcode.FRAME ? Quad.frame(t, address.offset) : Quad.address(t, address.symbol));
+            base = t;
+        }
+        Value scaled;
+        if (init instanceof Const) {
+            scaled = new Const(((Const) init).value * size);
+        } else {
+            scaled = f.newTemp(IrType.INT);
+            before.add(new Quad(Opcode.MUL, (Temp) scaled, init, new Const(size)));
+        }
+        Temp first = f.newTemp(IrType.PTR);
+        before.add(new Quad(Opcode.ADD, first, base, scaled));
+        Value stride;
+        if (step instanceof Const) {
+            stride = new Const(((Const) step).value * size);
+        } else if (size == 1) {
+            stride = step;
+        } else {
+            Temp t = f.newTemp(IrType.INT);
+            before.add(new Quad(Opcode.MUL, t, step, new Const(size)));
+            stride = t;
+        }
+        for (Quad q : before) {
+            define(q, outside);
+        }
+        outside.quads.addAll(outside.quads.size() - 1, before);
+
+        Temp current = f.newTemp(IrType.PTR);
+        Temp next = f.newTemp(IrType.PTR);
+        Quad p = Quad.phi(current, Arrays.asList(phi.targets));
+        for (int k = 0; k < p.args.length; k++) {
+            p.args[k] = loop.contains(p.targets[k]) ? next : first;
+        }
+        h.quads.add(0, p);
+        define(p, h);
+
+        BasicBlock b = definedIn.get(update.dest);
+        Quad advance = new Quad(Opcode.ADD, next, current, stride);
+        b.quads.add(b.quads.indexOf(update) + 1, advance);
+        define(advance, b);
+        return new Temp[] {current, next};
+    }
+
+    // the value v is a copy of, through moves
+    private Value original(Value v) {
+        while (v instanceof Temp && definitions.containsKey(v) && definitions.get(v).op == Opcode.MOVE) {
+            v = definitions.get(v).args[0];
+        }
+        return v;
+    }
+
+    // the same for the addresses of the same frame slot or global
+    private String baseKey(Temp base) {
+        Quad d = definitions.get(base);
+        if (d != null && d.op == Opcode.FRAME) {
+            return "frame " + d.offset;
+        }
+        return d != null && d.op == Opcode.ADDRESS ? "address " + d.symbol : base.toString();
+    }
+
+    private void define(Quad q, BasicBlock b) {
+        definitions.put(q.dest, q);
+        definedIn.put(q.dest, b);
+    }
+
+    // whether v is the same on every iteration of the loop
+    private boolean invariant(Value v, Set<BasicBlock> loop) {
+        return v instanceof Const || !loop.contains(definedIn.get(v));
+    }
+
+    // or, for a base address, can be taken again before the loop
+    private boolean invariantBase(Temp base, Set<BasicBlock> loop) {
+        Quad d = definitions.get(base);
+        return invariant(base, loop) || d.op == Opcode.FRAME || d.op == Opcode.ADDRESS;
+    }
+}
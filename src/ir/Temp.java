@@ -0,0 +1,25 @@
+package ir;
+
+/**
+ * A virtual register of a function. Temporaries are numbered from 0 in every
+ * function, and the code emitted for the function uses temporary n as the
+ * virtual register $xn.
+ */
+public class Temp implements Value {
+
+    public final int id;
+    public final IrType type;
+
+    Temp(int id, IrType type) {
+        this.id = id;
+        this.type = type;
+    }
+
+    public IrType type() {
+        return type;
+    }
+
+    public String toString() {
+        return "t" + id;
+    }
+}
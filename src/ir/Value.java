@@ -0,0 +1,8 @@
+package ir;
+
+/**
+ * An operand of a quad: a temporary or a constant.
+ */
+public interface Value {
+    public IrType type();
+}
@@ -0,0 +1,179 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Global value numbering over the dominator tree (Briggs, Cooper and
+ * Simpson): a quad computing what a quad in a dominating block already
+ * computed is dropped, and its temporary replaced by the earlier one. Moves
+ * and phis whose arguments all agree are copied through the same way, as
+ * are additions of 0 and multiplications by 1.
+ *
+ * Loads are only matched within a run of quads free of stores and calls, in
+ * one block; a word stored there is also forwarded to the loads reading it
+ * back. Frame addresses are only matched within one block too.
+ */
+public class ValueNumbering implements Pass {
+
+    private final Map<Temp, Value> replaced = new IdentityHashMap<Temp, Value>();
+    private final Map<String, Value> available = new HashMap<String, Value>();
+
+    // the state of memory as seen by loads, changed by every store and call
+    private int memory;
+
+    public boolean run(Function f) {
+        replaced.clear();
+        available.clear();
+        Dominators dom = new Dominators(f);
+        boolean changed = false;
+
+        // a walk of the dominator tree, where null marks the end of the subtree of the block before it
+        List<BasicBlock> work = new ArrayList<BasicBlock>();
+        List<List<String>> scopes = new ArrayList<List<String>>();
+        work.add(f.entry());
+        while (!work.isEmpty()) {
+            BasicBlock b = work.remove(work.size() - 1);
+            if (b == null) {
+                for (String key : scopes.remove(scopes.size() - 1)) {
+                    available.remove(key);
+                }
+                continue;
+            }
+
+            List<String> added = new ArrayList<String>();
+            memory++;
+            List<Quad> kept = new ArrayList<Quad>();
+            for (Quad q : b.quads) {
+                if (q.op != Opcode.PHI) {
+                    resolveArgs(q);
+                }
+                Value same = lookUp(q, b, added);
+                if (same != null) {
+                    replaced.put(q.dest, same);
+                    changed = true;
+                } else {
+                    kept.add(q);
+                }
+            }
+            b.quads.clear();
+            b.quads.addAll(kept);
+
+            scopes.add(added);
+            work.add(null);
+            work.addAll(dom.children(b));
+        }
+
+        // the phi arguments come from blocks that may be walked after the phi
+        for (BasicBlock b : f.blocks) {
+            for (Quad q : b.quads) {
+                resolveArgs(q);
+            }
+        }
+        return changed;
+    }
+
+    private void resolveArgs(Quad q) {
+        for (int i = 0; i < q.args.length; i++) {
+            q.args[i] = resolve(q.args[i]);
+        }
+    }
+
+    private Value resolve(Value v) {
+        while (v instanceof Temp && replaced.containsKey(v)) {
+            v = replaced.get(v);
+        }
+        return v;
+    }
+
+    private static String key(Value v) {
+        return v instanceof Const ? "#" + v : v.toString();
+    }
+
+    /**
+     * @return the value q computes if it is already available, or else null
+     * after making what q computes available
+     */
+    private Value lookUp(Quad q, BasicBlock b, List<String> added) {
+        String key;
+        switch (q.op) {
+            case MOVE:
+                return q.args[0];
+            case PHI: {
+                Value same = null;
+                StringBuilder sb = new StringBuilder("phi ").append(b.label);
+                for (Value v : q.args) {
+                    v = resolve(v);
+                    sb.append(' ').append(key(v));
+                    if (v == q.dest) {
+                        continue;
+                    }
+                    if (same == null || same.equals(v)) {
+                        same = v;
+                    } else {
+                        same = q.dest;
+                    }
+                }
+                if (same != null && same != q.dest) {
+                    return same;
+                }
+                key = sb.toString();
+                break;
+            }
+            case FRAME:
+                // within a block only: an addi is cheaper than keeping the address in a
+                // register from, say, the body of a loop to the code after it
+                key = "frame " + q.offset + " " + b.label;
+                break;
+            case ADDRESS:
+                key = "address " + q.symbol;
+                break;
+            case LOAD:
+                key = "load." + q.type + " " + key(q.args[0]) + " " + q.offset + " @" + memory;
+                break;
+            case STORE:
+            case CALL:
+                memory++;
+                if (q.op == Opcode.STORE && q.type != IrType.CHAR) {
+                    // a word read back is the word stored
+                    key = "load." + q.type + " " + key(q.args[1]) + " " + q.offset + " @" + memory;
+                    available.put(key, q.args[0]);
+                    added.add(key);
+                }
+                return null;
+            default:
+                if (!q.op.isBinary()) {
+                    return null;
+                }
+                // x + 0, x - 0 and x * 1 are x, as for the scaling of char indices
+                Value identity = q.op == Opcode.MUL ? Const.ONE : Const.ZERO;
+                if ((q.op == Opcode.ADD || q.op == Opcode.SUB || q.op == Opcode.MUL) && identity.equals(q.args[1])) {
+                    return q.args[0];
+                }
+                if ((q.op == Opcode.ADD || q.op == Opcode.MUL) && identity.equals(q.args[0])) {
+                    return q.args[1];
+                }
+                String a = key(q.args[0]);
+                String c = key(q.args[1]);
+                boolean commutative = q.op == Opcode.ADD || q.op == Opcode.MUL
+                    || q.op == Opcode.EQ || q.op == Opcode.NE;
+                if (commutative && a.compareTo(c) > 0) {
+                    String t = a;
+                    a = c;
+                    c = t;
+                }
+                key = q.op + " " + a + " " + c;
+                break;
+        }
+        Value same = available.get(key);
+        if (same != null) {
+            return same;
+        }
+        available.put(key, q.dest);
+        added.add(key);
+        return null;
+    }
+}
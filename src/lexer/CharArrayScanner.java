@@ -0,0 +1,116 @@
+package lexer;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * A Scanner over an in-memory character array.
+ *
+ * The whole source file is read into a byte[] and decoded once, as UTF-8, into
+ * a single char[]; peek() and next() are then plain array reads. The charset
+ * is fixed rather than the platform default so that the columns of the tokens
+ * do not depend on the locale. The end of the input is signalled by returning
+ * Scanner.EOF (with atEOF() returning true) instead of throwing an
+ * EOFException, so the Tokeniser never has to unwind at the end of a file.
+ */
+public class CharArrayScanner extends Scanner {
+
+    private final char[] buffer;
+    private final int length;
+    private int pos = 0;
+
+    private boolean eof = false;
+    private int current = -1;
+
+    private int line = 1;
+    private int column = 1;
+
+    public CharArrayScanner(File source) throws IOException {
+        this(readFile(source));
+    }
+
+    public CharArrayScanner(String source) {
+        this(source.toCharArray());
+    }
+
+    public CharArrayScanner(char[] buffer) {
+        this(buffer, buffer.length);
+    }
+
+    public CharArrayScanner(char[] buffer, int length) {
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    private static CharBuffer readFile(File source) throws IOException {
+        if (!source.isFile()) {
+            throw new FileNotFoundException(source.toString());
+        }
+        byte[] bytes = Files.readAllBytes(source.toPath());
+        return StandardCharsets.UTF_8.decode(ByteBuffer.wrap(bytes));
+    }
+
+    private CharArrayScanner(CharBuffer chars) {
+        this(chars.array(), chars.limit());
+    }
+
+    @Override
+    public int getColumn() {
+        return column;
+    }
+
+    @Override
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public char peek() {
+        if (pos < length) {
+            eof = false;
+            return buffer[pos];
+        }
+        eof = true;
+        return EOF;
+    }
+
+    @Override
+    public char next() {
+        if (pos >= length) {
+            eof = true;
+            return EOF;
+        }
+        eof = false;
+
+        char r = buffer[pos++];
+        if (r == '\n' || r == '\r') {
+            line++;
+            column = 0;
+        } else {
+            column++;
+        }
+
+        current = (int) r;
+        return r;
+    }
+
+    @Override
+    public char cursor() {
+        return (char) current;
+    }
+
+    @Override
+    public boolean atEOF() {
+        return eof;
+    }
+
+    @Override
+    public void close() {
+        // nothing to release, the file is closed once it has been read
+    }
+}
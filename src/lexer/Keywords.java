@@ -0,0 +1,68 @@
+package lexer;
+
+import lexer.Token.TokenClass;
+
+/**
+ * Perfect hash over the nine Mini-C keywords.
+ *
+ * The slot of a word is computed from its first character, last character and
+ * length; the keywords are placed so that no two of them share a slot, hence a
+ * lookup is one hash, one length check and a single character-by-character
+ * comparison against the only possible candidate.
+ */
+final class Keywords {
+
+    private static final int SIZE = 16;
+
+    private static final String[] words = new String[SIZE];
+    private static final TokenClass[] classes = new TokenClass[SIZE];
+
+    static {
+        put("int", TokenClass.INT);
+        put("char", TokenClass.CHAR);
+        put("void", TokenClass.VOID);
+        put("if", TokenClass.IF);
+        put("else", TokenClass.ELSE);
+        put("while", TokenClass.WHILE);
+        put("return", TokenClass.RETURN);
+        put("struct", TokenClass.STRUCT);
+        put("sizeof", TokenClass.SIZEOF);
+    }
+
+    private Keywords() {
+    }
+
+    private static int hash(char first, char last, int length) {
+        return (first + last * 6 + length) & (SIZE - 1);
+    }
+
+    private static void put(String word, TokenClass tokenClass) {
+        int h = hash(word.charAt(0), word.charAt(word.length() - 1), word.length());
+        if (words[h] != null) {
+            throw new IllegalStateException("keyword hash collision between " + words[h] + " and " + word);
+        }
+        words[h] = word;
+        classes[h] = tokenClass;
+    }
+
+    /**
+     * Returns the token class of the keyword spelled by the first length
+     * characters of buffer, or null if they do not spell a keyword.
+     */
+    static TokenClass lookup(char[] buffer, int length) {
+        if (length < 2 || length > 6) {
+            return null;
+        }
+        int h = hash(buffer[0], buffer[length - 1], length);
+        String word = words[h];
+        if (word == null || word.length() != length) {
+            return null;
+        }
+        for (int i = 0; i < length; i++) {
+            if (word.charAt(i) != buffer[i]) {
+                return null;
+            }
+        }
+        return classes[h];
+    }
+}
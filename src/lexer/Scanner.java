@@ -7,6 +7,12 @@ import java.io.*;
  */
 public class Scanner {
 
+    /**
+     * End-of-input sentinel handed out by scanners that do not signal the end
+     * of the file with an EOFException (see atEOF()).
+     */
+    public static final char EOF = '\uffff';
+
     private BufferedReader input;
     private int peeked = -1;
     private int current = -1;
@@ -18,6 +24,12 @@ public class Scanner {
         input = new BufferedReader(new FileReader(source));
     }
 
+    /**
+     * For subclasses providing their own character source.
+     */
+    protected Scanner() {
+    }
+
 
     public int getColumn() {
         return column;
@@ -70,6 +82,15 @@ public class Scanner {
         return (char) current;
     }
 
+    /**
+     * Returns true if the last character handed out by peek() or next() was the
+     * EOF sentinel rather than a character of the input. This scanner throws an
+     * EOFException at the end of the input instead, so it never returns true.
+     */
+    public boolean atEOF() {
+        return false;
+    }
+
     public void close() throws IOException {
         input.close();
     }
@@ -0,0 +1,175 @@
+package lexer;
+
+import lexer.Token.TokenClass;
+import util.InternTable;
+
+import java.util.Arrays;
+
+/**
+ * A whole file worth of tokens stored as parallel primitive arrays.
+ *
+ * Token i has class tokenClass(i), its line and column packed into a single
+ * long, and the InternTable id of its data (or -1 when it has none). Filled by
+ * Tokeniser.tokenise(); the last token is always EOF. Parsers walk it through
+ * a Cursor, which gives O(1) lookahead of any distance without creating Token
+ * objects.
+ */
+public class TokenTape {
+
+    private static final TokenClass[] classes = TokenClass.values();
+
+    private final InternTable names;
+
+    private byte[] tokenClass;
+    private long[] packedLineCol;
+    private int[] lexemeIndex;
+    private int size = 0;
+
+    TokenTape(InternTable names) {
+        this(names, 1024);
+    }
+
+    TokenTape(InternTable names, int capacity) {
+        this.names = names;
+        tokenClass = new byte[capacity];
+        packedLineCol = new long[capacity];
+        lexemeIndex = new int[capacity];
+    }
+
+    void add(TokenClass tc, int line, int column, int lexeme) {
+        if (size == tokenClass.length) {
+            int capacity = size * 2;
+            tokenClass = Arrays.copyOf(tokenClass, capacity);
+            packedLineCol = Arrays.copyOf(packedLineCol, capacity);
+            lexemeIndex = Arrays.copyOf(lexemeIndex, capacity);
+        }
+        tokenClass[size] = (byte) tc.ordinal();
+        packedLineCol[size] = ((long) line << 32) | (column & 0xffffffffL);
+        lexemeIndex[size] = lexeme;
+        size++;
+    }
+
+    /**
+     * Returns the table the data of the tokens is kept in.
+     */
+    public InternTable getNames() {
+        return names;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TokenClass tokenClass(int i) {
+        return classes[tokenClass[i]];
+    }
+
+    public String data(int i) {
+        int lexeme = lexemeIndex[i];
+        return lexeme < 0 ? "" : names.get(lexeme);
+    }
+
+    public int line(int i) {
+        return (int) (packedLineCol[i] >>> 32);
+    }
+
+    public int column(int i) {
+        return (int) packedLineCol[i];
+    }
+
+    /**
+     * Creates a Token object for token i, e.g. for printing or error messages.
+     */
+    public Token token(int i) {
+        return new Token(tokenClass(i), data(i), line(i), column(i));
+    }
+
+    /**
+     * Pre-scans the tape for the extent of every top-level brace pair, such as
+     * a function body. Returns the positions of each LBRA and its matching RBRA
+     * as consecutive elements, in source order. An LBRA that is never closed
+     * ends the scan.
+     */
+    public int[] topLevelBraces() {
+        byte lbra = (byte) TokenClass.LBRA.ordinal();
+        byte rbra = (byte) TokenClass.RBRA.ordinal();
+
+        int[] pairs = new int[16];
+        int count = 0;
+        int depth = 0;
+        int open = -1;
+        for (int i = 0; i < size; i++) {
+            byte tc = tokenClass[i];
+            if (tc == lbra) {
+                if (depth == 0) {
+                    open = i;
+                }
+                depth++;
+            } else if (tc == rbra && depth > 0) {
+                depth--;
+                if (depth == 0) {
+                    if (count == pairs.length) {
+                        pairs = Arrays.copyOf(pairs, count * 2);
+                    }
+                    pairs[count++] = open;
+                    pairs[count++] = i;
+                }
+            }
+        }
+        return Arrays.copyOf(pairs, count);
+    }
+
+    public Cursor cursor() {
+        return new Cursor(0);
+    }
+
+    public Cursor cursor(int position) {
+        return new Cursor(position);
+    }
+
+    /**
+     * A read position on the tape. Advancing past the final EOF token keeps the
+     * cursor on it, just like a Tokeniser keeps returning EOF.
+     */
+    public final class Cursor {
+
+        private int position;
+
+        private Cursor(int position) {
+            this.position = Math.min(position, size - 1);
+        }
+
+        public int position() {
+            return position;
+        }
+
+        public TokenClass tokenClass() {
+            return classes[tokenClass[position]];
+        }
+
+        public String data() {
+            return TokenTape.this.data(position);
+        }
+
+        /**
+         * Returns the class of the i^th token after the current one (i >= 0).
+         */
+        public TokenClass lookAhead(int i) {
+            return classes[tokenClass[Math.min(position + i, size - 1)]];
+        }
+
+        public void advance() {
+            if (position < size - 1) {
+                position++;
+            }
+        }
+
+        public void moveTo(int position) {
+            this.position = Math.min(position, size - 1);
+        }
+
+        public Token token() {
+            return TokenTape.this.token(position);
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package lexer;
 
 import lexer.Token.TokenClass;
+import util.InternTable;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * @author cdubach
@@ -16,13 +18,34 @@ public class Tokeniser {
 
     private Scanner scanner;
 
+    // canonical instances of the identifiers and literals of this compilation
+    private final InternTable names;
+
+    // lexeme accumulation buffer, reused for every token of this Tokeniser
+    private char[] lexeme = new char[64];
+    private int lexemeLength = 0;
+    private int lexemeHash = 0; // String.hashCode() of the last word read
+
+    // position of the last token returned by next()
+    private int tokenLine;
+    private int tokenColumn;
+
     private int error = 0;
     public int getErrorCount() {
         return this.error;
     }
 
     public Tokeniser(Scanner scanner) {
+        this(scanner, new InternTable());
+    }
+
+    public Tokeniser(Scanner scanner, InternTable names) {
         this.scanner = scanner;
+        this.names = names;
+    }
+
+    public InternTable getNames() {
+        return names;
     }
 
     private void error(char c, int line, int col) {
@@ -32,7 +55,7 @@ public class Tokeniser {
 
 
     public Token nextToken() {
-        Token result;
+        TokenClass result;
         try {
              result = next();
         } catch (EOFException eof) {
@@ -44,10 +67,69 @@ public class Tokeniser {
             System.exit(-1);
             return null;
         }
-        return result;
+        return new Token(result, tokenData(result), tokenLine, tokenColumn);
     }
 
-    private Token next() throws IOException {
+    /**
+     * Lexes the rest of the input into a TokenTape, without allocating a Token
+     * object per token. The last token of the tape is always EOF.
+     */
+    public TokenTape tokenise() {
+        TokenTape tape = new TokenTape(names);
+        TokenClass result;
+        do {
+            try {
+                result = next();
+            } catch (EOFException eof) {
+                result = token(TokenClass.EOF, scanner.getLine(), scanner.getColumn());
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+                // something went horribly wrong, abort
+                System.exit(-1);
+                return null;
+            }
+            tape.add(result, tokenLine, tokenColumn, tokenDataId(result));
+        } while (result != TokenClass.EOF);
+        return tape;
+    }
+
+    /*
+     * Records the position of the token being returned by next(). Its data, if
+     * any, is left in the lexeme buffer.
+     */
+    private TokenClass token(TokenClass tokenClass, int line, int column) {
+        tokenLine = line;
+        tokenColumn = column;
+        return tokenClass;
+    }
+
+    private String tokenData(TokenClass tokenClass) {
+        switch (tokenClass) {
+            case IDENTIFIER:
+                return names.intern(lexeme, 0, lexemeLength, lexemeHash);
+            case INT_LITERAL:
+            case CHAR_LITERAL:
+            case STRING_LITERAL:
+                return lexemeString();
+            default:
+                return "";
+        }
+    }
+
+    private int tokenDataId(TokenClass tokenClass) {
+        switch (tokenClass) {
+            case IDENTIFIER:
+                return names.id(lexeme, 0, lexemeLength, lexemeHash);
+            case INT_LITERAL:
+            case CHAR_LITERAL:
+            case STRING_LITERAL:
+                return names.id(lexeme, 0, lexemeLength);
+            default:
+                return -1;
+        }
+    }
+
+    private TokenClass next() throws IOException {
 
         int line = scanner.getLine();
         int column = scanner.getColumn();
@@ -55,6 +137,11 @@ public class Tokeniser {
         // get the next character
         char c = scanner.next();
 
+        // scanners without EOFException hand out a sentinel instead
+        if (isEOF(c)) {
+            return token(TokenClass.EOF, scanner.getLine(), scanner.getColumn());
+        }
+
         // skip white spaces, carriage return (\r) and line feed (\n)
         if (Character.isWhitespace(c)) {
             return next();
@@ -70,158 +157,163 @@ public class Tokeniser {
                 try{
                     char nextOne = scanner.next();
                     while (!(nextOne == '*' && scanner.peek() == '/')) {
+                        if (isEOF(nextOne)) {
+                            error(c, line, column);
+                            return token(TokenClass.INVALID, line, column);
+                        }
                         nextOne = scanner.next();
                     }
                     scanner.next();
                 } catch (EOFException eof) {
                     error(c, line, column);
-                    return new Token(TokenClass.INVALID, line, column);
+                    return token(TokenClass.INVALID, line, column);
                 }
                 return next();
             } else {
-                return new Token(TokenClass.DIV, line, column);
+                return token(TokenClass.DIV, line, column);
             }
         }   
 
         /****** recognises the header files ******/
         if (c == '#') {
             int thisCol = column;
-            String includeToken = Character.toString(c);
+            clearLexeme();
+            appendLexeme(c);
             char nextOne = scanner.next();
-            while (!Character.isWhitespace(nextOne)) {
-                includeToken = includeToken + Character. toString(nextOne);
+            while (!Character.isWhitespace(nextOne) && !isEOF(nextOne)) {
+                appendLexeme(nextOne);
                 nextOne = scanner.next();
             }
-            if (includeToken.equals("#include")) {
-                return new Token(TokenClass.INCLUDE, line, thisCol);
+            if (lexemeEquals("#include")) {
+                return token(TokenClass.INCLUDE, line, thisCol);
             }
         }
 
         /****** recognises the delimiters ******/
         if (c == '{') {
-            return new Token(TokenClass.LBRA, line, column);
+            return token(TokenClass.LBRA, line, column);
         }
 
         if (c == '}') {
-            return new Token(TokenClass.RBRA, line, column);
+            return token(TokenClass.RBRA, line, column);
         }
 
         if (c == '(') {
-            return new Token(TokenClass.LPAR, line, column);
+            return token(TokenClass.LPAR, line, column);
         }
 
         if (c == ')') {
-            return new Token(TokenClass.RPAR, line, column);
+            return token(TokenClass.RPAR, line, column);
         }
 
         if (c == '[') {
-            return new Token(TokenClass.LSBR, line, column);
+            return token(TokenClass.LSBR, line, column);
         }
 
         if (c == ']') {
-            return new Token(TokenClass.RSBR, line, column);
+            return token(TokenClass.RSBR, line, column);
         }
 
         if (c == ';') {
-            return new Token(TokenClass.SC, line, column);
+            return token(TokenClass.SC, line, column);
         }
 
         if (c == ',') {
-            return new Token(TokenClass.COMMA, line, column);
+            return token(TokenClass.COMMA, line, column);
         }
 
         /****** recognises the arithmetic operator ******/
         if (c == '+') {
-            return new Token(TokenClass.PLUS, line, column);
+            return token(TokenClass.PLUS, line, column);
         }
 
         if (c == '-') {
-            return new Token(TokenClass.MINUS, line, column);
+            return token(TokenClass.MINUS, line, column);
         }
 
         if (c == '*') {
-            return new Token(TokenClass.ASTERIX, line, column);
+            return token(TokenClass.ASTERIX, line, column);
         }
 
         if (c == '/' && scanner.peek() != '/' && scanner.peek() != '*') {
-            return new Token(TokenClass.DIV, line, column);
+            return token(TokenClass.DIV, line, column);
         }
 
         if (c == '%') {
-            return new Token(TokenClass.REM, line, column);
+            return token(TokenClass.REM, line, column);
         }
 
         /****** recognises the logic operators ******/
         if (c == '&' && scanner.peek() == '&') {
             scanner.next();
-            return new Token(TokenClass.AND, line, column);
+            return token(TokenClass.AND, line, column);
         }
 
         if (c == '|' && scanner.peek() == '|') {
             scanner.next();
-            return new Token(TokenClass.OR, line, column);
+            return token(TokenClass.OR, line, column);
         }
 
         /****** recognises the assignment operator and comparison operators ******/
         if (c == '=') {
             if (scanner.peek() == '=') {
                 scanner.next();
-                return new Token(TokenClass.EQ, line, column);
+                return token(TokenClass.EQ, line, column);
             } else {
-                return new Token(TokenClass.ASSIGN, line, column);
+                return token(TokenClass.ASSIGN, line, column);
             }
         }
 
         if (c == '!' && scanner.peek() == '=') {
             scanner.next();
-            return new Token(TokenClass.NE, line, column);
+            return token(TokenClass.NE, line, column);
         }
 
         if (c == '<') {
             if (scanner.peek() == '=') {
                 scanner.next();
-                return new Token(TokenClass.LE, line, column);
+                return token(TokenClass.LE, line, column);
             } else {
-                return new Token(TokenClass.LT, line, column);
+                return token(TokenClass.LT, line, column);
             }
         }
 
         if (c == '>') {
             if (scanner.peek() == '=') {
                 scanner.next();
-                return new Token(TokenClass.GE, line, column);
+                return token(TokenClass.GE, line, column);
             } else {
-                return new Token(TokenClass.GT, line, column);
+                return token(TokenClass.GT, line, column);
             }
         }
 
         /****** recognises the struct member access symbol ******/
         if (c == '.') {
-            return new Token(TokenClass.DOT, line, column);
+            return token(TokenClass.DOT, line, column);
         }
 
         /****** recognises string ******/
         if (c == '\"') {
-            String stringData;
             try {
-                stringData = readString();
-                return new Token(TokenClass.STRING_LITERAL, stringData, line, column);
+                readString();
+                return token(TokenClass.STRING_LITERAL, line, column);
             } catch (EOLException eol) {
                 error(c, line, column);
-                return new Token(TokenClass.INVALID, line, column);
+                return token(TokenClass.INVALID, line, column);
             }
         }
 
         /****** recognises characters ******/
         if (c == '\'') {
             char nextOne = scanner.peek();
-            if (nextOne == '\n' || nextOne == '\r' || nextOne == -1) {
+            if (nextOne == '\n' || nextOne == '\r' || isEOF(nextOne)) {
             // unqoted and undefined char
                 error(c, line, column);
-                return new Token(TokenClass.INVALID, line, column);
+                return token(TokenClass.INVALID, line, column);
             } else if (nextOne == '\\') {
             // special character
-                String target = Character.toString(nextOne);
+                clearLexeme();
+                appendLexeme(nextOne);
                 scanner.next();
                 nextOne = scanner.next();
 
@@ -231,29 +323,31 @@ public class Tokeniser {
                     if (!readUntilApostrophe()) {
                     // more than one characters encountered between apostrophe
                         error(c, line, column);
-                        return new Token(TokenClass.INVALID, line, column);
+                        return token(TokenClass.INVALID, line, column);
                     } else {
                     // correct return with special character
-                        return new Token(TokenClass.CHAR_LITERAL, target + nextOne, line, column);
+                        appendLexeme(nextOne);
+                        return token(TokenClass.CHAR_LITERAL, line, column);
                     }
                 } else {
                 // non-existing characters
                     readUntilApostrophe();
                     error(c, line, column);
-                    return new Token(TokenClass.INVALID, line, column);
+                    return token(TokenClass.INVALID, line, column);
                 }
             } else {
             // normal character
-                String target = Character.toString(nextOne);
+                clearLexeme();
+                appendLexeme(nextOne);
                 scanner.next();
 
                 if (!readUntilApostrophe()) {
                 // more than one characters encountered between apostrophe
                     error(c, line, column);
-                    return new Token(TokenClass.INVALID, line, column);
+                    return token(TokenClass.INVALID, line, column);
                 } else {
                 // correct return with normal character
-                    return new Token(TokenClass.CHAR_LITERAL, target, line, column);
+                    return token(TokenClass.CHAR_LITERAL, line, column);
                 }
             }
 
@@ -261,46 +355,30 @@ public class Tokeniser {
 
         /****** recognises keywords and identifier ******/
         if (Character.isLetter(c) || c == '_') {
-            String target = Character.toString(c) + readWord();
-
-            if (target.equals("int")) {
-                return new Token(TokenClass.INT, line, column);
-            } else if (target.equals("char")) {
-                return new Token(TokenClass.CHAR, line, column);
-            } else if (target.equals("void")) {
-                return new Token(TokenClass.VOID, line, column);
-            } else if (target.equals("if")) {
-                return new Token(TokenClass.IF, line, column);
-            } else if (target.equals("else")) {
-                return new Token(TokenClass.ELSE, line, column);
-            } else if (target.equals("while")) {
-                return new Token(TokenClass.WHILE, line, column);
-            } else if (target.equals("return")) {
-                return new Token(TokenClass.RETURN, line, column);
-            } else if (target.equals("struct")) {
-                return new Token(TokenClass.STRUCT, line, column);
-            } else if (target.equals("sizeof")) {
-                return new Token(TokenClass.SIZEOF, line, column);
+            readWord(c);
+
+            // keywords are matched against the buffer and never become Strings
+            TokenClass keyword = Keywords.lookup(lexeme, lexemeLength);
+            if (keyword != null) {
+                return token(keyword, line, column);
             } else {
-                return new Token(TokenClass.IDENTIFIER, target, line, column);
+                return token(TokenClass.IDENTIFIER, line, column);
             }
         }
 
         /****** recognises numbers ******/
         if (Character.isDigit(c)) {
-            String target = readNumber();
-            if (target == null) {
+            if (!readNumber(c)) {
                 error(c, line, column);
-                return new Token(TokenClass.INVALID, line, column);
+                return token(TokenClass.INVALID, line, column);
             } else {
-                target = c + target;
-                return new Token(TokenClass.INT_LITERAL, target, line, column);
+                return token(TokenClass.INT_LITERAL, line, column);
             }
         }
 
         // if we reach this point, it means we did not recognise a valid token
         error(c, line, column);
-        return new Token(TokenClass.INVALID, line, column);
+        return token(TokenClass.INVALID, line, column);
     }
 
 
@@ -308,9 +386,40 @@ public class Tokeniser {
     ////////////////////////////// Utility functions //////////////////////////////
     ///////////////////////////////////////////////////////////////////////////////
 
+    private void clearLexeme() {
+        lexemeLength = 0;
+    }
+
+    private void appendLexeme(char c) {
+        if (lexemeLength == lexeme.length) {
+            lexeme = Arrays.copyOf(lexeme, lexeme.length * 2);
+        }
+        lexeme[lexemeLength++] = c;
+    }
+
+    private boolean lexemeEquals(String s) {
+        if (s.length() != lexemeLength) {
+            return false;
+        }
+        for (int i = 0; i < lexemeLength; i++) {
+            if (s.charAt(i) != lexeme[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String lexemeString() {
+        return new String(lexeme, 0, lexemeLength);
+    }
+
+    private boolean isEOF(char c) {
+        return c == Scanner.EOF && scanner.atEOF();
+    }
+
     private void skipLine() throws IOException {
         char nextOne = scanner.next();
-        while (!(nextOne == '\n' || nextOne == '\r')) {
+        while (!(nextOne == '\n' || nextOne == '\r' || isEOF(nextOne))) {
             nextOne = scanner.next();
         }
     }
@@ -327,58 +436,79 @@ public class Tokeniser {
 
     private boolean readUntilApostrophe() throws IOException {
         boolean result = true;
-        while (scanner.peek() != '\'' && scanner.peek() != '\n' && scanner.peek() != '\r') {
+        while (scanner.peek() != '\'' && scanner.peek() != '\n' && scanner.peek() != '\r'
+               && !isEOF(scanner.peek())) {
             result = false;
             scanner.next();
         }
-        scanner.next();
+        if (isEOF(scanner.next())) {
+            // no closing apostrophe before the end of the input
+            return false;
+        }
         return result;
     }
 
-    private String readString() throws EOLException, IOException {
+    /*
+     * Reads the contents of a string literal into the lexeme buffer.
+     */
+    private void readString() throws EOLException, IOException {
         try {
             char thisOne = scanner.next();
-            String resultString = "";
+            clearLexeme();
 
             while (thisOne != '\"') {
-                if (thisOne == '\n' || thisOne == '\r') {
+                if (thisOne == '\n' || thisOne == '\r' || isEOF(thisOne)) {
                     throw new EOLException();
                 }
 
-                resultString = resultString + Character.toString(thisOne);
+                appendLexeme(thisOne);
 
                 if (thisOne == '\\') {
                     // encounter escape char
-                    resultString = resultString + Character.toString(scanner.next());
+                    appendLexeme(scanner.next());
                 }
 
                 thisOne = scanner.next();
             }
 
-            return resultString;
         } catch (EOFException eof) {
             throw new EOLException();
         }
     }
 
-    private String readWord() throws IOException {
-        String result = "";
-        while (Character.isLetter(scanner.peek()) || Character.isDigit(scanner.peek()) || scanner.peek() == '_') {
-            result = result + Character.toString(scanner.next());
-        }
-        return result;
+    /*
+     * Reads an identifier or keyword starting with first into the lexeme buffer.
+     */
+    private void readWord(char first) throws IOException {
+        clearLexeme();
+        appendLexeme(first);
+        int hash = first;
+        char next = scanner.peek();
+        while (Character.isLetter(next) || Character.isDigit(next) || next == '_') {
+            appendLexeme(scanner.next());
+            hash = 31 * hash + next;
+            next = scanner.peek();
+        }
+        lexemeHash = hash;
     }
 
-    private String readNumber() throws IOException {
-        String result = "";
+    /*
+     * Reads a number starting with first into the lexeme buffer.
+     * Returns false if the number is immediately followed by letters or underscores.
+     */
+    private boolean readNumber(char first) throws IOException {
+        clearLexeme();
+        appendLexeme(first);
         boolean invalid = false;
-        while (Character.isLetter(scanner.peek()) || Character.isDigit(scanner.peek()) || scanner.peek() == '_') {
+        char next = scanner.peek();
+        while (Character.isLetter(next) || Character.isDigit(next) || next == '_') {
             char thisOne = scanner.next();
-            result = result + Character.toString(thisOne);
+            appendLexeme(thisOne);
             if (!invalid && !Character.isDigit(thisOne)) {
                 invalid = true;
             }
+            next = scanner.peek();
         }
-        return (invalid ? null : result);
+        return !invalid;
     }
 }
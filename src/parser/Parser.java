@@ -6,13 +6,16 @@ import ast.BaseType;
 import ast.PointerType;
 
 import lexer.Token;
+import lexer.TokenTape;
 import lexer.Tokeniser;
 import lexer.Token.TokenClass;
+import util.InternTable;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 
 /**
@@ -24,33 +27,289 @@ public class Parser {
     private Token token;
 
     // use for backtracking (useful for distinguishing decls from procs when parsing a program for instance)
-    private Queue<Token> buffer = new LinkedList<>();
+    // a ring of the tokens following the current one; its size is a power of two
+    // larger than the furthest lookAhead() the grammar needs
+    private static final int LOOKAHEAD = 8;
+    private final Token[] buffer = new Token[LOOKAHEAD];
+    private int bufferHead = 0;
+    private int bufferSize = 0;
 
     private final Tokeniser tokeniser;
 
+    // when parsing from a token tape, the current token is the one under the cursor
+    private final TokenTape tape;
+    private final TokenTape.Cursor cursor;
+
+    // number of tokens consumed so far, identifies the current token
+    private int consumed = 0;
 
 
     public Parser(Tokeniser tokeniser) {
         this.tokeniser = tokeniser;
+        this.tape = null;
+        this.cursor = null;
+    }
+
+    public Parser(TokenTape tape) {
+        this.tokeniser = null;
+        this.tape = tape;
+        this.cursor = tape.cursor();
+    }
+
+    // a parser starting at the given position of the tape, which only counts its errors
+    private Parser(TokenTape tape, int position) {
+        this.tokeniser = null;
+        this.tape = tape;
+        this.cursor = tape.cursor(position);
+        this.consumed = position;
+        this.reportErrors = false;
+    }
+
+    /**
+     * Returns the table of the names in the program being parsed, for the
+     * later phases to share.
+     */
+    public InternTable getNames() {
+        return tape != null ? tape.getNames() : tokeniser.getNames();
     }
 
     public Program parse() {
-        // get the first token
-        nextToken();
+        // get the first token, the cursor of a tape already points to it
+        if (cursor == null) {
+            nextToken();
+        }
 
         return parseProgram();
     }
 
+    /*
+     * Streaming interface, an alternative to parse() for compiling one function
+     * at a time: parseDeclarations() returns a Program holding the includes,
+     * struct and global variable declarations but no functions, then
+     * parseFunDecl() is called as long as hasFunDecl() and finally parseEnd().
+     * parseFunDecl() returns null for a function it could not parse.
+     */
+
+    public Program parseDeclarations() {
+        if (cursor == null) {
+            nextToken();
+        }
+
+        parseIncludes();
+        List<StructTypeDecl> stds = parseStructDecls();
+        List<VarDecl> vds = parseVarDecls();
+        return new Program(stds, vds, new ArrayList<FunDecl>());
+    }
+
+    public boolean hasFunDecl() {
+        return acceptType();
+    }
+
+    public FunDecl parseFunDecl() {
+        Type type = parseType();
+        String iden = expectData(TokenClass.IDENTIFIER);
+        expect(TokenClass.LPAR);
+
+        List<VarDecl> varDecls = new ArrayList<VarDecl>();
+        if (!accept(TokenClass.RPAR)) {
+            varDecls.addAll(parseParamLst());
+        }
+
+        expect(TokenClass.RPAR);
+        Block blk= parseBlk();
+
+        if (type != null && iden != null && blk != null) {
+            return new FunDecl(type, iden, varDecls, blk);
+        }
+        return null;
+    }
+
+    public void parseEnd() {
+        expect(TokenClass.EOF);
+    }
+
+    /*
+     * Parses the program like parse(), with the function bodies parsed
+     * concurrently on the given pool. Only for a parser reading a token tape.
+     *
+     * A pre-scan of the tape gives the extent of every function body. The
+     * headers are then parsed on this thread, which skips each body after
+     * handing it to a task. The bodies are parsed speculatively, without
+     * reporting errors: once any header or body turns out not to parse
+     * cleanly, everything from that function on is parsed again on this
+     * thread, so that the AST and the error messages are exactly those of
+     * parse(), whatever the scheduling.
+     */
+    public Program parseParallel(ForkJoinPool pool) {
+        assert tape != null;
+
+        Program declarations = parseDeclarations();
+        List<FunDecl> fds = new ArrayList<FunDecl>();
+        if (error > 0) {
+            fds.addAll(parseFunDecls());
+            parseEnd();
+            return new Program(declarations.structTypeDecls, declarations.varDecls, fds);
+        }
+
+        int[] braces = tape.topLevelBraces();
+        List<PendingFunDecl> pending = new ArrayList<PendingFunDecl>();
+        BodyTask batch = new BodyTask(tape);
+        int restart = -1;
+
+        reportErrors = false;
+        while (hasFunDecl()) {
+            int start = cursor.position();
+            Type type = parseType();
+            String iden = expectData(TokenClass.IDENTIFIER);
+            expect(TokenClass.LPAR);
+
+            List<VarDecl> varDecls = new ArrayList<VarDecl>();
+            if (!accept(TokenClass.RPAR)) {
+                varDecls.addAll(parseParamLst());
+            }
+            expect(TokenClass.RPAR);
+
+            int end = matchingBrace(braces, cursor.position());
+            if (error > 0 || end < 0) {
+                restart = start;
+                break;
+            }
+
+            // bodies are handed out in batches of a few thousand tokens
+            pending.add(new PendingFunDecl(start, type, iden, varDecls, batch, batch.add(cursor.position(), end)));
+            if (batch.tokens >= BATCH_TOKENS) {
+                pool.execute(batch);
+                batch = new BodyTask(tape);
+            }
+            moveTo(end + 1);
+        }
+        if (batch.size > 0) {
+            pool.execute(batch);
+        }
+        reportErrors = true;
+
+        // reassemble in source order, up to the first function needing a serial parse
+        for (int i = 0; i < pending.size(); i++) {
+            PendingFunDecl p = pending.get(i);
+            Block blk = p.batch.join()[p.index];
+            if (blk == null) {
+                restart = p.start;
+                for (int j = i + 1; j < pending.size(); j++) {
+                    pending.get(j).batch.cancel(false);
+                }
+                break;
+            }
+            fds.add(new FunDecl(p.type, p.name, p.params, blk));
+        }
+
+        if (restart >= 0) {
+            error = 0;
+            lastErrorToken = -1;
+            moveTo(restart);
+            fds.addAll(parseFunDecls());
+        }
+        parseEnd();
+
+        return new Program(declarations.structTypeDecls, declarations.varDecls, fds);
+    }
+
+    // returns the position of the RBRA closing the top-level LBRA at position, or -1
+    private static int matchingBrace(int[] braces, int position) {
+        int low = 0;
+        int high = braces.length / 2 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int open = braces[2 * mid];
+            if (open < position) {
+                low = mid + 1;
+            } else if (open > position) {
+                high = mid - 1;
+            } else {
+                return braces[2 * mid + 1];
+            }
+        }
+        return -1;
+    }
+
+    private void moveTo(int position) {
+        cursor.moveTo(position);
+        consumed = position;
+    }
+
+    private static final int BATCH_TOKENS = 4096;
+
+    private static final class PendingFunDecl {
+        final int start;
+        final Type type;
+        final String name;
+        final List<VarDecl> params;
+        final BodyTask batch;
+        final int index;
+
+        PendingFunDecl(int start, Type type, String name, List<VarDecl> params, BodyTask batch, int index) {
+            this.start = start;
+            this.type = type;
+            this.name = name;
+            this.params = params;
+            this.batch = batch;
+            this.index = index;
+        }
+    }
+
+    /*
+     * Parses a batch of function bodies, each the block between an LBRA and
+     * its matching RBRA, with a parser of its own. The result for a body is
+     * null unless it parses without errors and ends exactly at its RBRA; the
+     * bodies after a null one are not parsed.
+     */
+    private static final class BodyTask extends RecursiveTask<Block[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final TokenTape tape;
+        private int[] extents = new int[16];
+        private int size = 0;
+        private int tokens = 0;
+
+        BodyTask(TokenTape tape) {
+            this.tape = tape;
+        }
+
+        int add(int open, int close) {
+            if (2 * size == extents.length) {
+                extents = Arrays.copyOf(extents, 4 * size);
+            }
+            extents[2 * size] = open;
+            extents[2 * size + 1] = close;
+            tokens += close - open + 1;
+            return size++;
+        }
+
+        @Override
+        protected Block[] compute() {
+            Block[] blocks = new Block[size];
+            for (int i = 0; i < size; i++) {
+                Parser parser = new Parser(tape, extents[2 * i]);
+                Block blk = parser.parseBlk();
+                if (parser.error != 0 || parser.cursor.position() != extents[2 * i + 1] + 1) {
+                    break;
+                }
+                blocks[i] = blk;
+            }
+            return blocks;
+        }
+    }
+
     public int getErrorCount() {
         return error;
     }
 
     private int error = 0;
-    private Token lastErrorToken;
+    private int lastErrorToken = -1;
+    private boolean reportErrors = true;
 
     private void error(TokenClass... expected) {
 
-        if (lastErrorToken == token) {
+        if (lastErrorToken == consumed) {
             // skip this error, same token causing trouble
             return;
         }
@@ -62,53 +321,74 @@ public class Parser {
             sb.append(e);
             sep = "|";
         }
-        System.out.println("Parsing error: expected ("+sb+") found ("+token+") at "+token.position);
+        if (reportErrors) {
+            Token found = currentToken();
+            System.out.println("Parsing error: expected ("+sb+") found ("+found+") at "+found.position);
+        }
 
         error++;
-        lastErrorToken = token;
+        lastErrorToken = consumed;
+    }
+
+    private TokenClass tokenClass() {
+        return cursor != null ? cursor.tokenClass() : token.tokenClass;
+    }
+
+    private String tokenData() {
+        return cursor != null ? cursor.data() : token.data;
+    }
+
+    private Token currentToken() {
+        return cursor != null ? cursor.token() : token;
     }
 
     /*
      * Look ahead the i^th element from the stream of token.
      * i should be >= 1
      */
-    private Token lookAhead(int i) {
-        // ensures the buffer has the element we want to look ahead
-        while (buffer.size() < i)
-            buffer.add(tokeniser.nextToken());
-        assert buffer.size() >= i;
+    private TokenClass lookAhead(int i) {
+        if (cursor != null) {
+            return cursor.lookAhead(i);
+        }
+
+        assert i >= 1 && i < LOOKAHEAD;
 
-        int cnt=1;
-        for (Token t : buffer) {
-            if (cnt == i)
-                return t;
-            cnt++;
+        // ensures the buffer has the element we want to look ahead
+        while (bufferSize < i) {
+            buffer[(bufferHead + bufferSize) & (LOOKAHEAD - 1)] = tokeniser.nextToken();
+            bufferSize++;
         }
 
-        assert false; // should never reach this
-        return null;
+        return buffer[(bufferHead + i - 1) & (LOOKAHEAD - 1)].tokenClass;
     }
 
     /*
-     * Consumes the next token from the tokeniser or the buffer if not empty.
+     * Consumes the next token from the tokeniser, the buffer if not empty, or the tape.
      */
     private void nextToken() {
-        if (!buffer.isEmpty())
-            token = buffer.remove();
+        consumed++;
+        if (cursor != null)
+            cursor.advance();
+        else if (bufferSize > 0) {
+            token = buffer[bufferHead];
+            buffer[bufferHead] = null;
+            bufferHead = (bufferHead + 1) & (LOOKAHEAD - 1);
+            bufferSize--;
+        }
         else
             token = tokeniser.nextToken();
     }
 
     /*
      * If the current token is equals to the expected one, then skip it, otherwise report an error.
-     * Returns the expected token or null if an error occurred.
+     * Returns the class of the expected token or null if an error occurred.
      */
-    private Token expect(TokenClass... expected) {
+    private TokenClass expect(TokenClass... expected) {
+        TokenClass current = tokenClass();
         for (TokenClass e : expected) {
-            if (e == token.tokenClass) {
-                Token cur = token;
+            if (e == current) {
                 nextToken();
-                return cur;
+                return current;
             }
         }
 
@@ -116,20 +396,36 @@ public class Parser {
         return null;
     }
 
+    /*
+     * Same as expect for a single token class, but returns the data of the
+     * token instead, or null if an error occurred.
+     */
+    private String expectData(TokenClass expected) {
+        if (tokenClass() == expected) {
+            String data = tokenData();
+            nextToken();
+            return data;
+        }
+
+        error(expected);
+        return null;
+    }
+
     /*
     * Returns true if the current token is equals to any of the expected ones.
     */
     private boolean accept(TokenClass... expected) {
+        TokenClass current = tokenClass();
         boolean result = false;
         for (TokenClass e : expected)
-            result |= (e == token.tokenClass);
+            result |= (e == current);
         return result;
     }
 
-    private boolean match(Token target, TokenClass... expected) {
+    private boolean match(TokenClass target, TokenClass... expected) {
         boolean result = false;
         for (TokenClass e : expected)
-            result |= (e == target.tokenClass);
+            result |= (e == target);
         return result;
     }
 
@@ -149,7 +445,7 @@ public class Parser {
       return accept(TokenClass.STRUCT) && match(lookAhead(1), TokenClass.IDENTIFIER);
     }
 
-    private boolean matchType(Token target) {
+    private boolean matchType(TokenClass target) {
         return match(target, TokenClass.INT, TokenClass.VOID, TokenClass.CHAR, TokenClass.STRUCT);
     }
 
@@ -173,10 +469,9 @@ public class Parser {
 
     // includes are ignored, so does not need to return an AST node
     private void parseIncludes() {
-        if (accept(TokenClass.INCLUDE)) {
+        while (accept(TokenClass.INCLUDE)) {
             nextToken();
             expect(TokenClass.STRING_LITERAL);
-            parseIncludes();
         }
     }
 
@@ -187,7 +482,7 @@ public class Parser {
     private List<StructTypeDecl> parseStructDecls() {
         List<StructTypeDecl> results = new ArrayList<StructTypeDecl>();
 
-        if (accept(TokenClass.STRUCT)
+        while (accept(TokenClass.STRUCT)
             && match(lookAhead(1), TokenClass.IDENTIFIER)
             && match(lookAhead(2), TokenClass.LBRA)) {
 
@@ -203,19 +498,25 @@ public class Parser {
             if (type != null) {
                 results.add(new StructTypeDecl(type, varDecls));
             }
-
-            results.addAll(parseStructDecls());
         }
         return results;
     }
 
     private List<VarDecl> parseVarDecls() {
         List<VarDecl> results = new ArrayList<VarDecl>();
-        List<VarDecl> rests = new ArrayList<VarDecl>();
+        VarDecl vd = parseVarDecl();
+        while (vd != null) {
+            results.add(vd);
+            vd = parseVarDecl();
+        }
+        return results;
+    }
 
+    // one variable declaration, or null if there is none
+    private VarDecl parseVarDecl() {
         Type type = null;
-        Token iden = null;
-        Token n = null;
+        String iden = null;
+        String n = null;
         boolean arrayFlag = false;
         if (acceptNormalType()
             && (match(lookAhead(1), TokenClass.IDENTIFIER)
@@ -225,7 +526,7 @@ public class Parser {
               && match(lookAhead(3), TokenClass.SC))) {
             // normal var declaration
             type = parseType();
-            iden = expect(TokenClass.IDENTIFIER);
+            iden = expectData(TokenClass.IDENTIFIER);
             expect(TokenClass.SC);
 
         } else if (acceptNormalType()
@@ -236,9 +537,9 @@ public class Parser {
               && match(lookAhead(3), TokenClass.LSBR))) {
             // normal var array declaration
             type = parseType();
-            iden = expect(TokenClass.IDENTIFIER);
+            iden = expectData(TokenClass.IDENTIFIER);
             expect(TokenClass.LSBR);
-            n = expect(TokenClass.INT_LITERAL);
+            n = expectData(TokenClass.INT_LITERAL);
             expect(TokenClass.RSBR);
             expect(TokenClass.SC);
             arrayFlag = true;
@@ -251,7 +552,7 @@ public class Parser {
               && match(lookAhead(4), TokenClass.SC))) {
             // struct var declaration
             type = parseType();
-            iden = expect(TokenClass.IDENTIFIER);
+            iden = expectData(TokenClass.IDENTIFIER);
             expect(TokenClass.SC);
 
         } else if (acceptStruct()
@@ -262,9 +563,9 @@ public class Parser {
               && match(lookAhead(4), TokenClass.LSBR))) {
             // struct var array declaration
             type = parseType();
-            iden = expect(TokenClass.IDENTIFIER);
+            iden = expectData(TokenClass.IDENTIFIER);
             expect(TokenClass.LSBR);
-            n = expect(TokenClass.INT_LITERAL);
+            n = expectData(TokenClass.INT_LITERAL);
             expect(TokenClass.RSBR);
             expect(TokenClass.SC);
             arrayFlag = true;
@@ -274,41 +575,23 @@ public class Parser {
         if (type != null && iden != null) {
             if (arrayFlag) {
                 if (n != null) {
-                    type = new ArrayType(type, new IntLiteral(n.data));
-                    results.add(new VarDecl(type, iden.data));
-                    rests = parseVarDecls();
+                    type = new ArrayType(type, new IntLiteral(n));
+                    return new VarDecl(type, iden);
                 }
             } else {
-                results.add(new VarDecl(type, iden.data));
-                rests = parseVarDecls();
+                return new VarDecl(type, iden);
             }
         }
-
-        results.addAll(rests);
-        return results;
+        return null;
     }
 
     private List<FunDecl> parseFunDecls() {
         List<FunDecl> results = new ArrayList<FunDecl>();
-        if (acceptType()) {
-
-            Type type = parseType();
-            Token iden = expect(TokenClass.IDENTIFIER);
-            expect(TokenClass.LPAR);
-
-            List<VarDecl> varDecls = new ArrayList<VarDecl>();
-            if (!accept(TokenClass.RPAR)) {
-                varDecls.addAll(parseParamLst());
-            }
-
-            expect(TokenClass.RPAR);
-            Block blk= parseBlk();
-
-            if (type != null && iden != null && blk != null) {
-                results.add(new FunDecl(type, iden.data, varDecls, blk));
+        while (hasFunDecl()) {
+            FunDecl fd = parseFunDecl();
+            if (fd != null) {
+                results.add(fd);
             }
-
-            results.addAll(parseFunDecls());
         }
         return results;
     }
@@ -421,301 +704,301 @@ public class Parser {
         return stmtReturn;
     }
 
-    private Expr parseExp() {
-        return parseSecondaryLogicalTerm();
-    }
+    /*
+     * Expressions are parsed by operator precedence over explicit stacks instead
+     * of one recursive method per precedence level, so that the Java stack does
+     * not grow with the nesting depth of the expression. Parenthesised
+     * expressions, array indices and call arguments each open a frame on the
+     * same stacks and are closed by their ")", "]" or ",".
+     *
+     * The AST is the one of the grammar
+     *   exp    ::= exp binop exp | ("-" | "*" | "(" type ")") exp | postfix
+     *   postfix::= atom ("." IDENT | "[" exp "]")*
+     * with the usual precedences and all binary operators left associative.
+     * Whenever an operand fails to parse the whole enclosing (sub)expression is
+     * null, and no further binary operator is consumed for it.
+     */
 
-    private Expr parseSecondaryLogicalTerm() {
-        return parseSecondaryLogicalTerm(parsePrimaryLogicalTerm());
+    // precedence of every binary operator token (0 for the others) and its operator
+    private static final int[] precedence = new int[TokenClass.values().length];
+    private static final Op[] binaryOp = new Op[TokenClass.values().length];
+    private static final int[] opPrecedence = new int[Op.values().length];
+
+    static {
+        binary(TokenClass.OR, Op.OR, 1);
+        binary(TokenClass.AND, Op.AND, 2);
+        binary(TokenClass.EQ, Op.EQ, 3);
+        binary(TokenClass.NE, Op.NE, 3);
+        binary(TokenClass.LT, Op.LT, 4);
+        binary(TokenClass.GT, Op.GT, 4);
+        binary(TokenClass.LE, Op.LE, 4);
+        binary(TokenClass.GE, Op.GE, 4);
+        binary(TokenClass.PLUS, Op.ADD, 5);
+        binary(TokenClass.MINUS, Op.SUB, 5);
+        binary(TokenClass.ASTERIX, Op.MUL, 6);
+        binary(TokenClass.DIV, Op.DIV, 6);
+        binary(TokenClass.REM, Op.MOD, 6);
     }
 
-    private Expr parseSecondaryLogicalTerm(Expr operandOne) {
-        if (accept(TokenClass.OR) && operandOne != null) {
-            expect(TokenClass.OR);
-            Expr operandTwo = parsePrimaryLogicalTerm();
-            if (operandTwo != null) {
-                return parseSecondaryLogicalTerm(new BinOp(operandOne, Op.OR, operandTwo));
-            } else {
-                return null;
-            }
-        } else {
-            return operandOne;
-        }
+    private static void binary(TokenClass tc, Op op, int prec) {
+        precedence[tc.ordinal()] = prec;
+        binaryOp[tc.ordinal()] = op;
+        opPrecedence[op.ordinal()] = prec;
     }
 
-    private Expr parsePrimaryLogicalTerm() {
-        return parsePrimaryLogicalTerm(parseSecondaryRelationalTerm());
+    // what closes an expression frame
+    private enum Closer {
+        NONE, RPAR, RSBR, ARGUMENT
     }
 
-    private Expr parsePrimaryLogicalTerm(Expr operandOne) {
-        if (accept(TokenClass.AND) && operandOne != null) {
-            expect(TokenClass.AND);
-            Expr operandTwo = parseSecondaryRelationalTerm();
-            if (operandTwo != null) {
-                return parsePrimaryLogicalTerm(new BinOp(operandOne, Op.AND, operandTwo));
-            } else {
-                return null;
-            }
-        } else {
-            return operandOne;
+    private static final class ExpFrame {
+        final Closer closer;
+        final int operandBase;
+        final int operatorBase;
+        final int prefixBase;
+        final Expr array;       // the array being indexed, for RSBR
+        final String function;  // the function called and its arguments so far, for ARGUMENT
+        final List<Expr> args;
+
+        ExpFrame(Closer closer, int operandBase, int operatorBase, int prefixBase,
+                 Expr array, String function, List<Expr> args) {
+            this.closer = closer;
+            this.operandBase = operandBase;
+            this.operatorBase = operatorBase;
+            this.prefixBase = prefixBase;
+            this.array = array;
+            this.function = function;
+            this.args = args;
         }
     }
 
-    private Expr parseSecondaryRelationalTerm() {
-        return parseSecondaryRelationalTerm(parsePrimaryRelationalTerm());
-    }
-
-    private Expr parseSecondaryRelationalTerm(Expr operandOne) {
-        if (accept(TokenClass.EQ, TokenClass.NE) && operandOne != null) {
-            Token op = expect(TokenClass.EQ, TokenClass.NE);
-            Expr operandTwo = parsePrimaryRelationalTerm();
-            if (operandTwo != null && op != null) {
-                if (op.tokenClass == TokenClass.EQ) {
-                    return parseSecondaryRelationalTerm(new BinOp(operandOne, Op.EQ, operandTwo));
-                } else { // op.tokenClass == TokenClass.NE
-                    return parseSecondaryRelationalTerm(new BinOp(operandOne, Op.NE, operandTwo));
-                }
-            } else {
-                return null;
-            }
-        } else {
-            return operandOne;
-        }
-    }
+    private final List<ExpFrame> frames = new ArrayList<ExpFrame>();
+    private final List<Expr> operands = new ArrayList<Expr>();
+    private final List<Op> operators = new ArrayList<Op>();
+    // prefix operators (MINUS, ASTERIX or LPAR for a cast) waiting for their operand
+    private final List<TokenClass> prefixes = new ArrayList<TokenClass>();
+    private final List<Type> castTypes = new ArrayList<Type>();
 
-    private Expr parsePrimaryRelationalTerm() {
-        return parsePrimaryRelationalTerm(parseSecondaryArithmeticTerm());
+    private void openFrame(Closer closer, Expr array, String function, List<Expr> args) {
+        frames.add(new ExpFrame(closer, operands.size(), operators.size(), prefixes.size(),
+                                array, function, args));
     }
 
-    private Expr parsePrimaryRelationalTerm(Expr operandOne) {
-        if (accept(TokenClass.LT, TokenClass.GT, TokenClass.LE, TokenClass.GE) && operandOne != null) {
-            Token op = expect(TokenClass.LT, TokenClass.GT, TokenClass.LE, TokenClass.GE);
-            Expr operandTwo = parseSecondaryArithmeticTerm();
-
-            if (operandTwo != null && op != null) {
-                if (op.tokenClass == TokenClass.LT) {
-                    return parsePrimaryRelationalTerm(new BinOp(operandOne, Op.LT, operandTwo));
-                } else if (op.tokenClass == TokenClass.GT) {
-                    return parsePrimaryRelationalTerm(new BinOp(operandOne, Op.GT, operandTwo));
-                } else if (op.tokenClass == TokenClass.LE) {
-                    return parsePrimaryRelationalTerm(new BinOp(operandOne, Op.LE, operandTwo));
-                } else { // op.tokenClass == TokenClass.GE
-                    return parsePrimaryRelationalTerm(new BinOp(operandOne, Op.GE, operandTwo));
+    private Expr parseExp() {
+        openFrame(Closer.NONE, null, null, null);
+
+        Expr operand = null;
+        boolean haveOperand = false;
+        while (true) {
+            if (!haveOperand) {
+                parsePrefixes();
+
+                if (accept(TokenClass.DOT) || accept(TokenClass.LSBR)) {
+                    operand = null;
+                } else if (accept(TokenClass.LPAR)) {
+                    // expression inside parenthesis
+                    expect(TokenClass.LPAR);
+                    openFrame(Closer.RPAR, null, null, null);
+                    continue;
+                } else if (accept(TokenClass.INT_LITERAL, TokenClass.CHAR_LITERAL, TokenClass.STRING_LITERAL)) {
+                    operand = parseLiteral();
+                } else if (accept(TokenClass.SIZEOF)) {
+                    operand = parseSizeOf();
+                } else {
+                    String name = expectData(TokenClass.IDENTIFIER);
+                    if (accept(TokenClass.LPAR) && (name != null)) {
+                        // funcall ::= IDENT "(" [ exp ("," exp)* ] ")"
+                        expect(TokenClass.LPAR);
+                        if (!accept(TokenClass.RPAR)) {
+                            openFrame(Closer.ARGUMENT, null, name, new ArrayList<Expr>());
+                            continue;
+                        }
+                        expect(TokenClass.RPAR);
+                        operand = new FunCallExpr(name, new ArrayList<Expr>());
+                    } else if (name != null) {
+                        operand = new VarExpr(name);
+                    } else {
+                        operand = null;
+                    }
                 }
-            } else {
-                return null;
+                haveOperand = true;
             }
-        } else {
-            return operandOne;
-        }
-    }
 
-    private Expr parseSecondaryArithmeticTerm() {
-        return parseSecondaryArithmeticTerm(parsePrimaryArithmeticTerm());
-    }
+            // postfix operators
+            while (operand != null && accept(TokenClass.DOT)) {
+                expect(TokenClass.DOT);
+                String iden = expectData(TokenClass.IDENTIFIER);
+                operand = iden != null ? new FieldAccessExpr(operand, iden) : null;
+            }
+            if (operand != null && accept(TokenClass.LSBR)) {
+                expect(TokenClass.LSBR);
+                openFrame(Closer.RSBR, operand, null, null);
+                haveOperand = false;
+                continue;
+            }
 
-    private Expr parseSecondaryArithmeticTerm(Expr operandOne) {
-        if (accept(TokenClass.PLUS, TokenClass.MINUS) && operandOne != null) {
-            Token op = expect(TokenClass.PLUS, TokenClass.MINUS);
-            Expr operandTwo = parsePrimaryArithmeticTerm();
+            ExpFrame frame = frames.get(frames.size() - 1);
+            operand = applyPrefixes(operand, frame.prefixBase);
 
-            if (operandTwo != null && op != null) {
-                if (op.tokenClass == TokenClass.PLUS) {
-                    return parseSecondaryArithmeticTerm(new BinOp(operandOne, Op.ADD, operandTwo));
-                } else { // op.tokenClass == TokenClass.MINUS
-                    return parseSecondaryArithmeticTerm(new BinOp(operandOne, Op.SUB, operandTwo));
+            if (operand != null) {
+                operands.add(operand);
+                int prec = precedence[tokenClass().ordinal()];
+                while (operators.size() > frame.operatorBase
+                       && opPrecedence[operators.get(operators.size() - 1).ordinal()] >= prec) {
+                    reduce();
+                }
+                if (prec > 0) {
+                    operators.add(binaryOp[tokenClass().ordinal()]);
+                    nextToken();
+                    haveOperand = false;
+                    continue;
                 }
+                // end of the expression in this frame, which is now fully reduced
+                operand = operands.remove(operands.size() - 1);
             } else {
-                return null;
+                truncate(operands, frame.operandBase);
+                truncate(operators, frame.operatorBase);
+            }
+            assert operands.size() == frame.operandBase && operators.size() == frame.operatorBase;
+
+            frames.remove(frames.size() - 1);
+            switch (frame.closer) {
+                case NONE:
+                    return operand;
+                case RPAR:
+                    expect(TokenClass.RPAR);
+                    break;
+                case RSBR:
+                    expect(TokenClass.RSBR);
+                    if (operand != null) {
+                        operand = new ArrayAccessExpr(frame.array, operand);
+                    }
+                    break;
+                case ARGUMENT:
+                    if (operand != null) {
+                        frame.args.add(operand);
+                    }
+                    if (accept(TokenClass.COMMA)) {
+                        expect(TokenClass.COMMA);
+                        openFrame(Closer.ARGUMENT, null, frame.function, frame.args);
+                        haveOperand = false;
+                        continue;
+                    }
+                    expect(TokenClass.RPAR);
+                    operand = new FunCallExpr(frame.function, frame.args);
+                    break;
             }
-        } else {
-            return operandOne;
         }
     }
 
-    private Expr parsePrimaryArithmeticTerm() {
-        return parsePrimaryArithmeticTerm(parseSecondaryFactor());
-    }
-
-    private Expr parsePrimaryArithmeticTerm(Expr operandOne) {
-        if (accept(TokenClass.ASTERIX, TokenClass.DIV, TokenClass.REM) && operandOne != null) {
-            Token op = expect(TokenClass.ASTERIX, TokenClass.DIV, TokenClass.REM);
-            Expr operandTwo = parseSecondaryFactor();
-
-            if (operandTwo != null && op != null) {
-                if (op.tokenClass == TokenClass.ASTERIX) {
-                    return parsePrimaryArithmeticTerm(new BinOp(operandOne, Op.MUL, operandTwo));
-                } else if (op.tokenClass == TokenClass.DIV) {
-                    return parsePrimaryArithmeticTerm(new BinOp(operandOne, Op.DIV, operandTwo));
-                } else { // op.tokenClass == TokenClass.REM
-                    return parsePrimaryArithmeticTerm(new BinOp(operandOne, Op.MOD, operandTwo));
-                }
+    private void parsePrefixes() {
+        while (true) {
+            if (accept(TokenClass.MINUS)) {
+                // Unary Minus
+                expect(TokenClass.MINUS);
+                prefixes.add(TokenClass.MINUS);
+                castTypes.add(null);
+            } else if (accept(TokenClass.ASTERIX)) {
+                // Pointer indirection
+                expect(TokenClass.ASTERIX);
+                prefixes.add(TokenClass.ASTERIX);
+                castTypes.add(null);
+            } else if (accept(TokenClass.LPAR)
+                       && matchType(lookAhead(1))) {
+                // Type cast
+                expect(TokenClass.LPAR);
+                Type t = parseType();
+                expect(TokenClass.RPAR);
+                prefixes.add(TokenClass.LPAR);
+                castTypes.add(t);
             } else {
-                return null;
+                return;
             }
-        } else {
-            return operandOne;
         }
     }
 
-    private Expr parseSecondaryFactor() {
-        if (accept(TokenClass.MINUS)) {
-            // Unary Minus
-            if (expect(TokenClass.MINUS) != null) {
-                Expr exp = parseSecondaryFactor();
-                if (exp != null) {
-                    return new BinOp(new IntLiteral(0), Op.SUB, exp);
-                }
-            }
-        } else if (accept(TokenClass.ASTERIX)) {
-            // Pointer indirection
-            if (expect(TokenClass.ASTERIX) != null) {
-                Expr exp = parseSecondaryFactor();
-                if (exp != null) {
-                    return new ValueAtExpr(exp);
-                }
+    /*
+     * Applies the pending prefix operators above base to the operand, innermost
+     * first. The result is null if the operand or a cast type is null.
+     */
+    private Expr applyPrefixes(Expr exp, int base) {
+        for (int i = prefixes.size() - 1; i >= base; i--) {
+            TokenClass prefix = prefixes.remove(i);
+            Type t = castTypes.remove(i);
+            if (exp == null) {
+                continue;
             }
-        } else if (accept(TokenClass.LPAR)
-                   && matchType(lookAhead(1))) {
-            // Type cast
-            expect(TokenClass.LPAR);
-            Type t = parseType();
-            expect(TokenClass.RPAR);
-            Expr exp = parseSecondaryFactor();
-            if (exp != null && t != null) {
-                return new TypecastExpr(t, exp);
+            if (prefix == TokenClass.MINUS) {
+                exp = new BinOp(new IntLiteral(0), Op.SUB, exp);
+            } else if (prefix == TokenClass.ASTERIX) {
+                exp = new ValueAtExpr(exp);
+            } else {
+                exp = t != null ? new TypecastExpr(t, exp) : null;
             }
-        } else {
-            return parsePrimaryFactor();
         }
-
-        return null;
+        return exp;
     }
 
-    private Expr parsePrimaryFactor() {
-        if (!accept(TokenClass.DOT) && !accept(TokenClass.LSBR)) {
-            Expr base = parseBaseFactor();
-            if (base != null) {
-                return parsePrimaryFactorOperator(base);
-            }
-        }
-        return null;
+    private void reduce() {
+        Op op = operators.remove(operators.size() - 1);
+        Expr operandTwo = operands.remove(operands.size() - 1);
+        Expr operandOne = operands.remove(operands.size() - 1);
+        operands.add(new BinOp(operandOne, op, operandTwo));
     }
 
-    private Expr parsePrimaryFactorOperator(Expr base) {
-        if (accept(TokenClass.DOT)) {
-            // parse fieldaccess
-            expect(TokenClass.DOT);
-            Token iden = expect(TokenClass.IDENTIFIER);
-            if (iden != null) {
-                return parsePrimaryFactorOperator(new FieldAccessExpr(base, iden.data));
-            } else {
-                return null;
-            }
-        } else if (accept(TokenClass.LSBR)) {
-            // parse arrayaccess
-            expect(TokenClass.LSBR);
-            Expr index = parseExp();
-            expect(TokenClass.RSBR);
-            if (index != null) {
-                return parsePrimaryFactorOperator(new ArrayAccessExpr(base, index));
-            } else {
-                return null;
-            }
-        } else {
-            return base;
+    private static <T> void truncate(List<T> stack, int size) {
+        while (stack.size() > size) {
+            stack.remove(stack.size() - 1);
         }
     }
 
-    private Expr parseBaseFactor() {
-        if (accept(TokenClass.LPAR)) {
-            // parse expression inside parenthesis
-            expect(TokenClass.LPAR);
-            Expr exp = parseExp();
-            expect(TokenClass.RPAR);
-            return exp; // could be null
-        } else if (accept(TokenClass.INT_LITERAL, TokenClass.CHAR_LITERAL, TokenClass.STRING_LITERAL)) {
-            // parse literal factors
-            Token t = expect(TokenClass.INT_LITERAL, TokenClass.CHAR_LITERAL, TokenClass.STRING_LITERAL);
-
-            if (t == null) {
-                return null;
-            } else if (t.tokenClass == TokenClass.INT_LITERAL) {
-                return new IntLiteral(t.data);
-            } else if (t.tokenClass == TokenClass.CHAR_LITERAL) {
-                return new ChrLiteral(t.data);
-            } else if (t.tokenClass == TokenClass.STRING_LITERAL) {
-                return new StrLiteral(t.data);
-            } else {
-                // should never reach this point
-                return null;
-            }
-        } else if (accept(TokenClass.SIZEOF)) {
-            // parse sizeof(type)
-            // sizeof ::= "sizeof" "(" type ")"
-            expect(TokenClass.SIZEOF);
+    private Expr parseLiteral() {
+        String data = tokenData();
+        TokenClass t = expect(TokenClass.INT_LITERAL, TokenClass.CHAR_LITERAL, TokenClass.STRING_LITERAL);
 
-            expect(TokenClass.LPAR);
-            Type t = parseType();
-            Expr result = null;
-            if (t != null) {
-                result = new SizeOfExpr(t);
-            }
-            expect(TokenClass.RPAR);
-
-            return result;
-        } else { // accept(TokenClass.IDENTIFIER)
-            // parse identifier
-            Token token = expect(TokenClass.IDENTIFIER);
-
-            if (accept(TokenClass.LPAR) && (token != null)) {
-                // parse function call
-                // funcall ::= IDENT "(" [ exp ("," exp)* ] ")"
-                List<Expr> funcallParam = new ArrayList<Expr>();
-                expect(TokenClass.LPAR);
-
-                if (!accept(TokenClass.RPAR)) {
-                    funcallParam = parseFuncallParamLst();
-                }
-                expect(TokenClass.RPAR);
-
-                return new FunCallExpr(token.data, funcallParam);
-            } else if (token != null) {
-                return new VarExpr(token.data);
-            } else {
-                return null;
-            }
+        if (t == null) {
+            return null;
+        } else if (t == TokenClass.INT_LITERAL) {
+            return new IntLiteral(data);
+        } else if (t == TokenClass.CHAR_LITERAL) {
+            return new ChrLiteral(data);
+        } else if (t == TokenClass.STRING_LITERAL) {
+            return new StrLiteral(data);
+        } else {
+            // should never reach this point
+            return null;
         }
     }
 
-    private List<Expr> parseFuncallParamLst() {
-        List<Expr> results = new ArrayList<Expr>();
-        Expr exp = parseExp();
-        if (exp != null) {
-            results.add(exp);
-        }
+    // sizeof ::= "sizeof" "(" type ")"
+    private Expr parseSizeOf() {
+        expect(TokenClass.SIZEOF);
 
-        if (accept(TokenClass.COMMA)) {
-            expect(TokenClass.COMMA);
-            List<Expr> rest = parseFuncallParamLst();
-            results.addAll(rest);
+        expect(TokenClass.LPAR);
+        Type t = parseType();
+        Expr result = null;
+        if (t != null) {
+            result = new SizeOfExpr(t);
         }
-        return results;
+        expect(TokenClass.RPAR);
+
+        return result;
     }
 
     private List<VarDecl> parseParamLst() {
         List<VarDecl> results = new ArrayList<VarDecl>();
 
-        Type t = parseType();
-        Token iden = expect(TokenClass.IDENTIFIER);
-        if (iden != null && t != null) {
-            results.add(new VarDecl(t, iden.data));
-        }
+        while (true) {
+            Type t = parseType();
+            String iden = expectData(TokenClass.IDENTIFIER);
+            if (iden != null && t != null) {
+                results.add(new VarDecl(t, iden));
+            }
 
-        if (accept(TokenClass.COMMA)) {
+            if (!accept(TokenClass.COMMA)) {
+                break;
+            }
             expect(TokenClass.COMMA);
-            List<VarDecl> rest = parseParamLst();
-            results.addAll(rest);
         }
 
         return results; // could be empty list
@@ -726,13 +1009,13 @@ public class Parser {
         if(accept(TokenClass.STRUCT)) {
             t = parseStructType();
         } else {
-            Token token = expect(TokenClass.INT, TokenClass.VOID, TokenClass.CHAR);
+            TokenClass token = expect(TokenClass.INT, TokenClass.VOID, TokenClass.CHAR);
             if (token != null) {
-                if (token.tokenClass == TokenClass.INT) {
+                if (token == TokenClass.INT) {
                     t = BaseType.INT;
-                } else if (token.tokenClass == TokenClass.VOID) {
+                } else if (token == TokenClass.VOID) {
                     t = BaseType.VOID;
-                } else if (token.tokenClass == TokenClass.CHAR) {
+                } else if (token == TokenClass.CHAR) {
                     t = BaseType.CHAR;
                 }
             }
@@ -748,9 +1031,9 @@ public class Parser {
 
     private StructType parseStructType() {
         expect(TokenClass.STRUCT);
-        Token iden = expect(TokenClass.IDENTIFIER);
+        String iden = expectData(TokenClass.IDENTIFIER);
         if (iden != null) {
-            return new StructType(iden.data);
+            return new StructType(iden);
         } else {
             return null;
         }
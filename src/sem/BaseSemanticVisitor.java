@@ -1,5 +1,7 @@
 package sem;
 
+import java.util.List;
+
 
 /**
  * 
@@ -8,17 +10,31 @@ package sem;
  */
 public abstract class BaseSemanticVisitor<T> implements SemanticVisitor<T> {
     private int errors;
+    private List<String> messages;
 
     public BaseSemanticVisitor() {
         errors = 0;
+        messages = null;
     }
 
     public int getErrorCount() {
         return errors;
     }
 
+    /**
+     * Collects the error messages into the given list instead of printing them,
+     * so that they can be printed later in a deterministic order.
+     */
+    public void collectErrors(List<String> messages) {
+        this.messages = messages;
+    }
+
     protected void error(String message) {
-        System.err.println("semantic error: " + message);
+        if (messages != null) {
+            messages.add("semantic error: " + message);
+        } else {
+            System.err.println("semantic error: " + message);
+        }
         errors++;
     }
 }
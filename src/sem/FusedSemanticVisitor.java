@@ -0,0 +1,484 @@
+package sem;
+
+import java.util.List;
+import java.util.Map;
+
+import ast.*;
+
+/**
+ * Name analysis, struct type checking and type checking in a single traversal.
+ *
+ * The struct declarations are registered first; everything else is handled in
+ * one walk in source order, resolving the names of a node before typing it.
+ * Function symbols are still added in source order, as a function must be
+ * declared before it is called.
+ *
+ * The errors found, and the annotations left on the AST, are exactly those of
+ * running NameAnalysisVisitor, StructTypeCheckVisitor and TypeCheckVisitor one
+ * after the other. Each of those skips some subtrees (the struct check does
+ * not look inside assignments, binary operations, array accesses or the
+ * operand of a cast, so a sizeof there is not checked; the type check does not
+ * look at the arguments of a call it has already rejected...), so the walk
+ * carries two flags saying whether the struct check and the type check would
+ * reach the current node. Only the order of the messages differs.
+ */
+public class FusedSemanticVisitor extends BaseSemanticVisitor<Type> {
+
+    private final Scope scope;
+    private final Map<String, StructTypeDecl> structTypeList;
+    private Type returnType;
+
+    // whether StructTypeCheckVisitor and TypeCheckVisitor reach the current node
+    private boolean checkingStructs = true;
+    private boolean typing = true;
+
+    public FusedSemanticVisitor(Scope scope, Map<String, StructTypeDecl> structTypeList) {
+        this.scope = scope;
+        this.structTypeList = structTypeList;
+        this.returnType = null;
+    }
+
+    private Type visit(Expr e, boolean checkingStructs, boolean typing) {
+        boolean oldCheckingStructs = this.checkingStructs;
+        boolean oldTyping = this.typing;
+        this.checkingStructs = checkingStructs;
+        this.typing = typing;
+        Type t = e.accept(this);
+        this.checkingStructs = oldCheckingStructs;
+        this.typing = oldTyping;
+        return t;
+    }
+
+    private boolean typeEqual(Type a, Type b) {
+        if (!a.getClass().equals(b.getClass())) {
+            return false;
+        } else if (a instanceof BaseType && a != b) {
+            return false;
+        } else if (a instanceof PointerType) {
+            return typeEqual(((PointerType)a).type, ((PointerType)b).type);
+        } else if (a instanceof ArrayType) {
+            return (((ArrayType)a).number.number == ((ArrayType)b).number.number)
+                    && typeEqual(((ArrayType)a).type, ((ArrayType)b).type);
+        } else if (a instanceof StructType) {
+            return ((StructType)a).name.equals(((StructType)b).name);
+        } else {
+            return true;
+        }
+    }
+
+    // the struct type check of a type: every struct type used must be declared
+    private void checkStructs(Type t) {
+        if (t instanceof StructType) {
+            StructType st = (StructType) t;
+            if (this.structTypeList.get(st.name) == null) {
+                error("structure type " + st.name + " does not exist.");
+            } else if (st.sd == null) {
+                st.sd = this.structTypeList.get(st.name);
+            }
+        } else if (t instanceof PointerType) {
+            checkStructs(((PointerType) t).type);
+        } else if (t instanceof ArrayType) {
+            checkStructs(((ArrayType) t).type);
+        }
+    }
+
+    @Override
+    public Type visitProgram(Program p) {
+        // pre-pass: all struct types are known before any use
+        for (StructTypeDecl std : p.structTypeDecls) {
+            std.accept(this);
+        }
+        StructTypeCheckVisitor.layOut(p.structTypeDecls, structTypeList);
+        for (VarDecl vd : p.varDecls) {
+            vd.accept(this);
+        }
+        for (FunDecl fd : p.funDecls) {
+            fd.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitStructTypeDecl(StructTypeDecl st) {
+        // field names are unique within the struct
+        this.scope.enter();
+        for (VarDecl vd : st.varDecls) {
+            if (this.scope.lookupCurrent(vd.varName) != null) {
+                error("variable " + vd.varName + " has already been declared in current scope.");
+            } else {
+                this.scope.put(new VarSymbol(vd));
+            }
+        }
+        this.scope.exit();
+
+        if (structTypeList.get(st.name.name) != null) {
+            error("structure type " + st.name.name + " has already been declared.");
+        } else {
+            structTypeList.put(st.name.name, st);
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitFunDecl(FunDecl p) {
+        Symbol sym = this.scope.lookupCurrent(p.name);
+        if (sym != null) {
+            error("function " + p.name + " has already been declared.");
+        } else {
+            this.scope.put(new FunSymbol(p));
+        }
+
+        this.scope.enter();
+        Type oldReturnType = this.returnType;
+        this.returnType = p.type;
+
+        // the parameters and the outermost block share a scope
+        for (VarDecl vd : p.params) {
+            vd.accept(this);
+        }
+        for (VarDecl vd : p.block.varDecls) {
+            vd.accept(this);
+        }
+        for (Stmt st : p.block.stmts) {
+            st.accept(this);
+        }
+
+        this.returnType = oldReturnType;
+        this.scope.exit();
+        return null;
+    }
+
+    @Override
+    public Type visitVarDecl(VarDecl vd) {
+        Symbol sym = this.scope.lookupCurrent(vd.varName);
+        if (sym != null) {
+            error("variable " + vd.varName + " has already been declared in current scope.");
+        } else {
+            this.scope.put(new VarSymbol(vd));
+        }
+
+        checkStructs(vd.type);
+
+        if (vd.type == BaseType.VOID) {
+            error("the type of variable " + vd.varName + " cannot be VOID.");
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitBlock(Block b) {
+        this.scope.enter();
+
+        for (VarDecl vd : b.varDecls) {
+            vd.accept(this);
+        }
+        for (Stmt st : b.stmts) {
+            st.accept(this);
+        }
+
+        this.scope.exit();
+        return null;
+    }
+
+    @Override
+    public Type visitIf(If i) {
+        Type condType = visit(i.cond, true, true);
+        if (condType != BaseType.INT) {
+            error("type check fails on if condition.");
+        }
+        i.ifStmt.accept(this);
+        if (i.elseStmt != null) {
+            i.elseStmt.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitWhile(While w) {
+        Type condType = visit(w.cond, true, true);
+        if (condType != BaseType.INT) {
+            error("type check fails on while condition.");
+        }
+        w.stmt.accept(this);
+        return null;
+    }
+
+    @Override
+    public Type visitReturn(Return r) {
+        if (r.exp != null) {
+            Type t = visit(r.exp, true, true);
+            if (t == null) {
+                error("error occurs in the return statement.");
+            } else if (!typeEqual(t, this.returnType)) {
+                error("the function return type is wrong.");
+            }
+        } else if (this.returnType != BaseType.VOID) {
+            error("the function return type is not void.");
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitExprStmt(ExprStmt es) {
+        return visit(es.exp, true, true);
+    }
+
+    @Override
+    public Type visitAssign(Assign a) {
+        if (!(a.assignee instanceof VarExpr
+              || a.assignee instanceof FieldAccessExpr
+              || a.assignee instanceof ArrayAccessExpr
+              || a.assignee instanceof ValueAtExpr)) {
+            error("the type of the left-hand side of the assignment statement is invalid.");
+            visit(a.assignee, false, false);
+            visit(a.assigner, false, false);
+            return null;
+        }
+
+        Type t1 = visit(a.assignee, false, true);
+        Type t2 = visit(a.assigner, false, true);
+
+        if (t1 == null || t2 == null) {
+            error("assignment type cannot be null.");
+        } else if (!typeEqual(t1, t2)) {
+            error("expressions must be of the same type on the both sides of the assignment.");
+        } else if (t1 == BaseType.VOID || t1 instanceof ArrayType) {
+            error("invalid expression type for assignment.");
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitVarExpr(VarExpr v) {
+        Symbol sym = this.scope.lookup(v.name);
+        if (sym == null) {
+            error("variable " + v.name + " is not declared before usage.");
+        } else if (!sym.isVar()) {
+            error(v.name + " is not variable name.");
+        } else {
+            v.decl = ((VarSymbol) sym).vd;
+        }
+
+        if (typing && v.decl != null) {
+            v.type = v.decl.type;
+            return v.type;
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitArrayAccessExpr(ArrayAccessExpr aae) {
+        Type t1 = visit(aae.base, false, typing);
+        Type t2 = visit(aae.index, false, typing);
+        if (!typing) {
+            return null;
+        }
+
+        if (t1 instanceof PointerType && t2 == BaseType.INT) {
+            aae.type = ((PointerType) t1).type;
+            return aae.type;
+        } else if (t1 instanceof ArrayType && t2 == BaseType.INT) {
+            aae.type = ((ArrayType) t1).type;
+            return aae.type;
+        } else {
+            error("type check fails when accessing array");
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitBinOp(BinOp bo) {
+        Type t1 = visit(bo.operandOne, false, typing);
+        Type t2 = visit(bo.operandTwo, false, typing);
+        if (!typing) {
+            return null;
+        }
+
+        if (bo.operator != Op.NE && bo.operator != Op.EQ) {
+            if (t1 == BaseType.INT && t2 == BaseType.INT) {
+                bo.type = BaseType.INT;
+                return bo.type;
+            } else {
+                error("Wrong type(s) of operands encountered in Binary Operation. BaseType.INT is expected.");
+                return null;
+            }
+        } else {
+            if (t1 == BaseType.VOID || t2 == BaseType.VOID
+                || t1 == null || t2 == null
+                || t1 instanceof StructType || t2 instanceof StructType
+                || t1 instanceof ArrayType || t2 instanceof ArrayType) {
+                error("Wrong type(s) of operands encountered in Binary Operation (NE/EQ).");
+                return null;
+            } else if (typeEqual(t1, t2)) {
+                bo.type = BaseType.INT;
+                return bo.type;
+            } else {
+                error("operands are of different types in Binary Operation (NE/EQ).");
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public Type visitFieldAccessExpr(FieldAccessExpr faexp) {
+        Type baseType = visit(faexp.base, checkingStructs, typing);
+        if (!typing) {
+            return null;
+        }
+
+        if (!(baseType instanceof StructType)) {
+            error("field access must be operated on a struct type expression.");
+            return null;
+        }
+        String structName = ((StructType)baseType).name;
+        StructTypeDecl sd = structTypeList.get(structName);
+        if (sd != null) {
+            for (int i = 0; i < sd.varDecls.size(); i++) {
+                VarDecl vd = sd.varDecls.get(i);
+                if (vd.varName.equals(faexp.field)) {
+                    faexp.index = i;
+                    faexp.type = vd.type;
+                    return faexp.type;
+                }
+            }
+            error("field " + faexp.field + " is not defined in structure " + structName + ".");
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitFunCallExpr(FunCallExpr fce) {
+        Symbol sym = this.scope.lookup(fce.name);
+        if (sym == null) {
+            error("function " + fce.name + " is not declared before calling.");
+        } else if (!sym.isFun()) {
+            error(fce.name + " is not a valid function name.");
+        } else {
+            fce.decl = ((FunSymbol) sym).fd;
+        }
+
+        FunDecl fd = fce.decl;
+        if (!typing || fd == null) {
+            for (Expr e : fce.params) {
+                visit(e, checkingStructs, false);
+            }
+            return null;
+        }
+
+        if (fce.params.size() != fd.params.size()) {
+            error("wrong number of parameters when calling " + fce.name);
+            for (Expr e : fce.params) {
+                visit(e, checkingStructs, false);
+            }
+            return null;
+        }
+
+        List<VarDecl> params = fd.params;
+        int counter = 0;
+        for (Expr e : fce.params) {
+            Type t = visit(e, checkingStructs, true);
+            Type expected = params.get(counter).type;
+            if (t == null) {
+                error("the parameter passed when calling function " + fce.name + " is undefined.");
+            } else if (!typeEqual(t, expected)) {
+                error("wrong type of the " + (counter + 1) + "th paramter passed when calling " + fce.name);
+            }
+            counter ++;
+        }
+        fce.type = fd.type;
+        return fce.type;
+    }
+
+    @Override
+    public Type visitSizeOfExpr(SizeOfExpr soe) {
+        if (checkingStructs) {
+            checkStructs(soe.target);
+        }
+        if (!typing) {
+            return null;
+        }
+        soe.type = BaseType.INT;
+        return soe.type;
+    }
+
+    @Override
+    public Type visitTypecastExpr(TypecastExpr tce) {
+        if (checkingStructs) {
+            checkStructs(tce.targetType);
+        }
+        Type t = visit(tce.exp, false, typing);
+        if (!typing) {
+            return null;
+        }
+
+        if (t == BaseType.CHAR && tce.targetType == BaseType.INT) {
+            tce.type = BaseType.INT;
+            return tce.type;
+        } else if (t instanceof PointerType && tce.targetType instanceof PointerType) {
+            tce.type = tce.targetType;
+            return tce.type;
+        } else if (t instanceof ArrayType && tce.targetType instanceof PointerType) {
+            tce.type = tce.targetType;
+            return tce.type;
+        } else {
+            error("undefined typecast expression encounterd.");
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitValueAtExpr(ValueAtExpr vae) {
+        Type t = visit(vae.exp, checkingStructs, typing);
+        if (!typing) {
+            return null;
+        }
+
+        if (t instanceof PointerType) {
+            vae.type = ((PointerType) t).type;
+            return vae.type;
+        } else {
+            error("type check fails when accessing pointer value");
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitChrLiteral(ChrLiteral cl) {
+        return typing ? BaseType.CHAR : null;
+    }
+
+    @Override
+    public Type visitIntLiteral(IntLiteral il) {
+        return typing ? BaseType.INT : null;
+    }
+
+    @Override
+    public Type visitStrLiteral(StrLiteral sl) {
+        return typing ? new ArrayType(BaseType.CHAR, sl.str.length() + 1) : null;
+    }
+
+    @Override
+    public Type visitBaseType(BaseType bt) {
+        return null;
+    }
+
+    @Override
+    public Type visitPointerType(PointerType pt) {
+        return null;
+    }
+
+    @Override
+    public Type visitArrayType(ArrayType at) {
+        return null;
+    }
+
+    @Override
+    public Type visitStructType(StructType st) {
+        return null;
+    }
+
+    @Override
+    public Type visitOp(Op o) {
+        return null;
+    }
+}
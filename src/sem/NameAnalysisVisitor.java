@@ -13,7 +13,7 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
     }
 
     public NameAnalysisVisitor() {
-        this(new Scope(null));
+        this(new Scope());
     }
 
     @Override
@@ -24,20 +24,18 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 
     @Override
     public Void visitStructTypeDecl(StructTypeDecl sts) {
-        Scope old = this.scope;
-        this.scope = new Scope(old); // set outer scope
+        this.scope.enter(); // nested scope
 
         for (VarDecl vd : sts.varDecls) {
             vd.accept(this);
         }
-        this.scope = old;
+        this.scope.exit();
         return null;
     }
 
     @Override
     public Void visitBlock(Block b) {
-        Scope old = this.scope;
-        this.scope = new Scope(old); // set outer scope
+        this.scope.enter(); // nested scope
 
         for (VarDecl vd : b.varDecls) {
             vd.accept(this);
@@ -47,7 +45,7 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
             st.accept(this);
         }
 
-        this.scope = old;
+        this.scope.exit();
         return null;
     }
 
@@ -62,8 +60,7 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
             this.scope.put(new FunSymbol(p));
         }
 
-        Scope old = this.scope;
-        this.scope = new Scope(old); // set outer scope
+        this.scope.enter(); // nested scope
 
         for (VarDecl vd : p.params) {
             vd.accept(this);
@@ -77,7 +74,7 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
             st.accept(this);
         }
 
-        this.scope = old;
+        this.scope.exit();
         return null;
     }
 
@@ -1,18 +1,76 @@
 package sem;
 
-import java.util.HashMap;
-import java.util.Map;
+import util.InternTable;
 
+import java.util.Arrays;
+
+/**
+ * The symbol table of name analysis: all nested scopes in a single table.
+ *
+ * Every name has one slot in an open-addressed hash table, pointing to its
+ * innermost binding. Bindings are pushed on a stack together with their
+ * nesting level and the binding of the same name they shadow, and enter()
+ * records the height of that stack. exit() pops the bindings made since
+ * then, restoring the ones they shadowed. Entering and leaving a scope
+ * therefore allocates nothing, and a lookup is one hash probe however
+ * deeply the scopes are nested.
+ *
+ * Identifiers coming from the Tokeniser are canonical instances of its
+ * util.InternTable. Given the same table, the scope enters the names it
+ * declares in it, such as those of the built-in functions, so name
+ * comparisons usually succeed on identity.
+ */
 public class Scope {
-    private Scope outer;
-    private Map<String, Symbol> symbolTable;
-    
-    public Scope(Scope outer) { 
-        this.outer = outer; 
-        symbolTable = new HashMap<String, Symbol>();
+
+    // where declared names are made canonical, or null to keep them as they are
+    private final InternTable canonical;
+
+    // open-addressed table of the names seen so far, with their innermost binding (or -1)
+    private String[] names = new String[64];
+    private int[] innermost = new int[64];
+    private int nameCount = 0;
+
+    // stack of bindings
+    private Symbol[] symbols = new Symbol[64];
+    private int[] levels = new int[64];
+    private int[] shadowed = new int[64];
+    private int[] slots = new int[64];
+    private int bindingCount = 0;
+
+    // height of the binding stack when each open scope was entered
+    private int[] marks = new int[16];
+    private int level = 0;
+
+    public Scope() {
+        this(null);
+    }
+
+    public Scope(InternTable canonical) {
+        this.canonical = canonical;
+    }
+
+    /**
+     * Opens a new innermost scope.
+     */
+    public void enter() {
+        if (level == marks.length) {
+            marks = Arrays.copyOf(marks, level * 2);
+        }
+        marks[level++] = bindingCount;
+    }
+
+    /**
+     * Closes the innermost scope, dropping the symbols declared in it.
+     */
+    public void exit() {
+        assert level > 0;
+        int mark = marks[--level];
+        while (bindingCount > mark) {
+            bindingCount--;
+            innermost[slots[bindingCount]] = shadowed[bindingCount];
+            symbols[bindingCount] = null;
+        }
     }
-    
-    public Scope() { this(null); }
 
     /**
     * @description for variable use in name analysis
@@ -20,12 +78,11 @@ public class Scope {
     *         return the symbol if existing
     */
     public Symbol lookup(String name) {
-        Symbol current = symbolTable.get(name);
-        if (current == null && outer != null) {
-            return outer.lookup(name);
-        } else {
-            return current;
+        int slot = find(name);
+        if (slot < 0 || innermost[slot] < 0) {
+            return null;
         }
+        return symbols[innermost[slot]];
     }
 
     /**
@@ -34,10 +91,97 @@ public class Scope {
     *         return the symbol if existing
     */
     public Symbol lookupCurrent(String name) {
-        return symbolTable.get(name);
+        int slot = find(name);
+        if (slot < 0 || innermost[slot] < 0 || levels[innermost[slot]] != level) {
+            return null;
+        }
+        return symbols[innermost[slot]];
     }
 
+    /**
+     * Declares sym in the current scope, replacing any symbol of the same
+     * name declared in it.
+     */
     public void put(Symbol sym) {
-        symbolTable.put(sym.name, sym);
+        int slot = find(sym.name);
+        if (slot < 0) {
+            slot = insert(canonical != null ? canonical.intern(sym.name) : sym.name);
+        }
+
+        int b = innermost[slot];
+        if (b >= 0 && levels[b] == level) {
+            symbols[b] = sym;
+            return;
+        }
+
+        if (bindingCount == symbols.length) {
+            int capacity = bindingCount * 2;
+            symbols = Arrays.copyOf(symbols, capacity);
+            levels = Arrays.copyOf(levels, capacity);
+            shadowed = Arrays.copyOf(shadowed, capacity);
+            slots = Arrays.copyOf(slots, capacity);
+        }
+        symbols[bindingCount] = sym;
+        levels[bindingCount] = level;
+        shadowed[bindingCount] = b;
+        slots[bindingCount] = slot;
+        innermost[slot] = bindingCount;
+        bindingCount++;
+    }
+
+    // returns the slot of name, or -1 if it was never declared
+    private int find(String name) {
+        int mask = names.length - 1;
+        int i = mix(name.hashCode()) & mask;
+        while (names[i] != null) {
+            if (names[i] == name || names[i].equals(name)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int insert(String name) {
+        if (2 * (nameCount + 1) > names.length) {
+            rehash();
+        }
+        int mask = names.length - 1;
+        int i = mix(name.hashCode()) & mask;
+        while (names[i] != null) {
+            i = (i + 1) & mask;
+        }
+        names[i] = name;
+        innermost[i] = -1;
+        nameCount++;
+        return i;
+    }
+
+    // doubles the name table; the bindings follow their names to the new slots
+    private void rehash() {
+        String[] oldNames = names;
+        int[] oldInnermost = innermost;
+        names = new String[oldNames.length * 2];
+        innermost = new int[oldNames.length * 2];
+        int mask = names.length - 1;
+        for (int j = 0; j < oldNames.length; j++) {
+            if (oldNames[j] == null) {
+                continue;
+            }
+            int i = mix(oldNames[j].hashCode()) & mask;
+            while (names[i] != null) {
+                i = (i + 1) & mask;
+            }
+            names[i] = oldNames[j];
+            innermost[i] = oldInnermost[j];
+            for (int b = oldInnermost[j]; b >= 0; b = shadowed[b]) {
+                slots[b] = i;
+            }
+        }
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
 }
@@ -2,27 +2,36 @@ package sem;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ast.*;
+import util.InternTable;
+import util.PhaseProfile;
 
 public class SemanticAnalyzer {
 
     public int analyze(ast.Program prog) {
-        Scope scope = buildInScope();
-        Map<String, StructTypeDecl> structTypeList = new HashMap<String, StructTypeDecl>();
-        // List of visitors
-        ArrayList<SemanticVisitor> visitors = new ArrayList<SemanticVisitor>();
-        visitors.add(new NameAnalysisVisitor(scope));
-        visitors.add(new StructTypeCheckVisitor(structTypeList));
-        visitors.add(new TypeCheckVisitor(structTypeList));
+        List<SemanticVisitor<?>> visitors = createVisitors(buildInScope());
 
         // Error accumulator
         int errors = 0;
 
         // Apply each visitor to the AST
-        for (SemanticVisitor v : visitors) {
-            prog.accept(v);
+        passTimes.clear();
+        for (SemanticVisitor<?> v : visitors) {
+            long start = System.nanoTime();
+            profile.begin(v.getClass().getSimpleName());
+            try {
+                prog.accept(v);
+            } finally {
+                profile.end();
+            }
+            passTimes.put(v.getClass().getSimpleName(), System.nanoTime() - start);
             errors += v.getErrorCount();
         }
 
@@ -30,8 +39,231 @@ public class SemanticAnalyzer {
         return errors;
     }
 
+    /*
+     * Same as analyze, with the three passes fused into a single traversal of
+     * the AST. The error messages come out in traversal order.
+     */
+    public int analyzeFused(ast.Program prog) {
+        Map<String, StructTypeDecl> structTypeList = new HashMap<String, StructTypeDecl>();
+        List<SemanticVisitor<?>> visitors = new ArrayList<SemanticVisitor<?>>();
+        visitors.add(new FusedSemanticVisitor(buildInScope(), structTypeList));
+        visitors.add(new StructTypeResolver(structTypeList));
+
+        int errors = 0;
+        passTimes.clear();
+        for (SemanticVisitor<?> v : visitors) {
+            long start = System.nanoTime();
+            profile.begin(v.getClass().getSimpleName());
+            try {
+                prog.accept(v);
+            } finally {
+                profile.end();
+            }
+            passTimes.put(v.getClass().getSimpleName(), System.nanoTime() - start);
+            errors += v.getErrorCount();
+        }
+        return errors;
+    }
+
+    /*
+     * Same as analyze, with the function bodies type checked concurrently on
+     * the given pool. Name analysis and struct type checking, which build the
+     * scopes and struct table the type checker reads, run first on this
+     * thread. Every task then has its own TypeCheckVisitor, collects the
+     * messages of each function separately and adds its error count to a
+     * shared atomic counter. The messages are printed in source order once all
+     * tasks are done, so the output is exactly that of analyze.
+     */
+    public int analyzeParallel(ast.Program prog, ForkJoinPool pool) {
+        Map<String, StructTypeDecl> structTypeList = new HashMap<String, StructTypeDecl>();
+        List<SemanticVisitor<?>> visitors = new ArrayList<SemanticVisitor<?>>();
+        visitors.add(new NameAnalysisVisitor(buildInScope()));
+        visitors.add(new StructTypeCheckVisitor(structTypeList));
+
+        int errors = 0;
+        passTimes.clear();
+        for (SemanticVisitor<?> v : visitors) {
+            long start = System.nanoTime();
+            profile.begin(v.getClass().getSimpleName());
+            try {
+                prog.accept(v);
+            } finally {
+                profile.end();
+            }
+            passTimes.put(v.getClass().getSimpleName(), System.nanoTime() - start);
+            errors += v.getErrorCount();
+        }
+
+        long start = System.nanoTime();
+        profile.begin(TypeCheckVisitor.class.getSimpleName(), true);
+        try {
+            // global variables, on this thread
+            TypeCheckVisitor globals = new TypeCheckVisitor(structTypeList);
+            for (VarDecl vd : prog.varDecls) {
+                vd.accept(globals);
+            }
+            errors += globals.getErrorCount();
+
+            // function bodies, in parallel
+            String[][] messages = new String[prog.funDecls.size()][];
+            AtomicInteger typeErrors = new AtomicInteger();
+            pool.invoke(new TypeCheckTask(prog.funDecls, 0, prog.funDecls.size(), structTypeList, messages, typeErrors));
+            for (String[] functionMessages : messages) {
+                for (String message : functionMessages) {
+                    System.err.println(message);
+                }
+            }
+            errors += typeErrors.get();
+        } finally {
+            profile.end();
+        }
+        passTimes.put(TypeCheckVisitor.class.getSimpleName(), System.nanoTime() - start);
+
+        StructTypeResolver resolver = new StructTypeResolver(structTypeList);
+        start = System.nanoTime();
+        profile.begin(resolver.getClass().getSimpleName());
+        try {
+            prog.accept(resolver);
+        } finally {
+            profile.end();
+        }
+        passTimes.put(resolver.getClass().getSimpleName(), System.nanoTime() - start);
+        return errors;
+    }
+
+    /*
+     * Type checks the functions in [from, to), splitting the range until it
+     * is small enough to be handled by one visitor.
+     */
+    private static final class TypeCheckTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int FUNCTIONS_PER_TASK = 16;
+
+        private final List<FunDecl> funDecls;
+        private final int from;
+        private final int to;
+        private final Map<String, StructTypeDecl> structTypeList;
+        private final String[][] messages;
+        private final AtomicInteger errors;
+
+        TypeCheckTask(List<FunDecl> funDecls, int from, int to, Map<String, StructTypeDecl> structTypeList,
+                      String[][] messages, AtomicInteger errors) {
+            this.funDecls = funDecls;
+            this.from = from;
+            this.to = to;
+            this.structTypeList = structTypeList;
+            this.messages = messages;
+            this.errors = errors;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > FUNCTIONS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TypeCheckTask(funDecls, from, mid, structTypeList, messages, errors),
+                          new TypeCheckTask(funDecls, mid, to, structTypeList, messages, errors));
+                return;
+            }
+
+            TypeCheckVisitor v = new TypeCheckVisitor(structTypeList);
+            List<String> functionMessages = new ArrayList<String>();
+            v.collectErrors(functionMessages);
+            for (int i = from; i < to; i++) {
+                funDecls.get(i).accept(v);
+                messages[i] = functionMessages.toArray(new String[functionMessages.size()]);
+                functionMessages.clear();
+            }
+            errors.addAndGet(v.getErrorCount());
+        }
+    }
+
+    // time taken by each pass of the last analysis, in nanoseconds
+    private final Map<String, Long> passTimes = new LinkedHashMap<String, Long>();
+
+    public Map<String, Long> getPassTimes() {
+        return passTimes;
+    }
+
+    /*
+     * Where every pass is measured under the name of its visitor. With
+     * analyzeParallel the CPU time and allocation of the type checking are
+     * those of this thread only, which mostly waits for the pool, and the
+     * phase is marked so.
+     */
+    private PhaseProfile profile = new PhaseProfile(false);
+
+    public void setProfile(PhaseProfile profile) {
+        this.profile = profile;
+    }
+
+    /*
+     * The names of the program, from Parser.getNames(). The scopes enter the
+     * built-in functions in it so that their names are canonical as well.
+     */
+    private InternTable names;
+
+    public void setNames(InternTable names) {
+        this.names = names;
+    }
+
+    /*
+     * Streaming analysis, one function at a time: analyzeDeclarations is given
+     * the struct and global variable declarations of the program and then
+     * analyzeFunDecl each function in source order. Both return the number of
+     * errors they found; together these are the errors analyze would find on
+     * the whole program, although the messages come out function by function.
+     */
+
+    // the visitors of the streaming analysis and the global scope they share
+    private List<SemanticVisitor<?>> visitors;
+    private Scope globalScope;
+
+    public int analyzeDeclarations(ast.Program declarations) {
+        globalScope = buildInScope();
+        visitors = createVisitors(globalScope);
+        return apply(declarations);
+    }
+
+    public int analyzeFunDecl(FunDecl fd) {
+        int errors = apply(fd);
+
+        // calls in later functions only need the signature, do not keep the body alive
+        Symbol sym = globalScope.lookupCurrent(fd.name);
+        if (sym instanceof FunSymbol && ((FunSymbol) sym).fd == fd) {
+            Block empty = new Block(new ArrayList<VarDecl>(), new ArrayList<Stmt>());
+            globalScope.put(new FunSymbol(new FunDecl(fd.type, fd.name, fd.params, empty)));
+        }
+        return errors;
+    }
+
+    private int apply(ASTNode node) {
+        int errors = 0;
+        for (SemanticVisitor<?> v : visitors) {
+            int before = v.getErrorCount();
+            profile.begin(v.getClass().getSimpleName());
+            try {
+                node.accept(v);
+            } finally {
+                profile.end();
+            }
+            errors += v.getErrorCount() - before;
+        }
+        return errors;
+    }
+
+    private List<SemanticVisitor<?>> createVisitors(Scope scope) {
+        Map<String, StructTypeDecl> structTypeList = new HashMap<String, StructTypeDecl>();
+        // List of visitors
+        List<SemanticVisitor<?>> visitors = new ArrayList<SemanticVisitor<?>>();
+        visitors.add(new NameAnalysisVisitor(scope));
+        visitors.add(new StructTypeCheckVisitor(structTypeList));
+        visitors.add(new TypeCheckVisitor(structTypeList));
+        visitors.add(new StructTypeResolver(structTypeList));
+        return visitors;
+    }
+
     private Scope buildInScope() {
-        Scope scope = new Scope(null);
+        Scope scope = new Scope(names);
 
         ArrayList<VarDecl> al1 = new ArrayList<VarDecl>();
         Block b1 = new Block(new ArrayList<VarDecl>(), new ArrayList<Stmt>());
@@ -1,6 +1,7 @@
 package sem;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import ast.*;
@@ -60,6 +61,7 @@ public class StructTypeCheckVisitor extends BaseSemanticVisitor<Void> {
         for (StructTypeDecl std : p.structTypeDecls) {
             std.accept(this);
         }
+        layOut(p.structTypeDecls, structTypeList);
         for (VarDecl vd : p.varDecls) {
             vd.accept(this);
         }
@@ -69,6 +71,35 @@ public class StructTypeCheckVisitor extends BaseSemanticVisitor<Void> {
         return null;
     }
 
+    /*
+     * Resolves the struct types of the fields of every struct, which are not
+     * checked, and computes the layouts once all of them are known so that
+     * the sizes of nested structs are right.
+     */
+    static void layOut(List<StructTypeDecl> structTypeDecls, Map<String, StructTypeDecl> structTypeList) {
+        for (StructTypeDecl std : structTypeDecls) {
+            for (VarDecl vd : std.varDecls) {
+                resolve(vd.type, structTypeList);
+            }
+        }
+        for (StructTypeDecl std : structTypeDecls) {
+            std.layout();
+        }
+    }
+
+    static void resolve(Type t, Map<String, StructTypeDecl> structTypeList) {
+        if (t instanceof StructType) {
+            StructType st = (StructType) t;
+            if (st.sd == null) {
+                st.sd = structTypeList.get(st.name);
+            }
+        } else if (t instanceof PointerType) {
+            resolve(((PointerType) t).type, structTypeList);
+        } else if (t instanceof ArrayType) {
+            resolve(((ArrayType) t).type, structTypeList);
+        }
+    }
+
     @Override
     public Void visitVarDecl(VarDecl vd) {
         vd.type.accept(this);
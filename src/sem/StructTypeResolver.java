@@ -0,0 +1,198 @@
+package sem;
+
+import java.util.Map;
+
+import ast.*;
+
+/**
+ * Resolves the struct types StructTypeCheckVisitor does not reach, such as
+ * the return types of functions and the targets of sizeof and casts inside
+ * assignments or binary operations, so that the code generators can take the
+ * size and layout of every struct type from its declaration.
+ *
+ * It reports no errors: a struct type that was never declared is left
+ * unresolved, and has size 0, as the checks before it have accepted or
+ * rejected the program already.
+ */
+public class StructTypeResolver extends BaseSemanticVisitor<Void> {
+
+    private final Map<String, StructTypeDecl> structTypeList;
+
+    public StructTypeResolver(Map<String, StructTypeDecl> structTypeList) {
+        this.structTypeList = structTypeList;
+    }
+
+    @Override
+    public Void visitProgram(Program p) {
+        for (VarDecl vd : p.varDecls) {
+            vd.accept(this);
+        }
+        for (FunDecl fd : p.funDecls) {
+            fd.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitStructTypeDecl(StructTypeDecl st) {
+        // the fields are resolved when the layouts are computed
+        return null;
+    }
+
+    @Override
+    public Void visitFunDecl(FunDecl p) {
+        StructTypeCheckVisitor.resolve(p.type, structTypeList);
+        for (VarDecl vd : p.params) {
+            vd.accept(this);
+        }
+        p.block.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitBlock(Block b) {
+        for (VarDecl vd : b.varDecls) {
+            vd.accept(this);
+        }
+        for (Stmt s : b.stmts) {
+            s.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarDecl(VarDecl vd) {
+        StructTypeCheckVisitor.resolve(vd.type, structTypeList);
+        return null;
+    }
+
+    @Override
+    public Void visitSizeOfExpr(SizeOfExpr soe) {
+        StructTypeCheckVisitor.resolve(soe.target, structTypeList);
+        return null;
+    }
+
+    @Override
+    public Void visitTypecastExpr(TypecastExpr tce) {
+        StructTypeCheckVisitor.resolve(tce.targetType, structTypeList);
+        tce.exp.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayAccessExpr(ArrayAccessExpr aae) {
+        aae.base.accept(this);
+        aae.index.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitAssign(Assign a) {
+        a.assignee.accept(this);
+        a.assigner.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitBinOp(BinOp bo) {
+        bo.operandOne.accept(this);
+        bo.operandTwo.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitExprStmt(ExprStmt es) {
+        es.exp.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitFieldAccessExpr(FieldAccessExpr faexp) {
+        faexp.base.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitFunCallExpr(FunCallExpr fce) {
+        for (Expr e : fce.params) {
+            e.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIf(If i) {
+        i.cond.accept(this);
+        i.ifStmt.accept(this);
+        if (i.elseStmt != null) {
+            i.elseStmt.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturn(Return r) {
+        if (r.exp != null) {
+            r.exp.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitValueAtExpr(ValueAtExpr vae) {
+        vae.exp.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitWhile(While w) {
+        w.cond.accept(this);
+        w.stmt.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(VarExpr v) {
+        return null;
+    }
+
+    @Override
+    public Void visitChrLiteral(ChrLiteral cl) {
+        return null;
+    }
+
+    @Override
+    public Void visitIntLiteral(IntLiteral il) {
+        return null;
+    }
+
+    @Override
+    public Void visitStrLiteral(StrLiteral sl) {
+        return null;
+    }
+
+    @Override
+    public Void visitOp(Op o) {
+        return null;
+    }
+
+    @Override
+    public Void visitBaseType(BaseType bt) {
+        return null;
+    }
+
+    @Override
+    public Void visitPointerType(PointerType pt) {
+        return null;
+    }
+
+    @Override
+    public Void visitArrayType(ArrayType at) {
+        return null;
+    }
+
+    @Override
+    public Void visitStructType(StructType st) {
+        return null;
+    }
+}
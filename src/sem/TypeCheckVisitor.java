@@ -201,9 +201,11 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
             List<VarDecl> vds = sd.varDecls;
             boolean fieldDefined = false;
             Type fieldType = null;
-            for (VarDecl vd : vds) {
+            for (int i = 0; i < vds.size(); i++) {
+                VarDecl vd = vds.get(i);
                 if (vd.varName.equals(faexp.field)) {
                     fieldDefined = true;
+                    faexp.index = i;
                     faexp.type = vd.type;
                     return faexp.type;
                 }
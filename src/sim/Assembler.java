@@ -0,0 +1,446 @@
+package sim;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Assembles the MIPS assembly written by the compiler into an Executable.
+ *
+ * Both segments are understood: .data with .asciiz, .ascii, .space, .word,
+ * .byte and .align, and .text with labels, the instructions of Opcode and
+ * syscall. Labels may share a line with what they label, and comments run
+ * from # to the end of the line.
+ *
+ * The first pass lays out the data and collects the labels and instructions,
+ * the second decodes the instructions once every label is known.
+ */
+public class Assembler {
+
+    private static final Pattern LABEL = Pattern.compile("^\\s*([A-Za-z_][A-Za-z0-9_]*)\\s*:(.*)$");
+    private static final Pattern MEMORY = Pattern.compile("^(-?\\w*)\\s*\\(\\s*(\\$\\w+)\\s*\\)$");
+
+    private static final Map<String, Integer> REGISTERS = new HashMap<String, Integer>();
+
+    static {
+        String[] names = {
+            "zero", "at", "v0", "v1", "a0", "a1", "a2", "a3",
+            "t0", "t1", "t2", "t3", "t4", "t5", "t6", "t7",
+            "s0", "s1", "s2", "s3", "s4", "s5", "s6", "s7",
+            "t8", "t9", "k0", "k1", "gp", "sp", "fp", "ra"
+        };
+        for (int i = 0; i < names.length; i++) {
+            REGISTERS.put(names[i], i);
+            REGISTERS.put(Integer.toString(i), i);
+        }
+        REGISTERS.put("s8", 30);
+    }
+
+    // an instruction as read in the first pass
+    private static class Line {
+        final int number;
+        final String text;
+        final Opcode op;
+        final String[] operands;
+
+        Line(int number, String text, Opcode op, String[] operands) {
+            this.number = number;
+            this.text = text;
+            this.op = op;
+            this.operands = operands;
+        }
+    }
+
+    private final List<Line> lines = new ArrayList<Line>();
+    private final Map<String, Integer> labels = new HashMap<String, Integer>();
+    // the labels of the text segment, by the index of the instruction they label
+    private final Map<String, Integer> textLabels = new HashMap<String, Integer>();
+
+    private byte[] data = new byte[256];
+    private int dataSize;
+    // the data labels waiting for what they label, which may have to be aligned
+    private final List<String> pendingData = new ArrayList<String>();
+
+    private Assembler() {
+    }
+
+    public static Executable assemble(Reader source) throws IOException, AssemblyException {
+        return new Assembler().run(source);
+    }
+
+    private Executable run(Reader source) throws IOException, AssemblyException {
+        BufferedReader reader = new BufferedReader(source);
+        boolean inText = true;
+        int number = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            String rest = stripComment(line);
+            Matcher m = LABEL.matcher(rest);
+            while (m.matches()) {
+                define(m.group(1), inText, number);
+                rest = m.group(2);
+                m = LABEL.matcher(rest);
+            }
+            rest = rest.trim();
+            if (rest.isEmpty()) {
+                continue;
+            }
+
+            String[] parts = rest.split("\\s+", 2);
+            String name = parts[0];
+            String args = parts.length > 1 ? parts[1].trim() : "";
+            if (name.equals(".data")) {
+                inText = false;
+            } else if (name.equals(".text")) {
+                inText = true;
+            } else if (name.startsWith(".")) {
+                directive(name, args, inText, number);
+            } else if (!inText) {
+                throw new AssemblyException(number, "instruction in the data segment: " + rest);
+            } else {
+                Opcode op = Opcode.of(name);
+                if (op == null) {
+                    throw new AssemblyException(number, "unknown instruction " + name);
+                }
+                String[] operands = args.isEmpty() ? new String[0] : args.split(",");
+                for (int i = 0; i < operands.length; i++) {
+                    operands[i] = operands[i].trim();
+                }
+                lines.add(new Line(number, rest, op, operands));
+            }
+        }
+        placePendingData();
+
+        List<Instruction> text = new ArrayList<Instruction>();
+        for (Line l : lines) {
+            text.add(decode(l));
+        }
+        return new Executable(text, Arrays.copyOf(data, dataSize), labels);
+    }
+
+    private static String stripComment(String line) {
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && quoted) {
+                i++;
+            } else if (c == '"') {
+                quoted = !quoted;
+            } else if (c == '#' && !quoted) {
+                return line.substring(0, i);
+            }
+        }
+        return line;
+    }
+
+    private void define(String label, boolean inText, int number) throws AssemblyException {
+        if (labels.containsKey(label) || pendingData.contains(label)) {
+            throw new AssemblyException(number, "label " + label + " defined twice");
+        }
+        if (inText) {
+            textLabels.put(label, lines.size());
+            labels.put(label, Executable.addressOf(lines.size()));
+        } else {
+            pendingData.add(label);
+        }
+    }
+
+    private void placePendingData() {
+        for (String label : pendingData) {
+            labels.put(label, Executable.DATA_BASE + dataSize);
+        }
+        pendingData.clear();
+    }
+
+    private void align(int bytes) {
+        while (dataSize % bytes != 0) {
+            emitByte(0);
+        }
+    }
+
+    private void emitByte(int b) {
+        if (dataSize == data.length) {
+            data = Arrays.copyOf(data, 2 * data.length);
+        }
+        data[dataSize++] = (byte) b;
+    }
+
+    private void directive(String name, String args, boolean inText, int number) throws AssemblyException {
+        if (name.equals(".globl") || name.equals(".extern")) {
+            return;
+        }
+        if (inText) {
+            if (name.equals(".align")) {
+                return;
+            }
+            throw new AssemblyException(number, "directive " + name + " in the text segment");
+        }
+        switch (name) {
+            case ".align": {
+                int n = (int) integer(args, number);
+                if (n < 0 || n > 16) {
+                    throw new AssemblyException(number, "bad alignment " + args);
+                }
+                align(1 << n);
+                placePendingData();
+                break;
+            }
+            case ".space": {
+                long n = integer(args, number);
+                if (n < 0) {
+                    throw new AssemblyException(number, "negative .space " + args);
+                }
+                placePendingData();
+                for (long i = 0; i < n; i++) {
+                    emitByte(0);
+                }
+                break;
+            }
+            case ".word":
+            case ".half":
+            case ".byte": {
+                int size = name.equals(".word") ? 4 : name.equals(".half") ? 2 : 1;
+                align(size);
+                placePendingData();
+                for (String v : args.split(",")) {
+                    int value = (int) integer(v.trim(), number);
+                    for (int i = 0; i < size; i++) {
+                        emitByte(value >> (8 * i));
+                    }
+                }
+                break;
+            }
+            case ".ascii":
+            case ".asciiz": {
+                int open = args.indexOf('"');
+                int close = args.lastIndexOf('"');
+                if (open < 0 || close <= open) {
+                    throw new AssemblyException(number, "expected a string after " + name);
+                }
+                placePendingData();
+                String s = unescape(args.substring(open + 1, close));
+                for (int i = 0; i < s.length(); i++) {
+                    emitByte(s.charAt(i));
+                }
+                if (name.equals(".asciiz")) {
+                    emitByte(0);
+                }
+                break;
+            }
+            default:
+                throw new AssemblyException(number, "unknown directive " + name);
+        }
+    }
+
+    private static String unescape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != '\\' || i + 1 == s.length()) {
+                sb.append(c);
+                continue;
+            }
+            c = s.charAt(++i);
+            switch (c) {
+                case 'n':  sb.append('\n'); break;
+                case 't':  sb.append('\t'); break;
+                case 'r':  sb.append('\r'); break;
+                case '0':  sb.append('\0'); break;
+                default:   sb.append(c); break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static long integer(String s, int number) throws AssemblyException {
+        try {
+            long v;
+            if (s.startsWith("0x") || s.startsWith("0X")) {
+                v = Long.parseLong(s.substring(2), 16);
+            } else if (s.startsWith("-0x") || s.startsWith("-0X")) {
+                v = -Long.parseLong(s.substring(3), 16);
+            } else {
+                v = Long.parseLong(s);
+            }
+            if (v < Integer.MIN_VALUE || v > 0xffffffffL) {
+                throw new AssemblyException(number, "value out of range: " + s);
+            }
+            return v;
+        } catch (NumberFormatException e) {
+            throw new AssemblyException(number, "expected a number: " + s);
+        }
+    }
+
+    private static boolean isRegister(String s) {
+        return s.startsWith("$");
+    }
+
+    private static int register(String s, int number) throws AssemblyException {
+        Integer r = isRegister(s) ? REGISTERS.get(s.substring(1)) : null;
+        if (r == null) {
+            throw new AssemblyException(number, "unknown register " + s);
+        }
+        return r;
+    }
+
+    private static boolean fitsSigned(long v) {
+        return v >= -32768 && v <= 32767;
+    }
+
+    private static boolean fitsUnsigned(long v) {
+        return v >= 0 && v <= 65535;
+    }
+
+    private Instruction decode(Line l) throws AssemblyException {
+        String[] a = l.operands;
+        int n = l.number;
+        Opcode op = l.op;
+        switch (op) {
+            case ADD: case ADDU: case SUB: case SUBU: case AND: case OR: case XOR: case NOR:
+            case SLT: case SLTU: case MUL: case SLLV: case SRLV: case SRAV: {
+                expect(l, 3);
+                int rd = register(a[0], n);
+                int rs = register(a[1], n);
+                if (isRegister(a[2])) {
+                    int rt = register(a[2], n);
+                    return make(l, rd, rs, rt, 0, false, 1, bit(rs) | bit(rt));
+                }
+                // a pseudo-instruction with an immediate in place of rt
+                long imm = integer(a[2], n);
+                boolean logical = op == Opcode.AND || op == Opcode.OR || op == Opcode.XOR;
+                int size = (logical ? fitsUnsigned(imm) : fitsSigned(imm)) ? 1 : 3;
+                return make(l, rd, rs, 0, (int) imm, true, size, bit(rs));
+            }
+            case ADDI: case ADDIU: case SLTI: case SLTIU: case ANDI: case ORI: case XORI: {
+                expect(l, 3);
+                int rd = register(a[0], n);
+                int rs = register(a[1], n);
+                long imm = integer(a[2], n);
+                boolean logical = op == Opcode.ANDI || op == Opcode.ORI || op == Opcode.XORI;
+                int size = (logical ? fitsUnsigned(imm) : fitsSigned(imm)) ? 1 : 3;
+                return make(l, rd, rs, 0, (int) imm, true, size, bit(rs));
+            }
+            case SLL: case SRL: case SRA: {
+                expect(l, 3);
+                int rd = register(a[0], n);
+                int rs = register(a[1], n);
+                long shift = integer(a[2], n);
+                if (shift < 0 || shift > 31) {
+                    throw new AssemblyException(n, "bad shift amount " + a[2]);
+                }
+                return make(l, rd, rs, 0, (int) shift, true, 1, bit(rs));
+            }
+            case MULT: case MULTU: case DIV: case DIVU: {
+                expect(l, 2);
+                int rs = register(a[0], n);
+                int rt = register(a[1], n);
+                return make(l, 0, rs, rt, 0, false, 1, bit(rs) | bit(rt));
+            }
+            case MFLO: case MFHI:
+                expect(l, 1);
+                return make(l, register(a[0], n), 0, 0, 0, false, 1, 0);
+            case LUI: case LI: {
+                expect(l, 2);
+                long imm = integer(a[1], n);
+                int size = op == Opcode.LI && !fitsSigned(imm) && !fitsUnsigned(imm) ? 2 : 1;
+                return make(l, register(a[0], n), 0, 0, (int) (op == Opcode.LUI ? imm << 16 : imm), true, size, 0);
+            }
+            case LA: {
+                expect(l, 2);
+                Integer address = labels.get(a[1]);
+                if (address == null) {
+                    throw new AssemblyException(n, "undefined label " + a[1]);
+                }
+                return make(l, register(a[0], n), 0, 0, address, true, 2, 0);
+            }
+            case MOVE: {
+                expect(l, 2);
+                int rs = register(a[1], n);
+                return make(l, register(a[0], n), rs, 0, 0, false, 1, bit(rs));
+            }
+            case LW: case LB: case LBU: case SW: case SB: {
+                expect(l, 2);
+                Matcher m = MEMORY.matcher(a[1]);
+                if (!m.matches()) {
+                    throw new AssemblyException(n, "expected offset(register): " + a[1]);
+                }
+                long offset = m.group(1).isEmpty() ? 0 : integer(m.group(1), n);
+                int rs = register(m.group(2), n);
+                int r = register(a[0], n);
+                int size = fitsSigned(offset) ? 1 : 3;
+                if (op.isStore()) {
+                    return make(l, 0, rs, r, (int) offset, false, size, bit(rs) | bit(r));
+                }
+                return make(l, r, rs, 0, (int) offset, false, size, bit(rs));
+            }
+            case BEQ: case BNE: case BLT: case BGT: case BLE: case BGE: {
+                expect(l, 3);
+                int rs = register(a[0], n);
+                // beq and bne are one instruction, the others a slt and one of them
+                int size = op == Opcode.BEQ || op == Opcode.BNE ? 1 : 2;
+                Instruction in;
+                if (isRegister(a[1])) {
+                    int rt = register(a[1], n);
+                    in = make(l, 0, rs, rt, 0, false, size, bit(rs) | bit(rt));
+                } else {
+                    long imm = integer(a[1], n);
+                    in = make(l, 0, rs, 0, (int) imm, true, size + (fitsSigned(imm) ? 1 : 2), bit(rs));
+                }
+                in.target = target(a[2], n);
+                return in;
+            }
+            case BEQZ: case BNEZ: case BGTZ: case BLTZ: case BGEZ: case BLEZ: {
+                expect(l, 2);
+                int rs = register(a[0], n);
+                Instruction in = make(l, 0, rs, 0, 0, true, 1, bit(rs));
+                in.target = target(a[1], n);
+                return in;
+            }
+            case J: case JAL: {
+                expect(l, 1);
+                Instruction in = make(l, op == Opcode.JAL ? 31 : 0, 0, 0, 0, false, 1, 0);
+                in.target = target(a[0], n);
+                return in;
+            }
+            case JR: case JALR: {
+                expect(l, 1);
+                int rs = register(a[0], n);
+                return make(l, op == Opcode.JALR ? 31 : 0, rs, 0, 0, false, 1, bit(rs));
+            }
+            default:
+                // syscall reads its number and argument, and nop nothing
+                expect(l, 0);
+                return make(l, 0, 0, 0, 0, false, 1, op == Opcode.SYSCALL ? bit(2) | bit(4) : 0);
+        }
+    }
+
+    private static int bit(int register) {
+        return register == 0 ? 0 : 1 << register;
+    }
+
+    private static void expect(Line l, int count) throws AssemblyException {
+        if (l.operands.length != count) {
+            throw new AssemblyException(l.number, l.op + " takes " + count + " operands: " + l.text);
+        }
+    }
+
+    private int target(String label, int number) throws AssemblyException {
+        Integer i = textLabels.get(label);
+        if (i == null) {
+            throw new AssemblyException(number, "undefined label " + label);
+        }
+        return i;
+    }
+
+    private static Instruction make(Line l, int rd, int rs, int rt, int imm, boolean immediate, int size, int reads) {
+        return new Instruction(l.op, rd, rs, rt, imm, immediate, size, reads, l.number, l.text);
+    }
+}
@@ -0,0 +1,16 @@
+package sim;
+
+/**
+ * An error in the assembly given to the simulator, at a line of it.
+ */
+public class AssemblyException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public final int line;
+
+    public AssemblyException(int line, String message) {
+        super("line " + line + ": " + message);
+        this.line = line;
+    }
+}
@@ -0,0 +1,33 @@
+package sim;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An assembled program: its instructions, the initial contents of its data
+ * segment, and the addresses of its labels. Execution starts at the first
+ * instruction.
+ */
+public class Executable {
+
+    // where the segments start, as in MARS
+    public static final int TEXT_BASE = 0x00400000;
+    public static final int DATA_BASE = 0x10010000;
+
+    public final List<Instruction> text;
+    public final byte[] data;
+    public final Map<String, Integer> labels;
+
+    public Executable(List<Instruction> text, byte[] data, Map<String, Integer> labels) {
+        this.text = text;
+        this.data = data;
+        this.labels = labels;
+    }
+
+    /**
+     * @return the address of the instruction at index i
+     */
+    public static int addressOf(int i) {
+        return TEXT_BASE + 4 * i;
+    }
+}
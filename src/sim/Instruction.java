@@ -0,0 +1,45 @@
+package sim;
+
+/**
+ * An assembled instruction, with its operands decoded: registers by number,
+ * immediates and load/store offsets in imm, and branch and jump targets as
+ * the index of the instruction they go to.
+ */
+public class Instruction {
+
+    public final Opcode op;
+    public final int rd;
+    public final int rs;
+    public final int rt;
+    public final int imm;
+    // whether the last source operand is imm rather than register rt
+    public final boolean immediate;
+    public int target;
+
+    // the machine instructions a pseudo-instruction stands for, 1 for the others
+    public final int size;
+    // the registers read, one bit each
+    public final int reads;
+
+    public final int line;
+    public final String text;
+
+    public Instruction(Opcode op, int rd, int rs, int rt, int imm, boolean immediate, int size, int reads,
+                       int line, String text) {
+        this.op = op;
+        this.rd = rd;
+        this.rs = rs;
+        this.rt = rt;
+        this.imm = imm;
+        this.immediate = immediate;
+        this.size = size;
+        this.reads = reads;
+        this.line = line;
+        this.text = text;
+        this.target = -1;
+    }
+
+    public String toString() {
+        return text;
+    }
+}
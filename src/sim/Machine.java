@@ -0,0 +1,325 @@
+package sim;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Runs an Executable, counting what it does in Statistics.
+ *
+ * Memory is laid out as in MARS: the data segment at 0x10010000, the heap
+ * of sbrk (syscall 9) from 0x10040000 or the end of the data if it is
+ * larger, and the stack below 0x7fffeffc. The syscalls are those of MARS
+ * that the library of the compiler uses: print_int (1), print_string (4),
+ * read_int (5), sbrk (9), exit (10), print_char (11), read_char (12) and
+ * exit2 (17). Like MARS, read_int reads a whole line.
+ *
+ * The program stops at an exit syscall or when it runs off the end of its
+ * text.
+ */
+public class Machine {
+
+    private static final int HEAP_BASE = 0x10040000;
+    private static final int STACK_TOP = 0x7fffeffc;
+    private static final int GLOBAL_POINTER = 0x10008000;
+
+    private static final int V0 = 2;
+    private static final int A0 = 4;
+
+    private final Executable program;
+    private final Memory memory = new Memory();
+    private final Reader input;
+    private final PrintStream output;
+
+    private final int[] r = new int[32];
+    private int hi;
+    private int lo;
+    private int heap;
+    private int exitCode;
+
+    private final Statistics stats = new Statistics();
+
+    public Machine(Executable program, Reader in, PrintStream out) {
+        this.program = program;
+        this.input = in;
+        this.output = out;
+        for (int i = 0; i < program.data.length; i++) {
+            memory.storeByte(Executable.DATA_BASE + i, program.data[i]);
+        }
+        heap = Math.max(HEAP_BASE, (Executable.DATA_BASE + program.data.length + 3) & ~3);
+        r[29] = STACK_TOP;
+        r[28] = GLOBAL_POINTER;
+    }
+
+    /**
+     * @return the status the program exited with, 0 unless it used exit2
+     */
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * Runs the program to its end, or until it has executed limit
+     * instructions.
+     */
+    public Statistics run(long limit) throws IOException {
+        List<Instruction> text = program.text;
+        int[] r = this.r;
+        int pc = 0;
+        // the register the last instruction loaded, for the load-use stalls
+        int loaded = 0;
+
+        while (pc >= 0 && pc < text.size()) {
+            if (stats.instructions == limit) {
+                throw new SimulationException("stopped after " + limit + " instructions");
+            }
+            Instruction in = text.get(pc);
+            pc++;
+            stats.instructions++;
+            stats.cycles += in.size;
+            if ((in.reads & (1 << loaded)) != 0 && loaded != 0) {
+                stats.cycles += Statistics.LOAD_USE_PENALTY;
+            }
+            loaded = 0;
+
+            int b = in.immediate ? in.imm : r[in.rt];
+            int next = -1;
+            switch (in.op) {
+                case ADD: case ADDU: case ADDI: case ADDIU:
+                    r[in.rd] = r[in.rs] + b;
+                    break;
+                case SUB: case SUBU:
+                    r[in.rd] = r[in.rs] - b;
+                    break;
+                case MUL:
+                    r[in.rd] = r[in.rs] * b;
+                    stats.cycles += Statistics.MULTIPLY_LATENCY;
+                    break;
+                case MULT: {
+                    long p = (long) r[in.rs] * r[in.rt];
+                    lo = (int) p;
+                    hi = (int) (p >> 32);
+                    stats.cycles += Statistics.MULTIPLY_LATENCY;
+                    break;
+                }
+                case MULTU: {
+                    long p = (r[in.rs] & 0xffffffffL) * (r[in.rt] & 0xffffffffL);
+                    lo = (int) p;
+                    hi = (int) (p >> 32);
+                    stats.cycles += Statistics.MULTIPLY_LATENCY;
+                    break;
+                }
+                case DIV:
+                    if (r[in.rt] == 0) {
+                        throw error(in, "division by zero");
+                    }
+                    lo = r[in.rs] / r[in.rt];
+                    hi = r[in.rs] % r[in.rt];
+                    stats.cycles += Statistics.DIVIDE_LATENCY;
+                    break;
+                case DIVU:
+                    if (r[in.rt] == 0) {
+                        throw error(in, "division by zero");
+                    }
+                    lo = (int) ((r[in.rs] & 0xffffffffL) / (r[in.rt] & 0xffffffffL));
+                    hi = (int) ((r[in.rs] & 0xffffffffL) % (r[in.rt] & 0xffffffffL));
+                    stats.cycles += Statistics.DIVIDE_LATENCY;
+                    break;
+                case MFLO:
+                    r[in.rd] = lo;
+                    break;
+                case MFHI:
+                    r[in.rd] = hi;
+                    break;
+                case AND: case ANDI:
+                    r[in.rd] = r[in.rs] & b;
+                    break;
+                case OR: case ORI:
+                    r[in.rd] = r[in.rs] | b;
+                    break;
+                case XOR: case XORI:
+                    r[in.rd] = r[in.rs] ^ b;
+                    break;
+                case NOR:
+                    r[in.rd] = ~(r[in.rs] | b);
+                    break;
+                case SLL: case SLLV:
+                    r[in.rd] = r[in.rs] << (b & 31);
+                    break;
+                case SRL: case SRLV:
+                    r[in.rd] = r[in.rs] >>> (b & 31);
+                    break;
+                case SRA: case SRAV:
+                    r[in.rd] = r[in.rs] >> (b & 31);
+                    break;
+                case SLT: case SLTI:
+                    r[in.rd] = r[in.rs] < b ? 1 : 0;
+                    break;
+                case SLTU: case SLTIU:
+                    r[in.rd] = (r[in.rs] ^ Integer.MIN_VALUE) < (b ^ Integer.MIN_VALUE) ? 1 : 0;
+                    break;
+                case LUI: case LI: case LA:
+                    r[in.rd] = in.imm;
+                    break;
+                case MOVE:
+                    r[in.rd] = r[in.rs];
+                    break;
+                case LW:
+                    r[in.rd] = memory.loadWord(address(in));
+                    stats.loads++;
+                    loaded = in.rd;
+                    break;
+                case LB:
+                    r[in.rd] = memory.loadByte(address(in));
+                    stats.loads++;
+                    loaded = in.rd;
+                    break;
+                case LBU:
+                    r[in.rd] = memory.loadByte(address(in)) & 0xff;
+                    stats.loads++;
+                    loaded = in.rd;
+                    break;
+                case SW:
+                    memory.storeWord(address(in), r[in.rt]);
+                    stats.stores++;
+                    break;
+                case SB:
+                    memory.storeByte(address(in), r[in.rt]);
+                    stats.stores++;
+                    break;
+                case BEQ:  next = branch(r[in.rs] == b, in); break;
+                case BNE:  next = branch(r[in.rs] != b, in); break;
+                case BLT:  next = branch(r[in.rs] < b, in); break;
+                case BGT:  next = branch(r[in.rs] > b, in); break;
+                case BLE:  next = branch(r[in.rs] <= b, in); break;
+                case BGE:  next = branch(r[in.rs] >= b, in); break;
+                case BEQZ: next = branch(r[in.rs] == 0, in); break;
+                case BNEZ: next = branch(r[in.rs] != 0, in); break;
+                case BGTZ: next = branch(r[in.rs] > 0, in); break;
+                case BLTZ: next = branch(r[in.rs] < 0, in); break;
+                case BGEZ: next = branch(r[in.rs] >= 0, in); break;
+                case BLEZ: next = branch(r[in.rs] <= 0, in); break;
+                case J:
+                    next = in.target;
+                    break;
+                case JAL:
+                    r[31] = Executable.addressOf(pc);
+                    next = in.target;
+                    break;
+                case JR: case JALR: {
+                    int target = r[in.rs];
+                    if (in.op == Opcode.JALR) {
+                        r[31] = Executable.addressOf(pc);
+                    }
+                    if ((target & 3) != 0 || target < Executable.TEXT_BASE
+                            || target > Executable.addressOf(text.size())) {
+                        throw error(in, "jump to " + Memory.hex(target) + ", outside the text segment");
+                    }
+                    next = (target - Executable.TEXT_BASE) / 4;
+                    break;
+                }
+                case SYSCALL:
+                    stats.syscalls++;
+                    if (!syscall(in)) {
+                        output.flush();
+                        return stats;
+                    }
+                    break;
+                case NOP:
+                    break;
+            }
+            r[0] = 0;
+
+            if (next >= 0) {
+                if (in.op.isJump()) {
+                    stats.jumps++;
+                }
+                stats.cycles += Statistics.BRANCH_PENALTY;
+                pc = next;
+            }
+        }
+        output.flush();
+        return stats;
+    }
+
+    private int address(Instruction in) {
+        return r[in.rs] + in.imm;
+    }
+
+    // the target of a conditional branch if taken, else -1
+    private int branch(boolean taken, Instruction in) {
+        stats.branches++;
+        if (taken) {
+            stats.taken++;
+            return in.target;
+        }
+        return -1;
+    }
+
+    private SimulationException error(Instruction in, String message) {
+        return new SimulationException("line " + in.line + " (" + in.text.trim() + "): " + message);
+    }
+
+    /**
+     * @return false if the program exits
+     */
+    private boolean syscall(Instruction in) throws IOException {
+        switch (r[V0]) {
+            case 1:
+                output.print(r[A0]);
+                return true;
+            case 4: {
+                for (int a = r[A0]; memory.loadByte(a) != 0; a++) {
+                    output.print((char) (memory.loadByte(a) & 0xff));
+                }
+                return true;
+            }
+            case 5: {
+                String line = readLine();
+                try {
+                    r[V0] = Integer.parseInt(line.trim());
+                } catch (NumberFormatException e) {
+                    throw error(in, "read_int: not an integer: " + line.trim());
+                }
+                return true;
+            }
+            case 9: {
+                r[V0] = heap;
+                heap = (heap + r[A0] + 3) & ~3;
+                return true;
+            }
+            case 10:
+                return false;
+            case 11:
+                output.print((char) (r[A0] & 0xff));
+                return true;
+            case 12: {
+                int c = input.read();
+                if (c < 0) {
+                    throw error(in, "read_char: end of the input");
+                }
+                r[V0] = c;
+                return true;
+            }
+            case 17:
+                exitCode = r[A0];
+                return false;
+            default:
+                throw error(in, "unsupported syscall " + r[V0]);
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c = input.read();
+        if (c < 0) {
+            throw new SimulationException("read_int: end of the input");
+        }
+        while (c >= 0 && c != '\n') {
+            sb.append((char) c);
+            c = input.read();
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package sim;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The byte addressed, little endian memory of the machine, allocated in pages
+ * as it is written. Memory never written reads as zero.
+ */
+public class Memory {
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private final Map<Integer, byte[]> pages = new HashMap<Integer, byte[]>();
+
+    // the page used last, as most accesses go to the same few
+    private int lastNumber = -1;
+    private byte[] lastPage;
+
+    private byte[] page(int address, boolean create) {
+        int number = address >>> PAGE_BITS;
+        if (number == lastNumber) {
+            return lastPage;
+        }
+        byte[] page = pages.get(number);
+        if (page == null) {
+            if (!create) {
+                return null;
+            }
+            page = new byte[PAGE_SIZE];
+            pages.put(number, page);
+        }
+        lastNumber = number;
+        lastPage = page;
+        return page;
+    }
+
+    public int loadByte(int address) {
+        byte[] page = page(address, false);
+        return page == null ? 0 : page[address & (PAGE_SIZE - 1)];
+    }
+
+    public void storeByte(int address, int value) {
+        page(address, true)[address & (PAGE_SIZE - 1)] = (byte) value;
+    }
+
+    public int loadWord(int address) {
+        if ((address & 3) != 0) {
+            throw new SimulationException("unaligned word load at " + hex(address));
+        }
+        byte[] page = page(address, false);
+        if (page == null) {
+            return 0;
+        }
+        int i = address & (PAGE_SIZE - 1);
+        return (page[i] & 0xff) | (page[i + 1] & 0xff) << 8 | (page[i + 2] & 0xff) << 16 | page[i + 3] << 24;
+    }
+
+    public void storeWord(int address, int value) {
+        if ((address & 3) != 0) {
+            throw new SimulationException("unaligned word store at " + hex(address));
+        }
+        byte[] page = page(address, true);
+        int i = address & (PAGE_SIZE - 1);
+        page[i] = (byte) value;
+        page[i + 1] = (byte) (value >> 8);
+        page[i + 2] = (byte) (value >> 16);
+        page[i + 3] = (byte) (value >> 24);
+    }
+
+    static String hex(int address) {
+        return String.format("0x%08x", address);
+    }
+}
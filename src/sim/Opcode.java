@@ -0,0 +1,57 @@
+package sim;
+
+/**
+ * The instructions the simulator runs: the MIPS32 integer instructions the
+ * compiler emits and the MARS pseudo-instructions among them (li, la, move,
+ * blt...), which are run as they are written.
+ */
+public enum Opcode {
+    ADD, ADDU, ADDI, ADDIU, SUB, SUBU,
+    MUL, MULT, MULTU, DIV, DIVU, MFLO, MFHI,
+    AND, ANDI, OR, ORI, XOR, XORI, NOR,
+    SLL, SRL, SRA, SLLV, SRLV, SRAV,
+    SLT, SLTI, SLTU, SLTIU,
+    LUI, LI, LA, MOVE,
+    LW, LB, LBU, SW, SB,
+    BEQ, BNE, BLT, BGT, BLE, BGE,
+    BEQZ, BNEZ, BGTZ, BLTZ, BGEZ, BLEZ,
+    J, JAL, JR, JALR,
+    SYSCALL, NOP;
+
+    /**
+     * @return the opcode written as name in assembly, null if there is none
+     */
+    public static Opcode of(String name) {
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public boolean isLoad() {
+        return this == LW || this == LB || this == LBU;
+    }
+
+    public boolean isStore() {
+        return this == SW || this == SB;
+    }
+
+    /**
+     * @return whether the instruction is a conditional branch
+     */
+    public boolean isBranch() {
+        return ordinal() >= BEQ.ordinal() && ordinal() <= BLEZ.ordinal();
+    }
+
+    /**
+     * @return whether the instruction is an unconditional jump
+     */
+    public boolean isJump() {
+        return ordinal() >= J.ordinal() && ordinal() <= JALR.ordinal();
+    }
+
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
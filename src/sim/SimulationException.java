@@ -0,0 +1,14 @@
+package sim;
+
+/**
+ * An error of the program being simulated, such as an unaligned word access,
+ * a division by zero or a jump out of the text segment.
+ */
+public class SimulationException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public SimulationException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,123 @@
+package sim;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+
+/**
+ * Runs the assembly written by the compiler, for measuring the code it
+ * generates without MARS:
+ *
+ *   java -cp bin sim.Simulator [options] file.s
+ *
+ * The program reads from the standard input and writes to the standard
+ * output; the statistics of the run go to the standard error. The options
+ * are any of:
+ *
+ *   -stats  print the statistics of the run (see Statistics)
+ *   -json   print them as a JSON object instead
+ *   -input file  read the input of the program from file
+ *   -limit n     stop with an error after n instructions
+ */
+public class Simulator {
+    private static final int FILE_NOT_FOUND  = 2;
+    private static final int ASSEMBLY_FAIL   = 3;
+    private static final int SIMULATION_FAIL = 4;
+
+    private static void usage() {
+        System.out.println("Usage: java " + Simulator.class.getName() + " [options] file.s");
+        System.out.println("where options are any of:");
+        System.out.println("  -stats   print the instructions, cycles, loads, stores and branches executed");
+        System.out.println("  -json    print the same as a JSON object");
+        System.out.println("  -input file  read the input of the program from file rather than stdin");
+        System.out.println("  -limit n     stop after n instructions");
+        System.exit(-1);
+    }
+
+    public static void main(String[] args) {
+        boolean stats = false;
+        boolean json = false;
+        String input = null;
+        long limit = Long.MAX_VALUE;
+
+        int arg = 0;
+        while (arg < args.length - 1) {
+            switch (args[arg]) {
+                case "-stats": stats = true; break;
+                case "-json": json = true; break;
+                case "-input":
+                    if (++arg == args.length - 1) {
+                        usage();
+                    }
+                    input = args[arg];
+                    break;
+                case "-limit":
+                    if (++arg == args.length - 1) {
+                        usage();
+                    }
+                    try {
+                        limit = Long.parseLong(args[arg]);
+                    } catch (NumberFormatException e) {
+                        usage();
+                    }
+                    break;
+                default:
+                    usage();
+                    break;
+            }
+            arg++;
+        }
+        if (args.length - arg != 1) {
+            usage();
+        }
+
+        Executable program;
+        Reader in;
+        try {
+            program = Assembler.assemble(new FileReader(new File(args[arg])));
+            in = input == null ? new InputStreamReader(System.in) : new FileReader(new File(input));
+        } catch (FileNotFoundException e) {
+            System.err.println(e.getMessage());
+            System.exit(FILE_NOT_FOUND);
+            return;
+        } catch (AssemblyException e) {
+            System.err.println("assembly error: " + e.getMessage());
+            System.exit(ASSEMBLY_FAIL);
+            return;
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(FILE_NOT_FOUND);
+            return;
+        }
+
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false);
+        Machine machine = new Machine(program, new BufferedReader(in), out);
+        Statistics result;
+        try {
+            result = machine.run(limit);
+        } catch (SimulationException e) {
+            out.flush();
+            System.err.println("simulation error: " + e.getMessage());
+            System.exit(SIMULATION_FAIL);
+            return;
+        } catch (IOException e) {
+            out.flush();
+            e.printStackTrace();
+            System.exit(SIMULATION_FAIL);
+            return;
+        }
+
+        if (json) {
+            System.err.println(result.toJson());
+        } else if (stats) {
+            System.err.print(result);
+        }
+        System.exit(machine.getExitCode());
+    }
+}
@@ -0,0 +1,50 @@
+package sim;
+
+/**
+ * What a run of the simulator counted.
+ *
+ * The cycle count is an estimate for a classic five stage pipeline without
+ * branch delay slots: every machine instruction takes a cycle (the
+ * pseudo-instructions as many as they expand to), a taken branch or a jump
+ * loses the cycle of the instruction fetched after it, an instruction
+ * reading the register loaded by the one before it stalls for a cycle, and
+ * multiplications and divisions hold the pipeline for the latency of the
+ * multiplier.
+ */
+public class Statistics {
+
+    public static final int BRANCH_PENALTY = 1;
+    public static final int LOAD_USE_PENALTY = 1;
+    public static final int MULTIPLY_LATENCY = 4;
+    public static final int DIVIDE_LATENCY = 32;
+
+    public long instructions;
+    public long cycles;
+    public long loads;
+    public long stores;
+    public long branches;
+    public long taken;
+    public long jumps;
+    public long syscalls;
+
+    public String toString() {
+        return "instructions: " + instructions + "\n"
+             + "cycles:       " + cycles + "\n"
+             + "loads:        " + loads + "\n"
+             + "stores:       " + stores + "\n"
+             + "branches:     " + branches + " (" + taken + " taken)\n"
+             + "jumps:        " + jumps + "\n"
+             + "syscalls:     " + syscalls + "\n";
+    }
+
+    public String toJson() {
+        return "{\"instructions\": " + instructions
+             + ", \"cycles\": " + cycles
+             + ", \"loads\": " + loads
+             + ", \"stores\": " + stores
+             + ", \"branches\": " + branches
+             + ", \"taken\": " + taken
+             + ", \"jumps\": " + jumps
+             + ", \"syscalls\": " + syscalls + "}";
+    }
+}
@@ -0,0 +1,155 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Table of canonical identifier and literal strings of one compilation.
+ *
+ * Every identifier a Tokeniser hands out goes through its table, so two
+ * occurrences of the same name are the same String instance. The table is
+ * owned by the Tokeniser and shared with the TokenTape, the Parser and the
+ * Scope of name analysis, which enters the names of the built-in functions
+ * in it. Lookups by character range do not allocate when the name has been
+ * seen before, and the table goes away with the compilation.
+ *
+ * Each distinct string also gets a small integer id, which lets the token tape
+ * refer to lexemes without holding object references.
+ */
+public final class InternTable {
+
+    // open-addressed index: slot -> id + 1, 0 marks an empty slot
+    private int[] slots = new int[1024];
+
+    // indexed by id; entries are only ever appended and byId is replaced when it grows
+    private volatile String[] byId = new String[512];
+    private char[][] keys = new char[512][];
+    private int[] hashes = new int[512];
+    private int count = 0;
+
+    public InternTable() {
+    }
+
+    /**
+     * Returns the canonical instance of the string formed by the given range of characters.
+     */
+    public String intern(char[] chars, int offset, int length) {
+        return get(id(chars, offset, length));
+    }
+
+    /**
+     * Same as intern(chars, offset, length) for callers that already computed
+     * hash, which must be the String.hashCode() of the range.
+     */
+    public String intern(char[] chars, int offset, int length, int hash) {
+        return get(id(chars, offset, length, hash));
+    }
+
+    /**
+     * Returns the canonical instance of s.
+     */
+    public String intern(String s) {
+        return intern(s.toCharArray(), 0, s.length());
+    }
+
+    /**
+     * Returns the id of the string formed by the given range of characters,
+     * entering it into the table if needed.
+     */
+    public int id(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[offset + i];
+        }
+        return id(chars, offset, length, hash);
+    }
+
+    /**
+     * Same as id(chars, offset, length) with a precomputed String.hashCode() of the range.
+     */
+    public synchronized int id(char[] chars, int offset, int length, int hash) {
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            int id = entry - 1;
+            if (hashes[id] == hash && matches(keys[id], chars, offset, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        String s = new String(chars, offset, length);
+        return insert(slot, s, hash);
+    }
+
+    /**
+     * Returns the string with the given id. Ids handed out by id() remain valid
+     * for the lifetime of the table and may be read from any thread that
+     * obtained them.
+     */
+    public String get(int id) {
+        return byId[id];
+    }
+
+    /**
+     * Returns the number of distinct names in the table.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    private static boolean matches(char[] key, char[] chars, int offset, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int insert(int slot, String s, int hash) {
+        int id = count;
+        if (id == hashes.length) {
+            String[] grownById = new String[id * 2];
+            System.arraycopy(byId, 0, grownById, 0, id);
+            keys = Arrays.copyOf(keys, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+            grownById[id] = s;
+            byId = grownById;
+        } else {
+            byId[id] = s;
+        }
+        keys[id] = s.toCharArray();
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        count++;
+
+        if (count * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < count; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    // spread the bits of String.hashCode-style hashes before masking
+    private static int mix(int h) {
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+}
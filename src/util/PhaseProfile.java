@@ -0,0 +1,212 @@
+package util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records what the phases of a compilation cost: wall time, CPU time and
+ * bytes allocated by the calling thread (through the ThreadMXBean of the
+ * JVM), and the peaks of the heap memory pools while the phase ran. A phase
+ * is measured from begin to end, and a phase run several times, as in the
+ * streaming compilation, adds up.
+ *
+ * The pool peaks are added up, but the collector need not have reached
+ * them at the same moment, so their sum is an upper bound of the peak heap
+ * rather than the peak heap itself; it is reported as such. CPU time and
+ * allocated bytes are those of the thread calling begin and end only: a
+ * phase that hands work to other threads must say so when it begins, and it
+ * is then marked callingThreadOnly. They are reported as null when the JVM
+ * cannot measure them (allocation is only measured through the
+ * com.sun.management extension of ThreadMXBean).
+ *
+ * A profile that is not enabled records nothing, so that the phases can be
+ * marked whether or not they are measured.
+ */
+public class PhaseProfile {
+
+    private static final class Phase {
+        long wall;
+        long cpu;
+        long allocated;
+        long sumOfPoolPeaks;
+        int runs;
+        boolean callingThreadOnly;
+    }
+
+    private final boolean enabled;
+    private final ThreadMXBean threads;
+    private final boolean cpuSupported;
+    // null when the JVM cannot count the bytes a thread allocates
+    private final com.sun.management.ThreadMXBean allocation;
+    private final List<MemoryPoolMXBean> heap = new ArrayList<MemoryPoolMXBean>();
+    private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+
+    // the phase being measured and the counters when it began
+    private Phase current;
+    private long wallStart;
+    private long cpuStart;
+    private long allocatedStart;
+
+    public PhaseProfile(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            threads = null;
+            cpuSupported = false;
+            allocation = null;
+            return;
+        }
+        threads = ManagementFactory.getThreadMXBean();
+        cpuSupported = threads.isCurrentThreadCpuTimeSupported();
+        if (cpuSupported && !threads.isThreadCpuTimeEnabled()) {
+            threads.setThreadCpuTimeEnabled(true);
+        }
+        if (threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            allocation = (com.sun.management.ThreadMXBean) threads;
+            allocation.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            allocation = null;
+        }
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                heap.add(pool);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return whether the CPU time of the phases is measured
+     */
+    public boolean isCpuTimeSupported() {
+        return cpuSupported;
+    }
+
+    /**
+     * @return whether the bytes allocated by the phases are measured
+     */
+    public boolean isAllocationSupported() {
+        return allocation != null;
+    }
+
+    public void begin(String name) {
+        begin(name, false);
+    }
+
+    /**
+     * Starts measuring the phase name. A phase that runs on other threads as
+     * well as the calling one is begun with callingThreadOnly set, since its
+     * CPU time and allocated bytes do not count them.
+     */
+    public void begin(String name, boolean callingThreadOnly) {
+        if (!enabled) {
+            return;
+        }
+        if (current != null) {
+            throw new IllegalStateException("a phase is already being measured");
+        }
+        current = phases.get(name);
+        if (current == null) {
+            current = new Phase();
+            phases.put(name, current);
+        }
+        current.callingThreadOnly |= callingThreadOnly;
+        for (MemoryPoolMXBean pool : heap) {
+            pool.resetPeakUsage();
+        }
+        if (allocation != null) {
+            allocatedStart = allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        if (cpuSupported) {
+            cpuStart = threads.getCurrentThreadCpuTime();
+        }
+        wallStart = System.nanoTime();
+    }
+
+    public void end() {
+        if (!enabled) {
+            return;
+        }
+        long wall = System.nanoTime() - wallStart;
+        if (cpuSupported) {
+            current.cpu += threads.getCurrentThreadCpuTime() - cpuStart;
+        }
+        if (allocation != null) {
+            current.allocated += allocation.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedStart;
+        }
+        long sumOfPoolPeaks = 0;
+        for (MemoryPoolMXBean pool : heap) {
+            sumOfPoolPeaks += pool.getPeakUsage().getUsed();
+        }
+        current.wall += wall;
+        current.sumOfPoolPeaks = Math.max(current.sumOfPoolPeaks, sumOfPoolPeaks);
+        current.runs++;
+        current = null;
+    }
+
+    /**
+     * @return the total wall time of phase name, in nanoseconds
+     */
+    public long getWallNanos(String name) {
+        Phase p = phases.get(name);
+        return p == null ? 0 : p.wall;
+    }
+
+    /**
+     * @return the bytes allocated by phase name, or -1 if they are not
+     *         measured
+     */
+    public long getAllocatedBytes(String name) {
+        if (allocation == null) {
+            return -1;
+        }
+        Phase p = phases.get(name);
+        return p == null ? 0 : p.allocated;
+    }
+
+    /**
+     * @return the phases in the order they first ran, and their total, as
+     *         a JSON object
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        Phase total = new Phase();
+        sb.append("{\"phases\": [");
+        String delimiter = "";
+        for (Map.Entry<String, Phase> e : phases.entrySet()) {
+            Phase p = e.getValue();
+            sb.append(delimiter).append("\n  {\"phase\": \"").append(e.getKey()).append("\", ");
+            appendCounts(sb, p);
+            sb.append(", \"runs\": ").append(p.runs).append('}');
+            delimiter = ",";
+            total.wall += p.wall;
+            total.cpu += p.cpu;
+            total.allocated += p.allocated;
+            total.sumOfPoolPeaks = Math.max(total.sumOfPoolPeaks, p.sumOfPoolPeaks);
+            total.callingThreadOnly |= p.callingThreadOnly;
+        }
+        sb.append("],\n \"total\": {");
+        appendCounts(sb, total);
+        sb.append("}}\n");
+        return sb.toString();
+    }
+
+    private void appendCounts(StringBuilder sb, Phase p) {
+        sb.append("\"wallNanos\": ").append(p.wall)
+          .append(", \"cpuNanos\": ").append(cpuSupported ? String.valueOf(p.cpu) : "null")
+          .append(", \"allocatedBytes\": ").append(allocation != null ? String.valueOf(p.allocated) : "null")
+          .append(", \"sumOfPoolPeaksBytes\": ").append(p.sumOfPoolPeaks);
+        if (p.callingThreadOnly) {
+            sb.append(", \"callingThreadOnly\": true");
+        }
+    }
+}
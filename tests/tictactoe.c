@@ -137,7 +137,6 @@ int set(char row, int col, char mark) {
 
 // Prints the game board to stdout
 void printGame() {
-<<<<<<< HEAD
   print_s((char*) "\n");
   print_s((char*) "     1   2   3\n");
   print_s((char*) "   +---+---+---+\n");
@@ -152,22 +151,6 @@ void printGame() {
 
 void printWinner(int player) {
   print_s((char*) "Player ");print_i(player);print_s((char*) " has won!\n");
-=======
-  print_s((char*)"\n");
-  print_s((char*)"     1   2   3\n");
-  print_s((char*)"   +---+---+---+\n");
-  print_s((char*)"a  | ");print_c(a11);print_s((char*)" | ");print_c(a12);print_s((char*)" | ");print_c(a13);print_s((char*)" |\n");
-  print_s((char*)"   +---+---+---+\n");
-  print_s((char*)"b  | ");print_c(a21);print_s((char*)" | ");print_c(a22);print_s((char*)" | ");print_c(a23);print_s((char*)" |\n");
-  print_s((char*)"   +---+---+---+\n");
-  print_s((char*)"c  | ");print_c(a31);print_s((char*)" | ");print_c(a32);print_s((char*)" | ");print_c(a33);print_s((char*)" |\n");
-  print_s((char*)"   +---+---+---+\n");
-  print_s((char*)"\n");
-}
-
-void printWinner(int player) {
-  print_s((char*)"Player ");print_i(player);print_s((char*)" has won!\n");
->>>>>>> 577af3bd2573ed6940f158ef022c71837966b3bc
 }
 
 int switchPlayer(int currentPlayer) {
@@ -189,28 +172,17 @@ void selectmove(int player) {
   char mark;
   selected = 1;
   while(selected) {
-<<<<<<< HEAD
     print_s((char*) "Player ");print_i(player);print_s((char*) " select move (e.g. a2)>");
-=======
-    print_s((char*)"Player ");print_i(player);print_s((char*)" select move (e.g. a2)>");
->>>>>>> 577af3bd2573ed6940f158ef022c71837966b3bc
     row = read_c(); col = read_i();
 
     mark = get_mark(player);
     // print_c(row); print_i(col);print_s((char *)"\n");
     success = set(row,col,mark);
       if (success == 0) {
-<<<<<<< HEAD
       	 print_s((char*) "That is not a valid move!\n");
       } else {
         if (success == -1)
 	  print_s((char*) "That move is not possible!\n");
-=======
-      	 print_s((char*)"That is not a valid move!\n");
-      } else {
-        if (success == -1)
-	  print_s((char*)"That move is not possible!\n");
->>>>>>> 577af3bd2573ed6940f158ef022c71837966b3bc
         else
 	  selected = 0;
       }
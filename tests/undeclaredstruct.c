@@ -0,0 +1 @@
+void main() { int i; i = sizeof(struct nope) + 1; print_i(i); }